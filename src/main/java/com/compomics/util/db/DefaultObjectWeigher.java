@@ -0,0 +1,246 @@
+package com.compomics.util.db;
+
+import com.compomics.util.db.codecs.ObjectCodecRegistry;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Default weigher of the objects cache. The size of the matches is estimated
+ * from the number of assumptions and keys they contain. The size of the other
+ * objects is estimated from the serialized size of a sample of the objects of
+ * their class.
+ *
+ * @author Marc Vaudel
+ */
+public class DefaultObjectWeigher implements ObjectWeigher {
+
+    /**
+     * Estimated size in bytes of an object header with its cache entry.
+     */
+    public static final long OBJECT_OVERHEAD = 96;
+    /**
+     * Estimated size in bytes of a peptide assumption with its peptide, charge
+     * and scores, excluding the sequence.
+     */
+    public static final long ASSUMPTION_WEIGHT = 480;
+    /**
+     * Estimated ratio between the size of an object in memory and its
+     * serialized size.
+     */
+    public static final int HEAP_RATIO = 3;
+    /**
+     * The number of objects of a class sampled before sampling only one object
+     * every SAMPLING_INTERVAL.
+     */
+    private static final int N_SAMPLES = 16;
+    /**
+     * The interval between two sampled objects of a class.
+     */
+    private static final int SAMPLING_INTERVAL = 1024;
+    /**
+     * The serialized size samples indexed by class.
+     */
+    private final ConcurrentHashMap<Class<?>, SizeSample> sizeSamples = new ConcurrentHashMap<Class<?>, SizeSample>();
+
+    /**
+     * Constructor.
+     */
+    public DefaultObjectWeigher() {
+    }
+
+    @Override
+    public long getWeight(Object object) {
+        if (object == null) {
+            return OBJECT_OVERHEAD;
+        }
+        if (object instanceof SpectrumMatch) {
+            return getWeight((SpectrumMatch) object);
+        }
+        if (object instanceof PeptideMatch) {
+            return getWeight((PeptideMatch) object);
+        }
+        if (object instanceof ProteinMatch) {
+            return getWeight((ProteinMatch) object);
+        }
+        if (object instanceof String) {
+            return getStringWeight((String) object);
+        }
+        return getSampledWeight(object);
+    }
+
+    /**
+     * Returns the estimated size of a spectrum match.
+     *
+     * @param spectrumMatch the spectrum match
+     *
+     * @return the estimated size of the spectrum match in bytes
+     */
+    private long getWeight(SpectrumMatch spectrumMatch) {
+        long weight = OBJECT_OVERHEAD + getStringWeight(spectrumMatch.getKey());
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = spectrumMatch.getAssumptionsMap();
+        if (assumptionsMap != null) {
+            for (HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap : assumptionsMap.values()) {
+                weight += OBJECT_OVERHEAD;
+                for (ArrayList<SpectrumIdentificationAssumption> assumptions : advocateMap.values()) {
+                    weight += OBJECT_OVERHEAD + ASSUMPTION_WEIGHT * assumptions.size();
+                }
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * Returns the estimated size of a peptide match.
+     *
+     * @param peptideMatch the peptide match
+     *
+     * @return the estimated size of the peptide match in bytes
+     */
+    private long getWeight(PeptideMatch peptideMatch) {
+        long weight = OBJECT_OVERHEAD + getStringWeight(peptideMatch.getKey());
+        Peptide peptide = peptideMatch.getTheoreticPeptide();
+        if (peptide != null) {
+            weight += ASSUMPTION_WEIGHT + getStringWeight(peptide.getSequence());
+        }
+        weight += getKeysWeight(peptideMatch.getSpectrumMatchesKeys());
+        return weight;
+    }
+
+    /**
+     * Returns the estimated size of a protein match.
+     *
+     * @param proteinMatch the protein match
+     *
+     * @return the estimated size of the protein match in bytes
+     */
+    private long getWeight(ProteinMatch proteinMatch) {
+        long weight = OBJECT_OVERHEAD + getStringWeight(proteinMatch.getKey());
+        weight += getKeysWeight(proteinMatch.getTheoreticProteinsAccessions());
+        weight += getKeysWeight(proteinMatch.getPeptideMatchesKeys());
+        return weight;
+    }
+
+    /**
+     * Returns the estimated size of a list of keys.
+     *
+     * @param keys the keys
+     *
+     * @return the estimated size of the keys in bytes
+     */
+    private long getKeysWeight(ArrayList<String> keys) {
+        if (keys == null) {
+            return 0;
+        }
+        long weight = OBJECT_OVERHEAD + 8 * keys.size();
+        for (String key : keys) {
+            weight += getStringWeight(key);
+        }
+        return weight;
+    }
+
+    /**
+     * Returns the estimated size of a string.
+     *
+     * @param string the string
+     *
+     * @return the estimated size of the string in bytes
+     */
+    private long getStringWeight(String string) {
+        if (string == null) {
+            return 0;
+        }
+        return 40 + 2 * string.length();
+    }
+
+    /**
+     * Returns the estimated size of an object based on the serialized size of
+     * the objects of the same class sampled so far.
+     *
+     * @param object the object
+     *
+     * @return the estimated size of the object in bytes
+     */
+    private long getSampledWeight(Object object) {
+        Class<?> objectClass = object.getClass();
+        SizeSample sizeSample = sizeSamples.get(objectClass);
+        if (sizeSample == null) {
+            SizeSample newSample = new SizeSample();
+            sizeSample = sizeSamples.putIfAbsent(objectClass, newSample);
+            if (sizeSample == null) {
+                sizeSample = newSample;
+            }
+        }
+        if (sizeSample.sample()) {
+            long size;
+            try {
+                size = ObjectCodecRegistry.getDefaultRegistry().encode(object).length;
+            } catch (Exception e) {
+                // not serializable, count the overhead only
+                size = 0;
+            }
+            sizeSample.add(size);
+        }
+        return OBJECT_OVERHEAD + HEAP_RATIO * sizeSample.getAverage();
+    }
+
+    /**
+     * The serialized sizes sampled for a class.
+     */
+    private static class SizeSample {
+
+        /**
+         * The number of objects weighed.
+         */
+        private final AtomicLong nObjects = new AtomicLong(0);
+        /**
+         * The number of objects sampled.
+         */
+        private long nSamples = 0;
+        /**
+         * The total serialized size of the objects sampled.
+         */
+        private long totalSize = 0;
+        /**
+         * The average serialized size of the objects sampled.
+         */
+        private volatile long average = 0;
+
+        /**
+         * Indicates whether the next object should be sampled.
+         *
+         * @return a boolean indicating whether the next object should be
+         * sampled
+         */
+        public boolean sample() {
+            long n = nObjects.incrementAndGet();
+            return n <= N_SAMPLES || n % SAMPLING_INTERVAL == 0;
+        }
+
+        /**
+         * Adds the size of a sampled object.
+         *
+         * @param size the serialized size of the object
+         */
+        public synchronized void add(long size) {
+            nSamples++;
+            totalSize += size;
+            average = totalSize / nSamples;
+        }
+
+        /**
+         * Returns the average serialized size of the objects sampled.
+         *
+         * @return the average serialized size of the objects sampled
+         */
+        public long getAverage() {
+            return average;
+        }
+    }
+}
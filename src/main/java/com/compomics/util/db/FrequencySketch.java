@@ -0,0 +1,158 @@
+package com.compomics.util.db;
+
+/**
+ * Count-min sketch estimating the access frequency of the objects of a cache
+ * with 4-bit counters. Every item is counted in four rows, the estimate is the
+ * minimum of the four counters. All counters are halved after a number of
+ * increments proportional to the capacity so that the frequencies reflect the
+ * recent accesses.
+ * <br>
+ * The counters are not updated atomically, concurrent increments may be lost.
+ * This only affects the accuracy of the estimates.
+ *
+ * @author Marc Vaudel
+ */
+public class FrequencySketch {
+
+    /**
+     * Seeds of the hash functions of the four rows.
+     */
+    private static final long[] SEEDS = new long[]{0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    /**
+     * The counters, eight counters of 4 bits per int.
+     */
+    private volatile int[] table;
+    /**
+     * The number of increments after which the counters are halved.
+     */
+    private volatile int sampleSize;
+    /**
+     * The number of increments since the last halving.
+     */
+    private int size = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the expected number of distinct items
+     */
+    public FrequencySketch(int capacity) {
+        allocate(capacity);
+    }
+
+    /**
+     * Increases the capacity of the sketch if lower than the given number of
+     * items. The frequencies are reset when the capacity is increased.
+     *
+     * @param capacity the expected number of distinct items
+     */
+    public synchronized void ensureCapacity(int capacity) {
+        if (table.length < capacity) {
+            allocate(capacity);
+        }
+    }
+
+    /**
+     * Allocates the counters for the given capacity.
+     *
+     * @param capacity the expected number of distinct items
+     */
+    private void allocate(int capacity) {
+        int length = 16;
+        while (length < capacity && length < (1 << 30)) {
+            length <<= 1;
+        }
+        sampleSize = 10 * Math.min(length, 1 << 26);
+        size = 0;
+        table = new int[length];
+    }
+
+    /**
+     * Records an access to the item of the given hash code.
+     *
+     * @param hashCode the hash code of the item
+     */
+    public void increment(int hashCode) {
+        int[] counters = table;
+        int hash = spread(hashCode);
+        int start = (hash & 1) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(counters, hash, i);
+            int offset = (start + i) << 2;
+            int mask = 0xf << offset;
+            if ((counters[index] & mask) != mask) {
+                counters[index] += 1 << offset;
+                added = true;
+            }
+        }
+        if (added && ++size >= sampleSize) {
+            reset(counters);
+        }
+    }
+
+    /**
+     * Returns the estimated number of recent accesses to the item of the given
+     * hash code, between 0 and 15.
+     *
+     * @param hashCode the hash code of the item
+     *
+     * @return the estimated frequency of the item
+     */
+    public int frequency(int hashCode) {
+        int[] counters = table;
+        int hash = spread(hashCode);
+        int start = (hash & 1) << 2;
+        int frequency = 0xf;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(counters, hash, i);
+            int count = (counters[index] >>> ((start + i) << 2)) & 0xf;
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Halves all counters.
+     *
+     * @param counters the counters to halve
+     */
+    private synchronized void reset(int[] counters) {
+        if (counters != table || size < sampleSize) {
+            // already reset or reallocated by another thread
+            return;
+        }
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = (counters[i] >>> 1) & 0x77777777;
+        }
+        size = sampleSize / 2;
+    }
+
+    /**
+     * Returns the index of the counters of the given row.
+     *
+     * @param counters the counters
+     * @param hash the spread hash of the item
+     * @param row the row
+     *
+     * @return the index of the counters in the table
+     */
+    private static int indexOf(int[] counters, int hash, int row) {
+        long result = (hash + SEEDS[row]) * SEEDS[row];
+        result += result >>> 32;
+        return ((int) result) & (counters.length - 1);
+    }
+
+    /**
+     * Applies a supplementary hash function to the given hash code.
+     *
+     * @param hashCode the hash code
+     *
+     * @return the spread hash
+     */
+    private static int spread(int hashCode) {
+        int hash = ((hashCode >>> 16) ^ hashCode) * 0x45d9f3b;
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+}
@@ -0,0 +1,175 @@
+package com.compomics.util.db;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe histogram of durations in nanoseconds. The durations are counted
+ * in buckets of powers of two, bucket i containing the durations from
+ * 2^(i-1) to 2^i - 1 ns, so that recording a duration only costs a few atomic
+ * increments. Percentiles are therefore estimated with a precision of a
+ * factor two.
+ *
+ * @author Marc Vaudel
+ */
+public class LatencyHistogram {
+
+    /**
+     * The number of buckets, one per bit of a long.
+     */
+    private static final int N_BUCKETS = 64;
+    /**
+     * The number of durations recorded per bucket.
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(N_BUCKETS);
+    /**
+     * The number of durations recorded.
+     */
+    private final AtomicLong count = new AtomicLong(0);
+    /**
+     * The sum of the durations recorded in nanoseconds.
+     */
+    private final AtomicLong total = new AtomicLong(0);
+    /**
+     * The longest duration recorded in nanoseconds.
+     */
+    private final AtomicLong max = new AtomicLong(0);
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(N_BUCKETS - Long.numberOfLeadingZeros(nanos));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+        long currentMax = max.get();
+        while (nanos > currentMax && !max.compareAndSet(currentMax, nanos)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Adds the durations of another histogram to this histogram.
+     *
+     * @param histogram the other histogram
+     */
+    public void add(LatencyHistogram histogram) {
+        for (int i = 0; i < N_BUCKETS; i++) {
+            long bucketCount = histogram.buckets.get(i);
+            if (bucketCount > 0) {
+                buckets.addAndGet(i, bucketCount);
+            }
+        }
+        count.addAndGet(histogram.count.get());
+        total.addAndGet(histogram.total.get());
+        long otherMax = histogram.max.get();
+        long currentMax = max.get();
+        while (otherMax > currentMax && !max.compareAndSet(currentMax, otherMax)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Returns a copy of this histogram. The copy is not affected by the
+     * durations recorded afterwards.
+     *
+     * @return a copy of this histogram
+     */
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        copy.add(this);
+        return copy;
+    }
+
+    /**
+     * Clears the histogram.
+     */
+    public void reset() {
+        for (int i = 0; i < N_BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Returns the number of durations recorded.
+     *
+     * @return the number of durations recorded
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the sum of the durations recorded in nanoseconds.
+     *
+     * @return the sum of the durations recorded in nanoseconds
+     */
+    public long getTotalNanos() {
+        return total.get();
+    }
+
+    /**
+     * Returns the longest duration recorded in nanoseconds.
+     *
+     * @return the longest duration recorded in nanoseconds
+     */
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    /**
+     * Returns the mean duration in nanoseconds, 0 if nothing was recorded.
+     *
+     * @return the mean duration in nanoseconds
+     */
+    public double getMeanNanos() {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        return ((double) total.get()) / n;
+    }
+
+    /**
+     * Returns an upper estimate of the given percentile of the durations in
+     * nanoseconds, 0 if nothing was recorded.
+     *
+     * @param percentile the percentile, between 0 and 1
+     *
+     * @return an upper estimate of the percentile in nanoseconds
+     */
+    public long getPercentileNanos(double percentile) {
+        long n = 0;
+        long[] counts = new long[N_BUCKETS];
+        for (int i = 0; i < N_BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            n += counts[i];
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile * n);
+        long cumulated = 0;
+        for (int i = 0; i < N_BUCKETS; i++) {
+            cumulated += counts[i];
+            if (cumulated >= rank && cumulated > 0) {
+                long upperBound = i == N_BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+                return Math.min(upperBound, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    @Override
+    public String toString() {
+        return count.get() + " x " + String.format("%.1f", getMeanNanos() / 1000) + " us (p99 " + String.format("%.1f", getPercentileNanos(0.99) / 1000.0) + " us, max " + String.format("%.1f", max.get() / 1000.0) + " us)";
+    }
+}
@@ -0,0 +1,1256 @@
+package com.compomics.util.db;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Embedded key-value store where every table is an append-only segment file.
+ * The location of the last version of every object is kept in an in-memory
+ * index, reading an object thus costs a single positional read. Writes are
+ * grouped in transactions terminated by a commit marker, after a crash the
+ * segment is truncated after the last commit marker. When more than half of a
+ * segment is occupied by overwritten or deleted objects, the live objects are
+ * copied in a new segment which replaces the old one.
+ *
+ * The segment files are named after the table and a generation number
+ * incremented at every compaction. A segment starts with a header followed by
+ * records made of a type, the key length, the value length, the key, the value
+ * and a CRC32 checksum of the previous fields.
+ *
+ * @author Marc Vaudel
+ */
+public class LogStructuredStore {
+
+    /**
+     * The extension of the segment files.
+     */
+    public static final String SEGMENT_EXTENSION = ".seg";
+    /**
+     * The default size in bytes above which a segment can be compacted.
+     */
+    public static final long DEFAULT_COMPACTION_THRESHOLD = 16 * 1024 * 1024;
+    /**
+     * The magic number at the beginning of a segment file.
+     */
+    private static final int MAGIC_NUMBER = 0x434c5353;
+    /**
+     * The version of the segment format.
+     */
+    private static final int FORMAT_VERSION = 1;
+    /**
+     * The length of the segment header: magic number and version.
+     */
+    private static final int SEGMENT_HEADER_LENGTH = 8;
+    /**
+     * The length of a record header: type, key length and value length.
+     */
+    private static final int RECORD_HEADER_LENGTH = 9;
+    /**
+     * The length of the checksum at the end of a record.
+     */
+    private static final int CHECKSUM_LENGTH = 4;
+    /**
+     * Record type of an object.
+     */
+    private static final byte PUT = 1;
+    /**
+     * Record type of a deletion.
+     */
+    private static final byte DELETE = 2;
+    /**
+     * Record type of a commit marker.
+     */
+    private static final byte COMMIT = 3;
+    /**
+     * The size of the write buffer of a segment. Uncommitted records are
+     * written to the segment file when the buffer is full.
+     */
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+    /**
+     * The encoding of the keys.
+     */
+    private static final Charset KEY_ENCODING = Charset.forName("UTF-8");
+    /**
+     * The folder containing the segment files.
+     */
+    private final File folder;
+    /**
+     * The segments indexed by table name.
+     */
+    private final ConcurrentHashMap<String, Segment> segments = new ConcurrentHashMap<String, Segment>();
+    /**
+     * Indicates whether the segment files are synchronized with the storage
+     * device at every commit.
+     */
+    private volatile boolean syncOnCommit = true;
+    /**
+     * The size in bytes above which a segment can be compacted.
+     */
+    private volatile long compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+    /**
+     * Indicates whether the store is open.
+     */
+    private volatile boolean open = true;
+
+    /**
+     * Constructor. Opens the segments present in the given folder and
+     * recovers them after a crash if needed. The folder is created if it does
+     * not exist.
+     *
+     * @param folder the folder containing the segment files
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a segment file
+     */
+    public LogStructuredStore(File folder) throws IOException {
+        this.folder = folder;
+        if (!folder.exists() && !folder.mkdirs()) {
+            throw new IOException("Impossible to create the folder " + folder.getAbsolutePath() + ".");
+        }
+        if (!folder.isDirectory()) {
+            throw new IOException(folder.getAbsolutePath() + " is not a folder.");
+        }
+        HashMap<String, ArrayList<Long>> generationsMap = new HashMap<String, ArrayList<Long>>();
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String fileName = file.getName();
+                if (fileName.endsWith(SEGMENT_EXTENSION)) {
+                    String name = fileName.substring(0, fileName.length() - SEGMENT_EXTENSION.length());
+                    int separator = name.lastIndexOf('.');
+                    if (separator > 0) {
+                        try {
+                            Long generation = Long.valueOf(name.substring(separator + 1));
+                            String encodedName = name.substring(0, separator);
+                            ArrayList<Long> generations = generationsMap.get(encodedName);
+                            if (generations == null) {
+                                generations = new ArrayList<Long>(1);
+                                generationsMap.put(encodedName, generations);
+                            }
+                            generations.add(generation);
+                        } catch (NumberFormatException e) {
+                            // not a segment
+                        }
+                    }
+                }
+            }
+        }
+        for (String encodedName : generationsMap.keySet()) {
+            ArrayList<Long> generations = generationsMap.get(encodedName);
+            Collections.sort(generations, Collections.reverseOrder());
+            String tableName = decodeTableName(encodedName);
+            Segment segment = null;
+            for (Long generation : generations) {
+                File file = getSegmentFile(encodedName, generation);
+                if (segment == null) {
+                    segment = Segment.open(this, tableName, encodedName, generation);
+                    if (segment != null) {
+                        continue;
+                    }
+                }
+                // older generation or interrupted compaction
+                if (!file.delete()) {
+                    throw new IOException("Impossible to delete the obsolete segment " + file.getAbsolutePath() + ".");
+                }
+            }
+            if (segment != null) {
+                segments.put(tableName, segment);
+            }
+        }
+    }
+
+    /**
+     * Returns the folder containing the segment files.
+     *
+     * @return the folder containing the segment files
+     */
+    public File getFolder() {
+        return folder;
+    }
+
+    /**
+     * Indicates whether the segment files are synchronized with the storage
+     * device at every commit.
+     *
+     * @return a boolean indicating whether the segment files are synchronized
+     * with the storage device at every commit
+     */
+    public boolean isSyncOnCommit() {
+        return syncOnCommit;
+    }
+
+    /**
+     * Sets whether the segment files are synchronized with the storage device
+     * at every commit. If not, the transactions committed before a system
+     * crash can be lost, but the segments remain consistent.
+     *
+     * @param syncOnCommit a boolean indicating whether the segment files are
+     * synchronized with the storage device at every commit
+     */
+    public void setSyncOnCommit(boolean syncOnCommit) {
+        this.syncOnCommit = syncOnCommit;
+    }
+
+    /**
+     * Returns the size in bytes above which a segment can be compacted.
+     *
+     * @return the size in bytes above which a segment can be compacted
+     */
+    public long getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    /**
+     * Sets the size in bytes above which a segment can be compacted.
+     *
+     * @param compactionThreshold the size in bytes above which a segment can be
+     * compacted
+     */
+    public void setCompactionThreshold(long compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Indicates whether the store is open.
+     *
+     * @return a boolean indicating whether the store is open
+     */
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Creates a table.
+     *
+     * @param tableName the name of the table
+     *
+     * @throws IOException exception thrown whenever the table already exists
+     * or an error occurred while creating the segment file
+     */
+    public void addTable(String tableName) throws IOException {
+        checkOpen();
+        synchronized (segments) {
+            if (segments.containsKey(tableName)) {
+                throw new IOException("Table " + tableName + " already exists.");
+            }
+            segments.put(tableName, Segment.create(this, tableName, encodeTableName(tableName), 0));
+        }
+    }
+
+    /**
+     * Indicates whether the store contains the given table.
+     *
+     * @param tableName the name of the table
+     *
+     * @return a boolean indicating whether the store contains the given table
+     */
+    public boolean hasTable(String tableName) {
+        return segments.containsKey(tableName);
+    }
+
+    /**
+     * Returns the names of the tables of the store.
+     *
+     * @return the names of the tables of the store
+     */
+    public ArrayList<String> getTables() {
+        return new ArrayList<String>(segments.keySet());
+    }
+
+    /**
+     * Writes an object in a table. The object is visible after the next
+     * commit.
+     *
+     * @param tableName the name of the table
+     * @param key the key of the object
+     * @param value the object as a blob
+     *
+     * @throws IOException exception thrown whenever the table is not found or
+     * an error occurred while writing the segment file
+     */
+    public void put(String tableName, String key, byte[] value) throws IOException {
+        getSegment(tableName).put(key, value);
+    }
+
+    /**
+     * Deletes an object from a table. The deletion is visible after the next
+     * commit.
+     *
+     * @param tableName the name of the table
+     * @param key the key of the object
+     *
+     * @throws IOException exception thrown whenever the table is not found or
+     * an error occurred while writing the segment file
+     */
+    public void delete(String tableName, String key) throws IOException {
+        getSegment(tableName).delete(key);
+    }
+
+    /**
+     * Commits the writes made in a table since the last commit.
+     *
+     * @param tableName the name of the table
+     *
+     * @throws IOException exception thrown whenever the table is not found or
+     * an error occurred while writing the segment file
+     */
+    public void commit(String tableName) throws IOException {
+        getSegment(tableName).commit();
+    }
+
+    /**
+     * Discards the writes made in a table since the last commit.
+     *
+     * @param tableName the name of the table
+     *
+     * @throws IOException exception thrown whenever the table is not found or
+     * an error occurred while writing the segment file
+     */
+    public void rollback(String tableName) throws IOException {
+        getSegment(tableName).rollback();
+    }
+
+    /**
+     * Returns the blob of an object, null if not found.
+     *
+     * @param tableName the name of the table
+     * @param key the key of the object
+     *
+     * @return the blob of the object
+     *
+     * @throws IOException exception thrown whenever the table is not found or
+     * an error occurred while reading the segment file
+     */
+    public byte[] get(String tableName, String key) throws IOException {
+        return getSegment(tableName).get(key);
+    }
+
+    /**
+     * Indicates whether a table contains an object.
+     *
+     * @param tableName the name of the table
+     * @param key the key of the object
+     *
+     * @return a boolean indicating whether the table contains the object
+     *
+     * @throws IOException exception thrown whenever the table is not found
+     */
+    public boolean contains(String tableName, String key) throws IOException {
+        return getSegment(tableName).index.containsKey(key);
+    }
+
+    /**
+     * Returns the number of objects in a table.
+     *
+     * @param tableName the name of the table
+     *
+     * @return the number of objects in the table
+     *
+     * @throws IOException exception thrown whenever the table is not found
+     */
+    public int size(String tableName) throws IOException {
+        return getSegment(tableName).index.size();
+    }
+
+    /**
+     * Returns the keys of the objects of a table in the order of the segment
+     * file, reading the objects in this order is sequential.
+     *
+     * @param tableName the name of the table
+     *
+     * @return the keys of the objects of the table
+     *
+     * @throws IOException exception thrown whenever the table is not found
+     */
+    public ArrayList<String> getKeys(String tableName) throws IOException {
+        return getSegment(tableName).getKeys();
+    }
+
+    /**
+     * Compacts the segment of a table regardless of its size.
+     *
+     * @param tableName the name of the table
+     *
+     * @throws IOException exception thrown whenever the table is not found or
+     * an error occurred while writing the segment files
+     */
+    public void compact(String tableName) throws IOException {
+        getSegment(tableName).compact();
+    }
+
+    /**
+     * Returns the size in bytes of the segment file of a table.
+     *
+     * @param tableName the name of the table
+     *
+     * @return the size in bytes of the segment file of the table
+     *
+     * @throws IOException exception thrown whenever the table is not found
+     */
+    public long getSegmentSize(String tableName) throws IOException {
+        return getSegment(tableName).getCommittedSize();
+    }
+
+    /**
+     * Closes the store. The uncommitted writes are discarded.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * closing a segment file
+     */
+    public void close() throws IOException {
+        open = false;
+        IOException exception = null;
+        for (Segment segment : segments.values()) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                if (exception == null) {
+                    exception = e;
+                }
+            }
+        }
+        segments.clear();
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * Throws an exception if the store is closed.
+     *
+     * @throws IOException exception thrown if the store is closed
+     */
+    private void checkOpen() throws IOException {
+        if (!open) {
+            throw new IOException("Store " + folder.getAbsolutePath() + " is closed.");
+        }
+    }
+
+    /**
+     * Returns the segment of a table.
+     *
+     * @param tableName the name of the table
+     *
+     * @return the segment of the table
+     *
+     * @throws IOException exception thrown whenever the table is not found
+     */
+    private Segment getSegment(String tableName) throws IOException {
+        Segment segment = segments.get(tableName);
+        if (segment == null) {
+            checkOpen();
+            throw new IOException("Table " + tableName + " not found in " + folder.getAbsolutePath() + ".");
+        }
+        return segment;
+    }
+
+    /**
+     * Returns the segment file of the given generation.
+     *
+     * @param encodedName the table name encoded for the file system
+     * @param generation the generation of the segment
+     *
+     * @return the segment file
+     */
+    private File getSegmentFile(String encodedName, long generation) {
+        return new File(folder, encodedName + "." + generation + SEGMENT_EXTENSION);
+    }
+
+    /**
+     * Encodes a table name for the file system. Lower case letters, digits,
+     * dashes and underscores are kept, the other characters are replaced by
+     * their UTF-8 bytes in hexadecimal preceded by '%'. Upper case letters are
+     * thus encoded and names differing only by case do not collide on case
+     * insensitive file systems.
+     *
+     * @param tableName the table name
+     *
+     * @return the encoded table name
+     */
+    public static String encodeTableName(String tableName) {
+        StringBuilder encodedName = new StringBuilder(tableName.length());
+        for (byte b : tableName.getBytes(KEY_ENCODING)) {
+            char c = (char) (b & 0xff);
+            if (c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '-' || c == '_') {
+                encodedName.append(c);
+            } else {
+                encodedName.append('%');
+                encodedName.append(Character.forDigit((b >> 4) & 0xf, 16));
+                encodedName.append(Character.forDigit(b & 0xf, 16));
+            }
+        }
+        return encodedName.toString();
+    }
+
+    /**
+     * Decodes a table name encoded with encodeTableName.
+     *
+     * @param encodedName the encoded table name
+     *
+     * @return the table name
+     */
+    public static String decodeTableName(String encodedName) {
+        byte[] bytes = new byte[encodedName.length()];
+        int length = 0;
+        for (int i = 0; i < encodedName.length(); i++) {
+            char c = encodedName.charAt(i);
+            if (c == '%' && i + 2 < encodedName.length()) {
+                bytes[length++] = (byte) Integer.parseInt(encodedName.substring(i + 1, i + 3), 16);
+                i += 2;
+            } else {
+                bytes[length++] = (byte) c;
+            }
+        }
+        return new String(bytes, 0, length, KEY_ENCODING);
+    }
+
+    /**
+     * The location of a record in a segment file.
+     */
+    private static class RecordLocation {
+
+        /**
+         * The offset of the record in the segment file.
+         */
+        private final long offset;
+        /**
+         * The length of the record.
+         */
+        private final int recordLength;
+        /**
+         * The length of the value.
+         */
+        private final int valueLength;
+
+        /**
+         * Constructor.
+         *
+         * @param offset the offset of the record in the segment file
+         * @param recordLength the length of the record
+         * @param valueLength the length of the value
+         */
+        public RecordLocation(long offset, int recordLength, int valueLength) {
+            this.offset = offset;
+            this.recordLength = recordLength;
+            this.valueLength = valueLength;
+        }
+
+        /**
+         * Returns the offset of the value in the segment file.
+         *
+         * @return the offset of the value in the segment file
+         */
+        public long getValueOffset() {
+            return offset + recordLength - CHECKSUM_LENGTH - valueLength;
+        }
+    }
+
+    /**
+     * The segment file of a table with its index.
+     *
+     * The writes are serialized on the segment. Reads only take the read lock
+     * of the segment, which is held exclusively when the file is replaced or
+     * closed.
+     */
+    private static class Segment {
+
+        /**
+         * The store.
+         */
+        private final LogStructuredStore store;
+        /**
+         * The name of the table.
+         */
+        private final String tableName;
+        /**
+         * The table name encoded for the file system.
+         */
+        private final String encodedName;
+        /**
+         * The generation of the segment file.
+         */
+        private long generation;
+        /**
+         * The segment file.
+         */
+        private RandomAccessFile file;
+        /**
+         * The channel of the segment file.
+         */
+        private volatile FileChannel channel;
+        /**
+         * The location of the committed objects indexed by key.
+         */
+        private volatile ConcurrentHashMap<String, RecordLocation> index = new ConcurrentHashMap<String, RecordLocation>();
+        /**
+         * Lock held exclusively when the segment file is replaced or closed.
+         */
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        /**
+         * The size of the segment file at the last commit.
+         */
+        private long committedSize;
+        /**
+         * The total length of the records of the committed objects.
+         */
+        private long liveBytes = 0;
+        /**
+         * The records written since the last commit indexed by key, null for
+         * a deletion.
+         */
+        private final LinkedHashMap<String, RecordLocation> pending = new LinkedHashMap<String, RecordLocation>();
+        /**
+         * The records not yet written in the segment file.
+         */
+        private byte[] writeBuffer = new byte[4096];
+        /**
+         * The number of bytes in the write buffer.
+         */
+        private int writeBufferLength = 0;
+        /**
+         * The offset in the segment file of the beginning of the write buffer.
+         */
+        private long writeBufferOffset;
+        /**
+         * Indicates whether the segment is closed.
+         */
+        private volatile boolean closed = false;
+
+        /**
+         * Constructor.
+         *
+         * @param store the store
+         * @param tableName the name of the table
+         * @param encodedName the table name encoded for the file system
+         * @param generation the generation of the segment file
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * opening the segment file
+         */
+        private Segment(LogStructuredStore store, String tableName, String encodedName, long generation) throws IOException {
+            this.store = store;
+            this.tableName = tableName;
+            this.encodedName = encodedName;
+            this.generation = generation;
+            file = new RandomAccessFile(store.getSegmentFile(encodedName, generation), "rw");
+            channel = file.getChannel();
+        }
+
+        /**
+         * Creates an empty segment.
+         *
+         * @param store the store
+         * @param tableName the name of the table
+         * @param encodedName the table name encoded for the file system
+         * @param generation the generation of the segment file
+         *
+         * @return the segment
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * writing the segment file
+         */
+        public static Segment create(LogStructuredStore store, String tableName, String encodedName, long generation) throws IOException {
+            Segment segment = new Segment(store, tableName, encodedName, generation);
+            segment.file.setLength(0);
+            segment.writeBufferOffset = 0;
+            segment.append(getSegmentHeader());
+            segment.append(getCommitMarker());
+            segment.flush();
+            segment.channel.force(true);
+            segment.committedSize = segment.writeBufferOffset;
+            return segment;
+        }
+
+        /**
+         * Opens a segment and recovers its index. The records written after
+         * the last commit marker are truncated.
+         *
+         * @param store the store
+         * @param tableName the name of the table
+         * @param encodedName the table name encoded for the file system
+         * @param generation the generation of the segment file
+         *
+         * @return the segment, null if the segment has no valid header or
+         * commit marker
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * reading the segment file
+         */
+        public static Segment open(LogStructuredStore store, String tableName, String encodedName, long generation) throws IOException {
+            Segment segment = new Segment(store, tableName, encodedName, generation);
+            boolean recovered = false;
+            try {
+                recovered = segment.recover();
+            } finally {
+                if (!recovered) {
+                    segment.file.close();
+                }
+            }
+            return recovered ? segment : null;
+        }
+
+        /**
+         * Returns the header of a segment file.
+         *
+         * @return the header of a segment file
+         */
+        private static byte[] getSegmentHeader() {
+            ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_LENGTH);
+            header.putInt(MAGIC_NUMBER);
+            header.putInt(FORMAT_VERSION);
+            return header.array();
+        }
+
+        /**
+         * Reads the segment file and builds the index from the committed
+         * records.
+         *
+         * @return a boolean indicating whether the segment file is valid
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * reading the segment file
+         */
+        private boolean recover() throws IOException {
+            long fileLength = file.length();
+            if (fileLength < SEGMENT_HEADER_LENGTH) {
+                return false;
+            }
+            long lastCommit = -1;
+            HashMap<String, RecordLocation> uncommitted = new HashMap<String, RecordLocation>();
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(store.getSegmentFile(encodedName, generation)), 1 << 16));
+            try {
+                if (input.readInt() != MAGIC_NUMBER || input.readInt() != FORMAT_VERSION) {
+                    return false;
+                }
+                long position = SEGMENT_HEADER_LENGTH;
+                byte[] recordBuffer = new byte[4096];
+                CRC32 crc = new CRC32();
+                while (position + RECORD_HEADER_LENGTH + CHECKSUM_LENGTH <= fileLength) {
+                    byte type = input.readByte();
+                    int keyLength = input.readInt();
+                    int valueLength = input.readInt();
+                    if (type != PUT && type != DELETE && type != COMMIT || keyLength < 0 || valueLength < 0) {
+                        break;
+                    }
+                    long recordLength = (long) RECORD_HEADER_LENGTH + keyLength + valueLength + CHECKSUM_LENGTH;
+                    if (position + recordLength > fileLength) {
+                        break;
+                    }
+                    int contentLength = keyLength + valueLength;
+                    if (recordBuffer.length < contentLength) {
+                        recordBuffer = new byte[Math.max(contentLength, 2 * recordBuffer.length)];
+                    }
+                    input.readFully(recordBuffer, 0, contentLength);
+                    int checksum = input.readInt();
+                    crc.reset();
+                    updateChecksum(crc, type, keyLength, valueLength);
+                    crc.update(recordBuffer, 0, contentLength);
+                    if ((int) crc.getValue() != checksum) {
+                        break;
+                    }
+                    if (type == COMMIT) {
+                        for (Map.Entry<String, RecordLocation> entry : uncommitted.entrySet()) {
+                            index(entry.getKey(), entry.getValue());
+                        }
+                        uncommitted.clear();
+                        lastCommit = position + recordLength;
+                    } else {
+                        String key = new String(recordBuffer, 0, keyLength, KEY_ENCODING);
+                        uncommitted.put(key, type == PUT ? new RecordLocation(position, (int) recordLength, valueLength) : null);
+                    }
+                    position += recordLength;
+                }
+            } catch (EOFException e) {
+                // truncated record
+            } finally {
+                input.close();
+            }
+            if (lastCommit < 0) {
+                return false;
+            }
+            if (lastCommit < fileLength) {
+                // discard the records written after the last commit
+                file.setLength(lastCommit);
+            }
+            committedSize = lastCommit;
+            writeBufferOffset = lastCommit;
+            return true;
+        }
+
+        /**
+         * Updates the index with a committed record.
+         *
+         * @param key the key of the object
+         * @param location the location of the record, null for a deletion
+         */
+        private void index(String key, RecordLocation location) {
+            RecordLocation previous;
+            if (location == null) {
+                previous = index.remove(key);
+            } else {
+                previous = index.put(key, location);
+                liveBytes += location.recordLength;
+            }
+            if (previous != null) {
+                liveBytes -= previous.recordLength;
+            }
+        }
+
+        /**
+         * Returns the size of the segment file at the last commit.
+         *
+         * @return the size of the segment file at the last commit
+         */
+        public synchronized long getCommittedSize() {
+            return committedSize;
+        }
+
+        /**
+         * Writes an object.
+         *
+         * @param key the key of the object
+         * @param value the object as a blob
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * writing the segment file
+         */
+        public synchronized void put(String key, byte[] value) throws IOException {
+            checkClosed();
+            RecordLocation location = appendRecord(PUT, key.getBytes(KEY_ENCODING), value);
+            pending.put(key, location);
+            if (writeBufferLength >= WRITE_BUFFER_SIZE) {
+                flush();
+            }
+        }
+
+        /**
+         * Deletes an object.
+         *
+         * @param key the key of the object
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * writing the segment file
+         */
+        public synchronized void delete(String key) throws IOException {
+            checkClosed();
+            if (pending.get(key) != null || !pending.containsKey(key) && index.containsKey(key)) {
+                appendRecord(DELETE, key.getBytes(KEY_ENCODING), new byte[0]);
+                pending.put(key, null);
+            }
+        }
+
+        /**
+         * Writes a commit marker and publishes the pending records in the
+         * index. Compacts the segment if needed.
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * writing the segment file
+         */
+        public synchronized void commit() throws IOException {
+            checkClosed();
+            if (pending.isEmpty()) {
+                return;
+            }
+            append(getCommitMarker());
+            flush();
+            if (store.syncOnCommit) {
+                channel.force(false);
+            }
+            for (Map.Entry<String, RecordLocation> entry : pending.entrySet()) {
+                index(entry.getKey(), entry.getValue());
+            }
+            pending.clear();
+            committedSize = writeBufferOffset;
+            if (committedSize >= store.compactionThreshold && committedSize - SEGMENT_HEADER_LENGTH - liveBytes > liveBytes) {
+                compact();
+            }
+        }
+
+        /**
+         * Discards the records written since the last commit.
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * truncating the segment file
+         */
+        public synchronized void rollback() throws IOException {
+            checkClosed();
+            pending.clear();
+            writeBufferLength = 0;
+            if (writeBufferOffset > committedSize) {
+                channel.truncate(committedSize);
+                writeBufferOffset = committedSize;
+            }
+        }
+
+        /**
+         * Returns the blob of an object, null if not found.
+         *
+         * @param key the key of the object
+         *
+         * @return the blob of the object
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * reading the segment file
+         */
+        public byte[] get(String key) throws IOException {
+            while (true) {
+                FileChannel currentChannel = null;
+                ClosedChannelException closedChannelException;
+                lock.readLock().lock();
+                try {
+                    checkClosed();
+                    RecordLocation location = index.get(key);
+                    if (location == null) {
+                        return null;
+                    }
+                    currentChannel = channel;
+                    byte[] value = new byte[location.valueLength];
+                    read(currentChannel, ByteBuffer.wrap(value), location.getValueOffset());
+                    return value;
+                } catch (ClosedChannelException e) {
+                    closedChannelException = e;
+                } finally {
+                    lock.readLock().unlock();
+                }
+                // the channel is closed when a thread using it is interrupted
+                reopen(currentChannel);
+                if (closedChannelException instanceof ClosedByInterruptException) {
+                    InterruptedIOException interruptedException = new InterruptedIOException("Interrupted while reading " + key + " from table " + tableName + ".");
+                    interruptedException.initCause(closedChannelException);
+                    throw interruptedException;
+                }
+            }
+        }
+
+        /**
+         * Reopens the segment file if its channel was closed by the
+         * interruption of a thread.
+         *
+         * @param closedChannel the channel found closed
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * opening the segment file
+         */
+        private synchronized void reopen(FileChannel closedChannel) throws IOException {
+            checkClosed();
+            if (closedChannel != null && channel == closedChannel) {
+                file = new RandomAccessFile(store.getSegmentFile(encodedName, generation), "rw");
+                channel = file.getChannel();
+            }
+        }
+
+        /**
+         * Returns the keys of the objects in the order of the segment file.
+         *
+         * @return the keys of the objects
+         */
+        public ArrayList<String> getKeys() {
+            ArrayList<Map.Entry<String, RecordLocation>> entries = getEntriesInFileOrder();
+            ArrayList<String> keys = new ArrayList<String>(entries.size());
+            for (Map.Entry<String, RecordLocation> entry : entries) {
+                keys.add(entry.getKey());
+            }
+            return keys;
+        }
+
+        /**
+         * Returns the entries of the index sorted by offset.
+         *
+         * @return the entries of the index sorted by offset
+         */
+        private ArrayList<Map.Entry<String, RecordLocation>> getEntriesInFileOrder() {
+            ArrayList<Map.Entry<String, RecordLocation>> entries = new ArrayList<Map.Entry<String, RecordLocation>>(index.entrySet());
+            Collections.sort(entries, new Comparator<Map.Entry<String, RecordLocation>>() {
+                @Override
+                public int compare(Map.Entry<String, RecordLocation> o1, Map.Entry<String, RecordLocation> o2) {
+                    long offset1 = o1.getValue().offset, offset2 = o2.getValue().offset;
+                    return offset1 < offset2 ? -1 : offset1 == offset2 ? 0 : 1;
+                }
+            });
+            return entries;
+        }
+
+        /**
+         * Copies the committed objects in a segment file of the next
+         * generation, replaces the current file with it, and deletes the
+         * current file. The new file is complete on disk before the current
+         * one is deleted, if interrupted the new file has no commit marker and
+         * is discarded upon recovery.
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * writing the segment files
+         */
+        public synchronized void compact() throws IOException {
+            checkClosed();
+            if (!pending.isEmpty()) {
+                throw new IOException("Impossible to compact table " + tableName + " with uncommitted writes.");
+            }
+            File newFile = store.getSegmentFile(encodedName, generation + 1);
+            RandomAccessFile newRandomAccessFile = new RandomAccessFile(newFile, "rw");
+            boolean success = false;
+            try {
+                newRandomAccessFile.setLength(0);
+                FileChannel newChannel = newRandomAccessFile.getChannel();
+                ConcurrentHashMap<String, RecordLocation> newIndex = new ConcurrentHashMap<String, RecordLocation>(Math.max(16, 2 * index.size()));
+                ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+                buffer.put(getSegmentHeader());
+                long position = 0;
+                for (Map.Entry<String, RecordLocation> entry : getEntriesInFileOrder()) {
+                    RecordLocation location = entry.getValue();
+                    if (buffer.remaining() < location.recordLength) {
+                        buffer.flip();
+                        position = write(newChannel, buffer, position);
+                        buffer.clear();
+                    }
+                    ByteBuffer record = buffer.remaining() >= location.recordLength ? buffer : ByteBuffer.allocate(location.recordLength);
+                    long newOffset = position + buffer.position();
+                    int limit = record.limit();
+                    record.limit(record.position() + location.recordLength);
+                    read(channel, record, location.offset);
+                    record.limit(limit);
+                    if (record != buffer) {
+                        record.flip();
+                        position = write(newChannel, record, position);
+                    }
+                    newIndex.put(entry.getKey(), new RecordLocation(newOffset, location.recordLength, location.valueLength));
+                }
+                buffer.put(getCommitMarker());
+                buffer.flip();
+                position = write(newChannel, buffer, position);
+                newChannel.force(true);
+
+                lock.writeLock().lock();
+                try {
+                    file.close();
+                    file = newRandomAccessFile;
+                    channel = newChannel;
+                    index = newIndex;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                success = true;
+                File oldFile = store.getSegmentFile(encodedName, generation);
+                generation++;
+                committedSize = position;
+                writeBufferOffset = position;
+                if (!oldFile.delete()) {
+                    throw new IOException("Impossible to delete the compacted segment " + oldFile.getAbsolutePath() + ".");
+                }
+            } finally {
+                if (!success) {
+                    newRandomAccessFile.close();
+                    newFile.delete();
+                }
+            }
+        }
+
+        /**
+         * Closes the segment file, the uncommitted writes are discarded.
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * closing the segment file
+         */
+        public synchronized void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            rollback();
+            lock.writeLock().lock();
+            try {
+                closed = true;
+                file.close();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * Throws an exception if the segment is closed.
+         *
+         * @throws IOException exception thrown if the segment is closed
+         */
+        private void checkClosed() throws IOException {
+            if (closed) {
+                throw new IOException("Table " + tableName + " is closed.");
+            }
+        }
+
+        /**
+         * Appends a record to the write buffer.
+         *
+         * @param type the type of the record
+         * @param key the key
+         * @param value the value
+         *
+         * @return the location of the record
+         */
+        private RecordLocation appendRecord(byte type, byte[] key, byte[] value) {
+            int recordLength = RECORD_HEADER_LENGTH + key.length + value.length + CHECKSUM_LENGTH;
+            ensureBufferCapacity(recordLength);
+            long offset = writeBufferOffset + writeBufferLength;
+            ByteBuffer record = ByteBuffer.wrap(writeBuffer, writeBufferLength, recordLength);
+            record.put(type);
+            record.putInt(key.length);
+            record.putInt(value.length);
+            record.put(key);
+            record.put(value);
+            CRC32 crc = new CRC32();
+            updateChecksum(crc, type, key.length, value.length);
+            crc.update(key);
+            crc.update(value);
+            record.putInt((int) crc.getValue());
+            writeBufferLength += recordLength;
+            return new RecordLocation(offset, recordLength, value.length);
+        }
+
+        /**
+         * Appends bytes to the write buffer.
+         *
+         * @param bytes the bytes to append
+         */
+        private void append(byte[] bytes) {
+            ensureBufferCapacity(bytes.length);
+            System.arraycopy(bytes, 0, writeBuffer, writeBufferLength, bytes.length);
+            writeBufferLength += bytes.length;
+        }
+
+        /**
+         * Makes sure that the write buffer can hold the given number of
+         * additional bytes.
+         *
+         * @param length the number of additional bytes
+         */
+        private void ensureBufferCapacity(int length) {
+            if (writeBufferLength + length > writeBuffer.length) {
+                byte[] newBuffer = new byte[Math.max(writeBufferLength + length, 2 * writeBuffer.length)];
+                System.arraycopy(writeBuffer, 0, newBuffer, 0, writeBufferLength);
+                writeBuffer = newBuffer;
+            }
+        }
+
+        /**
+         * Writes the write buffer in the segment file.
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * writing the segment file
+         */
+        private void flush() throws IOException {
+            if (writeBufferLength > 0) {
+                ByteBuffer buffer = ByteBuffer.wrap(writeBuffer, 0, writeBufferLength);
+                try {
+                    write(channel, buffer, writeBufferOffset);
+                } catch (ClosedByInterruptException e) {
+                    reopen(channel);
+                    throw e;
+                } catch (ClosedChannelException e) {
+                    // closed by the interruption of a reading thread, retry once
+                    reopen(channel);
+                    buffer.rewind();
+                    write(channel, buffer, writeBufferOffset);
+                }
+                writeBufferOffset += writeBufferLength;
+                writeBufferLength = 0;
+                if (writeBuffer.length > WRITE_BUFFER_SIZE) {
+                    writeBuffer = new byte[WRITE_BUFFER_SIZE];
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a commit marker record.
+     *
+     * @return a commit marker record
+     */
+    private static byte[] getCommitMarker() {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + CHECKSUM_LENGTH);
+        record.put(COMMIT);
+        record.putInt(0);
+        record.putInt(0);
+        CRC32 crc = new CRC32();
+        updateChecksum(crc, COMMIT, 0, 0);
+        record.putInt((int) crc.getValue());
+        return record.array();
+    }
+
+    /**
+     * Updates a checksum with the header of a record.
+     *
+     * @param crc the checksum
+     * @param type the type of the record
+     * @param keyLength the length of the key
+     * @param valueLength the length of the value
+     */
+    private static void updateChecksum(CRC32 crc, byte type, int keyLength, int valueLength) {
+        crc.update(type);
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            crc.update(keyLength >>> shift);
+        }
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            crc.update(valueLength >>> shift);
+        }
+    }
+
+    /**
+     * Reads the remaining bytes of a buffer from a channel at the given
+     * position.
+     *
+     * @param channel the channel
+     * @param buffer the buffer
+     * @param position the position in the channel
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the channel or if the end of the channel is reached
+     */
+    private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long currentPosition = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, currentPosition);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of segment at position " + currentPosition + ".");
+            }
+            currentPosition += read;
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer in a channel at the given
+     * position.
+     *
+     * @param channel the channel
+     * @param buffer the buffer
+     * @param position the position in the channel
+     *
+     * @return the position after the written bytes
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the channel
+     */
+    private static long write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long currentPosition = position;
+        while (buffer.hasRemaining()) {
+            currentPosition += channel.write(buffer, currentPosition);
+        }
+        return currentPosition;
+    }
+}
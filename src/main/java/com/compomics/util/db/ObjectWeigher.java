@@ -0,0 +1,21 @@
+package com.compomics.util.db;
+
+/**
+ * Interface for the estimation of the memory used by the objects stored in an
+ * objects cache.
+ *
+ * @author Marc Vaudel
+ */
+public interface ObjectWeigher {
+
+    /**
+     * Returns an estimate of the memory used by the given object in bytes.
+     * The estimate must be positive and should be fast to compute, it is
+     * computed every time an object is put in the cache.
+     *
+     * @param object the object
+     *
+     * @return an estimate of the memory used by the object in bytes
+     */
+    public long getWeight(Object object);
+}
@@ -1,20 +1,35 @@
 package com.compomics.util.db;
 
-import com.compomics.util.maps.MapMutex;
 import com.compomics.util.waiting.WaitingHandler;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * An object cache can be combined to an ObjectDB to improve its performance. A
  * single cache can be used by different databases. This ough not to be
  * serialized. The length of lists/maps in the cache shall stay independent from
  * the number of objects in cache.
+ * <br>
+ * Objects are retrieved without locking. The entries are distributed over
+ * stripes according to their key, every stripe is locked only to edit its
+ * entries.
+ * <br>
+ * The size of the cache can be limited in number of objects, in share of the
+ * heap, or by a memory budget in bytes. In the latter case, the memory used by
+ * every object is estimated by an ObjectWeigher. The eviction policy is
+ * frequency aware (W-TinyLFU): new entries are added to a small admission
+ * window, entries leaving the window compete with the eviction candidates of
+ * the main space based on their access frequency estimated by a
+ * FrequencySketch. The main space is split into a probation and a protected
+ * segment, entries read while in probation are promoted to the protected
+ * segment when considered for eviction.
  *
  * @author Marc Vaudel
  */
@@ -23,7 +38,7 @@ public class ObjectsCache {
     /**
      * Map of the databases for which this cache should be used.
      */
-    private HashMap<String, ObjectsDB> databases = new HashMap<String, ObjectsDB>();
+    private ConcurrentHashMap<String, ObjectsDB> databases = new ConcurrentHashMap<String, ObjectsDB>();
     /**
      * The cache size in number of matches.
      */
@@ -41,19 +56,57 @@ public class ObjectsCache {
     /**
      * Map of the loaded matches. db &gt; table &gt; object key &gt; object.
      */
-    private HashMap<String, HashMap<String, HashMap<String, CacheEntry>>> loadedObjectsMap = new HashMap<String, HashMap<String, HashMap<String, CacheEntry>>>(1);
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, TableCache>> loadedObjectsMap = new ConcurrentHashMap<String, ConcurrentHashMap<String, TableCache>>(4);
     /**
-     * Mutex for the database maps.
+     * The stripes of the cache, the length is a power of two.
      */
-    private HashMap<String, MapMutex<String>> dbCacheMutexMap = new HashMap<String, MapMutex<String>>(1);
+    private final CacheStripe[] stripes;
     /**
-     * List of the loaded objects with the most used matches in the end.
+     * The number of objects in cache.
      */
-    private LinkedBlockingDeque<String> loadedObjectsKeys = new LinkedBlockingDeque<String>();
+    private final AtomicInteger nObjects = new AtomicInteger(0);
     /**
-     * Mutex for the edition of the object keys list.
+     * The estimated memory used by the objects in cache in bytes.
      */
-    private Semaphore loadedObjectKeysMutex = new Semaphore(1);
+    private final AtomicLong residentBytes = new AtomicLong(0);
+    /**
+     * The memory budget of the cache in bytes, 0 if not limited.
+     */
+    private long memoryBudget = 0;
+    /**
+     * The weigher used to estimate the memory used by the objects.
+     */
+    private volatile ObjectWeigher objectWeigher = new DefaultObjectWeigher();
+    /**
+     * The sketch of the access frequencies of the objects.
+     */
+    private final FrequencySketch frequencySketch = new FrequencySketch(1024);
+    /**
+     * The share of the weight of a stripe given to the admission window.
+     */
+    private static final double WINDOW_SHARE = 0.01;
+    /**
+     * The share of the weight of the main space of a stripe given to the
+     * protected segment.
+     */
+    private static final double PROTECTED_SHARE = 0.8;
+    /**
+     * The share of the memory budget freed below the budget when evicting.
+     */
+    private static final double BUDGET_SLACK = 0.1;
+    /**
+     * The index of the stripe where the next eviction starts.
+     */
+    private int evictionCursor = 0;
+    /**
+     * Mutex held while entries are written to the database before their
+     * removal from the cache.
+     */
+    private final Semaphore evictionMutex = new Semaphore(1);
+    /**
+     * The time spent waiting for the eviction mutex.
+     */
+    private final LatencyHistogram evictionMutexWait = new LatencyHistogram();
     /**
      * Separator used to concatenate strings.
      */
@@ -69,17 +122,35 @@ public class ObjectsCache {
     /**
      * Indicates whether the cache is being updated.
      */
-    private boolean updating = false;
+    private volatile boolean updating = false;
     /**
      * Boolean indicating whether the cache is being saved to reduce the memory
      * consumption.
      */
-    private boolean reducingMemoryConsumption = false;
+    private volatile boolean reducingMemoryConsumption = false;
+    /**
+     * The write-behind queue writing the modified objects evicted from the
+     * cache in the background, null if the objects are written by the evicting
+     * thread.
+     */
+    private volatile ObjectsCacheWriter cacheWriter = null;
+    /**
+     * The capacity of the write-behind queue in number of objects.
+     */
+    private int writeBehindCapacity = ObjectsCacheWriter.DEFAULT_CAPACITY;
 
     /**
      * Constructor.
      */
     public ObjectsCache() {
+        int nStripes = 16;
+        while (nStripes < 4 * Runtime.getRuntime().availableProcessors() && nStripes < 256) {
+            nStripes <<= 1;
+        }
+        stripes = new CacheStripe[nStripes];
+        for (int i = 0; i < nStripes; i++) {
+            stripes[i] = new CacheStripe();
+        }
     }
 
     /**
@@ -160,6 +231,210 @@ public class ObjectsCache {
         this.memoryShare = memoryShare;
     }
 
+    /**
+     * Returns the memory budget of the cache in bytes, 0 if not limited.
+     *
+     * @return the memory budget of the cache in bytes
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Sets the memory budget of the cache in bytes, 0 for no budget. When a
+     * budget is set, objects are evicted when the estimated memory used by the
+     * objects in cache exceeds the budget and the cache size in number of
+     * objects is ignored. The automated memory management, if enabled, still
+     * applies.
+     *
+     * @param memoryBudget the memory budget of the cache in bytes
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        if (memoryBudget < 0) {
+            throw new IllegalArgumentException("The memory budget cannot be negative.");
+        }
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Returns the weigher used to estimate the memory used by the objects.
+     *
+     * @return the weigher used to estimate the memory used by the objects
+     */
+    public ObjectWeigher getObjectWeigher() {
+        return objectWeigher;
+    }
+
+    /**
+     * Sets the weigher used to estimate the memory used by the objects. The
+     * objects already in cache keep their weight until they are updated.
+     *
+     * @param objectWeigher the weigher used to estimate the memory used by the
+     * objects
+     */
+    public void setObjectWeigher(ObjectWeigher objectWeigher) {
+        if (objectWeigher == null) {
+            throw new IllegalArgumentException("The object weigher cannot be null.");
+        }
+        this.objectWeigher = objectWeigher;
+    }
+
+    /**
+     * Returns the estimated memory used by the objects in cache in bytes.
+     *
+     * @return the estimated memory used by the objects in cache in bytes
+     */
+    public long getResidentBytes() {
+        return residentBytes.get();
+    }
+
+    /**
+     * Returns the statistics of the given table, null if the table was never
+     * loaded in this cache.
+     *
+     * @param dbName the name of the database
+     * @param tableName the name of the table
+     *
+     * @return the statistics of the given table
+     */
+    public ObjectsCacheStatistics getStatistics(String dbName, String tableName) {
+        TableCache tableCache = getTableCacheIfPresent(dbName, tableName);
+        if (tableCache == null) {
+            return null;
+        }
+        return tableCache.getStatistics();
+    }
+
+    /**
+     * Returns the statistics of all tables loaded in this cache.
+     *
+     * @return the statistics of all tables loaded in this cache
+     */
+    public ArrayList<ObjectsCacheStatistics> getStatistics() {
+        ArrayList<ObjectsCacheStatistics> result = new ArrayList<ObjectsCacheStatistics>();
+        for (ConcurrentHashMap<String, TableCache> dbCache : loadedObjectsMap.values()) {
+            for (TableCache tableCache : dbCache.values()) {
+                result.add(tableCache.getStatistics());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a snapshot of the time spent by the threads waiting for the
+     * eviction mutex, one duration per acquisition.
+     *
+     * @return the time spent waiting for the eviction mutex
+     */
+    public LatencyHistogram getEvictionMutexWait() {
+        return evictionMutexWait.copy();
+    }
+
+    /**
+     * Acquires the eviction mutex and records the time spent waiting. The
+     * clock is only read when the mutex is not immediately available.
+     *
+     * @throws InterruptedException if the thread is interrupted
+     */
+    private void acquireEvictionMutex() throws InterruptedException {
+        if (evictionMutex.tryAcquire()) {
+            evictionMutexWait.record(0);
+        } else {
+            long start = System.nanoTime();
+            evictionMutex.acquire();
+            evictionMutexWait.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Indicates whether the modified objects evicted from the cache are written
+     * to the database in the background.
+     *
+     * @return a boolean indicating whether the modified objects evicted from
+     * the cache are written to the database in the background
+     */
+    public boolean isWriteBehind() {
+        return cacheWriter != null;
+    }
+
+    /**
+     * Sets whether the modified objects evicted from the cache are written to
+     * the database in the background. When disabling, waits until the queued
+     * objects are written.
+     *
+     * @param writeBehind a boolean indicating whether the modified objects
+     * evicted from the cache are written to the database in the background
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing the queued objects
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the queued objects
+     * @throws java.lang.InterruptedException if the thread is interrupted
+     */
+    public synchronized void setWriteBehind(boolean writeBehind) throws IOException, SQLException, InterruptedException {
+        if (writeBehind && cacheWriter == null) {
+            cacheWriter = new ObjectsCacheWriter(this, writeBehindCapacity);
+        } else if (!writeBehind && cacheWriter != null) {
+            ObjectsCacheWriter writer = cacheWriter;
+            try {
+                writer.close();
+            } finally {
+                cacheWriter = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the capacity of the write-behind queue in number of objects.
+     *
+     * @return the capacity of the write-behind queue in number of objects
+     */
+    public int getWriteBehindCapacity() {
+        return writeBehindCapacity;
+    }
+
+    /**
+     * Sets the capacity of the write-behind queue in number of objects. When
+     * the queue is full, the threads evicting objects from the cache wait for
+     * the queued objects to be written. Takes effect the next time write-behind
+     * is enabled.
+     *
+     * @param writeBehindCapacity the capacity of the write-behind queue in
+     * number of objects
+     */
+    public void setWriteBehindCapacity(int writeBehindCapacity) {
+        this.writeBehindCapacity = writeBehindCapacity;
+    }
+
+    /**
+     * Waits until the modified objects evicted from the cache are written to
+     * the database. Returns immediately if write-behind is not enabled.
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing the queued objects
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the queued objects
+     * @throws java.lang.InterruptedException if the thread is interrupted
+     */
+    public void flush() throws IOException, SQLException, InterruptedException {
+        ObjectsCacheWriter writer = cacheWriter;
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    /**
+     * Returns the database of the given name handled by this cache, null if
+     * not found.
+     *
+     * @param dbName the name of the database
+     *
+     * @return the database of the given name
+     */
+    ObjectsDB getDatabase(String dbName) {
+        return databases.get(dbName);
+    }
+
     /**
      * Adds a database in the list of the databases handled by the cache. If a
      * database with the same name is already present it will be silently
@@ -176,7 +451,20 @@ public class ObjectsCache {
             throw new IllegalArgumentException("Database name (" + dbName + ") should not contain " + cacheSeparator);
         }
         databases.put(dbName, objectsDB);
-        loadedObjectsMap.put(dbName, new HashMap<String, HashMap<String, CacheEntry>>());
+        ConcurrentHashMap<String, TableCache> oldDbCache = loadedObjectsMap.put(dbName, new ConcurrentHashMap<String, TableCache>());
+        if (oldDbCache != null) {
+            for (TableCache tableCache : oldDbCache.values()) {
+                for (CacheEntry entry : tableCache.entries.values()) {
+                    CacheStripe stripe = getStripe(entry);
+                    synchronized (stripe) {
+                        if (stripe.unlink(entry)) {
+                            tableCache.entries.remove(entry.objectKey, entry);
+                            removed(entry, false);
+                        }
+                    }
+                }
+            }
+        }
     }
 
     /**
@@ -190,19 +478,28 @@ public class ObjectsCache {
      */
     public void removeObject(String dbName, String tableName, String objectKey) throws InterruptedException {
         if (!readOnly) {
-            String cacheKey = getCacheKey(dbName, tableName, objectKey);
-            loadedObjectKeysMutex.acquire();
-            loadedObjectsKeys.remove(cacheKey);
-            loadedObjectKeysMutex.release();
-            HashMap<String, HashMap<String, CacheEntry>> dbObjects = loadedObjectsMap.get(dbName);
-            if (dbObjects != null) {
-                MapMutex<String> dbMutexMap = getMapMutex(dbName);
-                dbMutexMap.acquire(tableName);
-                HashMap<String, CacheEntry> tableObjects = dbObjects.get(tableName);
-                if (tableObjects != null) {
-                    tableObjects.remove(objectKey);
+            TableCache tableCache = getTableCacheIfPresent(dbName, tableName);
+            if (tableCache != null) {
+                CacheStripe stripe = stripes[getHash(dbName, tableName, objectKey) & (stripes.length - 1)];
+                boolean evicting = false;
+                synchronized (stripe) {
+                    CacheEntry entry = tableCache.entries.remove(objectKey);
+                    if (entry != null) {
+                        evicting = entry.evicting;
+                        if (stripe.unlink(entry) || evicting) {
+                            removed(entry, false);
+                        }
+                    }
+                }
+                if (evicting) {
+                    // wait for the entry being written to avoid writing it back after its deletion
+                    acquireEvictionMutex();
+                    evictionMutex.release();
                 }
-                dbMutexMap.release(tableName);
+            }
+            ObjectsCacheWriter writer = cacheWriter;
+            if (writer != null) {
+                writer.cancel(getCacheKey(dbName, tableName, objectKey));
             }
         }
     }
@@ -219,12 +516,9 @@ public class ObjectsCache {
      * @return the entry of interest, null if not present in the cache
      */
     private CacheEntry getEntry(String dbName, String tableName, String objectKey) {
-        HashMap<String, HashMap<String, CacheEntry>> dbObjects = loadedObjectsMap.get(dbName);
-        if (dbObjects != null) {
-            HashMap<String, CacheEntry> tableObjects = dbObjects.get(tableName);
-            if (tableObjects != null) {
-                return tableObjects.get(objectKey);
-            }
+        TableCache tableCache = getTableCacheIfPresent(dbName, tableName);
+        if (tableCache != null) {
+            return tableCache.entries.get(objectKey);
         }
         return null;
     }
@@ -241,12 +535,32 @@ public class ObjectsCache {
      * @return the object of interest, null if not present in the cache
      */
     public Object getObject(String dbName, String tableName, String objectKey) {
-        CacheEntry entry = getEntry(dbName, tableName, objectKey);
-        if (entry != null) {
-            return entry.getObject();
-        } else {
-            return null;
+        TableCache tableCache = getTableCacheIfPresent(dbName, tableName);
+        if (tableCache != null) {
+            CacheEntry entry = tableCache.entries.get(objectKey);
+            if (entry != null) {
+                if (!entry.referenced) {
+                    entry.referenced = true;
+                }
+                frequencySketch.increment(entry.hash);
+                tableCache.hits.increment();
+                return entry.object;
+            }
+        }
+        Object object = null;
+        ObjectsCacheWriter writer = cacheWriter;
+        if (writer != null) {
+            object = writer.getPendingObject(getCacheKey(dbName, tableName, objectKey));
+        }
+        if (tableCache != null) {
+            if (object != null) {
+                tableCache.hits.increment();
+            } else {
+                tableCache.misses.increment();
+            }
         }
+        frequencySketch.increment(getHash(dbName, tableName, objectKey));
+        return object;
     }
 
     /**
@@ -264,19 +578,29 @@ public class ObjectsCache {
      */
     public boolean updateObject(String dbName, String tableName, String objectKey, Object object) throws InterruptedException {
         if (!readOnly) {
-            CacheEntry entry = getEntry(dbName, tableName, objectKey);
-            if (entry != null) {
-                MapMutex<String> dbMutexMap = getMapMutex(dbName);
-                dbMutexMap.acquire(tableName);
-                entry = getEntry(dbName, tableName, objectKey);
-                boolean result = false;
-                if (entry != null && !readOnly) {
-                    entry.setModified(true);
-                    entry.setObject(object);
-                    result = true;
+            TableCache tableCache = getTableCacheIfPresent(dbName, tableName);
+            if (tableCache != null && tableCache.entries.containsKey(objectKey)) {
+                long weight = objectWeigher.getWeight(object);
+                CacheStripe stripe = stripes[getHash(dbName, tableName, objectKey) & (stripes.length - 1)];
+                synchronized (stripe) {
+                    CacheEntry entry = tableCache.entries.get(objectKey);
+                    if (entry != null && !readOnly) {
+                        entry.object = object;
+                        entry.modified = true;
+                        setWeight(stripe, entry, weight);
+                        return true;
+                    }
+                }
+            }
+            ObjectsCacheWriter writer = cacheWriter;
+            if (writer != null) {
+                String cacheKey = getCacheKey(dbName, tableName, objectKey);
+                if (writer.isPending(cacheKey)) {
+                    // the object is waiting to be written, put the new version back in cache
+                    putEntry(dbName, tableName, objectKey, object, true);
+                    writer.cancel(cacheKey);
+                    return true;
                 }
-                dbMutexMap.release(tableName);
-                return result;
             }
             return false;
         }
@@ -307,34 +631,171 @@ public class ObjectsCache {
             if (objectKey.contains(cacheSeparator)) {
                 throw new IllegalArgumentException("Object key (" + objectKey + ") should not contain " + cacheSeparator + ".");
             }
-            HashMap<String, HashMap<String, CacheEntry>> dbCache = loadedObjectsMap.get(dbName);
-            MapMutex<String> dbMutexMap = getMapMutex(dbName);
-            dbMutexMap.acquire(tableName);
-            HashMap<String, CacheEntry> tableCache = dbCache.get(tableName);
-            if (tableCache == null) {
-                tableCache = dbCache.get(tableName);
-                if (tableCache == null) {
-                    if (tableName.contains(cacheSeparator)) {
-                        throw new IllegalArgumentException("Table name (" + tableName + ") should not contain " + cacheSeparator + ".");
-                    }
-                    tableCache = new HashMap<String, CacheEntry>(512);
-                    dbCache.put(tableName, tableCache);
-                }
-            }
-            if (!tableCache.containsKey(objectKey)) {
-                String key = getCacheKey(dbName, tableName, objectKey);
-                loadedObjectKeysMutex.acquire();
-                loadedObjectsKeys.add(key);
-                loadedObjectKeysMutex.release();
+            putEntry(dbName, tableName, objectKey, object, modifiedOrNew);
+            ObjectsCacheWriter writer = cacheWriter;
+            if (writer != null) {
+                writer.cancel(getCacheKey(dbName, tableName, objectKey));
             }
-            tableCache.put(objectKey, new CacheEntry(object, modifiedOrNew));
-            dbMutexMap.release(tableName);
             if (updateCache) {
                 updateCache();
             }
         }
     }
 
+    /**
+     * Puts an object in the cache, replacing the object of the entry if
+     * already present.
+     *
+     * @param dbName the name of the database
+     * @param tableName the name of the table
+     * @param objectKey the key of the object
+     * @param object the object to store in the cache
+     * @param modified true if the object is modified or new
+     */
+    private void putEntry(String dbName, String tableName, String objectKey, Object object, boolean modified) {
+        long weight = objectWeigher.getWeight(object);
+        TableCache tableCache = getTableCache(dbName, tableName);
+        int hash = getHash(dbName, tableName, objectKey);
+        frequencySketch.increment(hash);
+        CacheStripe stripe = stripes[hash & (stripes.length - 1)];
+        synchronized (stripe) {
+            CacheEntry entry = tableCache.entries.get(objectKey);
+            if (entry == null) {
+                addEntry(stripe, tableCache, objectKey, hash, object, modified, weight);
+            } else {
+                entry.object = object;
+                entry.modified = modified;
+                entry.referenced = true;
+                setWeight(stripe, entry, weight);
+            }
+        }
+    }
+
+    /**
+     * Puts back in the cache as modified an object which the write-behind
+     * queue could not write, so that it is written again when evicted or
+     * saved. Nothing is done if the object was put in the cache in the
+     * meantime, the cached version is then newer.
+     *
+     * @param dbName the name of the database
+     * @param tableName the name of the table
+     * @param objectKey the key of the object
+     * @param object the object which could not be written
+     */
+    void restoreEntry(String dbName, String tableName, String objectKey, Object object) {
+        long weight = objectWeigher.getWeight(object);
+        TableCache tableCache = getTableCache(dbName, tableName);
+        int hash = getHash(dbName, tableName, objectKey);
+        CacheStripe stripe = stripes[hash & (stripes.length - 1)];
+        synchronized (stripe) {
+            if (!tableCache.entries.containsKey(objectKey)) {
+                addEntry(stripe, tableCache, objectKey, hash, object, true, weight);
+            }
+        }
+    }
+
+    /**
+     * Adds a new entry to the cache. The lock of the stripe must be held by
+     * the calling thread.
+     *
+     * @param stripe the stripe of the entry
+     * @param tableCache the cache of the table
+     * @param objectKey the key of the object
+     * @param hash the hash of the entry
+     * @param object the object
+     * @param modified true if the object is modified or new
+     * @param weight the weight of the object
+     */
+    private void addEntry(CacheStripe stripe, TableCache tableCache, String objectKey, int hash, Object object, boolean modified, long weight) {
+        CacheEntry entry = new CacheEntry(tableCache, objectKey, hash, object, modified);
+        entry.weight = weight;
+        tableCache.entries.put(objectKey, entry);
+        stripe.add(entry);
+        nObjects.incrementAndGet();
+        residentBytes.addAndGet(weight);
+        tableCache.residentBytes.addAndGet(weight);
+    }
+
+    /**
+     * Updates the weight of an entry. The lock of the stripe of the entry must
+     * be held by the calling thread.
+     *
+     * @param stripe the stripe of the entry
+     * @param entry the entry
+     * @param weight the new weight of the entry
+     */
+    private void setWeight(CacheStripe stripe, CacheEntry entry, long weight) {
+        long delta = weight - entry.weight;
+        if (delta != 0) {
+            stripe.setWeight(entry, weight);
+            residentBytes.addAndGet(delta);
+            entry.tableCache.residentBytes.addAndGet(delta);
+        }
+    }
+
+    /**
+     * Updates the counters of the cache after the removal of an entry. The
+     * lock of the stripe of the entry must be held by the calling thread.
+     *
+     * @param entry the entry removed
+     * @param eviction boolean indicating whether the entry was evicted
+     */
+    private void removed(CacheEntry entry, boolean eviction) {
+        nObjects.decrementAndGet();
+        residentBytes.addAndGet(-entry.weight);
+        entry.tableCache.residentBytes.addAndGet(-entry.weight);
+        if (eviction) {
+            entry.tableCache.evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the cache of the given table, null if not present.
+     *
+     * @param dbName the name of the database
+     * @param tableName the name of the table
+     *
+     * @return the cache of the given table
+     */
+    private TableCache getTableCacheIfPresent(String dbName, String tableName) {
+        ConcurrentHashMap<String, TableCache> dbCache = loadedObjectsMap.get(dbName);
+        if (dbCache != null) {
+            return dbCache.get(tableName);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the cache of the given table, creates it if not existing.
+     *
+     * @param dbName the name of the database
+     * @param tableName the name of the table
+     *
+     * @return the cache of the given table
+     */
+    private TableCache getTableCache(String dbName, String tableName) {
+        ConcurrentHashMap<String, TableCache> dbCache = loadedObjectsMap.get(dbName);
+        if (dbCache == null) {
+            ConcurrentHashMap<String, TableCache> newDbCache = new ConcurrentHashMap<String, TableCache>();
+            dbCache = loadedObjectsMap.putIfAbsent(dbName, newDbCache);
+            if (dbCache == null) {
+                dbCache = newDbCache;
+            }
+        }
+        TableCache tableCache = dbCache.get(tableName);
+        if (tableCache == null) {
+            if (tableName.contains(cacheSeparator)) {
+                throw new IllegalArgumentException("Table name (" + tableName + ") should not contain " + cacheSeparator + ".");
+            }
+            TableCache newTableCache = new TableCache(dbName, tableName, stripes.length);
+            tableCache = dbCache.putIfAbsent(tableName, newTableCache);
+            if (tableCache == null) {
+                tableCache = newTableCache;
+            }
+        }
+        return tableCache;
+    }
+
     /**
      * Indicates whether the memory used by the application is lower than 99% of
      * the heap size.
@@ -393,102 +854,18 @@ public class ObjectsCache {
      * writing the object
      * @throws java.lang.InterruptedException if the thread is interrupted
      */
-    public synchronized void saveObjects(ArrayList<String> entryKeys, WaitingHandler waitingHandler, boolean clearEntries) throws IOException, SQLException, InterruptedException {
+    public void saveObjects(ArrayList<String> entryKeys, WaitingHandler waitingHandler, boolean clearEntries) throws IOException, SQLException, InterruptedException {
         if (!readOnly) {
-            if (waitingHandler != null) {
-                waitingHandler.resetSecondaryProgressCounter();
-                if (clearEntries) {
-                    waitingHandler.setMaxSecondaryProgressCounter(3 * entryKeys.size());
-                } else {
-                    waitingHandler.setMaxSecondaryProgressCounter(2 * entryKeys.size());
-                }
-            }
-            // temporary map for batch saving
-            HashMap<String, HashMap<String, HashMap<String, Object>>> toSave = new HashMap<String, HashMap<String, HashMap<String, Object>>>(1);
-            HashMap<String, HashSet<String>> blockedTablesMap = new HashMap<String, HashSet<String>>(1);
+            ArrayList<CacheEntry> entries = new ArrayList<CacheEntry>(entryKeys.size());
             for (String entryKey : entryKeys) {
                 String[] splittedKey = getKeyComponents(entryKey);
-                String dbName = splittedKey[0];
-                String tableName = splittedKey[1];
-                String objectKey = splittedKey[2];
-                HashSet<String> blockedTables = blockedTablesMap.get(dbName);
-                if (blockedTables == null) {
-                    blockedTables = new HashSet<String>();
-                    blockedTablesMap.put(dbName, blockedTables);
-                }
-                if (!blockedTables.contains(tableName)) {
-                    MapMutex<String> mapMutex = getMapMutex(dbName);
-                    mapMutex.acquire(tableName);
-                    blockedTables.add(tableName);
-                }
-                CacheEntry entry = getEntry(dbName, tableName, objectKey);
-
+                CacheEntry entry = getEntry(splittedKey[0], splittedKey[1], splittedKey[2]);
                 if (entry == null) {
-                    throw new IllegalArgumentException("Object " + objectKey + " corresponding to entry " + entryKey + " not found in cache when saving.");
-                } else if (entry.isModified()) {
-                    HashMap<String, HashMap<String, Object>> dbMap = toSave.get(dbName);
-                    if (dbMap == null) {
-                        dbMap = new HashMap<String, HashMap<String, Object>>();
-                        toSave.put(dbName, dbMap);
-                    }
-                    HashMap<String, Object> tableMap = dbMap.get(tableName);
-                    if (tableMap == null) {
-                        tableMap = new HashMap<String, Object>();
-                        dbMap.put(tableName, tableMap);
-                    }
-                    tableMap.put(objectKey, entry.getObject());
-                }
-
-                if (waitingHandler != null) {
-                    waitingHandler.increaseSecondaryProgressCounter();
-                    if (waitingHandler.isRunCanceled()) {
-                        return;
-                    }
-                }
-            }
-            for (String dbName : toSave.keySet()) {
-                ObjectsDB objectsDB = databases.get(dbName);
-                for (String tableName : toSave.get(dbName).keySet()) {
-                    objectsDB.insertObjects(tableName, toSave.get(dbName).get(tableName), waitingHandler);
-                }
-            }
-            if (waitingHandler == null || !waitingHandler.isRunCanceled()) {
-                if (clearEntries) {
-                    for (String entryKey : entryKeys) {
-                        String[] splittedKey = getKeyComponents(entryKey);
-                        String dbName = splittedKey[0];
-                        String tableName = splittedKey[1];
-                        String objectKey = splittedKey[2];
-                        HashMap<String, HashMap<String, CacheEntry>> dbMap = loadedObjectsMap.get(dbName);
-                        if (dbMap != null) {
-                            HashMap<String, CacheEntry> tableMap = dbMap.get(tableName);
-                            if (tableMap != null) {
-                                tableMap.remove(objectKey);
-                                if (tableMap.isEmpty()) {
-                                    dbMap.remove(tableName);
-                                }
-                            }
-                            if (dbMap.isEmpty()) {
-                                loadedObjectsMap.remove(dbName);
-                            }
-                        }
-
-                        if (waitingHandler != null) {
-                            waitingHandler.increaseSecondaryProgressCounter();
-                            if (waitingHandler.isRunCanceled()) {
-                                return;
-                            }
-                        }
-                    }
-                }
-            }
-            for (String dbName : blockedTablesMap.keySet()) {
-                HashSet<String> blockedTables = blockedTablesMap.get(dbName);
-                MapMutex<String> mapMutex = getMapMutex(dbName);
-                for (String blockedTable : blockedTables) {
-                    mapMutex.release(blockedTable);
+                    throw new IllegalArgumentException("Object " + splittedKey[2] + " corresponding to entry " + entryKey + " not found in cache when saving.");
                 }
+                entries.add(entry);
             }
+            saveEntries(entries, waitingHandler, clearEntries);
         }
     }
 
@@ -505,7 +882,7 @@ public class ObjectsCache {
      * writing the object
      * @throws java.lang.InterruptedException if the thread is interrupted
      */
-    public synchronized void saveObject(String entryKey) throws IOException, SQLException, InterruptedException {
+    public void saveObject(String entryKey) throws IOException, SQLException, InterruptedException {
         saveObject(entryKey, true);
     }
 
@@ -524,46 +901,175 @@ public class ObjectsCache {
      * writing the object
      * @throws java.lang.InterruptedException if the thread is interrupted
      */
-    public synchronized void saveObject(String entryKey, boolean clearEntry) throws IOException, SQLException, InterruptedException {
-        if (!readOnly) {
-            String[] splittedKey = getKeyComponents(entryKey);
-            String dbName = splittedKey[0];
-            String tableName = splittedKey[1];
-            String objectKey = splittedKey[2];
-            MapMutex<String> mapMutex = getMapMutex(dbName);
-            mapMutex.acquire(tableName);
-            CacheEntry entry = loadedObjectsMap.get(dbName).get(tableName).get(objectKey);
-            if (entry.isModified()) {
-                try {
-                    ObjectsDB objectsDB = databases.get(dbName);
-                    if (objectsDB == null) {
-                        throw new IllegalStateException("Database " + dbName + " not loaded in cache");
-                    }
-                    if (objectsDB.inDB(tableName, objectKey, false)) {
-                        objectsDB.updateObject(tableName, objectKey, entry.getObject(), false);
-                    } else {
-                        objectsDB.insertObject(tableName, objectKey, entry.getObject(), false);
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    throw new IOException("Error while writing match " + objectKey + " in table " + tableName + " in database" + dbName + ".");
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                    throw new SQLException("Error while writing match " + objectKey + " in table " + tableName + " in database" + dbName + ".");
-                }
+    public void saveObject(String entryKey, boolean clearEntry) throws IOException, SQLException, InterruptedException {
+        ArrayList<String> entryKeys = new ArrayList<String>(1);
+        entryKeys.add(entryKey);
+        saveObjects(entryKeys, null, clearEntry);
+    }
+
+    /**
+     * Saves the given entries in the database if modified. If cleared, the
+     * entries remain accessible in the cache while they are written and are
+     * kept in cache if modified in the meantime.
+     *
+     * @param entries the entries to save
+     * @param waitingHandler a waiting handler displaying progress to the user.
+     * Can be null. Progress will be displayed as secondary.
+     * @param clearEntries a boolean indicating whether the entries shall be
+     * cleared from the cache
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * adding the object in the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     * @throws java.lang.InterruptedException if the thread is interrupted
+     */
+    private void saveEntries(ArrayList<CacheEntry> entries, WaitingHandler waitingHandler, boolean clearEntries) throws IOException, SQLException, InterruptedException {
+        if (waitingHandler != null) {
+            waitingHandler.resetSecondaryProgressCounter();
+            if (clearEntries) {
+                waitingHandler.setMaxSecondaryProgressCounter(3 * entries.size());
+            } else {
+                waitingHandler.setMaxSecondaryProgressCounter(2 * entries.size());
             }
-            if (clearEntry) {
-                loadedObjectKeysMutex.acquire();
-                loadedObjectsKeys.remove(entryKey);
-                loadedObjectKeysMutex.release();
-                HashMap<String, HashMap<String, ObjectsCache.CacheEntry>> dbCache = loadedObjectsMap.get(dbName);
-                HashMap<String, ObjectsCache.CacheEntry> tableCache = dbCache.get(tableName);
-                tableCache.remove(objectKey);
-                if (tableCache.isEmpty()) {
-                    dbCache.remove(tableName);
+        }
+        acquireEvictionMutex();
+        try {
+            if (clearEntries) {
+                ArrayList<CacheEntry> evictedEntries = new ArrayList<CacheEntry>(entries.size());
+                for (CacheEntry entry : entries) {
+                    CacheStripe stripe = getStripe(entry);
+                    synchronized (stripe) {
+                        if (!entry.evicting && entry.tableCache.entries.get(entry.objectKey) == entry) {
+                            stripe.unlink(entry);
+                            entry.evicting = true;
+                            evictedEntries.add(entry);
+                        }
+                    }
+                }
+                writeEntries(evictedEntries, waitingHandler, true);
+            } else {
+                writeEntries(entries, waitingHandler, false);
+            }
+        } finally {
+            evictionMutex.release();
+        }
+    }
+
+    /**
+     * Writes the modified entries to the database. If cleared, the entries
+     * must have been removed from the lists of their stripe and flagged as
+     * evicting. They are removed from the cache once written unless modified
+     * in the meantime. The eviction mutex must be held by the calling thread.
+     *
+     * @param entries the entries to write
+     * @param waitingHandler a waiting handler displaying progress to the user.
+     * Can be null. Progress will be displayed as secondary.
+     * @param clearEntries a boolean indicating whether the entries shall be
+     * cleared from the cache
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * adding the object in the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     * @throws java.lang.InterruptedException if the thread is interrupted
+     */
+    private void writeEntries(ArrayList<CacheEntry> entries, WaitingHandler waitingHandler, boolean clearEntries) throws IOException, SQLException, InterruptedException {
+        ArrayList<CacheEntry> savedEntries = new ArrayList<CacheEntry>(entries.size());
+        // temporary map for batch saving
+        HashMap<String, HashMap<String, HashMap<String, Object>>> toSave = new HashMap<String, HashMap<String, HashMap<String, Object>>>(1);
+        for (CacheEntry entry : entries) {
+            CacheStripe stripe = getStripe(entry);
+            synchronized (stripe) {
+                if (entry.modified) {
+                    HashMap<String, HashMap<String, Object>> dbMap = toSave.get(entry.tableCache.dbName);
+                    if (dbMap == null) {
+                        dbMap = new HashMap<String, HashMap<String, Object>>();
+                        toSave.put(entry.tableCache.dbName, dbMap);
+                    }
+                    HashMap<String, Object> tableMap = dbMap.get(entry.tableCache.tableName);
+                    if (tableMap == null) {
+                        tableMap = new HashMap<String, Object>();
+                        dbMap.put(entry.tableCache.tableName, tableMap);
+                    }
+                    tableMap.put(entry.objectKey, entry.object);
+                    if (clearEntries) {
+                        // modifications made while writing will keep the entry in cache
+                        entry.modified = false;
+                        savedEntries.add(entry);
+                    }
+                }
+            }
+            if (waitingHandler != null) {
+                waitingHandler.increaseSecondaryProgressCounter();
+                if (waitingHandler.isRunCanceled()) {
+                    restoreEntries(clearEntries ? entries : new ArrayList<CacheEntry>(0), savedEntries);
+                    return;
+                }
+            }
+        }
+        boolean written = false;
+        try {
+            for (String dbName : toSave.keySet()) {
+                ObjectsDB objectsDB = databases.get(dbName);
+                if (objectsDB == null) {
+                    throw new IllegalStateException("Database " + dbName + " not loaded in cache");
+                }
+                HashMap<String, HashMap<String, Object>> dbMap = toSave.get(dbName);
+                for (String tableName : dbMap.keySet()) {
+                    objectsDB.insertObjects(tableName, dbMap.get(tableName), waitingHandler);
+                }
+            }
+            written = true;
+        } finally {
+            if (!written) {
+                // whatever the failure, including Errors, the entries must not remain flagged as evicting
+                restoreEntries(clearEntries ? entries : new ArrayList<CacheEntry>(0), savedEntries);
+            }
+        }
+        if (clearEntries) {
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                restoreEntries(entries, savedEntries);
+                return;
+            }
+            for (CacheEntry entry : entries) {
+                CacheStripe stripe = getStripe(entry);
+                synchronized (stripe) {
+                    entry.evicting = false;
+                    if (entry.tableCache.entries.get(entry.objectKey) == entry) {
+                        if (entry.modified) {
+                            stripe.add(entry);
+                        } else {
+                            entry.tableCache.entries.remove(entry.objectKey);
+                            removed(entry, true);
+                        }
+                    }
+                }
+                if (waitingHandler != null) {
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts back in cache entries which could not be saved.
+     *
+     * @param evictedEntries the entries removed from the eviction lists
+     * @param savedEntries the entries marked as not modified
+     */
+    private void restoreEntries(ArrayList<CacheEntry> evictedEntries, ArrayList<CacheEntry> savedEntries) {
+        for (CacheEntry entry : savedEntries) {
+            entry.modified = true;
+        }
+        for (CacheEntry entry : evictedEntries) {
+            CacheStripe stripe = getStripe(entry);
+            synchronized (stripe) {
+                entry.evicting = false;
+                if (entry.tableCache.entries.get(entry.objectKey) == entry) {
+                    stripe.add(entry);
                 }
             }
-            mapMutex.release(tableName);
         }
     }
 
@@ -577,11 +1083,28 @@ public class ObjectsCache {
      * @throws java.lang.InterruptedException if the thread is interrupted
      */
     public void updateCache() throws IOException, SQLException, InterruptedException {
-        if (!readOnly && !updating) {
+        if (!readOnly && !updating && cacheFull()) {
             updateCacheSynchronized();
         }
     }
 
+    /**
+     * Indicates whether objects should be removed from the cache.
+     *
+     * @return a boolean indicating whether objects should be removed from the
+     * cache
+     */
+    private boolean cacheFull() {
+        if (memoryBudget > 0) {
+            if (residentBytes.get() > memoryBudget) {
+                return true;
+            }
+        } else if (!automatedMemoryManagement && nObjects.get() > cacheSize) {
+            return true;
+        }
+        return automatedMemoryManagement && !memoryCheck();
+    }
+
     /**
      * Updates the cache according to the memory settings.
      *
@@ -593,26 +1116,177 @@ public class ObjectsCache {
      */
     public synchronized void updateCacheSynchronized() throws IOException, SQLException, InterruptedException {
         updating = true;
-        while ((!automatedMemoryManagement && loadedObjectsKeys.size() > cacheSize)
-                || (automatedMemoryManagement && !memoryCheck())) {
-            int toRemove = (int) (((double) loadedObjectsKeys.size()) * 0.25); // remove 25% of the objects from the cache
-            if (toRemove <= 1) {
-                loadedObjectKeysMutex.acquire();
-                String objectKey = loadedObjectsKeys.take();
-                loadedObjectKeysMutex.release();
-                saveObject(objectKey);
-            } else {
-                ArrayList<String> keysToRemove = new ArrayList<String>(toRemove);
-                loadedObjectKeysMutex.acquire();
-                loadedObjectsKeys.drainTo(keysToRemove, toRemove);
-                loadedObjectKeysMutex.release();
-                saveObjects(keysToRemove);
+        try {
+            frequencySketch.ensureCapacity(nObjects.get());
+            while (cacheFull()) {
+                int toRemove;
+                long bytesToRemove;
+                long budget = memoryBudget;
+                if (budget > 0 && residentBytes.get() > budget) {
+                    // go below the budget to avoid evicting at every addition
+                    toRemove = Integer.MAX_VALUE;
+                    bytesToRemove = residentBytes.get() - budget + (long) (BUDGET_SLACK * budget);
+                } else {
+                    toRemove = Math.max((int) (((double) nObjects.get()) * 0.25), 1); // remove 25% of the objects from the cache
+                    bytesToRemove = Long.MAX_VALUE;
+                }
+                ObjectsCacheWriter writer = cacheWriter;
+                if (writer != null) {
+                    if (evictObjects(toRemove, bytesToRemove, writer) == 0) {
+                        break;
+                    }
+                    if (automatedMemoryManagement && !memoryCheck()) {
+                        // the evicted objects are only released once written
+                        writer.flush();
+                    }
+                } else {
+                    if (saveVictims(toRemove, bytesToRemove, null) == 0) {
+                        break;
+                    }
+                }
+                if (nObjects.get() == 0) {
+                    break;
+                }
             }
-            if (loadedObjectsKeys.isEmpty()) {
-                break;
+        } finally {
+            updating = false;
+        }
+    }
+
+    /**
+     * Saves entries to the database and removes them from the cache according
+     * to the eviction policy.
+     *
+     * @param nVictims the maximal number of entries to remove
+     * @param nBytes the estimated memory to free in bytes
+     * @param waitingHandler a waiting handler displaying progress to the user.
+     * Can be null. Progress will be displayed as secondary.
+     *
+     * @return the number of entries saved
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * adding the object in the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     * @throws java.lang.InterruptedException if the thread is interrupted
+     */
+    private int saveVictims(int nVictims, long nBytes, WaitingHandler waitingHandler) throws IOException, SQLException, InterruptedException {
+        if (readOnly) {
+            return 0;
+        }
+        acquireEvictionMutex();
+        try {
+            ArrayList<CacheEntry> victims = selectVictims(nVictims, nBytes);
+            if (waitingHandler != null) {
+                waitingHandler.resetSecondaryProgressCounter();
+                waitingHandler.setMaxSecondaryProgressCounter(3 * victims.size());
             }
+            writeEntries(victims, waitingHandler, true);
+            return victims.size();
+        } finally {
+            evictionMutex.release();
         }
-        updating = false;
+    }
+
+    /**
+     * Selects entries to be removed from the cache according to the eviction
+     * policy, removes them from the lists of their stripe and flags them as
+     * evicting. Stops when either the number of entries or the memory to free
+     * is reached. The entries exceeding the share of the admission windows
+     * compete first with the entries of the main spaces, then the stripes
+     * contribute in proportion to their size. Must be called while holding the
+     * lock of this cache.
+     *
+     * @param nVictims the maximal number of entries to select
+     * @param nBytes the estimated memory to free in bytes
+     *
+     * @return the selected entries
+     */
+    private ArrayList<CacheEntry> selectVictims(int nVictims, long nBytes) {
+        ArrayList<CacheEntry> victims = new ArrayList<CacheEntry>();
+        int total = Math.max(nObjects.get(), 1);
+        double totalBytes = Math.max(residentBytes.get(), 1);
+        long freed = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            CacheStripe stripe = stripes[(evictionCursor + i) & (stripes.length - 1)];
+            synchronized (stripe) {
+                while (true) {
+                    CacheEntry victim = stripe.pollCandidate(frequencySketch, victims.size() < nVictims && freed < nBytes);
+                    if (victim == null) {
+                        break;
+                    }
+                    victim.evicting = true;
+                    victims.add(victim);
+                    freed += victim.weight;
+                }
+            }
+        }
+        int emptyStripes = 0;
+        while (victims.size() < nVictims && freed < nBytes && emptyStripes < stripes.length) {
+            CacheStripe stripe = stripes[evictionCursor];
+            evictionCursor = (evictionCursor + 1) & (stripes.length - 1);
+            synchronized (stripe) {
+                long countQuota = Math.min(Math.max(((long) stripe.size()) * nVictims / total, 1), nVictims - victims.size());
+                long bytesQuota = Math.max((long) (stripe.weight() * (nBytes / totalBytes)), 1);
+                long stripeCount = 0;
+                long stripeBytes = 0;
+                while (stripeCount < countQuota && stripeBytes < bytesQuota && freed + stripeBytes < nBytes) {
+                    CacheEntry victim = stripe.pollVictim();
+                    if (victim == null) {
+                        break;
+                    }
+                    victim.evicting = true;
+                    victims.add(victim);
+                    stripeCount++;
+                    stripeBytes += victim.weight;
+                }
+                freed += stripeBytes;
+                emptyStripes = stripe.size() == 0 ? emptyStripes + 1 : 0;
+            }
+        }
+        return victims;
+    }
+
+    /**
+     * Removes entries from the cache according to the eviction policy and
+     * queues the modified ones for writing in the background. The objects
+     * remain accessible until written.
+     *
+     * @param nVictims the maximal number of entries to remove
+     * @param nBytes the estimated memory to free in bytes
+     * @param writer the write-behind queue
+     *
+     * @return the number of entries removed
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing previously queued objects
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing previously queued objects
+     * @throws java.lang.InterruptedException if the thread is interrupted
+     */
+    private int evictObjects(int nVictims, long nBytes, ObjectsCacheWriter writer) throws IOException, SQLException, InterruptedException {
+        if (readOnly) {
+            return 0;
+        }
+        ArrayList<CacheEntry> victims = selectVictims(nVictims, nBytes);
+        ArrayList<ObjectsCacheWriter.PendingWrite> stagedWrites = new ArrayList<ObjectsCacheWriter.PendingWrite>();
+        for (CacheEntry victim : victims) {
+            CacheStripe stripe = getStripe(victim);
+            synchronized (stripe) {
+                victim.evicting = false;
+                if (victim.tableCache.entries.get(victim.objectKey) == victim) {
+                    if (victim.modified) {
+                        // staged before removal so that the object remains accessible
+                        String cacheKey = getCacheKey(victim.tableCache.dbName, victim.tableCache.tableName, victim.objectKey);
+                        stagedWrites.add(writer.stage(cacheKey, victim.tableCache.dbName, victim.tableCache.tableName, victim.objectKey, victim.object));
+                    }
+                    victim.tableCache.entries.remove(victim.objectKey);
+                    removed(victim, true);
+                }
+            }
+        }
+        writer.queue(stagedWrites);
+        return victims.size();
     }
 
     /**
@@ -653,13 +1327,14 @@ public class ObjectsCache {
      */
     private synchronized void reduceMemoryConsumptionSynchronized(double share, WaitingHandler waitingHandler) throws IOException, SQLException, InterruptedException {
         reducingMemoryConsumption = true;
-        int toRemove = (int) (share * loadedObjectsKeys.size());
-        ArrayList<String> keysToRemove = new ArrayList<String>(toRemove);
-        loadedObjectKeysMutex.acquire();
-        loadedObjectsKeys.drainTo(keysToRemove, toRemove);
-        loadedObjectKeysMutex.release();
-        saveObjects(keysToRemove, waitingHandler);
-        reducingMemoryConsumption = false;
+        try {
+            int toRemove = (int) (share * nObjects.get());
+            if (toRemove > 0) {
+                saveVictims(toRemove, Long.MAX_VALUE, waitingHandler);
+            }
+        } finally {
+            reducingMemoryConsumption = false;
+        }
     }
 
     /**
@@ -671,7 +1346,11 @@ public class ObjectsCache {
      * @return a boolean indicating whether an object is loaded in the cache
      */
     public boolean inCache(String dbName, String tableName, String objectKey) {
-        return getEntry(dbName, tableName, objectKey) != null;
+        if (getEntry(dbName, tableName, objectKey) != null) {
+            return true;
+        }
+        ObjectsCacheWriter writer = cacheWriter;
+        return writer != null && writer.isPending(getCacheKey(dbName, tableName, objectKey));
     }
 
     /**
@@ -689,52 +1368,62 @@ public class ObjectsCache {
      */
     public synchronized void saveCache(WaitingHandler waitingHandler, boolean emptyCache) throws IOException, SQLException, InterruptedException {
 
+        // make sure that the objects evicted earlier are written first
+        flush();
+
         if (waitingHandler != null) {
-            waitingHandler.setMaxSecondaryProgressCounter((loadedObjectsKeys.size() * 2) + 1);
+            waitingHandler.setMaxSecondaryProgressCounter((nObjects.get() * 2) + 1);
             waitingHandler.setSecondaryProgressCounterIndeterminate(false);
             waitingHandler.setSecondaryProgressCounter(0);
         }
 
-        // add the objects to the database
-        for (String dbName : loadedObjectsMap.keySet()) {
+        acquireEvictionMutex();
+        try {
 
-            ObjectsDB objectsDB = databases.get(dbName);
+            // add the objects to the database
+            for (String dbName : loadedObjectsMap.keySet()) {
 
-            if (objectsDB == null) {
-                throw new IllegalStateException("Database " + dbName + " not loaded in cache");
-            }
-            for (String tableName : loadedObjectsMap.get(dbName).keySet()) {
-                MapMutex<String> mapMutex = getMapMutex(dbName);
-                mapMutex.acquire(tableName);
+                ObjectsDB objectsDB = databases.get(dbName);
+
+                if (objectsDB == null) {
+                    throw new IllegalStateException("Database " + dbName + " not loaded in cache");
+                }
+                ConcurrentHashMap<String, TableCache> dbCache = loadedObjectsMap.get(dbName);
+                for (String tableName : dbCache.keySet()) {
 
-                HashMap<String, CacheEntry> data = loadedObjectsMap.get(dbName).get(tableName);
-                HashMap<String, Object> objectsToStore = new HashMap<String, Object>(data.size());
+                    ConcurrentHashMap<String, CacheEntry> data = dbCache.get(tableName).entries;
+                    HashMap<String, Object> objectsToStore = new HashMap<String, Object>(data.size());
 
-                for (String objectKey : data.keySet()) {
-                    CacheEntry entry = data.get(objectKey);
-                    if (entry.isModified()) {
-                        objectsToStore.put(objectKey, entry.getObject());
-                    }
+                    for (CacheEntry entry : data.values()) {
+                        if (entry.modified) {
+                            objectsToStore.put(entry.objectKey, entry.object);
+                        }
 
-                    if (waitingHandler != null) {
-                        waitingHandler.increaseSecondaryProgressCounter();
-                        if (waitingHandler.isRunCanceled()) {
-                            return;
+                        if (waitingHandler != null) {
+                            waitingHandler.increaseSecondaryProgressCounter();
+                            if (waitingHandler.isRunCanceled()) {
+                                return;
+                            }
                         }
                     }
-                }
 
-                objectsDB.insertObjects(tableName, objectsToStore, waitingHandler);
-
-                mapMutex.release(tableName);
+                    objectsDB.insertObjects(tableName, objectsToStore, waitingHandler);
+                }
             }
-        }
 
-        if (emptyCache && !readOnly) {
-            loadedObjectsMap.clear();
-            loadedObjectKeysMutex.acquire();
-            loadedObjectsKeys.clear();
-            loadedObjectKeysMutex.release();
+            if (emptyCache && !readOnly) {
+                for (CacheStripe stripe : stripes) {
+                    synchronized (stripe) {
+                        CacheEntry entry;
+                        while ((entry = stripe.pollFirst()) != null) {
+                            entry.tableCache.entries.remove(entry.objectKey, entry);
+                            removed(entry, false);
+                        }
+                    }
+                }
+            }
+        } finally {
+            evictionMutex.release();
         }
     }
 
@@ -766,120 +1455,500 @@ public class ObjectsCache {
     }
 
     /**
-     * Indicates whether the cache is empty.
+     * Returns the hash of the entry with the given identifiers, used to select
+     * its stripe and to estimate its access frequency.
      *
-     * @return a boolean indicating whether the cache is empty
+     * @param dbName the DB name
+     * @param tableName the table name
+     * @param objectKey the object key
+     *
+     * @return the hash of the entry
      */
-    public boolean isEmpty() {
-        return loadedObjectsKeys.isEmpty();
+    private static int getHash(String dbName, String tableName, String objectKey) {
+        int hash = objectKey.hashCode() + 31 * (tableName.hashCode() + 31 * dbName.hashCode());
+        return hash ^ (hash >>> 16);
     }
 
     /**
-     * Sets the cache in read only.
+     * Returns the stripe of the given entry.
      *
-     * @param readOnly boolean indicating whether the cache should be in read
-     * only
+     * @param entry the entry
+     *
+     * @return the stripe of the entry
      */
-    public void setReadOnly(boolean readOnly) {
-        this.readOnly = readOnly;
+    private CacheStripe getStripe(CacheEntry entry) {
+        return stripes[entry.hash & (stripes.length - 1)];
     }
 
     /**
-     * Adds a map mutex to the dbCacheMutexMap.
-     *
-     * @param dbName the name of the database
+     * Returns the number of objects in cache.
      *
-     * @return the map mutex corresponding to the database
+     * @return the number of objects in cache
      */
-    private synchronized MapMutex<String> addMapMutex(String dbName) {
-        MapMutex<String> mapMutex = dbCacheMutexMap.get(dbName);
-        if (mapMutex == null) {
-            mapMutex = new MapMutex<String>();
-            dbCacheMutexMap.put(dbName, mapMutex);
-        }
-        return mapMutex;
+    public int getNObjects() {
+        return nObjects.get();
     }
 
     /**
-     * Returns the map mutex for the given database.
+     * Indicates whether the cache is empty.
      *
-     * @param dbName the name of the database
+     * @return a boolean indicating whether the cache is empty
+     */
+    public boolean isEmpty() {
+        ObjectsCacheWriter writer = cacheWriter;
+        return nObjects.get() == 0 && (writer == null || writer.getPendingCount() == 0);
+    }
+
+    /**
+     * Sets the cache in read only.
      *
-     * @return the map mutex
+     * @param readOnly boolean indicating whether the cache should be in read
+     * only
      */
-    private MapMutex<String> getMapMutex(String dbName) {
-        MapMutex<String> dbMutexMap = dbCacheMutexMap.get(dbName);
-        if (dbMutexMap == null) {
-            dbMutexMap = addMapMutex(dbName);
-        }
-        return dbMutexMap;
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
     }
 
     /**
-     * Class representing a cache entry.
+     * Class representing a cache entry. The entries are linked in a list of
+     * their stripe, the links are edited only by the threads holding the lock
+     * of the stripe.
      */
-    private class CacheEntry {
+    private static class CacheEntry {
 
+        /**
+         * The cache of the table of the entry.
+         */
+        private final TableCache tableCache;
+        /**
+         * The key of the object.
+         */
+        private final String objectKey;
+        /**
+         * The hash of the entry.
+         */
+        private final int hash;
         /**
          * The object of this entry.
          */
-        private Object object;
+        private volatile Object object;
         /**
          * A boolean indicating whether this entry is modified when compared to
          * the version of the database. Only modified entries will be saved when
          * the cache is emptied.
          */
-        private boolean modified;
+        private volatile boolean modified;
+        /**
+         * A boolean indicating whether the entry was read since it was last
+         * considered for eviction.
+         */
+        private volatile boolean referenced = false;
+        /**
+         * A boolean indicating whether the entry is being written before its
+         * removal from the cache.
+         */
+        private boolean evicting = false;
+        /**
+         * The estimated memory used by the object in bytes.
+         */
+        private long weight = 0;
+        /**
+         * The list containing the entry, null if not linked.
+         */
+        private EntryList list;
+        /**
+         * The previous entry in the list, null if not linked.
+         */
+        private CacheEntry previous;
+        /**
+         * The next entry in the list, null if not linked.
+         */
+        private CacheEntry next;
 
         /**
          * Constructor.
          *
+         * @param tableCache the cache of the table of the entry
+         * @param objectKey the key of the object
+         * @param hash the hash of the entry
          * @param object the object of the entry
          * @param modified boolean indicating whether the entry is modified
          */
-        public CacheEntry(Object object, boolean modified) {
+        public CacheEntry(TableCache tableCache, String objectKey, int hash, Object object, boolean modified) {
+            this.tableCache = tableCache;
+            this.objectKey = objectKey;
+            this.hash = hash;
             this.object = object;
             this.modified = modified;
         }
+    }
+
+    /**
+     * A circular insertion ordered list of entries keeping track of the number
+     * of entries and of their weight.
+     */
+    private static class EntryList {
 
         /**
-         * Indicates whether the object is modified when compared to the version
-         * in the database.
+         * The sentinel of the list.
+         */
+        private final CacheEntry head = new CacheEntry(null, null, 0, null, false);
+        /**
+         * The number of entries in the list.
+         */
+        private int size = 0;
+        /**
+         * The weight of the entries in the list.
+         */
+        private long weight = 0;
+
+        /**
+         * Constructor.
+         */
+        public EntryList() {
+            head.previous = head;
+            head.next = head;
+        }
+
+        /**
+         * Returns the first entry of the list, null if empty.
          *
-         * @return a boolean indicating whether the object is modified when
-         * compared to the version in the database
+         * @return the first entry of the list
          */
-        public boolean isModified() {
-            return modified;
+        public CacheEntry first() {
+            CacheEntry first = head.next;
+            return first == head ? null : first;
         }
 
         /**
-         * Sets whether the object is modified when compared to the version in
-         * the database.
+         * Adds an entry at the end of the list.
          *
-         * @param modified a boolean indicating whether the object is modified
-         * when compared to the version in the database
+         * @param entry the entry
          */
-        public void setModified(boolean modified) {
-            this.modified = modified;
+        public void addLast(CacheEntry entry) {
+            entry.previous = head.previous;
+            entry.next = head;
+            head.previous.next = entry;
+            head.previous = entry;
+            entry.list = this;
+            size++;
+            weight += entry.weight;
         }
 
         /**
-         * Returns the object of this entry.
+         * Removes an entry from the list.
+         *
+         * @param entry the entry
+         */
+        public void unlink(CacheEntry entry) {
+            entry.previous.next = entry.next;
+            entry.next.previous = entry.previous;
+            entry.previous = null;
+            entry.next = null;
+            entry.list = null;
+            size--;
+            weight -= entry.weight;
+        }
+    }
+
+    /**
+     * A stripe of the cache. New entries are added to the admission window,
+     * the main space is split into probation and protected segments. All
+     * methods must be called while holding the lock of the stripe.
+     */
+    private static class CacheStripe {
+
+        /**
+         * The admission window.
+         */
+        private final EntryList window = new EntryList();
+        /**
+         * The probation segment of the main space.
+         */
+        private final EntryList probation = new EntryList();
+        /**
+         * The protected segment of the main space.
+         */
+        private final EntryList protectedSegment = new EntryList();
+
+        /**
+         * Returns the number of entries in the stripe.
          *
-         * @return the object contained by this entry
+         * @return the number of entries in the stripe
          */
-        public Object getObject() {
-            return object;
+        public int size() {
+            return window.size + probation.size + protectedSegment.size;
         }
 
         /**
-         * Sets the object of this cache entry.
+         * Returns the weight of the entries in the stripe.
          *
-         * @param object the object for this entry
+         * @return the weight of the entries in the stripe
          */
-        public void setObject(Object object) {
-            this.object = object;
+        public long weight() {
+            return window.weight + probation.weight + protectedSegment.weight;
+        }
+
+        /**
+         * Adds an entry to the admission window.
+         *
+         * @param entry the entry
+         */
+        public void add(CacheEntry entry) {
+            window.addLast(entry);
+        }
+
+        /**
+         * Removes an entry from the stripe.
+         *
+         * @param entry the entry
+         *
+         * @return true if the entry was in the stripe
+         */
+        public boolean unlink(CacheEntry entry) {
+            if (entry.list == null) {
+                return false;
+            }
+            entry.list.unlink(entry);
+            return true;
+        }
+
+        /**
+         * Sets the weight of an entry.
+         *
+         * @param entry the entry
+         * @param weight the new weight
+         */
+        public void setWeight(CacheEntry entry, long weight) {
+            if (entry.list != null) {
+                entry.list.weight += weight - entry.weight;
+            }
+            entry.weight = weight;
+        }
+
+        /**
+         * Removes and returns an entry of the stripe, null if empty.
+         *
+         * @return an entry of the stripe
+         */
+        public CacheEntry pollFirst() {
+            CacheEntry first = window.first();
+            if (first == null) {
+                first = probation.first();
+            }
+            if (first == null) {
+                first = protectedSegment.first();
+            }
+            if (first != null) {
+                first.list.unlink(first);
+            }
+            return first;
+        }
+
+        /**
+         * Moves the entries exceeding the share of the admission window to the
+         * probation segment. If eviction is needed, every entry leaving the
+         * window competes with the eviction candidate of the probation segment
+         * and the less frequently accessed one is removed and returned.
+         * Returns null when the window does not exceed its share.
+         *
+         * @param frequencySketch the sketch of the access frequencies
+         * @param evict boolean indicating whether an entry should be evicted
+         *
+         * @return the entry to evict, null if none
+         */
+        public CacheEntry pollCandidate(FrequencySketch frequencySketch, boolean evict) {
+            while (window.size > 0 && window.weight > WINDOW_SHARE * weight()) {
+                CacheEntry candidate = window.first();
+                if (evict) {
+                    CacheEntry victim = probationVictim();
+                    if (victim == null && protectedSegment.size > 0) {
+                        demote();
+                        continue;
+                    }
+                    if (victim != null) {
+                        window.unlink(candidate);
+                        if (frequencySketch.frequency(candidate.hash) > frequencySketch.frequency(victim.hash)) {
+                            probation.unlink(victim);
+                            probation.addLast(candidate);
+                            return victim;
+                        }
+                        return candidate;
+                    }
+                }
+                window.unlink(candidate);
+                probation.addLast(candidate);
+            }
+            return null;
+        }
+
+        /**
+         * Removes and returns the entry to evict from the main space, null if
+         * the stripe is empty. The admission window is used only once the main
+         * space is empty.
+         *
+         * @return the entry to evict
+         */
+        public CacheEntry pollVictim() {
+            while (true) {
+                CacheEntry victim = probationVictim();
+                if (victim != null) {
+                    probation.unlink(victim);
+                    return victim;
+                }
+                if (protectedSegment.size > 0) {
+                    demote();
+                    continue;
+                }
+                CacheEntry first = window.first();
+                if (first != null) {
+                    window.unlink(first);
+                }
+                return first;
+            }
+        }
+
+        /**
+         * Returns the oldest entry of the probation segment not read since it
+         * was last considered, null if the segment is empty. Entries read in
+         * the meantime are promoted to the protected segment.
+         *
+         * @return the eviction candidate of the probation segment
+         */
+        private CacheEntry probationVictim() {
+            for (int i = probation.size; i > 0; i--) {
+                CacheEntry first = probation.first();
+                if (!first.referenced) {
+                    return first;
+                }
+                first.referenced = false;
+                probation.unlink(first);
+                protectedSegment.addLast(first);
+                while (protectedSegment.size > 1 && protectedSegment.weight > PROTECTED_SHARE * (probation.weight + protectedSegment.weight)) {
+                    demote();
+                }
+            }
+            return probation.first();
+        }
+
+        /**
+         * Moves the oldest entry of the protected segment not read since it
+         * was last considered to the probation segment. Entries read in the
+         * meantime are moved to the end of the protected segment.
+         */
+        private void demote() {
+            for (int i = protectedSegment.size; i > 1; i--) {
+                CacheEntry first = protectedSegment.first();
+                if (!first.referenced) {
+                    break;
+                }
+                first.referenced = false;
+                protectedSegment.unlink(first);
+                protectedSegment.addLast(first);
+            }
+            CacheEntry first = protectedSegment.first();
+            first.referenced = false;
+            protectedSegment.unlink(first);
+            probation.addLast(first);
+        }
+    }
+
+    /**
+     * The cache of a table with its statistics.
+     */
+    private static class TableCache {
+
+        /**
+         * The name of the database.
+         */
+        private final String dbName;
+        /**
+         * The name of the table.
+         */
+        private final String tableName;
+        /**
+         * The entries of the table indexed by object key.
+         */
+        private final ConcurrentHashMap<String, CacheEntry> entries;
+        /**
+         * The number of objects found in cache.
+         */
+        private final StripedCounter hits = new StripedCounter();
+        /**
+         * The number of objects not found in cache.
+         */
+        private final StripedCounter misses = new StripedCounter();
+        /**
+         * The number of objects evicted.
+         */
+        private final AtomicLong evictions = new AtomicLong(0);
+        /**
+         * The estimated memory used by the objects of the table in bytes.
+         */
+        private final AtomicLong residentBytes = new AtomicLong(0);
+
+        /**
+         * Constructor.
+         *
+         * @param dbName the name of the database
+         * @param tableName the name of the table
+         * @param concurrencyLevel the estimated number of concurrently
+         * updating threads
+         */
+        public TableCache(String dbName, String tableName, int concurrencyLevel) {
+            this.dbName = dbName;
+            this.tableName = tableName;
+            entries = new ConcurrentHashMap<String, CacheEntry>(512, 0.75f, concurrencyLevel);
+        }
+
+        /**
+         * Returns a snapshot of the statistics of the table.
+         *
+         * @return a snapshot of the statistics of the table
+         */
+        public ObjectsCacheStatistics getStatistics() {
+            return new ObjectsCacheStatistics(dbName, tableName, hits.sum(), misses.sum(), evictions.get(), entries.size(), residentBytes.get());
+        }
+    }
+
+    /**
+     * Counter spreading the increments of different threads over different
+     * cells to limit contention.
+     */
+    private static class StripedCounter {
+
+        /**
+         * The number of cells, a power of two.
+         */
+        private static final int N_CELLS = 8;
+        /**
+         * The distance between two cells, keeps them on different cache lines.
+         */
+        private static final int PADDING = 8;
+        /**
+         * The cells.
+         */
+        private final AtomicLongArray cells = new AtomicLongArray(N_CELLS * PADDING);
+
+        /**
+         * Increments the counter.
+         */
+        public void increment() {
+            int cell = (int) (Thread.currentThread().getId() & (N_CELLS - 1));
+            cells.incrementAndGet(cell * PADDING);
+        }
+
+        /**
+         * Returns the value of the counter.
+         *
+         * @return the value of the counter
+         */
+        public long sum() {
+            long sum = 0;
+            for (int i = 0; i < N_CELLS; i++) {
+                sum += cells.get(i * PADDING);
+            }
+            return sum;
         }
     }
 }
@@ -0,0 +1,141 @@
+package com.compomics.util.db;
+
+import com.compomics.util.Util;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Command line benchmark of the throughput of the objects cache when accessed
+ * by multiple threads. The cache is filled with small objects and every thread
+ * then retrieves random objects and puts back a share of them. The cache is
+ * large enough to hold all objects, the database is not accessed while
+ * measuring.
+ *
+ * @author Marc Vaudel
+ */
+public class ObjectsCacheBenchmark {
+
+    /**
+     * The name of the table used for the benchmark.
+     */
+    private static final String TABLE_NAME = "benchmark_table";
+
+    /**
+     * Main class.
+     *
+     * @param args command line arguments
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && (args[0].equals("-h") || args[0].equals("--help"))) {
+            System.err.println("ObjectsCacheBenchmark: measures the throughput of the objects cache for increasing numbers of threads.");
+            System.err.println("usage: ObjectsCacheBenchmark [threads] [number-of-objects] [operations-per-thread] [share-of-reads]");
+            System.err.println();
+            System.err.println("Numbers of threads are given comma separated, e.g. 1,2,4,8,16.");
+            System.err.println();
+            System.err.println("Default parameters:");
+            System.err.println("\tthreads:\t\t1,2,4,8,16");
+            System.err.println("\tnumber of objects:\t100000");
+            System.err.println("\toperations per thread:\t1000000");
+            System.err.println("\tshare of reads:\t\t0.9");
+            System.exit(-1);
+        }
+        String[] threads = (args.length > 0 ? args[0] : "1,2,4,8,16").split(",");
+        int nObjects = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int nOperations = args.length > 2 ? Integer.parseInt(args[2]) : 1000000;
+        double readShare = args.length > 3 ? Double.parseDouble(args[3]) : 0.9;
+
+        int[] nThreads = new int[threads.length];
+        for (int i = 0; i < threads.length; i++) {
+            nThreads[i] = Integer.parseInt(threads[i].trim());
+        }
+
+        File folder = new File(System.getProperty("java.io.tmpdir"), "objects_cache_benchmark_" + System.currentTimeMillis());
+        ObjectsCache objectsCache = new ObjectsCache();
+        ObjectsDB objectsDB = new ObjectsDB(folder.getAbsolutePath(), "benchmark", true, objectsCache);
+        try {
+            benchmark(objectsCache, objectsDB.getName(), nThreads, nObjects, nOperations, readShare);
+        } finally {
+            objectsDB.close();
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Fills the cache and measures its throughput for the given numbers of
+     * threads. The results are printed on the standard output.
+     *
+     * @param objectsCache the cache
+     * @param dbName the name of the database registered in the cache
+     * @param nThreads the numbers of threads to test
+     * @param nObjects the number of objects in cache
+     * @param nOperations the number of operations per thread
+     * @param readShare the share of operations retrieving an object, the others
+     * put an object back
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    static void benchmark(final ObjectsCache objectsCache, final String dbName, int[] nThreads, int nObjects, final int nOperations, final double readShare) throws Exception {
+
+        objectsCache.setAutomatedMemoryManagement(false);
+        objectsCache.setCacheSize(nObjects);
+
+        final String[] keys = new String[nObjects];
+        for (int i = 0; i < nObjects; i++) {
+            keys[i] = "spectrum_file.mgf_cus_spectrum_" + i;
+            objectsCache.addObject(dbName, TABLE_NAME, keys[i], Integer.valueOf(i), false, false);
+        }
+
+        System.out.println("threads\tops/s\t\tspeedup");
+        double singleThreadThroughput = 0;
+        for (int threadCount : nThreads) {
+            final CountDownLatch startSignal = new CountDownLatch(1);
+            final CountDownLatch doneSignal = new CountDownLatch(threadCount);
+            final ArrayList<Exception> exceptions = new ArrayList<Exception>();
+            ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+            for (int i = 0; i < threadCount; i++) {
+                final long seed = 42 + i;
+                pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        Random random = new Random(seed);
+                        try {
+                            startSignal.await();
+                            for (int j = 0; j < nOperations; j++) {
+                                String key = keys[random.nextInt(keys.length)];
+                                Object object = objectsCache.getObject(dbName, TABLE_NAME, key);
+                                if (random.nextDouble() >= readShare) {
+                                    objectsCache.addObject(dbName, TABLE_NAME, key, object, true, true);
+                                }
+                            }
+                        } catch (Exception e) {
+                            synchronized (exceptions) {
+                                exceptions.add(e);
+                            }
+                        } finally {
+                            doneSignal.countDown();
+                        }
+                    }
+                });
+            }
+            long start = System.nanoTime();
+            startSignal.countDown();
+            doneSignal.await();
+            long time = System.nanoTime() - start;
+            pool.shutdown();
+            if (!exceptions.isEmpty()) {
+                throw exceptions.get(0);
+            }
+            double throughput = ((double) threadCount) * nOperations / time * 1000000000;
+            if (singleThreadThroughput == 0) {
+                singleThreadThroughput = throughput / threadCount;
+            }
+            System.out.println(threadCount + "\t" + String.format("%.3e", throughput) + "\t" + String.format("%.1f", throughput / singleThreadThroughput));
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.compomics.util.db;
+
+/**
+ * Snapshot of the statistics of a table in an objects cache.
+ *
+ * @author Marc Vaudel
+ */
+public class ObjectsCacheStatistics {
+
+    /**
+     * The name of the database.
+     */
+    private final String dbName;
+    /**
+     * The name of the table.
+     */
+    private final String tableName;
+    /**
+     * The number of objects found in cache.
+     */
+    private final long hits;
+    /**
+     * The number of objects not found in cache.
+     */
+    private final long misses;
+    /**
+     * The number of objects evicted from the cache.
+     */
+    private final long evictions;
+    /**
+     * The number of objects in cache.
+     */
+    private final int residentObjects;
+    /**
+     * The estimated memory used by the objects in cache in bytes.
+     */
+    private final long residentBytes;
+
+    /**
+     * Constructor.
+     *
+     * @param dbName the name of the database
+     * @param tableName the name of the table
+     * @param hits the number of objects found in cache
+     * @param misses the number of objects not found in cache
+     * @param evictions the number of objects evicted from the cache
+     * @param residentObjects the number of objects in cache
+     * @param residentBytes the estimated memory used by the objects in cache
+     * in bytes
+     */
+    public ObjectsCacheStatistics(String dbName, String tableName, long hits, long misses, long evictions, int residentObjects, long residentBytes) {
+        this.dbName = dbName;
+        this.tableName = tableName;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.residentObjects = residentObjects;
+        this.residentBytes = residentBytes;
+    }
+
+    /**
+     * Returns the name of the database.
+     *
+     * @return the name of the database
+     */
+    public String getDbName() {
+        return dbName;
+    }
+
+    /**
+     * Returns the name of the table.
+     *
+     * @return the name of the table
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Returns the number of objects found in cache.
+     *
+     * @return the number of objects found in cache
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of objects not found in cache.
+     *
+     * @return the number of objects not found in cache
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the share of the retrieved objects found in cache, 0 if no
+     * object was retrieved.
+     *
+     * @return the hit rate
+     */
+    public double getHitRate() {
+        long total = hits + misses;
+        if (total == 0) {
+            return 0;
+        }
+        return ((double) hits) / total;
+    }
+
+    /**
+     * Returns the number of objects evicted from the cache.
+     *
+     * @return the number of objects evicted from the cache
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of objects in cache.
+     *
+     * @return the number of objects in cache
+     */
+    public int getResidentObjects() {
+        return residentObjects;
+    }
+
+    /**
+     * Returns the estimated memory used by the objects in cache in bytes.
+     *
+     * @return the estimated memory used by the objects in cache in bytes
+     */
+    public long getResidentBytes() {
+        return residentBytes;
+    }
+
+    @Override
+    public String toString() {
+        return dbName + "/" + tableName + ": " + residentObjects + " objects, " + residentBytes + " bytes, hit rate " + String.format("%.3f", getHitRate()) + ", " + evictions + " evictions";
+    }
+}
@@ -0,0 +1,473 @@
+package com.compomics.util.db;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Write-behind queue of an objects cache. Modified objects evicted from the
+ * cache are staged in this queue and written to their database in batches by a
+ * dedicated thread, the threads evicting the objects do not wait for the
+ * database. The queue is bounded, when it is full the evicting threads wait
+ * until space is available. Staged objects remain accessible until they are
+ * written. If a batch cannot be written, its objects remain staged and are
+ * queued again by the next call to flush or close, the error is thrown by the
+ * next call to queue, flush or close. The objects which are still not written
+ * when the writer is closed are put back in the cache as modified.
+ *
+ * @author Marc Vaudel
+ */
+public class ObjectsCacheWriter {
+
+    /**
+     * The default capacity of the queue in number of objects.
+     */
+    public static final int DEFAULT_CAPACITY = 10000;
+    /**
+     * The cache using this writer.
+     */
+    private final ObjectsCache objectsCache;
+    /**
+     * The queue of objects to write.
+     */
+    private final ArrayBlockingQueue<PendingWrite> queue;
+    /**
+     * The objects staged for writing indexed by cache key.
+     */
+    private final ConcurrentHashMap<String, PendingWrite> pendingWrites = new ConcurrentHashMap<String, PendingWrite>();
+    /**
+     * The staged writes which could not be written and are to be queued
+     * again.
+     */
+    private final ConcurrentLinkedQueue<PendingWrite> failedWrites = new ConcurrentLinkedQueue<PendingWrite>();
+    /**
+     * Mutex held while a batch is written to the database.
+     */
+    private final Semaphore batchMutex = new Semaphore(1);
+    /**
+     * Lock used to wait for the writing of the queued objects.
+     */
+    private final Object flushLock = new Object();
+    /**
+     * The number of objects queued since the creation of the writer.
+     */
+    private long nQueued = 0;
+    /**
+     * The number of queued objects processed by the writing thread.
+     */
+    private long nProcessed = 0;
+    /**
+     * The first error encountered by the writing thread since it was last
+     * reported, null if none.
+     */
+    private final AtomicReference<Throwable> writingException = new AtomicReference<Throwable>();
+    /**
+     * Entry signaling the writing thread to stop.
+     */
+    private final PendingWrite stopSignal = new PendingWrite(null, null, null, null, null);
+    /**
+     * The thread writing the objects to the databases.
+     */
+    private final Thread writingThread;
+
+    /**
+     * Constructor. Starts the writing thread.
+     *
+     * @param objectsCache the cache using this writer
+     * @param capacity the capacity of the queue in number of objects
+     */
+    public ObjectsCacheWriter(ObjectsCache objectsCache, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity of the write-behind queue must be positive.");
+        }
+        this.objectsCache = objectsCache;
+        queue = new ArrayBlockingQueue<PendingWrite>(capacity);
+        writingThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeQueue();
+            }
+        }, "ObjectsCacheWriter");
+        writingThread.setDaemon(true);
+        writingThread.start();
+    }
+
+    /**
+     * Stages an object for writing. The object is accessible via
+     * getPendingObject until it is written. The staged object must then be
+     * queued using the queue method. Staging does not block.
+     *
+     * @param cacheKey the key of the object in the cache
+     * @param dbName the name of the database
+     * @param tableName the name of the table
+     * @param objectKey the key of the object
+     * @param object the object
+     *
+     * @return the staged write
+     */
+    PendingWrite stage(String cacheKey, String dbName, String tableName, String objectKey, Object object) {
+        PendingWrite pendingWrite = new PendingWrite(cacheKey, dbName, tableName, objectKey, object);
+        pendingWrites.put(cacheKey, pendingWrite);
+        return pendingWrite;
+    }
+
+    /**
+     * Queues staged writes. Waits for space in the queue if it is full. The
+     * writes are queued even if an error occurred while writing previously
+     * queued objects, the error is thrown afterwards. If the writing thread
+     * stopped, the objects which could not be queued are put back in the
+     * cache.
+     *
+     * @param stagedWrites the staged writes
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing previously queued objects
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing previously queued objects
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted while waiting for space in the queue
+     */
+    void queue(ArrayList<PendingWrite> stagedWrites) throws IOException, SQLException, InterruptedException {
+        for (int i = 0; i < stagedWrites.size(); i++) {
+            if (!put(stagedWrites.get(i))) {
+                for (int j = i; j < stagedWrites.size(); j++) {
+                    restore(stagedWrites.get(j));
+                }
+                checkException();
+                throw new IllegalStateException("The write-behind queue is closed.");
+            }
+        }
+        checkException();
+    }
+
+    /**
+     * Puts a staged write in the queue. Waits for space in the queue if it is
+     * full.
+     *
+     * @param pendingWrite the staged write
+     *
+     * @return false if the writing thread stopped and the write could not be
+     * queued
+     *
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted while waiting for space in the queue
+     */
+    private boolean put(PendingWrite pendingWrite) throws InterruptedException {
+        do {
+            if (!writingThread.isAlive()) {
+                return false;
+            }
+        } while (!queue.offer(pendingWrite, 100, TimeUnit.MILLISECONDS));
+        synchronized (flushLock) {
+            nQueued++;
+        }
+        return true;
+    }
+
+    /**
+     * Queues again the writes which failed and were not cancelled or staged
+     * again since.
+     *
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted while waiting for space in the queue
+     */
+    private void retryFailedWrites() throws InterruptedException {
+        // only the writes failed so far, writes failing again are retried by the next call
+        for (int i = failedWrites.size(); i > 0; i--) {
+            PendingWrite pendingWrite = failedWrites.poll();
+            if (pendingWrite == null) {
+                return;
+            }
+            if (pendingWrites.get(pendingWrite.cacheKey) == pendingWrite && !put(pendingWrite)) {
+                failedWrites.add(pendingWrite);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Puts the object of a staged write back in the cache as modified and
+     * removes it from the staged writes, unless it was cancelled or staged
+     * again.
+     *
+     * @param pendingWrite the staged write
+     */
+    private void restore(PendingWrite pendingWrite) {
+        if (pendingWrites.get(pendingWrite.cacheKey) == pendingWrite) {
+            objectsCache.restoreEntry(pendingWrite.dbName, pendingWrite.tableName, pendingWrite.objectKey, pendingWrite.object);
+            pendingWrites.remove(pendingWrite.cacheKey, pendingWrite);
+        }
+    }
+
+    /**
+     * Returns the object staged for writing with the given key, null if none.
+     *
+     * @param cacheKey the key of the object in the cache
+     *
+     * @return the object staged for writing
+     */
+    Object getPendingObject(String cacheKey) {
+        PendingWrite pendingWrite = pendingWrites.get(cacheKey);
+        if (pendingWrite == null) {
+            return null;
+        }
+        return pendingWrite.object;
+    }
+
+    /**
+     * Indicates whether an object is staged for writing with the given key.
+     *
+     * @param cacheKey the key of the object in the cache
+     *
+     * @return a boolean indicating whether an object is staged for writing
+     */
+    boolean isPending(String cacheKey) {
+        return pendingWrites.containsKey(cacheKey);
+    }
+
+    /**
+     * Cancels the writing of the object staged with the given key. If the
+     * object is being written, waits until the writing is done.
+     *
+     * @param cacheKey the key of the object in the cache
+     *
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted
+     */
+    void cancel(String cacheKey) throws InterruptedException {
+        if (pendingWrites.containsKey(cacheKey)) {
+            batchMutex.acquire();
+            pendingWrites.remove(cacheKey);
+            batchMutex.release();
+        }
+    }
+
+    /**
+     * Returns the number of objects staged for writing.
+     *
+     * @return the number of objects staged for writing
+     */
+    public int getPendingCount() {
+        return pendingWrites.size();
+    }
+
+    /**
+     * Waits until all objects queued before this call are written. The
+     * objects which could not be written previously are queued again first.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing an object
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing an object
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted while waiting
+     */
+    public void flush() throws IOException, SQLException, InterruptedException {
+        retryFailedWrites();
+        boolean flushed;
+        synchronized (flushLock) {
+            long target = nQueued;
+            while (nProcessed < target && writingThread.isAlive()) {
+                flushLock.wait(100);
+            }
+            flushed = nProcessed >= target;
+        }
+        checkException();
+        if (!flushed) {
+            throw new IOException("The write-behind thread stopped before writing all queued objects.");
+        }
+    }
+
+    /**
+     * Writes the queued objects, including the ones which could not be
+     * written previously, and stops the writing thread. The objects which
+     * still could not be written are put back in the cache as modified.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing an object
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing an object
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted while waiting
+     */
+    public void close() throws IOException, SQLException, InterruptedException {
+        if (writingThread.isAlive()) {
+            retryFailedWrites();
+            queue.put(stopSignal);
+            writingThread.join();
+        }
+        failedWrites.clear();
+        int nRestored = pendingWrites.size();
+        for (PendingWrite pendingWrite : pendingWrites.values()) {
+            restore(pendingWrite);
+        }
+        checkException();
+        if (nRestored > 0) {
+            throw new IOException("The write-behind thread stopped before writing " + nRestored + " objects, they were put back in the cache.");
+        }
+    }
+
+    /**
+     * Throws the error encountered by the writing thread if any. The error is
+     * thrown only once.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing an object
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing an object
+     */
+    private void checkException() throws IOException, SQLException {
+        Throwable exception = writingException.getAndSet(null);
+        if (exception != null) {
+            if (exception instanceof SQLException) {
+                throw new SQLException("Error while writing objects in the background: " + exception.getMessage(), exception);
+            }
+            throw new IOException("Error while writing objects in the background: " + exception.getMessage(), exception);
+        }
+    }
+
+    /**
+     * Writes the queued objects in batches until the stop signal is received.
+     */
+    private void writeQueue() {
+        ArrayList<PendingWrite> batch = new ArrayList<PendingWrite>();
+        try {
+            while (true) {
+                PendingWrite first;
+                try {
+                    first = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                batch.clear();
+                batch.add(first);
+                queue.drainTo(batch, Math.max(objectsCache.getBatchSize(), 1) - 1);
+                boolean stop = batch.remove(stopSignal);
+                try {
+                    batchMutex.acquire();
+                    try {
+                        writeBatch(batch);
+                    } finally {
+                        batchMutex.release();
+                    }
+                } catch (Throwable e) {
+                    // the objects remain staged until written by the next flush or close
+                    failedWrites.addAll(batch);
+                    writingException.compareAndSet(null, e);
+                }
+                synchronized (flushLock) {
+                    nProcessed += batch.size();
+                    flushLock.notifyAll();
+                }
+                if (stop) {
+                    return;
+                }
+            }
+        } catch (Throwable e) {
+            writingException.compareAndSet(null, e);
+        } finally {
+            synchronized (flushLock) {
+                flushLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Writes a batch of objects. Objects which were cancelled or staged again
+     * since they were queued are skipped. If the same object is staged again
+     * later it will be written again.
+     *
+     * @param batch the batch of writes
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing an object
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing an object
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted
+     */
+    private void writeBatch(ArrayList<PendingWrite> batch) throws IOException, SQLException, InterruptedException {
+        HashMap<String, HashMap<String, HashMap<String, Object>>> toSave = new HashMap<String, HashMap<String, HashMap<String, Object>>>(1);
+        ArrayList<PendingWrite> written = new ArrayList<PendingWrite>(batch.size());
+        for (PendingWrite pendingWrite : batch) {
+            if (pendingWrites.get(pendingWrite.cacheKey) == pendingWrite) {
+                HashMap<String, HashMap<String, Object>> dbMap = toSave.get(pendingWrite.dbName);
+                if (dbMap == null) {
+                    dbMap = new HashMap<String, HashMap<String, Object>>();
+                    toSave.put(pendingWrite.dbName, dbMap);
+                }
+                HashMap<String, Object> tableMap = dbMap.get(pendingWrite.tableName);
+                if (tableMap == null) {
+                    tableMap = new HashMap<String, Object>();
+                    dbMap.put(pendingWrite.tableName, tableMap);
+                }
+                tableMap.put(pendingWrite.objectKey, pendingWrite.object);
+                written.add(pendingWrite);
+            }
+        }
+        for (String dbName : toSave.keySet()) {
+            ObjectsDB objectsDB = objectsCache.getDatabase(dbName);
+            if (objectsDB == null) {
+                throw new IllegalStateException("Database " + dbName + " not loaded in cache");
+            }
+            HashMap<String, HashMap<String, Object>> dbMap = toSave.get(dbName);
+            for (String tableName : dbMap.keySet()) {
+                objectsDB.insertObjects(tableName, dbMap.get(tableName), null);
+            }
+        }
+        for (PendingWrite pendingWrite : written) {
+            pendingWrites.remove(pendingWrite.cacheKey, pendingWrite);
+        }
+    }
+
+    /**
+     * An object staged for writing.
+     */
+    static class PendingWrite {
+
+        /**
+         * The key of the object in the cache.
+         */
+        private final String cacheKey;
+        /**
+         * The name of the database.
+         */
+        private final String dbName;
+        /**
+         * The name of the table.
+         */
+        private final String tableName;
+        /**
+         * The key of the object.
+         */
+        private final String objectKey;
+        /**
+         * The object.
+         */
+        private final Object object;
+
+        /**
+         * Constructor.
+         *
+         * @param cacheKey the key of the object in the cache
+         * @param dbName the name of the database
+         * @param tableName the name of the table
+         * @param objectKey the key of the object
+         * @param object the object
+         */
+        PendingWrite(String cacheKey, String dbName, String tableName, String objectKey, Object object) {
+            this.cacheKey = cacheKey;
+            this.dbName = dbName;
+            this.tableName = tableName;
+            this.objectKey = objectKey;
+            this.object = object;
+        }
+    }
+}
@@ -1,13 +1,18 @@
 package com.compomics.util.db;
 
+import com.compomics.util.db.codecs.BlobCompressor;
+import com.compomics.util.db.codecs.ObjectCodecRegistry;
 import com.compomics.util.Util;
 import com.compomics.util.waiting.WaitingHandler;
 import java.io.*;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
+import java.util.zip.Deflater;
 import javax.sql.rowset.serial.SerialBlob;
 
 /**
@@ -61,14 +66,12 @@ public class ObjectsDB implements Serializable {
      */
     private HashSet<String> usedTables = new HashSet<String>();
     /**
-     * Number of tables where the content should be stored in memory.
+     * Index of the keys saved in the tables, as stored in the database, i.e.
+     * corrected, indexed by table name. The keys of a table are loaded upon
+     * first need and then kept in sync with the database by the insertion and
+     * deletion methods. Shall only be accessed while holding the dbMutex.
      */
-    private int tablesContentCacheSize = 4;
-    /**
-     * Cache for the content of the tables. Will be null for projects older than
-     * 4.10.1.
-     */
-    private HashMap<String, HashSet<String>> tablesContentCache = new HashMap<String, HashSet<String>>(tablesContentCacheSize);
+    private transient HashMap<String, HashSet<String>> tablesKeys = new HashMap<String, HashSet<String>>();
     /**
      * The table where to save the long keys. Note: needs to keep the same value
      * for backward compatibility
@@ -95,9 +98,21 @@ public class ObjectsDB implements Serializable {
      */
     private ObjectsCache objectsCache;
     /**
-     * The writer used to send the output to file.
+     * The registry of the codecs used to convert the objects to blobs, the
+     * default registry if null.
+     */
+    private transient ObjectCodecRegistry codecRegistry = null;
+    /**
+     * The number of threads used to decode the objects loaded from the
+     * database, 0 for the number of available processors.
+     */
+    private transient int loadingThreads = 0;
+    /**
+     * The deflate level used to compress the blobs indexed by table name.
+     * The blobs of the other tables are not compressed. Will be null for
+     * projects older than 4.11.3.
      */
-    private BufferedWriter debugSpeedWriter;
+    private ConcurrentHashMap<String, Integer> compressionLevels = new ConcurrentHashMap<String, Integer>();
     /**
      * The writer used to send the output to file.
      */
@@ -130,11 +145,6 @@ public class ObjectsDB implements Serializable {
      * Mutex for the edition of the queue.
      */
     private Semaphore queueMutex = new Semaphore(1);
-    /**
-     * Debug, if true will output a table containing statistics on the speed of
-     * the objects I/O.
-     */
-    private boolean debugSpeed = false;
     /**
      * Debug, if true will output a table containing details on the objects
      * stored.
@@ -149,6 +159,25 @@ public class ObjectsDB implements Serializable {
      * If true, SQLite is used as the database, if false Derby is used.
      */
     private boolean useSQLite = false;
+    /**
+     * The backend storing the objects. Will be null for projects older than
+     * 4.11.3, in which case Derby or SQLite is used as indicated by useSQLite.
+     */
+    private Backend backend = Backend.DERBY;
+    /**
+     * The log-structured store used when the backend is LOG_STRUCTURED, null
+     * otherwise.
+     */
+    private transient LogStructuredStore logStore = null;
+    /**
+     * The metrics of the interactions with the database.
+     */
+    private transient ObjectsDBMetrics metrics = null;
+    /**
+     * Value of the start time of an operation when the metrics are not
+     * recorded.
+     */
+    private static final long NOT_TIMED = Long.MIN_VALUE;
     /**
      * The identifier used to register the derby connection in the DerbyUtil
      * class.
@@ -174,11 +203,45 @@ public class ObjectsDB implements Serializable {
      * threading error occurred while establishing the connection
      */
     public ObjectsDB(String folder, String dbName, boolean deleteOldDatabase, ObjectsCache objectsCache) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        this(folder, dbName, deleteOldDatabase, objectsCache, Backend.DERBY);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param folder absolute path of the folder where to establish the database
+     * @param dbName name of the database
+     * @param deleteOldDatabase if true, tries to delete the old database
+     * @param objectsCache a cache to store objects without interacting with the
+     * database
+     * @param backend the backend storing the objects
+     *
+     * @throws SQLException exception thrown whenever a problem occurred when
+     * establishing the connection to the database
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing a file
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred while establishing the connection
+     */
+    public ObjectsDB(String folder, String dbName, boolean deleteOldDatabase, ObjectsCache objectsCache, Backend backend) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
         this.dbName = dbName;
+        this.backend = backend;
+        useSQLite = backend == Backend.SQLITE;
         objectsCache.addDb(this);
         establishConnection(folder, deleteOldDatabase, objectsCache);
     }
 
+    /**
+     * Returns the backend storing the objects.
+     *
+     * @return the backend storing the objects
+     */
+    public Backend getBackend() {
+        return backend;
+    }
+
     /**
      * Returns the database name.
      *
@@ -205,6 +268,188 @@ public class ObjectsDB implements Serializable {
     public void setObjectCache(ObjectsCache objectCache) {
         this.objectsCache = objectCache;
         objectCache.addDb(this);
+        if (metrics != null) {
+            metrics.setObjectsCache(objectCache);
+        }
+    }
+
+    /**
+     * Returns the metrics of the interactions with this database. The metrics
+     * can be disabled, snapshot and registered over JMX via the returned
+     * object.
+     *
+     * @return the metrics of the interactions with this database
+     */
+    public ObjectsDBMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the current time in nanoseconds if the metrics are recorded,
+     * NOT_TIMED otherwise.
+     *
+     * @return the start time of an operation
+     */
+    private long startTimer() {
+        ObjectsDBMetrics currentMetrics = metrics;
+        if (currentMetrics != null && currentMetrics.isEnabled()) {
+            return System.nanoTime();
+        }
+        return NOT_TIMED;
+    }
+
+    /**
+     * Acquires the database mutex and records the time spent waiting. The
+     * clock is only read when the mutex is not immediately available.
+     *
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted while waiting
+     */
+    private void acquireDbMutex() throws InterruptedException {
+        ObjectsDBMetrics currentMetrics = metrics;
+        if (currentMetrics == null || !currentMetrics.isEnabled()) {
+            dbMutex.acquire();
+        } else if (dbMutex.tryAcquire()) {
+            currentMetrics.recordDbMutexWait(0);
+        } else {
+            long start = System.nanoTime();
+            dbMutex.acquire();
+            currentMetrics.recordDbMutexWait(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Returns the registry of the codecs used to convert the objects to blobs.
+     * The default registry is used if none was set.
+     *
+     * @return the registry of the codecs used to convert the objects to blobs
+     */
+    public ObjectCodecRegistry getCodecRegistry() {
+        if (codecRegistry == null) {
+            codecRegistry = ObjectCodecRegistry.getDefaultRegistry();
+        }
+        return codecRegistry;
+    }
+
+    /**
+     * Sets the registry of the codecs used to convert the objects to blobs.
+     * Blobs written with another registry remain readable as long as the
+     * codecs they use are registered.
+     *
+     * @param codecRegistry the registry of the codecs used to convert the
+     * objects to blobs
+     */
+    public void setCodecRegistry(ObjectCodecRegistry codecRegistry) {
+        this.codecRegistry = codecRegistry;
+    }
+
+    /**
+     * Returns the deflate level used to compress the blobs of the given table,
+     * 0 if not compressed.
+     *
+     * @param tableName the name of the table
+     *
+     * @return the deflate level used to compress the blobs of the table
+     */
+    public int getCompressionLevel(String tableName) {
+        Integer level = compressionLevels.get(tableName);
+        if (level == null) {
+            return Deflater.NO_COMPRESSION;
+        }
+        return level;
+    }
+
+    /**
+     * Sets the deflate level used to compress the blobs written from now on in
+     * the given table. The blobs already written are not converted,
+     * compressed and uncompressed blobs can be mixed in a table. Low levels
+     * are recommended as the matches are decompressed at every read.
+     *
+     * @param tableName the name of the table
+     * @param level the deflate level, from 1 (fastest) to 9 (smallest), 0 to
+     * disable compression
+     */
+    public void setCompressionLevel(String tableName, int level) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level " + level + " not supported.");
+        }
+        if (level == Deflater.NO_COMPRESSION) {
+            compressionLevels.remove(tableName);
+        } else {
+            compressionLevels.put(tableName, level);
+        }
+    }
+
+    /**
+     * Converts an object to a blob for the given table, the blob is
+     * compressed if compression is enabled for the table.
+     *
+     * @param tableName the name of the table
+     * @param object the object
+     *
+     * @return the blob
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     */
+    private byte[] encode(String tableName, Object object) throws IOException {
+        long start = startTimer();
+        byte[] blob = getCodecRegistry().encode(object);
+        Integer level = compressionLevels.get(tableName);
+        if (level != null) {
+            blob = BlobCompressor.compress(blob, level);
+        }
+        if (start != NOT_TIMED) {
+            metrics.recordEncoding(tableName, System.nanoTime() - start, blob.length);
+        }
+        return blob;
+    }
+
+    /**
+     * Converts a blob of the given table back to an object.
+     *
+     * @param tableName the name of the table
+     * @param blob the blob
+     *
+     * @return the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the object
+     */
+    private Object decode(String tableName, byte[] blob) throws IOException, ClassNotFoundException {
+        long start = startTimer();
+        Object object = getCodecRegistry().decode(blob);
+        if (start != NOT_TIMED) {
+            metrics.recordDecoding(tableName, System.nanoTime() - start, blob.length);
+        }
+        return object;
+    }
+
+    /**
+     * Returns the number of threads used to decode the objects loaded from
+     * the database.
+     *
+     * @return the number of threads used to decode the objects loaded from
+     * the database
+     */
+    public int getLoadingThreads() {
+        if (loadingThreads <= 0) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return loadingThreads;
+    }
+
+    /**
+     * Sets the number of threads used to decode the objects loaded from the
+     * database, 0 for the number of available processors.
+     *
+     * @param loadingThreads the number of threads used to decode the objects
+     * loaded from the database
+     */
+    public void setLoadingThreads(int loadingThreads) {
+        this.loadingThreads = loadingThreads;
     }
 
     /**
@@ -221,13 +466,25 @@ public class ObjectsDB implements Serializable {
         if (debugInteractions) {
             System.out.println(System.currentTimeMillis() + " Inserting table, table: " + tableName);
         }
+        if (logStore != null) {
+            acquireDbMutex();
+            try {
+                logStore.addTable(tableName);
+            } catch (IOException e) {
+                throw new SQLException("An error occurred while creating table " + tableName + ".", e);
+            } finally {
+                dbMutex.release();
+            }
+            return;
+        }
         Statement stmt = dbConnection.createStatement();
-        dbMutex.acquire();
+        acquireDbMutex();
         try {
             stmt.execute("CREATE table " + tableName + " ("
                     + "NAME VARCHAR(" + VARCHAR_MAX_LENGTH + ") PRIMARY KEY,"
                     + "MATCH_BLOB blob"
                     + ")");
+            tablesKeys.put(tableName, new HashSet<String>());
         } catch (SQLException e) {
             System.out.println("An error occurred while creating table " + tableName);
             throw (e);
@@ -252,6 +509,10 @@ public class ObjectsDB implements Serializable {
      */
     public boolean hasTable(String tableName) throws SQLException, InterruptedException {
 
+        if (logStore != null) {
+            return logStore.hasTable(tableName);
+        }
+
         if (tableName.startsWith("\"") && tableName.endsWith("\"")) {
             tableName = tableName.substring(1, tableName.length() - 1);
         }
@@ -279,7 +540,11 @@ public class ObjectsDB implements Serializable {
      */
     public ArrayList<String> getTables() throws SQLException, InterruptedException {
 
-        dbMutex.acquire();
+        if (logStore != null) {
+            return logStore.getTables();
+        }
+
+        acquireDbMutex();
         DatabaseMetaData dmd = dbConnection.getMetaData();
         ArrayList<String> result = new ArrayList<String>();
         ResultSet rs = dmd.getTables(null, null, null, null); //@TODO: not sure to which extend this is Derby dependent...
@@ -351,30 +616,40 @@ public class ObjectsDB implements Serializable {
         if (usedTables != null) {
             usedTables.add(tableName);
         }
-        dbMutex.acquire();
-        PreparedStatement ps = dbConnection.prepareStatement("INSERT INTO " + tableName + " VALUES (?, ?)");
-        try {
-            ps.setString(1, correctedKey);
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        if (logStore != null) {
+            acquireDbMutex();
+            long start = startTimer();
             try {
-                ObjectOutputStream oos = new ObjectOutputStream(bos);
-                try {
-                    oos.writeObject(object);
-                } finally {
-                    oos.close();
-                }
+                logStore.put(tableName, correctedKey, encode(tableName, object));
+                logStore.commit(tableName);
             } finally {
-                bos.close();
+                dbMutex.release();
             }
-            ps.setBytes(2, bos.toByteArray());
+            if (start != NOT_TIMED) {
+                metrics.recordWrite(tableName, System.nanoTime() - start);
+            }
+            return;
+        }
+        acquireDbMutex();
+        long start = startTimer();
+        PreparedStatement ps = dbConnection.prepareStatement("INSERT INTO " + tableName + " VALUES (?, ?)");
+        try {
+            ps.setString(1, correctedKey);
+            ps.setBytes(2, encode(tableName, object));
             ps.executeUpdate();
         } finally {
             ps.close();
         }
 
-        tablesContentCache.remove(tableName);
+        HashSet<String> tableKeys = tablesKeys.get(tableName);
+        if (tableKeys != null) {
+            tableKeys.add(correctedKey);
+        }
 
         dbMutex.release();
+        if (start != NOT_TIMED) {
+            metrics.recordWrite(tableName, System.nanoTime() - start);
+        }
     }
 
     /**
@@ -400,13 +675,19 @@ public class ObjectsDB implements Serializable {
             usedTables.add(tableName);
         }
 
-        dbMutex.acquire();
+        if (logStore != null) {
+            insertObjectsInLogStore(tableName, objects, waitingHandler);
+            return;
+        }
+
+        acquireDbMutex();
+        long start = startTimer();
 
         dbConnection.setAutoCommit(false);
 
-        HashSet<String> tableContent = getTableContentFromDBNoMutex(tableName);
+        HashSet<String> tableKeys = getTableKeysNoMutex(tableName);
 
-        HashSet<String> addedKeys = new HashSet<String>(objects.size());
+        ArrayList<String> addedKeys = new ArrayList<String>(Math.min(objects.size(), objectsCache.getBatchSize()));
         HashMap<String, String> updateKeys = new HashMap<String, String>(objects.size());
 
         PreparedStatement insertStatement = dbConnection.prepareStatement("INSERT INTO " + tableName + " VALUES (?, ?)");
@@ -435,36 +716,25 @@ public class ObjectsDB implements Serializable {
                     debugContentWriter.flush();
                 }
 
-                if (tableContent.contains(correctedKey)) {
+                if (tableKeys.contains(correctedKey)) {
                     updateKeys.put(objectKey, correctedKey);
                 } else {
-                    ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                    try {
-                        ObjectOutputStream oos = new ObjectOutputStream(bos);
-                        try {
+                    insertStatement.setString(1, correctedKey);
+                    insertStatement.setBytes(2, encode(tableName, objects.get(objectKey)));
+                    insertStatement.addBatch();
+                    addedKeys.add(correctedKey);
 
-                            oos.writeObject(objects.get(objectKey));
-                            insertStatement.setString(1, correctedKey);
-                            insertStatement.setBytes(2, bos.toByteArray());
-                            insertStatement.addBatch();
-
-                            if ((++rowCounter) % objectsCache.getBatchSize() == 0) {
-                                insertStatement.executeBatch();
-                                insertStatement.clearParameters();
-                                dbConnection.commit();
-                                insertStatement.close();
-                                insertStatement = dbConnection.prepareStatement("INSERT INTO " + tableName + " VALUES (?, ?)");
-                                rowCounter = 0;
-                            }
-                        } finally {
-                            oos.close();
-                        }
-                    } finally {
-                        bos.close();
+                    if ((++rowCounter) % objectsCache.getBatchSize() == 0) {
+                        insertStatement.executeBatch();
+                        insertStatement.clearParameters();
+                        dbConnection.commit();
+                        tableKeys.addAll(addedKeys);
+                        addedKeys.clear();
+                        insertStatement.close();
+                        insertStatement = dbConnection.prepareStatement("INSERT INTO " + tableName + " VALUES (?, ?)");
+                        rowCounter = 0;
                     }
 
-                    addedKeys.add(correctedKey);
-
                     if (waitingHandler != null) {
                         waitingHandler.increaseSecondaryProgressCounter();
                         if (waitingHandler.isRunCanceled()) {
@@ -478,10 +748,9 @@ public class ObjectsDB implements Serializable {
                 insertStatement.executeBatch();
                 insertStatement.clearParameters();
                 dbConnection.commit();
+                tableKeys.addAll(addedKeys);
             }
 
-            tableContent.addAll(addedKeys);
-
             // close the statement
         } finally {
             insertStatement.close();
@@ -513,29 +782,17 @@ public class ObjectsDB implements Serializable {
                     debugContentWriter.flush();
                 }
 
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                try {
-                    ObjectOutputStream oos = new ObjectOutputStream(bos);
-                    try {
-                        oos.writeObject(objects.get(objectKey));
-
-                        updateStatement.setString(2, correctedKey);
-                        updateStatement.setBytes(1, bos.toByteArray());
-                        updateStatement.addBatch();
-
-                        if ((++rowCounter) % objectsCache.getBatchSize() == 0) {
-                            updateStatement.executeBatch();
-                            updateStatement.clearParameters();
-                            dbConnection.commit();
-                            updateStatement.close();
-                            updateStatement = dbConnection.prepareStatement("UPDATE " + tableName + " SET MATCH_BLOB=? WHERE NAME=?");
-                            rowCounter = 0;
-                        }
-                    } finally {
-                        oos.close();
-                    }
-                } finally {
-                    bos.close();
+                updateStatement.setString(2, correctedKey);
+                updateStatement.setBytes(1, encode(tableName, objects.get(objectKey)));
+                updateStatement.addBatch();
+
+                if ((++rowCounter) % objectsCache.getBatchSize() == 0) {
+                    updateStatement.executeBatch();
+                    updateStatement.clearParameters();
+                    dbConnection.commit();
+                    updateStatement.close();
+                    updateStatement = dbConnection.prepareStatement("UPDATE " + tableName + " SET MATCH_BLOB=? WHERE NAME=?");
+                    rowCounter = 0;
                 }
 
                 if (waitingHandler != null) {
@@ -559,6 +816,53 @@ public class ObjectsDB implements Serializable {
         dbConnection.setAutoCommit(true);
 
         dbMutex.release();
+        if (start != NOT_TIMED) {
+            metrics.recordWrite(tableName, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Inserts a set of objects in the given table of the log-structured store.
+     * The objects are committed at once, the insertion is rolled back if
+     * canceled.
+     *
+     * @param tableName the name of the table
+     * @param objects map of the objects (object key &gt; object)
+     * @param waitingHandler a waiting handler displaying the progress (can be
+     * null). The progress will be displayed on the secondary progress bar.
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * writing the store
+     * @throws InterruptedException exception thrown whenever a threading error
+     * occurred
+     */
+    private void insertObjectsInLogStore(String tableName, HashMap<String, Object> objects, WaitingHandler waitingHandler) throws IOException, InterruptedException {
+
+        acquireDbMutex();
+        long start = startTimer();
+        try {
+            boolean canceled = false;
+            for (String objectKey : objects.keySet()) {
+                logStore.put(tableName, correctKey(tableName, objectKey), encode(tableName, objects.get(objectKey)));
+                if (waitingHandler != null) {
+                    waitingHandler.increaseSecondaryProgressCounter();
+                    if (waitingHandler.isRunCanceled()) {
+                        canceled = true;
+                        break;
+                    }
+                }
+            }
+            if (canceled) {
+                logStore.rollback(tableName);
+            } else {
+                logStore.commit(tableName);
+            }
+        } finally {
+            dbMutex.release();
+        }
+        if (start != NOT_TIMED) {
+            metrics.recordWrite(tableName, System.nanoTime() - start);
+        }
     }
 
     /**
@@ -592,17 +896,25 @@ public class ObjectsDB implements Serializable {
                     waitingHandler.setSecondaryProgressCounterIndeterminate(true);
 
                     // note that using the count statement might take a couple of seconds for a big table, but still better than an indeterminate progressbar.
-                    dbMutex.acquire();
-                    Statement rowCountStatement = dbConnection.createStatement();
+                    acquireDbMutex();
                     Integer numberOfRows = null;
-                    try {
-                        results = rowCountStatement.executeQuery("select count(*) from " + tableName);
-                        results.next();
-                        numberOfRows = results.getInt(1);
-                    } finally {
-                        rowCountStatement.close();
+                    if (logStore != null) {
+                        try {
+                            numberOfRows = logStore.size(tableName);
+                        } finally {
+                            dbMutex.release();
+                        }
+                    } else {
+                        Statement rowCountStatement = dbConnection.createStatement();
+                        try {
+                            results = rowCountStatement.executeQuery("select count(*) from " + tableName);
+                            results.next();
+                            numberOfRows = results.getInt(1);
+                        } finally {
+                            rowCountStatement.close();
+                        }
+                        dbMutex.release();
                     }
-                    dbMutex.release();
 
                     if (numberOfRows != null) {
                         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
@@ -611,74 +923,74 @@ public class ObjectsDB implements Serializable {
                     }
                 }
 
-                HashMap<String, Object> objectsFromDb = new HashMap<String, Object>();
-
-                dbMutex.acquire();
-                loading = true;
+                // the blobs are decoded and added to the cache by the loader while the table is read
+                ObjectsLoader objectsLoader = new ObjectsLoader(objectsCache, dbName, tableName, getCodecRegistry(), metrics, getLoadingThreads());
+                boolean completed = false;
 
                 try {
-                    Statement stmt = dbConnection.createStatement();
-                    try {
-                        results = stmt.executeQuery("select * from " + tableName);
-
-                        try {
-                            while (results.next()) {
-
-                                if (waitingHandler != null) {
-                                    if (waitingHandler.isRunCanceled()) {
-                                        break;
-                                    }
-                                    if (displayProgress) {
-                                        waitingHandler.increaseSecondaryProgressCounter();
-                                    }
-                                }
+                    acquireDbMutex();
+                    loading = true;
+                    long start = startTimer();
 
-                                String key = results.getString(1);
+                    try {
+                        if (logStore != null) {
+                            loadObjectsFromLogStore(tableName, null, objectsLoader, waitingHandler, displayProgress);
+                            if (waitingHandler == null || !waitingHandler.isRunCanceled()) {
+                                tableQueue.remove(tableName);
+                            }
+                        } else {
+                            Statement stmt = dbConnection.createStatement();
+                            try {
+                                results = stmt.executeQuery("select * from " + tableName);
 
-                                if (!objectsCache.inCache(dbName, tableName, key)) {
+                                try {
+                                    while (results.next()) {
 
-                                    Blob tempBlob;
+                                        if (waitingHandler != null) {
+                                            if (waitingHandler.isRunCanceled()) {
+                                                break;
+                                            }
+                                            if (displayProgress) {
+                                                waitingHandler.increaseSecondaryProgressCounter();
+                                            }
+                                        }
 
-                                    if (useSQLite) {
-                                        byte[] bytes = results.getBytes(2);
-                                        tempBlob = new SerialBlob(bytes);
-                                    } else {
-                                        tempBlob = results.getBlob(2);
-                                    }
+                                        String key = results.getString(1);
 
-                                    BufferedInputStream bis = new BufferedInputStream(tempBlob.getBinaryStream());
-                                    try {
-                                        ObjectInputStream in = new ObjectInputStream(bis);
-                                        try {
-                                            Object object = in.readObject();
-                                            objectsFromDb.put(key, object);
-                                        } finally {
-                                            in.close();
+                                        if (!objectsCache.inCache(dbName, tableName, key)) {
+                                            objectsLoader.add(key, getBlobBytes(results, 2));
                                         }
-                                    } finally {
-                                        bis.close();
                                     }
-                                }
-                            }
 
-                            tableQueue.remove(tableName);
+                                    tableQueue.remove(tableName);
 
-                        } finally {
-                            results.close();
+                                } finally {
+                                    results.close();
+                                }
+                            } finally {
+                                stmt.close();
+                            }
                         }
+
                     } finally {
-                        stmt.close();
+                        loading = false;
+                        dbMutex.release();
+                    }
+                    if (start != NOT_TIMED) {
+                        metrics.recordRead(tableName, System.nanoTime() - start);
                     }
 
-                } finally {
-                    loading = false;
-                }
-                dbMutex.release();
+                    objectsLoader.setFetched();
+                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                        objectsLoader.cancel();
+                    } else {
+                        objectsLoader.finish();
+                    }
+                    completed = true;
 
-                for (String key : objectsFromDb.keySet()) {
-                    if (!objectsCache.inCache(dbName, tableName, key)) {
-                        Object object = objectsFromDb.get(key);
-                        objectsCache.addObject(dbName, tableName, key, object, false, false);
+                } finally {
+                    if (!completed) {
+                        objectsLoader.cancel();
                     }
                 }
                 objectsCache.updateCache();
@@ -776,71 +1088,71 @@ public class ObjectsDB implements Serializable {
 
                 if (!toLoad.isEmpty()) {
 
-                    HashMap<String, Object> objectsFromDb = new HashMap<String, Object>(toLoad.size());
+                    HashSet<String> toLoadSet = new HashSet<String>(toLoad);
 
-                    dbMutex.acquire();
-                    loading = true;
+                    // the blobs are decoded and added to the cache by the loader while the table is read
+                    ObjectsLoader objectsLoader = new ObjectsLoader(objectsCache, dbName, tableName, getCodecRegistry(), metrics, getLoadingThreads());
+                    boolean completed = false;
 
                     try {
-                        Statement stmt = dbConnection.createStatement();
-                        //Statement stmt = dbConnection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY); // @TODO: test if this is faster
-                        //stmt.setFetchSize(toLoad.size()); // @TODO: test if this is faster
+                        acquireDbMutex();
+                        loading = true;
+                        long start = startTimer();
 
                         try {
-                            ResultSet results = stmt.executeQuery("select * from " + tableName);
+                            if (logStore != null) {
+                                loadObjectsFromLogStore(tableName, toLoadSet, objectsLoader, waitingHandler, displayProgress);
+                            } else {
+                                Statement stmt = dbConnection.createStatement();
+                                //Statement stmt = dbConnection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY); // @TODO: test if this is faster
+                                //stmt.setFetchSize(toLoad.size()); // @TODO: test if this is faster
 
-                            try {
-                                int found = 0;
-
-                                while (results.next() && found < toLoad.size()) {
-                                    String key = results.getString(1);
-                                    if (toLoad.contains(key)) {
-                                        found++;
-                                        Blob tempBlob;
-
-                                        if (useSQLite) {
-                                            byte[] bytes = results.getBytes(2);
-                                            tempBlob = new SerialBlob(bytes);
-                                        } else {
-                                            tempBlob = results.getBlob(2);
-                                        }
+                                try {
+                                    ResultSet results = stmt.executeQuery("select * from " + tableName);
 
-                                        BufferedInputStream bis = new BufferedInputStream(tempBlob.getBinaryStream());
-                                        try {
-                                            ObjectInputStream in = new ObjectInputStream(bis);
-                                            try {
-                                                Object object = in.readObject();
-                                                objectsFromDb.put(key, object);
-                                            } finally {
-                                                in.close();
+                                    try {
+                                        int found = 0;
+
+                                        while (results.next() && found < toLoadSet.size()) {
+                                            String key = results.getString(1);
+                                            if (toLoadSet.contains(key)) {
+                                                found++;
+                                                objectsLoader.add(key, getBlobBytes(results, 2));
+                                                if (waitingHandler != null && displayProgress) {
+                                                    waitingHandler.increaseSecondaryProgressCounter();
+                                                }
+                                            }
+                                            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                                                break;
                                             }
-                                        } finally {
-                                            bis.close();
-                                        }
-                                        if (waitingHandler != null && displayProgress) {
-                                            waitingHandler.increaseSecondaryProgressCounter();
                                         }
+                                    } finally {
+                                        results.close();
                                     }
-                                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                                        break;
-                                    }
+                                } finally {
+                                    stmt.close();
                                 }
-                            } finally {
-                                results.close();
                             }
+
                         } finally {
-                            stmt.close();
+                            loading = false;
+                            dbMutex.release();
+                        }
+                        if (start != NOT_TIMED) {
+                            metrics.recordRead(tableName, System.nanoTime() - start);
                         }
 
-                    } finally {
-                        loading = false;
-                    }
-                    dbMutex.release();
+                        objectsLoader.setFetched();
+                        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                            objectsLoader.cancel();
+                        } else {
+                            objectsLoader.finish();
+                        }
+                        completed = true;
 
-                    for (String key : objectsFromDb.keySet()) {
-                        if (!objectsCache.inCache(dbName, tableName, key)) {
-                            Object object = objectsFromDb.get(key);
-                            objectsCache.addObject(dbName, tableName, key, object, false, false);
+                    } finally {
+                        if (!completed) {
+                            objectsLoader.cancel();
                         }
                     }
                     objectsCache.updateCache();
@@ -865,6 +1177,74 @@ public class ObjectsDB implements Serializable {
         }
     }
 
+    /**
+     * Passes the blobs of the objects of a table of the log-structured store
+     * to a loader. All objects not in cache are loaded in the order of the
+     * segment file if no keys are given. The dbMutex must be acquired by the
+     * caller.
+     *
+     * @param tableName the table name
+     * @param keys the keys of the objects to load, null for all objects
+     * @param objectsLoader the loader decoding the blobs
+     * @param waitingHandler the waiting handler allowing displaying progress
+     * and canceling the process
+     * @param displayProgress boolean indicating whether the progress of this
+     * method should be displayed on the waiting handler
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * adding a previous object to the cache
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading the store
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a previous blob
+     * @throws InterruptedException exception thrown if a threading error occurs
+     */
+    private void loadObjectsFromLogStore(String tableName, HashSet<String> keys, ObjectsLoader objectsLoader, WaitingHandler waitingHandler, boolean displayProgress) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        Collection<String> keysToLoad = keys;
+        if (keysToLoad == null) {
+            keysToLoad = logStore.getKeys(tableName);
+        }
+
+        for (String key : keysToLoad) {
+
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                break;
+            }
+
+            if (!objectsCache.inCache(dbName, tableName, key)) {
+                byte[] blob = logStore.get(tableName, key);
+                if (blob != null) {
+                    objectsLoader.add(key, blob);
+                }
+            }
+
+            if (waitingHandler != null && displayProgress) {
+                waitingHandler.increaseSecondaryProgressCounter();
+            }
+        }
+    }
+
+    /**
+     * Returns the content of a blob column of the current row of a result
+     * set.
+     *
+     * @param results the result set
+     * @param column the index of the column
+     *
+     * @return the content of the blob
+     *
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the database
+     */
+    private byte[] getBlobBytes(ResultSet results, int column) throws SQLException {
+        if (useSQLite) {
+            return results.getBytes(column);
+        }
+        Blob blob = results.getBlob(column);
+        return blob.getBytes(1, (int) blob.length());
+    }
+
     /**
      * Retrieves an object from the desired table. The key should be unique
      * otherwise the first object will be returned. Returns null if the key is
@@ -965,84 +1345,74 @@ public class ObjectsDB implements Serializable {
             System.out.println(System.currentTimeMillis() + " Retrieving object, table: " + tableName + ", key: " + objectKey);
         }
 
-        if (dbConnection == null || usedTables != null && !usedTables.contains(tableName)) {
+        if (dbConnection == null && logStore == null || usedTables != null && !usedTables.contains(tableName)) {
             return object;
         }
 
-        dbMutex.acquire();
+        acquireDbMutex();
 
-        long start = System.currentTimeMillis();
+        long start = startTimer();
 
-        Statement stmt = dbConnection.createStatement();
-
-        try {
-            ResultSet results = stmt.executeQuery("select MATCH_BLOB from " + tableName + " where NAME='" + correctedKey + "'");
+        if (logStore != null) {
+            byte[] blob;
             try {
+                blob = logStore.get(tableName, correctedKey);
+            } finally {
+                dbMutex.release();
+            }
+            if (start != NOT_TIMED) {
+                metrics.recordRead(tableName, System.nanoTime() - start);
+            }
+            if (blob != null) {
+                object = decode(tableName, blob);
+            }
+        } else {
+            Statement stmt = dbConnection.createStatement();
 
-                if (results.next()) {
-
-                    Blob tempBlob;
+            try {
+                ResultSet results = stmt.executeQuery("select MATCH_BLOB from " + tableName + " where NAME='" + correctedKey + "'");
+                try {
 
-                    if (useSQLite) {
-                        byte[] bytes = results.getBytes(1);
-                        tempBlob = new SerialBlob(bytes);
-                    } else {
-                        tempBlob = results.getBlob(1);
-                    }
+                    boolean found = results.next();
 
-                    BufferedInputStream bis = new BufferedInputStream(tempBlob.getBinaryStream());
-                    try {
-                        ObjectInputStream in = new ObjectInputStream(bis);
-                        try {
-                            object = in.readObject();
-                        } finally {
-                            in.close();
-                        }
-                    } finally {
-                        bis.close();
+                    long decodingStart = NOT_TIMED;
+                    if (start != NOT_TIMED) {
+                        decodingStart = System.nanoTime();
+                        metrics.recordRead(tableName, decodingStart - start);
                     }
 
-                    if (debugSpeed) {
-                        long loaded = System.currentTimeMillis();
-
-                        File debugObjectFile = new File(debugFolder, "debugMatch");
-                        FileOutputStream fos = new FileOutputStream(debugObjectFile);
-                        BufferedOutputStream bos = new BufferedOutputStream(fos);
-                        ObjectOutputStream oos = new ObjectOutputStream(bos);
-                        oos.writeObject(object);
-                        oos.close();
-                        bos.close();
-                        fos.close();
+                    if (found) {
 
-                        long written = System.currentTimeMillis();
+                        Blob tempBlob;
 
-                        FileInputStream fis = new FileInputStream(debugObjectFile);
-                        bis = new BufferedInputStream(fis);
-                        ObjectInputStream in = new ObjectInputStream(bis);
-                        Object match = in.readObject();
-                        fis.close();
-                        bis.close();
-                        in.close();
-                        long read = System.currentTimeMillis();
-
-                        long size = debugObjectFile.length();
+                        if (useSQLite) {
+                            byte[] bytes = results.getBytes(1);
+                            tempBlob = new SerialBlob(bytes);
+                        } else {
+                            tempBlob = results.getBlob(1);
+                        }
 
-                        long queryTime = loaded - start;
-                        long serializationTime = written - loaded;
-                        long deserializationTime = read - written;
+                        BufferedInputStream bis = new BufferedInputStream(tempBlob.getBinaryStream());
+                        try {
+                            object = getCodecRegistry().decode(bis);
+                        } finally {
+                            bis.close();
+                        }
 
-                        debugSpeedWriter.write(tableName + "\t" + objectKey + "\t" + queryTime + "\t" + serializationTime + "\t" + deserializationTime + "\t" + size + "\n");
+                        if (decodingStart != NOT_TIMED) {
+                            metrics.recordDecoding(tableName, System.nanoTime() - decodingStart, tempBlob.length());
+                        }
                     }
-                }
 
+                } finally {
+                    results.close();
+                }
             } finally {
-                results.close();
+                stmt.close();
             }
-        } finally {
-            stmt.close();
-        }
 
-        dbMutex.release();
+            dbMutex.release();
+        }
 
         if (useCache) {
             if (!objectsCache.inCache(dbName, tableName, objectKey)) {
@@ -1103,11 +1473,26 @@ public class ObjectsDB implements Serializable {
         if (debugInteractions) {
             System.out.println(System.currentTimeMillis() + " Checking db content, table: " + tableName + ", key: " + objectKey);
         }
-        dbMutex.acquire();
+        acquireDbMutex();
+        if (logStore != null) {
+            try {
+                return logStore.contains(tableName, correctedKey);
+            } catch (IOException e) {
+                throw new SQLException("An error occurred while querying table " + tableName + ".", e);
+            } finally {
+                dbMutex.release();
+            }
+        }
+        HashSet<String> tableKeys = tablesKeys.get(tableName);
+        if (tableKeys != null) {
+            boolean result = tableKeys.contains(correctedKey);
+            dbMutex.release();
+            return result;
+        }
         Statement stmt = dbConnection.createStatement();
         boolean result = false;
         try {
-            ResultSet results = stmt.executeQuery("select * from " + tableName + " where NAME='" + correctedKey + "'");
+            ResultSet results = stmt.executeQuery("select NAME from " + tableName + " where NAME='" + correctedKey + "'");
             try {
                 result = results.next();
             } finally {
@@ -1122,11 +1507,12 @@ public class ObjectsDB implements Serializable {
     }
 
     /**
-     * Returns an arraylist with the content of a table.
+     * Returns the keys of the objects saved in a table. Long keys are returned
+     * in their original form.
      *
      * @param tableName the name of the table to get the content for
      *
-     * @return an arraylist with the content of the table
+     * @return the keys of the objects saved in the table
      *
      * @throws SQLException exception thrown whenever an error occurs while
      * interacting with the database
@@ -1134,75 +1520,64 @@ public class ObjectsDB implements Serializable {
      */
     public HashSet<String> getTableContent(String tableName) throws SQLException, InterruptedException {
 
+        acquireDbMutex();
         HashSet<String> tableContent;
-        if (tablesContentCache != null) {
-            tableContent = tablesContentCache.get(tableName);
-            if (tableContent != null) {
-                return tableContent;
+        try {
+            HashSet<String> tableKeys = getTableKeysNoMutex(tableName);
+            tableContent = new HashSet<String>(tableKeys.size());
+            for (String key : tableKeys) {
+                if (key.startsWith(LONG_KEY_PREFIX)) {
+                    key = getOriginalKey(tableName, key);
+                }
+                tableContent.add(key);
             }
+        } finally {
+            dbMutex.release();
         }
-        return getTableContentFromDB(tableName);
-    }
-
-    /**
-     * Returns the content of a table from the database.
-     *
-     * @param tableName the name of the table to get the content for
-     *
-     * @return an arraylist with the content of the table
-     *
-     * @throws SQLException exception thrown whenever an error occurs while
-     * interacting with the database
-     * @throws InterruptedException exception thrown if a threading error occurs
-     */
-    private HashSet<String> getTableContentFromDB(String tableName) throws SQLException, InterruptedException {
-
-        dbMutex.acquire();
-
-        HashSet<String> result = getTableContentFromDBNoMutex(tableName);
 
-        dbMutex.release();
-
-        return result;
+        return tableContent;
     }
 
     /**
-     * Returns the content of a table from the database without using the mutex.
+     * Returns the index of the keys saved in a table as stored in the
+     * database, i.e. corrected. The index is loaded from the database upon
+     * first call for a given table. The dbMutex must be acquired by the
+     * caller.
      *
-     * @param tableName the name of the table to get the content for
+     * @param tableName the name of the table
      *
-     * @return an arraylist with the content of the table
+     * @return the index of the keys saved in the table
      *
      * @throws SQLException exception thrown whenever an error occurs while
      * interacting with the database
-     * @throws InterruptedException exception thrown if a threading error occurs
      */
-    private HashSet<String> getTableContentFromDBNoMutex(String tableName) throws SQLException, InterruptedException {
+    private HashSet<String> getTableKeysNoMutex(String tableName) throws SQLException {
 
-        HashSet<String> tableContent;
-        if (tablesContentCache != null) {
-            tableContent = tablesContentCache.get(tableName);
-            if (tableContent != null) {
-                return tableContent;
+        if (logStore != null) {
+            try {
+                return new HashSet<String>(logStore.getKeys(tableName));
+            } catch (IOException e) {
+                throw new SQLException("An error occurred while querying table " + tableName + ".", e);
             }
         }
 
+        HashSet<String> tableKeys = tablesKeys.get(tableName);
+        if (tableKeys != null) {
+            return tableKeys;
+        }
+
         if (debugInteractions) {
-            System.out.println(System.currentTimeMillis() + " Checking db content, table: " + tableName);
+            System.out.println(System.currentTimeMillis() + " Loading keys index, table: " + tableName);
         }
 
-        tableContent = new HashSet<String>();
+        tableKeys = new HashSet<String>();
         Statement stmt = dbConnection.createStatement();
 
         try {
-            ResultSet results = stmt.executeQuery("select * from " + tableName);
+            ResultSet results = stmt.executeQuery("select NAME from " + tableName);
             try {
                 while (results.next()) {
-                    String key = results.getString(1);
-                    if (key.startsWith(LONG_KEY_PREFIX)) {
-                        key = getOriginalKey(tableName, key);
-                    }
-                    tableContent.add(key);
+                    tableKeys.add(results.getString(1));
                 }
             } finally {
                 results.close();
@@ -1211,23 +1586,9 @@ public class ObjectsDB implements Serializable {
             stmt.close();
         }
 
-        if (tablesContentCache != null) {
-            if (tablesContentCache.size() == tablesContentCacheSize) {
-                String keyToRemove = null;
-                for (String key : tablesContentCache.keySet()) {
-                    if (!key.equals(tableName)) {
-                        keyToRemove = key;
-                        break;
-                    }
-                }
-                if (keyToRemove != null) {
-                    tablesContentCache.remove(keyToRemove);
-                }
-            }
-            tablesContentCache.put(tableName, tableContent);
-        }
+        tablesKeys.put(tableName, tableKeys);
 
-        return tableContent;
+        return tableKeys;
     }
 
     /**
@@ -1250,22 +1611,34 @@ public class ObjectsDB implements Serializable {
         objectsCache.removeObject(dbName, tableName, correctedKey);
 
         // delete from database
-        dbMutex.acquire();
-        if (debugInteractions) {
-            System.out.println(System.currentTimeMillis() + " Removing object, table: " + tableName + ", key: " + objectKey);
-        }
-        if (usedTables == null || usedTables.contains(tableName)) {
-            Statement stmt = dbConnection.createStatement();
-            try {
-                stmt.executeUpdate("delete from " + tableName + " where NAME='" + correctedKey + "'"); // @TODO: what if the accession contains (') ..? - a single quotation mark is the escape character for a single quotation mark
-            } catch (SQLSyntaxErrorException e) {
-                System.out.println("SQL Exception. SQL call: " + "delete from " + tableName + " where NAME='" + correctedKey + "'");
-                throw e;
-            } finally {
-                stmt.close();
+        acquireDbMutex();
+        try {
+            if (debugInteractions) {
+                System.out.println(System.currentTimeMillis() + " Removing object, table: " + tableName + ", key: " + objectKey);
             }
+            if (usedTables == null || usedTables.contains(tableName)) {
+                if (logStore != null) {
+                    logStore.delete(tableName, correctedKey);
+                    logStore.commit(tableName);
+                } else {
+                    Statement stmt = dbConnection.createStatement();
+                    try {
+                        stmt.executeUpdate("delete from " + tableName + " where NAME='" + correctedKey + "'"); // @TODO: what if the accession contains (') ..? - a single quotation mark is the escape character for a single quotation mark
+                    } catch (SQLSyntaxErrorException e) {
+                        System.out.println("SQL Exception. SQL call: " + "delete from " + tableName + " where NAME='" + correctedKey + "'");
+                        throw e;
+                    } finally {
+                        stmt.close();
+                    }
+                }
+                HashSet<String> tableKeys = tablesKeys.get(tableName);
+                if (tableKeys != null) {
+                    tableKeys.remove(correctedKey);
+                }
+            }
+        } finally {
+            dbMutex.release();
         }
-        dbMutex.release();
     }
 
     /**
@@ -1342,31 +1715,31 @@ public class ObjectsDB implements Serializable {
 
         if (!cacheUpdated && (usedTables == null || usedTables.contains(tableName))) {
 
-            dbMutex.acquire();
+            acquireDbMutex();
+            long start = startTimer();
 
             if (debugInteractions) {
                 System.out.println(System.currentTimeMillis() + " Updating object, table: " + tableName + ", key: " + objectKey);
             }
-            PreparedStatement ps = dbConnection.prepareStatement("update " + tableName + " set MATCH_BLOB=? where NAME='" + objectKey + "'");
-            try {
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            if (logStore != null) {
+                if (logStore.contains(tableName, correctedKey)) {
+                    logStore.put(tableName, correctedKey, encode(tableName, object));
+                    logStore.commit(tableName);
+                }
+            } else {
+                PreparedStatement ps = dbConnection.prepareStatement("update " + tableName + " set MATCH_BLOB=? where NAME='" + correctedKey + "'");
                 try {
-                    ObjectOutputStream oos = new ObjectOutputStream(bos);
-                    try {
-                        oos.writeObject(object);
-                    } finally {
-                        oos.close();
-                    }
+                    ps.setBytes(1, encode(tableName, object));
+                    ps.executeUpdate();
                 } finally {
-                    bos.close();
+                    ps.close();
                 }
-                ps.setBytes(1, bos.toByteArray());
-                ps.executeUpdate();
-            } finally {
-                ps.close();
             }
 
             dbMutex.release();
+            if (start != NOT_TIMED) {
+                metrics.recordWrite(tableName, System.nanoTime() - start);
+            }
         }
     }
 
@@ -1456,6 +1829,9 @@ public class ObjectsDB implements Serializable {
      * @return true if the connection to the DB is active
      */
     public boolean isConnectionActive() {
+        if (logStore != null) {
+            return logStore.isOpen();
+        }
         return path != null && DerbyUtil.isActiveConnection(derbyConnectionID, path);
     }
 
@@ -1468,27 +1844,36 @@ public class ObjectsDB implements Serializable {
      */
     public void close() throws SQLException, InterruptedException {
 
+        // Make sure that the objects queued for writing are written
+        if (objectsCache != null) {
+            try {
+                objectsCache.flush();
+            } catch (IOException e) {
+                throw new SQLException("Error while writing the queued objects in database " + dbName + ".", e);
+            }
+        }
+
         // Make sure that previous queries are done
-        dbMutex.acquire();
+        acquireDbMutex();
         while (dbMutex.getQueueLength() > 0) {
             dbMutex.release();
             wait(5);
-            dbMutex.acquire();
+            acquireDbMutex();
         }
         dbMutex.release();
 
-        if (dbConnection != null) {
+        if (dbConnection != null || logStore != null) {
             // try to save the long key indexes
             try {
                 saveAttributes();
             } catch (Exception e) {
-                if (dbConnection != null) {
+                if (dbConnection != null || logStore != null) {
                     e.printStackTrace();
                 }
             }
         }
 
-        dbMutex.acquire();
+        acquireDbMutex();
         objectsCache = null;
 
         try {
@@ -1500,13 +1885,13 @@ public class ObjectsDB implements Serializable {
             e.printStackTrace();
         }
 
-        if (debugSpeed && debugSpeedWriter != null) {
+        if (logStore != null) {
             try {
-                debugSpeedWriter.close();
-                debugSpeedWriter = null;
+                logStore.close();
             } catch (Exception e) {
                 e.printStackTrace();
             }
+            logStore = null;
         }
 
         if (debugContent && debugContentWriter != null) {
@@ -1520,6 +1905,15 @@ public class ObjectsDB implements Serializable {
 
         dbConnection = null;
 
+        // the metrics registered over JMX would otherwise keep this database reachable
+        if (metrics != null) {
+            try {
+                metrics.unregisterMBean();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
         dbMutex.release();
     }
 
@@ -1553,7 +1947,9 @@ public class ObjectsDB implements Serializable {
 
             close();
 
-            DerbyUtil.closeConnection();
+            if (backend != Backend.LOG_STRUCTURED) {
+                DerbyUtil.closeConnection();
+            }
             boolean deleted = Util.deleteDir(dbFolder);
             //TODO: Restore connections?
 
@@ -1565,29 +1961,40 @@ public class ObjectsDB implements Serializable {
         if (dbMutex == null) { // Backward compatibility fix for projects made with a utilities version older than 4.10.1
             dbMutex = new Semaphore(1);
             queueMutex = new Semaphore(1);
-            tablesContentCacheSize = 4;
-            tablesContentCache = new HashMap<String, HashSet<String>>(tablesContentCacheSize);
         }
-        dbMutex.acquire();
+        if (backend == null) { // Backward compatibility fix for projects made with a utilities version older than 4.11.3
+            backend = useSQLite ? Backend.SQLITE : Backend.DERBY;
+            compressionLevels = new ConcurrentHashMap<String, Integer>();
+        }
+        tablesKeys = new HashMap<String, HashSet<String>>();
+        if (metrics == null) {
+            metrics = new ObjectsDBMetrics(dbName);
+        }
+        metrics.setObjectsCache(objectsCache);
+        acquireDbMutex();
 
-        if (useSQLite) {
-            try {
-                Class.forName("org.sqlite.JDBC");
-                dbConnection = DriverManager.getConnection("jdbc:sqlite:" + path); // @TODO: another instance of SQLite may have already booted the database. We need to check this first?
-            } catch (SQLException e) {
-                // try using Derby instead
-                useSQLite = false;
-            } catch (ClassNotFoundException ex) {
-                ex.printStackTrace();
+        if (backend == Backend.LOG_STRUCTURED) {
+            logStore = new LogStructuredStore(dbFolder);
+        } else {
+            if (useSQLite) {
+                try {
+                    Class.forName("org.sqlite.JDBC");
+                    dbConnection = DriverManager.getConnection("jdbc:sqlite:" + path); // @TODO: another instance of SQLite may have already booted the database. We need to check this first?
+                } catch (SQLException e) {
+                    // try using Derby instead
+                    useSQLite = false;
+                } catch (ClassNotFoundException ex) {
+                    ex.printStackTrace();
+                }
             }
-        }
-        if (!useSQLite) {
-            if (isConnectionActive()) {
-                throw new IllegalArgumentException("Impossible to establish a Derby connection in " + path + ", connection to the folder already active.");
+            if (!useSQLite) {
+                if (isConnectionActive()) {
+                    throw new IllegalArgumentException("Impossible to establish a Derby connection in " + path + ", connection to the folder already active.");
+                }
+                String url = "jdbc:derby:" + path + ";create=true";
+                dbConnection = DriverManager.getConnection(url);
+                DerbyUtil.addActiveConnection(derbyConnectionID, path);
             }
-            String url = "jdbc:derby:" + path + ";create=true";
-            dbConnection = DriverManager.getConnection(url);
-            DerbyUtil.addActiveConnection(derbyConnectionID, path);
         }
 
         // special fix for if derby breaks down and restarts in read only mode
@@ -1597,16 +2004,6 @@ public class ObjectsDB implements Serializable {
 
         this.objectsCache = objectsCache;
 
-        // debug test speed
-        if (debugSpeed) {
-            try {
-                debugFolder = new File(aDbFolder);
-                debugSpeedWriter = new BufferedWriter(new FileWriter(new File(parentFolder, "dbSpeed.txt")));
-                debugSpeedWriter.write("Table\tkey\tQuery time\tSerialization time\tDeserialization time\tsize\n");
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
         // debug test content
         if (debugContent) {
             try {
@@ -1729,4 +2126,23 @@ public class ObjectsDB implements Serializable {
     public static void setDebugInteractions(boolean debug) {
         debugInteractions = debug;
     }
+
+    /**
+     * The backends available to store the objects.
+     */
+    public enum Backend {
+
+        /**
+         * Apache Derby database.
+         */
+        DERBY,
+        /**
+         * SQLite database, Derby is used if the SQLite driver is not found.
+         */
+        SQLITE,
+        /**
+         * Embedded log-structured store, see LogStructuredStore.
+         */
+        LOG_STRUCTURED
+    }
 }
@@ -0,0 +1,105 @@
+package com.compomics.util.db;
+
+import com.compomics.util.Util;
+import java.io.File;
+import java.util.HashMap;
+
+/**
+ * Command line benchmark of the time needed to save objects in batches in an
+ * objects database. The objects are inserted the way the cache saves them,
+ * i.e. one batch per call to insertObjects, and the time per batch is printed
+ * at regular intervals. The time per batch should not grow with the number of
+ * objects already in the table.
+ *
+ * @author Marc Vaudel
+ */
+public class ObjectsDBBenchmark {
+
+    /**
+     * The name of the table used for the benchmark.
+     */
+    private static final String TABLE_NAME = "benchmark_table";
+
+    /**
+     * Main class.
+     *
+     * @param args command line arguments
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && (args[0].equals("-h") || args[0].equals("--help"))) {
+            System.err.println("ObjectsDBBenchmark: measures the time needed to save objects in batches in the database.");
+            System.err.println("usage: ObjectsDBBenchmark [number-of-objects] [batch-size] [number-of-reports] [backend]");
+            System.err.println();
+            System.err.println("Default parameters:");
+            System.err.println("\tnumber of objects:\t1000000");
+            System.err.println("\tbatch size:\t\t10000");
+            System.err.println("\tnumber of reports:\t10");
+            System.err.println("\tbackend:\t\tDERBY (DERBY, SQLITE or LOG_STRUCTURED)");
+            System.exit(-1);
+        }
+        int nObjects = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        int nReports = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        ObjectsDB.Backend backend = args.length > 3 ? ObjectsDB.Backend.valueOf(args[3]) : ObjectsDB.Backend.DERBY;
+
+        File folder = new File(System.getProperty("java.io.tmpdir"), "objects_db_benchmark_" + System.currentTimeMillis());
+        ObjectsCache objectsCache = new ObjectsCache();
+        ObjectsDB objectsDB = new ObjectsDB(folder.getAbsolutePath(), "benchmark", true, objectsCache, backend);
+        try {
+            benchmark(objectsDB, nObjects, batchSize, nReports);
+        } finally {
+            objectsDB.close();
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Saves the given number of objects in batches and prints the average time
+     * per batch on the standard output at regular intervals. The last batch
+     * is saved a second time to measure the update of existing objects.
+     *
+     * @param objectsDB the database
+     * @param nObjects the number of objects to save
+     * @param batchSize the number of objects per batch
+     * @param nReports the number of times the time per batch is reported
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    static void benchmark(ObjectsDB objectsDB, int nObjects, int batchSize, int nReports) throws Exception {
+
+        objectsDB.addTable(TABLE_NAME);
+
+        int nBatches = Math.max((nObjects + batchSize - 1) / batchSize, 1);
+        int reportInterval = Math.max(nBatches / Math.max(nReports, 1), 1);
+
+        System.out.println("objects\tms/batch");
+        long totalStart = System.nanoTime();
+        long intervalStart = totalStart;
+        int intervalBatches = 0;
+        HashMap<String, Object> batch = null;
+        int objectCount = 0;
+        for (int i = 0; i < nBatches; i++) {
+            batch = new HashMap<String, Object>(batchSize);
+            for (int j = 0; j < batchSize && objectCount < nObjects; j++, objectCount++) {
+                batch.put("spectrum_file.mgf_cus_spectrum_" + objectCount, Integer.valueOf(objectCount));
+            }
+            objectsDB.insertObjects(TABLE_NAME, batch, null);
+            intervalBatches++;
+            if (intervalBatches == reportInterval || i == nBatches - 1) {
+                long time = System.nanoTime() - intervalStart;
+                System.out.println(objectCount + "\t" + String.format("%.1f", time / 1000000.0 / intervalBatches));
+                intervalStart = System.nanoTime();
+                intervalBatches = 0;
+            }
+        }
+        long totalTime = System.nanoTime() - totalStart;
+        System.out.println("Inserted " + objectCount + " objects in " + String.format("%.1f", totalTime / 1000000000.0) + " s.");
+
+        long start = System.nanoTime();
+        objectsDB.insertObjects(TABLE_NAME, batch, null);
+        long time = System.nanoTime() - start;
+        System.out.println("Updated " + batch.size() + " objects in " + String.format("%.1f", time / 1000000.0) + " ms.");
+    }
+}
@@ -0,0 +1,478 @@
+package com.compomics.util.db;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Live metrics of an objects database: per table durations of the queries and
+ * of the encoding and decoding of the objects, bytes read and written, and
+ * time spent waiting for the database mutex. The cache metrics are taken from
+ * the cache of the database. Recording only reads the clock and increments
+ * atomic counters, the metrics are therefore enabled by default.
+ *
+ * @author Marc Vaudel
+ */
+public class ObjectsDBMetrics implements ObjectsDBMetricsMXBean {
+
+    /**
+     * The name of the database.
+     */
+    private final String dbName;
+    /**
+     * Indicates whether the metrics are recorded.
+     */
+    private volatile boolean enabled = true;
+    /**
+     * The metrics of the tables indexed by table name.
+     */
+    private final ConcurrentHashMap<String, TableMetrics> tables = new ConcurrentHashMap<String, TableMetrics>();
+    /**
+     * The time spent waiting for the database mutex.
+     */
+    private final LatencyHistogram dbMutexWait = new LatencyHistogram();
+    /**
+     * The cache of the database, can be null.
+     */
+    private volatile ObjectsCache objectsCache = null;
+    /**
+     * The name under which the metrics are registered in the platform MBean
+     * server, null if not registered.
+     */
+    private ObjectName objectName = null;
+
+    /**
+     * Constructor.
+     *
+     * @param dbName the name of the database
+     */
+    public ObjectsDBMetrics(String dbName) {
+        this.dbName = dbName;
+    }
+
+    /**
+     * Returns the name of the database.
+     *
+     * @return the name of the database
+     */
+    public String getDbName() {
+        return dbName;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Sets the cache of the database.
+     *
+     * @param objectsCache the cache of the database
+     */
+    public void setObjectsCache(ObjectsCache objectsCache) {
+        this.objectsCache = objectsCache;
+    }
+
+    /**
+     * Returns the metrics of a table, creating them if needed.
+     *
+     * @param tableName the name of the table
+     *
+     * @return the metrics of the table
+     */
+    private TableMetrics getTableMetrics(String tableName) {
+        TableMetrics tableMetrics = tables.get(tableName);
+        if (tableMetrics == null) {
+            tableMetrics = new TableMetrics();
+            TableMetrics previous = tables.putIfAbsent(tableName, tableMetrics);
+            if (previous != null) {
+                tableMetrics = previous;
+            }
+        }
+        return tableMetrics;
+    }
+
+    /**
+     * Records a query reading objects.
+     *
+     * @param tableName the name of the table
+     * @param nanos the duration of the query in nanoseconds
+     */
+    public void recordRead(String tableName, long nanos) {
+        getTableMetrics(tableName).reads.record(nanos);
+    }
+
+    /**
+     * Records a query writing objects.
+     *
+     * @param tableName the name of the table
+     * @param nanos the duration of the query in nanoseconds
+     */
+    public void recordWrite(String tableName, long nanos) {
+        getTableMetrics(tableName).writes.record(nanos);
+    }
+
+    /**
+     * Records the encoding of an object.
+     *
+     * @param tableName the name of the table
+     * @param nanos the duration of the encoding in nanoseconds
+     * @param bytes the size of the blob written
+     */
+    public void recordEncoding(String tableName, long nanos, long bytes) {
+        TableMetrics tableMetrics = getTableMetrics(tableName);
+        tableMetrics.encoding.record(nanos);
+        tableMetrics.bytesWritten.addAndGet(bytes);
+    }
+
+    /**
+     * Records the decoding of an object.
+     *
+     * @param tableName the name of the table
+     * @param nanos the duration of the decoding in nanoseconds
+     * @param bytes the size of the blob read
+     */
+    public void recordDecoding(String tableName, long nanos, long bytes) {
+        TableMetrics tableMetrics = getTableMetrics(tableName);
+        tableMetrics.decoding.record(nanos);
+        tableMetrics.bytesRead.addAndGet(bytes);
+    }
+
+    /**
+     * Records the time spent waiting for the database mutex.
+     *
+     * @param nanos the time spent waiting in nanoseconds
+     */
+    public void recordDbMutexWait(long nanos) {
+        dbMutexWait.record(nanos);
+    }
+
+    /**
+     * Returns a snapshot of the time spent waiting for the database mutex,
+     * one duration per acquisition.
+     *
+     * @return the time spent waiting for the database mutex
+     */
+    public LatencyHistogram getDbMutexWait() {
+        return dbMutexWait.copy();
+    }
+
+    /**
+     * Returns a snapshot of the metrics of the given table, null if nothing was
+     * recorded for this table.
+     *
+     * @param tableName the name of the table
+     *
+     * @return a snapshot of the metrics of the table
+     */
+    public ObjectsDBStatistics getStatistics(String tableName) {
+        TableMetrics tableMetrics = tables.get(tableName);
+        if (tableMetrics == null) {
+            return null;
+        }
+        return tableMetrics.getStatistics(dbName, tableName);
+    }
+
+    /**
+     * Returns a snapshot of the metrics of all tables.
+     *
+     * @return a snapshot of the metrics of all tables
+     */
+    public ArrayList<ObjectsDBStatistics> getStatistics() {
+        ArrayList<ObjectsDBStatistics> result = new ArrayList<ObjectsDBStatistics>(tables.size());
+        for (String tableName : tables.keySet()) {
+            result.add(getStatistics(tableName));
+        }
+        return result;
+    }
+
+    /**
+     * Returns a snapshot of the statistics of the tables of this database in
+     * the cache.
+     *
+     * @return a snapshot of the cache statistics of this database
+     */
+    public ArrayList<ObjectsCacheStatistics> getCacheStatistics() {
+        ArrayList<ObjectsCacheStatistics> result = new ArrayList<ObjectsCacheStatistics>();
+        ObjectsCache cache = objectsCache;
+        if (cache != null) {
+            for (ObjectsCacheStatistics statistics : cache.getStatistics()) {
+                if (statistics.getDbName().equals(dbName)) {
+                    result.add(statistics);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        tables.clear();
+        dbMutexWait.reset();
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server under
+     * com.compomics.util.db:type=ObjectsDB,name=&lt;database name&gt;.
+     *
+     * @throws JMException exception thrown whenever an error occurred while
+     * registering the metrics
+     */
+    public synchronized void registerMBean() throws JMException {
+        if (objectName == null) {
+            ObjectName name = new ObjectName("com.compomics.util.db:type=ObjectsDB,name=" + ObjectName.quote(dbName));
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            if (mBeanServer.isRegistered(name)) {
+                mBeanServer.unregisterMBean(name);
+            }
+            mBeanServer.registerMBean(this, name);
+            objectName = name;
+        }
+    }
+
+    /**
+     * Removes the metrics from the platform MBean server if registered.
+     *
+     * @throws JMException exception thrown whenever an error occurred while
+     * unregistering the metrics
+     */
+    public synchronized void unregisterMBean() throws JMException {
+        if (objectName != null) {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            objectName = null;
+        }
+    }
+
+    /**
+     * Returns the reads of all tables.
+     *
+     * @return the reads of all tables
+     */
+    private LatencyHistogram getAllReads() {
+        LatencyHistogram result = new LatencyHistogram();
+        for (TableMetrics tableMetrics : tables.values()) {
+            result.add(tableMetrics.reads);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the writes of all tables.
+     *
+     * @return the writes of all tables
+     */
+    private LatencyHistogram getAllWrites() {
+        LatencyHistogram result = new LatencyHistogram();
+        for (TableMetrics tableMetrics : tables.values()) {
+            result.add(tableMetrics.writes);
+        }
+        return result;
+    }
+
+    @Override
+    public long getReads() {
+        return getAllReads().getCount();
+    }
+
+    @Override
+    public double getMeanReadMicros() {
+        return getAllReads().getMeanNanos() / 1000;
+    }
+
+    @Override
+    public double getP99ReadMicros() {
+        return getAllReads().getPercentileNanos(0.99) / 1000.0;
+    }
+
+    @Override
+    public long getWrites() {
+        return getAllWrites().getCount();
+    }
+
+    @Override
+    public double getMeanWriteMicros() {
+        return getAllWrites().getMeanNanos() / 1000;
+    }
+
+    @Override
+    public double getP99WriteMicros() {
+        return getAllWrites().getPercentileNanos(0.99) / 1000.0;
+    }
+
+    @Override
+    public long getObjectsRead() {
+        long result = 0;
+        for (TableMetrics tableMetrics : tables.values()) {
+            result += tableMetrics.decoding.getCount();
+        }
+        return result;
+    }
+
+    @Override
+    public long getObjectsWritten() {
+        long result = 0;
+        for (TableMetrics tableMetrics : tables.values()) {
+            result += tableMetrics.encoding.getCount();
+        }
+        return result;
+    }
+
+    @Override
+    public long getBytesRead() {
+        long result = 0;
+        for (TableMetrics tableMetrics : tables.values()) {
+            result += tableMetrics.bytesRead.get();
+        }
+        return result;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        long result = 0;
+        for (TableMetrics tableMetrics : tables.values()) {
+            result += tableMetrics.bytesWritten.get();
+        }
+        return result;
+    }
+
+    @Override
+    public double getEncodingMillis() {
+        long result = 0;
+        for (TableMetrics tableMetrics : tables.values()) {
+            result += tableMetrics.encoding.getTotalNanos();
+        }
+        return result / 1000000.0;
+    }
+
+    @Override
+    public double getDecodingMillis() {
+        long result = 0;
+        for (TableMetrics tableMetrics : tables.values()) {
+            result += tableMetrics.decoding.getTotalNanos();
+        }
+        return result / 1000000.0;
+    }
+
+    @Override
+    public double getDbMutexWaitMillis() {
+        return dbMutexWait.getTotalNanos() / 1000000.0;
+    }
+
+    @Override
+    public double getP99DbMutexWaitMicros() {
+        return dbMutexWait.getPercentileNanos(0.99) / 1000.0;
+    }
+
+    @Override
+    public long getCacheHits() {
+        long result = 0;
+        for (ObjectsCacheStatistics statistics : getCacheStatistics()) {
+            result += statistics.getHits();
+        }
+        return result;
+    }
+
+    @Override
+    public long getCacheMisses() {
+        long result = 0;
+        for (ObjectsCacheStatistics statistics : getCacheStatistics()) {
+            result += statistics.getMisses();
+        }
+        return result;
+    }
+
+    @Override
+    public long getCacheEvictions() {
+        long result = 0;
+        for (ObjectsCacheStatistics statistics : getCacheStatistics()) {
+            result += statistics.getEvictions();
+        }
+        return result;
+    }
+
+    @Override
+    public long getCacheResidentBytes() {
+        long result = 0;
+        for (ObjectsCacheStatistics statistics : getCacheStatistics()) {
+            result += statistics.getResidentBytes();
+        }
+        return result;
+    }
+
+    @Override
+    public double getEvictionMutexWaitMillis() {
+        ObjectsCache cache = objectsCache;
+        if (cache == null) {
+            return 0;
+        }
+        return cache.getEvictionMutexWait().getTotalNanos() / 1000000.0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append(dbName).append(": database mutex wait ").append(dbMutexWait);
+        for (ObjectsDBStatistics statistics : getStatistics()) {
+            result.append(System.getProperty("line.separator")).append(statistics);
+        }
+        for (ObjectsCacheStatistics statistics : getCacheStatistics()) {
+            result.append(System.getProperty("line.separator")).append(statistics);
+        }
+        return result.toString();
+    }
+
+    /**
+     * The live metrics of a table.
+     */
+    private static class TableMetrics {
+
+        /**
+         * The durations of the queries reading objects.
+         */
+        private final LatencyHistogram reads = new LatencyHistogram();
+        /**
+         * The durations of the queries writing objects.
+         */
+        private final LatencyHistogram writes = new LatencyHistogram();
+        /**
+         * The durations of the encoding of the objects.
+         */
+        private final LatencyHistogram encoding = new LatencyHistogram();
+        /**
+         * The durations of the decoding of the objects.
+         */
+        private final LatencyHistogram decoding = new LatencyHistogram();
+        /**
+         * The number of bytes read.
+         */
+        private final AtomicLong bytesRead = new AtomicLong(0);
+        /**
+         * The number of bytes written.
+         */
+        private final AtomicLong bytesWritten = new AtomicLong(0);
+
+        /**
+         * Returns a snapshot of the metrics of the table.
+         *
+         * @param dbName the name of the database
+         * @param tableName the name of the table
+         *
+         * @return a snapshot of the metrics of the table
+         */
+        public ObjectsDBStatistics getStatistics(String dbName, String tableName) {
+            return new ObjectsDBStatistics(dbName, tableName, reads.copy(), writes.copy(), encoding.copy(), decoding.copy(), bytesRead.get(), bytesWritten.get());
+        }
+    }
+}
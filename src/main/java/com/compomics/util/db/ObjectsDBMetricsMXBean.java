@@ -0,0 +1,169 @@
+package com.compomics.util.db;
+
+/**
+ * Management interface exposing the metrics of an objects database and of its
+ * cache over JMX. Durations are in microseconds unless stated otherwise.
+ *
+ * @author Marc Vaudel
+ */
+public interface ObjectsDBMetricsMXBean {
+
+    /**
+     * Indicates whether the metrics are recorded.
+     *
+     * @return a boolean indicating whether the metrics are recorded
+     */
+    public boolean isEnabled();
+
+    /**
+     * Sets whether the metrics are recorded.
+     *
+     * @param enabled a boolean indicating whether the metrics are recorded
+     */
+    public void setEnabled(boolean enabled);
+
+    /**
+     * Clears the metrics recorded so far.
+     */
+    public void reset();
+
+    /**
+     * Returns the number of read queries.
+     *
+     * @return the number of read queries
+     */
+    public long getReads();
+
+    /**
+     * Returns the mean duration of the read queries.
+     *
+     * @return the mean duration of the read queries
+     */
+    public double getMeanReadMicros();
+
+    /**
+     * Returns an upper estimate of the 99th percentile of the duration of the
+     * read queries.
+     *
+     * @return the 99th percentile of the duration of the read queries
+     */
+    public double getP99ReadMicros();
+
+    /**
+     * Returns the number of write queries.
+     *
+     * @return the number of write queries
+     */
+    public long getWrites();
+
+    /**
+     * Returns the mean duration of the write queries.
+     *
+     * @return the mean duration of the write queries
+     */
+    public double getMeanWriteMicros();
+
+    /**
+     * Returns an upper estimate of the 99th percentile of the duration of the
+     * write queries.
+     *
+     * @return the 99th percentile of the duration of the write queries
+     */
+    public double getP99WriteMicros();
+
+    /**
+     * Returns the number of objects read from the database.
+     *
+     * @return the number of objects read from the database
+     */
+    public long getObjectsRead();
+
+    /**
+     * Returns the number of objects written to the database.
+     *
+     * @return the number of objects written to the database
+     */
+    public long getObjectsWritten();
+
+    /**
+     * Returns the number of bytes read from the database.
+     *
+     * @return the number of bytes read from the database
+     */
+    public long getBytesRead();
+
+    /**
+     * Returns the number of bytes written to the database.
+     *
+     * @return the number of bytes written to the database
+     */
+    public long getBytesWritten();
+
+    /**
+     * Returns the total time spent encoding objects in milliseconds.
+     *
+     * @return the total time spent encoding objects in milliseconds
+     */
+    public double getEncodingMillis();
+
+    /**
+     * Returns the total time spent decoding objects in milliseconds.
+     *
+     * @return the total time spent decoding objects in milliseconds
+     */
+    public double getDecodingMillis();
+
+    /**
+     * Returns the total time spent waiting for the database mutex in
+     * milliseconds.
+     *
+     * @return the total time spent waiting for the database mutex
+     */
+    public double getDbMutexWaitMillis();
+
+    /**
+     * Returns an upper estimate of the 99th percentile of the time spent
+     * waiting for the database mutex.
+     *
+     * @return the 99th percentile of the time spent waiting for the database
+     * mutex
+     */
+    public double getP99DbMutexWaitMicros();
+
+    /**
+     * Returns the number of objects of this database found in cache.
+     *
+     * @return the number of cache hits
+     */
+    public long getCacheHits();
+
+    /**
+     * Returns the number of objects of this database not found in cache.
+     *
+     * @return the number of cache misses
+     */
+    public long getCacheMisses();
+
+    /**
+     * Returns the number of objects of this database evicted from the cache.
+     *
+     * @return the number of cache evictions
+     */
+    public long getCacheEvictions();
+
+    /**
+     * Returns the estimated memory used by the objects of this database in
+     * cache in bytes.
+     *
+     * @return the estimated memory used in cache in bytes
+     */
+    public long getCacheResidentBytes();
+
+    /**
+     * Returns the total time spent waiting for the eviction mutex of the
+     * cache in milliseconds.
+     *
+     * @return the total time spent waiting for the eviction mutex
+     */
+    public double getEvictionMutexWaitMillis();
+}
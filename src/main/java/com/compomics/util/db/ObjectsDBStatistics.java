@@ -0,0 +1,164 @@
+package com.compomics.util.db;
+
+/**
+ * Snapshot of the metrics of a table in an objects database.
+ *
+ * @author Marc Vaudel
+ */
+public class ObjectsDBStatistics {
+
+    /**
+     * The name of the database.
+     */
+    private final String dbName;
+    /**
+     * The name of the table.
+     */
+    private final String tableName;
+    /**
+     * The durations of the queries reading objects from the database.
+     */
+    private final LatencyHistogram reads;
+    /**
+     * The durations of the queries writing objects to the database.
+     */
+    private final LatencyHistogram writes;
+    /**
+     * The durations of the encoding of the objects.
+     */
+    private final LatencyHistogram encoding;
+    /**
+     * The durations of the decoding of the objects.
+     */
+    private final LatencyHistogram decoding;
+    /**
+     * The number of bytes read from the database.
+     */
+    private final long bytesRead;
+    /**
+     * The number of bytes written to the database.
+     */
+    private final long bytesWritten;
+
+    /**
+     * Constructor.
+     *
+     * @param dbName the name of the database
+     * @param tableName the name of the table
+     * @param reads the durations of the queries reading objects
+     * @param writes the durations of the queries writing objects
+     * @param encoding the durations of the encoding of the objects
+     * @param decoding the durations of the decoding of the objects
+     * @param bytesRead the number of bytes read from the database
+     * @param bytesWritten the number of bytes written to the database
+     */
+    public ObjectsDBStatistics(String dbName, String tableName, LatencyHistogram reads, LatencyHistogram writes, LatencyHistogram encoding, LatencyHistogram decoding, long bytesRead, long bytesWritten) {
+        this.dbName = dbName;
+        this.tableName = tableName;
+        this.reads = reads;
+        this.writes = writes;
+        this.encoding = encoding;
+        this.decoding = decoding;
+        this.bytesRead = bytesRead;
+        this.bytesWritten = bytesWritten;
+    }
+
+    /**
+     * Returns the name of the database.
+     *
+     * @return the name of the database
+     */
+    public String getDbName() {
+        return dbName;
+    }
+
+    /**
+     * Returns the name of the table.
+     *
+     * @return the name of the table
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Returns the durations of the queries reading objects from the database,
+     * one per object retrieved or per table loaded.
+     *
+     * @return the durations of the queries reading objects
+     */
+    public LatencyHistogram getReads() {
+        return reads;
+    }
+
+    /**
+     * Returns the durations of the queries writing objects to the database,
+     * one per object or per batch of objects written.
+     *
+     * @return the durations of the queries writing objects
+     */
+    public LatencyHistogram getWrites() {
+        return writes;
+    }
+
+    /**
+     * Returns the durations of the encoding of the objects, one per object.
+     *
+     * @return the durations of the encoding of the objects
+     */
+    public LatencyHistogram getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Returns the durations of the decoding of the objects, one per object.
+     *
+     * @return the durations of the decoding of the objects
+     */
+    public LatencyHistogram getDecoding() {
+        return decoding;
+    }
+
+    /**
+     * Returns the number of objects read from the database.
+     *
+     * @return the number of objects read from the database
+     */
+    public long getObjectsRead() {
+        return decoding.getCount();
+    }
+
+    /**
+     * Returns the number of objects written to the database.
+     *
+     * @return the number of objects written to the database
+     */
+    public long getObjectsWritten() {
+        return encoding.getCount();
+    }
+
+    /**
+     * Returns the number of bytes read from the database.
+     *
+     * @return the number of bytes read from the database
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Returns the number of bytes written to the database.
+     *
+     * @return the number of bytes written to the database
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public String toString() {
+        return dbName + "/" + tableName + ": reads " + reads + ", writes " + writes + ", "
+                + getObjectsRead() + " objects (" + bytesRead + " bytes) read, "
+                + getObjectsWritten() + " objects (" + bytesWritten + " bytes) written";
+    }
+}
@@ -0,0 +1,287 @@
+package com.compomics.util.db;
+
+import com.compomics.util.db.codecs.ObjectCodecRegistry;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pipeline loading objects from a database table in the cache. The thread
+ * reading the database passes the raw blobs to this loader, the blobs are
+ * decoded and added to the cache by a pool of worker threads. The queue of
+ * blobs is bounded so that the reading thread waits when the workers fall
+ * behind, it stops waiting as soon as a worker failed or no worker is left.
+ *
+ * @author Marc Vaudel
+ */
+class ObjectsLoader {
+
+    /**
+     * The capacity of the queue of blobs to decode.
+     */
+    public static final int QUEUE_CAPACITY = 1024;
+    /**
+     * The cache where to add the objects.
+     */
+    private final ObjectsCache objectsCache;
+    /**
+     * The name of the database.
+     */
+    private final String dbName;
+    /**
+     * The name of the table.
+     */
+    private final String tableName;
+    /**
+     * The registry of the codecs used to decode the blobs.
+     */
+    private final ObjectCodecRegistry codecRegistry;
+    /**
+     * The metrics where to record the decoding of the blobs, can be null.
+     */
+    private final ObjectsDBMetrics metrics;
+    /**
+     * The queue of blobs to decode.
+     */
+    private final ArrayBlockingQueue<RawObject> queue = new ArrayBlockingQueue<RawObject>(QUEUE_CAPACITY);
+    /**
+     * Entry signaling the workers to stop.
+     */
+    private final RawObject endSignal = new RawObject(null, null);
+    /**
+     * The worker threads.
+     */
+    private final Thread[] workers;
+    /**
+     * Indicates whether all rows were fetched from the database. Once set,
+     * the workers let the cache evict objects.
+     */
+    private volatile boolean fetched = false;
+    /**
+     * The number of workers still running.
+     */
+    private final AtomicInteger nRunning;
+    /**
+     * The first error encountered by a worker, null if none.
+     */
+    private volatile Throwable exception = null;
+
+    /**
+     * Constructor. Starts the worker threads.
+     *
+     * @param objectsCache the cache where to add the objects
+     * @param dbName the name of the database
+     * @param tableName the name of the table
+     * @param codecRegistry the registry of the codecs used to decode the blobs
+     * @param metrics the metrics where to record the decoding of the blobs,
+     * can be null
+     * @param nThreads the number of worker threads
+     */
+    public ObjectsLoader(ObjectsCache objectsCache, String dbName, String tableName, ObjectCodecRegistry codecRegistry, ObjectsDBMetrics metrics, int nThreads) {
+        this.objectsCache = objectsCache;
+        this.dbName = dbName;
+        this.tableName = tableName;
+        this.codecRegistry = codecRegistry;
+        this.metrics = metrics;
+        workers = new Thread[Math.max(nThreads, 1)];
+        nRunning = new AtomicInteger(workers.length);
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    decodeQueue();
+                }
+            }, "ObjectsLoader-" + tableName + "-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Queues a blob for decoding. Waits if the queue is full.
+     *
+     * @param objectKey the key of the object
+     * @param blob the blob of the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * decoding a previous blob or if the workers stopped
+     * @throws SQLException exception thrown whenever an error occurred while
+     * adding a previous object to the cache
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a previous blob
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted while waiting
+     */
+    public void add(String objectKey, byte[] blob) throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+        RawObject rawObject = new RawObject(objectKey, blob);
+        while (!queue.offer(rawObject, 100, TimeUnit.MILLISECONDS)) {
+            checkException();
+            checkRunning();
+        }
+        checkException();
+    }
+
+    /**
+     * Indicates that all rows were fetched and that the database is released.
+     * The objects added from now on can trigger the eviction of objects from
+     * the cache.
+     */
+    public void setFetched() {
+        fetched = true;
+    }
+
+    /**
+     * Waits until all queued blobs are decoded and added to the cache, and
+     * stops the workers.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * decoding a blob or if the workers stopped
+     * @throws SQLException exception thrown whenever an error occurred while
+     * adding an object to the cache
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a blob
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted while waiting
+     */
+    public void finish() throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+        fetched = true;
+        int nSignals = 0;
+        while (nSignals < workers.length && exception == null && nRunning.get() > 0) {
+            if (queue.offer(endSignal, 100, TimeUnit.MILLISECONDS)) {
+                nSignals++;
+            }
+        }
+        if (nSignals < workers.length) {
+            cancel();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        checkException();
+        if (nSignals < workers.length) {
+            throw new IOException("The workers loading objects from table " + tableName + " stopped.");
+        }
+    }
+
+    /**
+     * Discards the queued blobs and stops the workers.
+     *
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted while waiting
+     */
+    public void cancel() throws InterruptedException {
+        queue.clear();
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    /**
+     * Throws the exception encountered by a worker if any.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * decoding a blob
+     * @throws SQLException exception thrown whenever an error occurred while
+     * adding an object to the cache
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a blob
+     */
+    private void checkException() throws IOException, SQLException, ClassNotFoundException {
+        Throwable workerException = exception;
+        if (workerException != null) {
+            if (workerException instanceof IOException) {
+                throw new IOException("Error while loading objects from table " + tableName + ": " + workerException.getMessage(), workerException);
+            }
+            if (workerException instanceof SQLException) {
+                throw new SQLException("Error while loading objects from table " + tableName + ": " + workerException.getMessage(), workerException);
+            }
+            if (workerException instanceof ClassNotFoundException) {
+                throw new ClassNotFoundException("Error while loading objects from table " + tableName + ": " + workerException.getMessage(), workerException);
+            }
+            throw new IOException("Error while loading objects from table " + tableName + ": " + workerException.getMessage(), workerException);
+        }
+    }
+
+    /**
+     * Throws an exception if the queued blobs can no longer be decoded
+     * because all workers stopped without reaching the end signal.
+     *
+     * @throws IOException exception thrown if all workers stopped while
+     * blobs remain to be decoded
+     */
+    private void checkRunning() throws IOException {
+        if (nRunning.get() == 0 && !queue.isEmpty()) {
+            throw new IOException("The workers loading objects from table " + tableName + " stopped.");
+        }
+    }
+
+    /**
+     * Decodes the queued blobs and adds the objects to the cache until the end
+     * signal is received or an error occurs. Objects already in cache are not
+     * replaced.
+     */
+    private void decodeQueue() {
+        try {
+            while (exception == null) {
+                RawObject rawObject = queue.take();
+                if (rawObject == endSignal) {
+                    return;
+                }
+                if (!objectsCache.inCache(dbName, tableName, rawObject.objectKey)) {
+                    Object object;
+                    if (metrics != null && metrics.isEnabled()) {
+                        long start = System.nanoTime();
+                        object = codecRegistry.decode(rawObject.blob);
+                        metrics.recordDecoding(tableName, System.nanoTime() - start, rawObject.blob.length);
+                    } else {
+                        object = codecRegistry.decode(rawObject.blob);
+                    }
+                    if (!objectsCache.inCache(dbName, tableName, rawObject.objectKey)) {
+                        objectsCache.addObject(dbName, tableName, rawObject.objectKey, object, false, fetched);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // canceled
+        } catch (Throwable t) {
+            synchronized (this) {
+                if (exception == null) {
+                    exception = t;
+                }
+            }
+        } finally {
+            nRunning.decrementAndGet();
+        }
+    }
+
+    /**
+     * The raw blob of an object.
+     */
+    private static class RawObject {
+
+        /**
+         * The key of the object.
+         */
+        private final String objectKey;
+        /**
+         * The blob of the object.
+         */
+        private final byte[] blob;
+
+        /**
+         * Constructor.
+         *
+         * @param objectKey the key of the object
+         * @param blob the blob of the object
+         */
+        public RawObject(String objectKey, byte[] blob) {
+            this.objectKey = objectKey;
+            this.blob = blob;
+        }
+    }
+}
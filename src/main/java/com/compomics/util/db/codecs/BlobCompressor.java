@@ -0,0 +1,198 @@
+package com.compomics.util.db.codecs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of the database blobs. Compressed blobs are written as a header
+ * made of a magic byte, the compression method and the uncompressed length,
+ * followed by the compressed content. The magic byte differs from the first
+ * byte of the blobs written by the codecs and by Java serialization, so that
+ * compressed and uncompressed blobs can be mixed in a table.
+ *
+ * @author Marc Vaudel
+ */
+public class BlobCompressor {
+
+    /**
+     * The first byte of the compressed blobs.
+     */
+    public static final byte COMPRESSED_MAGIC = (byte) 0xC1;
+    /**
+     * Compression method: zlib deflate.
+     */
+    public static final byte DEFLATE = 1;
+    /**
+     * The deflater of every thread.
+     */
+    private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater();
+        }
+    };
+    /**
+     * The inflater of every thread.
+     */
+    private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    /**
+     * Empty constructor, this class only has static methods.
+     */
+    private BlobCompressor() {
+    }
+
+    /**
+     * Compresses a blob. The blob is returned unchanged if compression does
+     * not make it smaller.
+     *
+     * @param blob the blob
+     * @param level the deflate compression level, from 1 (fastest) to 9
+     * (smallest)
+     *
+     * @return the compressed blob
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the header
+     */
+    public static byte[] compress(byte[] blob, int level) throws IOException {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setLevel(level);
+        deflater.setInput(blob);
+        deflater.finish();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(blob.length / 2 + 16);
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeByte(COMPRESSED_MAGIC);
+        dos.writeByte(DEFLATE);
+        ObjectCodecRegistry.writeVarInt(dos, blob.length);
+        byte[] buffer = new byte[Math.max(64, Math.min(blob.length, 8192))];
+        while (!deflater.finished()) {
+            int length = deflater.deflate(buffer);
+            dos.write(buffer, 0, length);
+            if (dos.size() >= blob.length) {
+                return blob;
+            }
+        }
+        dos.close();
+        return bos.toByteArray();
+    }
+
+    /**
+     * Indicates whether a blob is compressed.
+     *
+     * @param blob the blob
+     *
+     * @return a boolean indicating whether the blob is compressed
+     */
+    public static boolean isCompressed(byte[] blob) {
+        return blob.length > 0 && blob[0] == COMPRESSED_MAGIC;
+    }
+
+    /**
+     * Decompresses a blob. Uncompressed blobs are returned unchanged.
+     *
+     * @param blob the blob
+     *
+     * @return the uncompressed blob
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * decompressing the blob
+     */
+    public static byte[] decompress(byte[] blob) throws IOException {
+        if (!isCompressed(blob)) {
+            return blob;
+        }
+        if (blob.length < 3 || blob[1] != DEFLATE) {
+            throw new IOException("Blob compression method not supported.");
+        }
+        int uncompressedLength = 0;
+        int offset = 2;
+        for (int shift = 0;; shift += 7) {
+            if (offset == blob.length || shift >= 32) {
+                throw new IOException("Malformed compressed blob header.");
+            }
+            int b = blob[offset++] & 0xFF;
+            uncompressedLength |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        return inflate(blob, offset, blob.length - offset, uncompressedLength);
+    }
+
+    /**
+     * Decompresses the content of a compressed blob, the magic byte having
+     * already been read. The stream is read until its end and not closed.
+     *
+     * @param inputStream the stream of the blob positioned after the magic byte
+     *
+     * @return the uncompressed blob
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * decompressing the blob
+     */
+    public static byte[] decompress(InputStream inputStream) throws IOException {
+        DataInputStream dis = new DataInputStream(inputStream);
+        int method = dis.readUnsignedByte();
+        if (method != DEFLATE) {
+            throw new IOException("Blob compression method " + method + " not supported.");
+        }
+        int uncompressedLength = ObjectCodecRegistry.readVarInt(dis);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.max(32, uncompressedLength / 2));
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = dis.read(buffer)) > 0) {
+            bos.write(buffer, 0, read);
+        }
+        byte[] compressed = bos.toByteArray();
+        return inflate(compressed, 0, compressed.length, uncompressedLength);
+    }
+
+    /**
+     * Inflates compressed content.
+     *
+     * @param input the array containing the compressed content
+     * @param offset the offset of the compressed content in the array
+     * @param length the length of the compressed content
+     * @param uncompressedLength the length of the uncompressed content
+     *
+     * @return the uncompressed content
+     *
+     * @throws IOException exception thrown whenever the content is corrupted
+     * or truncated
+     */
+    private static byte[] inflate(byte[] input, int offset, int length, int uncompressedLength) throws IOException {
+        byte[] uncompressed = new byte[uncompressedLength];
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(input, offset, length);
+        try {
+            int inflatedLength = 0;
+            while (inflatedLength < uncompressedLength && !inflater.finished()) {
+                int inflated = inflater.inflate(uncompressed, inflatedLength, uncompressedLength - inflatedLength);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflatedLength += inflated;
+            }
+            if (inflatedLength < uncompressedLength) {
+                throw new IOException("Truncated compressed blob: " + inflatedLength + " bytes inflated out of " + uncompressedLength + ".");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted compressed blob.", e);
+        }
+        return uncompressed;
+    }
+}
@@ -0,0 +1,35 @@
+package com.compomics.util.db.codecs;
+
+import com.compomics.util.experiment.massspectrometry.Charge;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Codec for the charges.
+ *
+ * @author Marc Vaudel
+ */
+public class ChargeCodec implements ObjectCodec<Charge> {
+
+    @Override
+    public Class<Charge> getObjectClass() {
+        return Charge.class;
+    }
+
+    @Override
+    public void write(Charge charge, DataOutputStream output, ObjectCodecRegistry registry) throws IOException {
+        output.writeByte(charge.sign);
+        output.writeInt(charge.value);
+        registry.writeUrParams(output, charge);
+    }
+
+    @Override
+    public Charge read(DataInputStream input, ObjectCodecRegistry registry) throws IOException, ClassNotFoundException {
+        int sign = input.readByte();
+        int value = input.readInt();
+        Charge charge = new Charge(sign, value);
+        registry.readUrParams(input, charge);
+        return charge;
+    }
+}
@@ -0,0 +1,254 @@
+package com.compomics.util.db.codecs;
+
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.Advocate;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Command line benchmark comparing the blob size and the encoding and decoding
+ * throughput of Java serialization and of the codecs for synthetic spectrum,
+ * peptide and protein matches.
+ *
+ * @author Marc Vaudel
+ */
+public class CodecBenchmark {
+
+    /**
+     * The amino acids used to draw random sequences.
+     */
+    private static final String AMINO_ACIDS = "ACDEFGHIKLMNPQRSTVWY";
+    /**
+     * The number of measured rounds, preceded by as many warm up rounds.
+     */
+    private static final int ROUNDS = 3;
+
+    /**
+     * Main class.
+     *
+     * @param args command line arguments
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && (args[0].equals("-h") || args[0].equals("--help"))) {
+            System.err.println("CodecBenchmark: compares Java serialization and the database codecs on synthetic matches.");
+            System.err.println("usage: CodecBenchmark [number-of-objects] [assumptions-per-spectrum]");
+            System.exit(-1);
+        }
+        int nObjects = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int nAssumptions = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        Random random = new Random(42);
+        ArrayList<Object> spectrumMatches = new ArrayList<Object>(nObjects);
+        ArrayList<Object> peptideMatches = new ArrayList<Object>(nObjects);
+        ArrayList<Object> proteinMatches = new ArrayList<Object>(nObjects);
+        for (int i = 0; i < nObjects; ++i) {
+            spectrumMatches.add(getSpectrumMatch(random, i, nAssumptions));
+            peptideMatches.add(getPeptideMatch(random, nObjects));
+            proteinMatches.add(getProteinMatch(random));
+        }
+
+        ObjectCodecRegistry registry = ObjectCodecRegistry.getDefaultRegistry();
+        System.out.println("objects\t\tformat\tbytes/object\tencode ns/object\tdecode ns/object");
+        benchmark("spectrum", spectrumMatches, registry);
+        benchmark("peptide", peptideMatches, registry);
+        benchmark("protein", proteinMatches, registry);
+    }
+
+    /**
+     * Benchmarks Java serialization and the codecs on the given objects and
+     * prints the results.
+     *
+     * @param name the name of the objects
+     * @param objects the objects
+     * @param registry the codec registry
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing or reading an object
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while reading an object
+     */
+    private static void benchmark(String name, ArrayList<Object> objects, ObjectCodecRegistry registry) throws IOException, ClassNotFoundException {
+        for (int format = 0; format < 2; ++format) {
+            boolean codecs = format == 1;
+            byte[][] blobs = new byte[objects.size()][];
+            double encodeTime = Double.MAX_VALUE, decodeTime = Double.MAX_VALUE;
+            for (int round = 0; round < 2 * ROUNDS; ++round) {
+                long start = System.nanoTime();
+                for (int i = 0; i < objects.size(); ++i) {
+                    blobs[i] = codecs ? registry.encode(objects.get(i)) : serialize(objects.get(i));
+                }
+                long encoded = System.nanoTime();
+                for (byte[] blob : blobs) {
+                    if (codecs) {
+                        registry.decode(new BufferedInputStream(new ByteArrayInputStream(blob)));
+                    } else {
+                        deserialize(blob);
+                    }
+                }
+                long decoded = System.nanoTime();
+                if (round >= ROUNDS) {
+                    encodeTime = Math.min(encodeTime, ((double) (encoded - start)) / objects.size());
+                    decodeTime = Math.min(decodeTime, ((double) (decoded - encoded)) / objects.size());
+                }
+            }
+            long size = 0;
+            for (byte[] blob : blobs) {
+                size += blob.length;
+            }
+            System.out.println(name + "\t" + (codecs ? "codecs" : "java") + "\t" + (size / objects.size()) + "\t\t"
+                    + String.format("%.0f", encodeTime) + "\t\t\t" + String.format("%.0f", decodeTime));
+        }
+    }
+
+    /**
+     * Serializes an object the way the database did before the codecs.
+     *
+     * @param object the object
+     *
+     * @return the blob
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     */
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        try {
+            oos.writeObject(object);
+        } finally {
+            oos.close();
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Deserializes an object the way the database did before the codecs.
+     *
+     * @param blob the blob
+     *
+     * @return the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while reading the object
+     */
+    private static Object deserialize(byte[] blob) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new ByteArrayInputStream(blob)));
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns a random spectrum match from one of ten runs.
+     *
+     * @param random the random number generator
+     * @param spectrumNumber the number of the spectrum
+     * @param nAssumptions the number of peptide assumptions
+     *
+     * @return a random spectrum match
+     */
+    static SpectrumMatch getSpectrumMatch(Random random, int spectrumNumber, int nAssumptions) {
+        String run = "run_" + (spectrumNumber % 10);
+        SpectrumMatch spectrumMatch = new SpectrumMatch(run + ".mgf_cus_spectrum " + spectrumNumber);
+        for (int j = 0; j < nAssumptions; ++j) {
+            PeptideAssumption peptideAssumption = new PeptideAssumption(getPeptide(random), j + 1, Advocate.xtandem.getIndex(),
+                    new Charge(Charge.PLUS, 2 + random.nextInt(3)), random.nextDouble(), run + ".t.xml");
+            peptideAssumption.setRawScore(random.nextDouble() * 100);
+            spectrumMatch.addHit(Advocate.xtandem.getIndex(), peptideAssumption, false);
+            if (j == 0) {
+                spectrumMatch.setBestPeptideAssumption(peptideAssumption);
+            }
+        }
+        return spectrumMatch;
+    }
+
+    /**
+     * Returns a random peptide match supported by one to five spectra.
+     *
+     * @param random the random number generator
+     * @param nSpectra the number of spectra to draw the spectrum keys from
+     *
+     * @return a random peptide match
+     */
+    static PeptideMatch getPeptideMatch(Random random, int nSpectra) {
+        Peptide peptide = getPeptide(random);
+        PeptideMatch peptideMatch = new PeptideMatch(peptide, peptide.getKey());
+        for (int j = random.nextInt(5); j >= 0; --j) {
+            peptideMatch.addSpectrumMatchKey("run_" + j + ".mgf_cus_spectrum " + random.nextInt(nSpectra));
+        }
+        return peptideMatch;
+    }
+
+    /**
+     * Returns a random protein match supported by one to ten peptides.
+     *
+     * @param random the random number generator
+     *
+     * @return a random protein match
+     */
+    static ProteinMatch getProteinMatch(Random random) {
+        ProteinMatch proteinMatch = new ProteinMatch(getAccession(random));
+        for (int j = random.nextInt(10); j >= 0; --j) {
+            proteinMatch.addPeptideMatchKey(getPeptide(random).getKey());
+        }
+        return proteinMatch;
+    }
+
+    /**
+     * Returns a random tryptic-like peptide with an occasional oxidation and
+     * one to three parent proteins.
+     *
+     * @param random the random number generator
+     *
+     * @return a random peptide
+     */
+    private static Peptide getPeptide(Random random) {
+        int length = 7 + random.nextInt(15);
+        StringBuilder sequence = new StringBuilder(length);
+        for (int i = 0; i < length - 1; ++i) {
+            sequence.append(AMINO_ACIDS.charAt(random.nextInt(AMINO_ACIDS.length())));
+        }
+        sequence.append(random.nextBoolean() ? 'K' : 'R');
+        ArrayList<ModificationMatch> modificationMatches = new ArrayList<ModificationMatch>();
+        int site = sequence.indexOf("M");
+        if (site >= 0 && random.nextBoolean()) {
+            modificationMatches.add(new ModificationMatch("oxidation of m", true, site + 1));
+        }
+        Peptide peptide = new Peptide(sequence.toString(), modificationMatches);
+        ArrayList<String> proteins = new ArrayList<String>();
+        for (int i = random.nextInt(3); i >= 0; --i) {
+            proteins.add(getAccession(random));
+        }
+        peptide.setParentProteins(proteins);
+        return peptide;
+    }
+
+    /**
+     * Returns a random UniProt-like accession.
+     *
+     * @param random the random number generator
+     *
+     * @return a random accession
+     */
+    private static String getAccession(Random random) {
+        return "P" + (10000 + random.nextInt(90000));
+    }
+}
@@ -0,0 +1,137 @@
+package com.compomics.util.db.codecs;
+
+import com.compomics.util.Util;
+import com.compomics.util.db.ObjectsCache;
+import com.compomics.util.db.ObjectsDB;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Command line benchmark of the blob compression in the objects database. For
+ * every compression level, synthetic matches are saved in tables named like
+ * the tables of the identification database, and the size of the database as
+ * well as the write and read throughput are printed.
+ *
+ * @author Marc Vaudel
+ */
+public class CompressionBenchmark {
+
+    /**
+     * The compression levels benchmarked, 0 meaning no compression.
+     */
+    private static final int[] LEVELS = new int[]{0, 1, 3, 6};
+    /**
+     * The number of objects per batch.
+     */
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * Main class.
+     *
+     * @param args command line arguments
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && (args[0].equals("-h") || args[0].equals("--help"))) {
+            System.err.println("CompressionBenchmark: measures the size and throughput of the database for different compression levels.");
+            System.err.println("usage: CompressionBenchmark [number-of-objects] [backend]");
+            System.err.println();
+            System.err.println("Default parameters:");
+            System.err.println("\tnumber of objects:\t50000");
+            System.err.println("\tbackend:\t\tDERBY (DERBY, SQLITE or LOG_STRUCTURED)");
+            System.exit(-1);
+        }
+        int nObjects = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        ObjectsDB.Backend backend = args.length > 1 ? ObjectsDB.Backend.valueOf(args[1]) : ObjectsDB.Backend.DERBY;
+
+        Random random = new Random(42);
+        HashMap<String, Object> spectrumMatches = new HashMap<String, Object>(nObjects);
+        HashMap<String, Object> peptideMatches = new HashMap<String, Object>(nObjects);
+        HashMap<String, Object> proteinMatches = new HashMap<String, Object>(nObjects);
+        for (int i = 0; i < nObjects; ++i) {
+            SpectrumMatch spectrumMatch = CodecBenchmark.getSpectrumMatch(random, i, 10);
+            spectrumMatches.put(spectrumMatch.getKey(), spectrumMatch);
+            PeptideMatch peptideMatch = CodecBenchmark.getPeptideMatch(random, nObjects);
+            peptideMatches.put(peptideMatch.getKey(), peptideMatch);
+            ProteinMatch proteinMatch = CodecBenchmark.getProteinMatch(random);
+            proteinMatches.put(proteinMatch.getKey(), proteinMatch);
+        }
+
+        System.out.println("table\t\tlevel\tbytes/object\twrite objects/s\tread objects/s");
+        benchmark("run.mgf_psms", spectrumMatches, backend);
+        benchmark("peptides", peptideMatches, backend);
+        benchmark("proteins", proteinMatches, backend);
+    }
+
+    /**
+     * Saves the given objects in a new database for every compression level,
+     * reads them back bypassing the cache, and prints the results.
+     *
+     * @param tableName the name of the table
+     * @param objects the objects indexed by key
+     * @param backend the database backend
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    private static void benchmark(String tableName, HashMap<String, Object> objects, ObjectsDB.Backend backend) throws Exception {
+        ArrayList<HashMap<String, Object>> batches = new ArrayList<HashMap<String, Object>>();
+        HashMap<String, Object> batch = null;
+        for (String key : objects.keySet()) {
+            if (batch == null || batch.size() == BATCH_SIZE) {
+                batch = new HashMap<String, Object>(BATCH_SIZE);
+                batches.add(batch);
+            }
+            batch.put(key, objects.get(key));
+        }
+        for (int level : LEVELS) {
+            File folder = new File(System.getProperty("java.io.tmpdir"), "compression_benchmark_" + System.nanoTime());
+            ObjectsDB objectsDB = new ObjectsDB(folder.getAbsolutePath(), "benchmark", true, new ObjectsCache(), backend);
+            try {
+                objectsDB.addTable(tableName);
+                objectsDB.setCompressionLevel(tableName, level);
+                long start = System.nanoTime();
+                for (HashMap<String, Object> objectsBatch : batches) {
+                    objectsDB.insertObjects(tableName, objectsBatch, null);
+                }
+                long written = System.nanoTime();
+                for (String key : objects.keySet()) {
+                    objectsDB.retrieveObject(tableName, key, true, false);
+                }
+                long read = System.nanoTime();
+                System.out.println(tableName + "\t" + level + "\t" + (getSize(folder) / objects.size()) + "\t\t"
+                        + String.format("%.0f", objects.size() * 1000000000.0 / (written - start)) + "\t\t"
+                        + String.format("%.0f", objects.size() * 1000000000.0 / (read - written)));
+            } finally {
+                objectsDB.close();
+                Util.deleteDir(folder);
+            }
+        }
+    }
+
+    /**
+     * Returns the size of the files in a folder and its sub-folders.
+     *
+     * @param file the folder
+     *
+     * @return the size in bytes
+     */
+    private static long getSize(File file) {
+        if (!file.isDirectory()) {
+            return file.length();
+        }
+        long size = 0;
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                size += getSize(child);
+            }
+        }
+        return size;
+    }
+}
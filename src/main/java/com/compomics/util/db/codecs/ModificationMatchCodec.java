@@ -0,0 +1,62 @@
+package com.compomics.util.db.codecs;
+
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Codec for the modification matches.
+ *
+ * @author Marc Vaudel
+ */
+public class ModificationMatchCodec implements ObjectCodec<ModificationMatch> {
+
+    /**
+     * Flag set when the modification is variable.
+     */
+    private static final int VARIABLE = 1;
+    /**
+     * Flag set when the modification localization is confident.
+     */
+    private static final int CONFIDENT = 2;
+    /**
+     * Flag set when the modification localization is inferred.
+     */
+    private static final int INFERRED = 4;
+
+    @Override
+    public Class<ModificationMatch> getObjectClass() {
+        return ModificationMatch.class;
+    }
+
+    @Override
+    public void write(ModificationMatch modificationMatch, DataOutputStream output, ObjectCodecRegistry registry) throws IOException {
+        ObjectCodecRegistry.writeString(output, modificationMatch.getTheoreticPtm());
+        ObjectCodecRegistry.writeVarInt(output, modificationMatch.getModificationSite());
+        int flags = 0;
+        if (modificationMatch.isVariable()) {
+            flags |= VARIABLE;
+        }
+        if (modificationMatch.isConfident()) {
+            flags |= CONFIDENT;
+        }
+        if (modificationMatch.isInferred()) {
+            flags |= INFERRED;
+        }
+        output.writeByte(flags);
+        registry.writeUrParams(output, modificationMatch);
+    }
+
+    @Override
+    public ModificationMatch read(DataInputStream input, ObjectCodecRegistry registry) throws IOException, ClassNotFoundException {
+        String theoreticPtm = ObjectCodecRegistry.readString(input);
+        int site = ObjectCodecRegistry.readVarInt(input);
+        int flags = input.readUnsignedByte();
+        ModificationMatch modificationMatch = new ModificationMatch(theoreticPtm, (flags & VARIABLE) != 0, site);
+        modificationMatch.setConfident((flags & CONFIDENT) != 0);
+        modificationMatch.setInferred((flags & INFERRED) != 0);
+        registry.readUrParams(input, modificationMatch);
+        return modificationMatch;
+    }
+}
@@ -0,0 +1,52 @@
+package com.compomics.util.db.codecs;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Interface for the binary codecs writing objects of a given class to the
+ * database without the overhead of Java serialization.
+ *
+ * @param <T> the class of the objects encoded
+ *
+ * @author Marc Vaudel
+ */
+public interface ObjectCodec<T> {
+
+    /**
+     * Returns the class of the objects encoded. Only objects of this exact
+     * class are encoded, instances of subclasses fall back to Java
+     * serialization.
+     *
+     * @return the class of the objects encoded
+     */
+    public Class<T> getObjectClass();
+
+    /**
+     * Writes an object.
+     *
+     * @param object the object
+     * @param output the output stream
+     * @param registry the registry to use for the nested objects
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     */
+    public void write(T object, DataOutputStream output, ObjectCodecRegistry registry) throws IOException;
+
+    /**
+     * Reads an object previously written by this codec.
+     *
+     * @param input the input stream
+     * @param registry the registry to use for the nested objects
+     *
+     * @return the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever a nested object
+     * could not be deserialized
+     */
+    public T read(DataInputStream input, ObjectCodecRegistry registry) throws IOException, ClassNotFoundException;
+}
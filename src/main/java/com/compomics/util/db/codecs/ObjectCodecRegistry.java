@@ -0,0 +1,503 @@
+package com.compomics.util.db.codecs;
+
+import com.compomics.util.experiment.personalization.ExperimentObject;
+import com.compomics.util.experiment.personalization.UrParameter;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the binary codecs used to convert objects to and from database
+ * blobs. Objects with a registered codec are written as a header made of a
+ * magic byte, the format version and the class id, followed by the content
+ * written by the codec. Other objects are written using Java serialization,
+ * and blobs written by Java serialization are still read, so that projects
+ * saved before the codecs remain readable. Blobs compressed by the
+ * BlobCompressor are decompressed before being decoded.
+ *
+ * @author Marc Vaudel
+ */
+public class ObjectCodecRegistry {
+
+    /**
+     * The first byte of the blobs written by a codec. Java serialization
+     * streams start with 0xAC.
+     */
+    public static final byte MAGIC = (byte) 0xC0;
+    /**
+     * The version of the format of the blobs written by the codecs.
+     */
+    public static final byte FORMAT_VERSION = 1;
+    /**
+     * Class id of a null nested object.
+     */
+    public static final int NULL_ID = 0;
+    /**
+     * Class id of a nested object written using Java serialization.
+     */
+    public static final int JAVA_SERIALIZATION_ID = 1;
+    /**
+     * The lowest class id available for codecs.
+     */
+    public static final int FIRST_CODEC_ID = 16;
+    /**
+     * Class id of the spectrum matches.
+     */
+    public static final int SPECTRUM_MATCH_ID = 16;
+    /**
+     * Class id of the peptide matches.
+     */
+    public static final int PEPTIDE_MATCH_ID = 17;
+    /**
+     * Class id of the protein matches.
+     */
+    public static final int PROTEIN_MATCH_ID = 18;
+    /**
+     * Class id of the peptide assumptions.
+     */
+    public static final int PEPTIDE_ASSUMPTION_ID = 19;
+    /**
+     * Class id of the peptides.
+     */
+    public static final int PEPTIDE_ID = 20;
+    /**
+     * Class id of the modification matches.
+     */
+    public static final int MODIFICATION_MATCH_ID = 21;
+    /**
+     * Class id of the charges.
+     */
+    public static final int CHARGE_ID = 22;
+    /**
+     * The default registry.
+     */
+    private static ObjectCodecRegistry defaultRegistry = null;
+    /**
+     * The class ids indexed by class.
+     */
+    private final ConcurrentHashMap<Class<?>, Integer> classIds = new ConcurrentHashMap<Class<?>, Integer>();
+    /**
+     * The codecs indexed by class id.
+     */
+    private final ConcurrentHashMap<Integer, ObjectCodec<?>> codecs = new ConcurrentHashMap<Integer, ObjectCodec<?>>();
+
+    /**
+     * Constructor for an empty registry where all objects are written using
+     * Java serialization.
+     */
+    public ObjectCodecRegistry() {
+    }
+
+    /**
+     * Returns the default registry containing the codecs of the identification
+     * matches.
+     *
+     * @return the default registry
+     */
+    public static synchronized ObjectCodecRegistry getDefaultRegistry() {
+        if (defaultRegistry == null) {
+            ObjectCodecRegistry registry = new ObjectCodecRegistry();
+            registry.register(SPECTRUM_MATCH_ID, new SpectrumMatchCodec());
+            registry.register(PEPTIDE_MATCH_ID, new PeptideMatchCodec());
+            registry.register(PROTEIN_MATCH_ID, new ProteinMatchCodec());
+            registry.register(PEPTIDE_ASSUMPTION_ID, new PeptideAssumptionCodec());
+            registry.register(PEPTIDE_ID, new PeptideCodec());
+            registry.register(MODIFICATION_MATCH_ID, new ModificationMatchCodec());
+            registry.register(CHARGE_ID, new ChargeCodec());
+            defaultRegistry = registry;
+        }
+        return defaultRegistry;
+    }
+
+    /**
+     * Registers a codec. The class id is written in the blobs and must thus
+     * never be reused for another class.
+     *
+     * @param classId the class id
+     * @param codec the codec
+     */
+    public synchronized void register(int classId, ObjectCodec<?> codec) {
+        if (classId < FIRST_CODEC_ID) {
+            throw new IllegalArgumentException("Class ids below " + FIRST_CODEC_ID + " are reserved.");
+        }
+        if (codecs.containsKey(classId)) {
+            throw new IllegalArgumentException("Class id " + classId + " already registered for " + codecs.get(classId).getObjectClass() + ".");
+        }
+        if (classIds.containsKey(codec.getObjectClass())) {
+            throw new IllegalArgumentException("A codec is already registered for " + codec.getObjectClass() + ".");
+        }
+        codecs.put(classId, codec);
+        classIds.put(codec.getObjectClass(), classId);
+    }
+
+    /**
+     * Indicates whether a codec is registered for the class of the given
+     * object.
+     *
+     * @param object the object
+     *
+     * @return a boolean indicating whether a codec is registered for the class
+     * of the given object
+     */
+    public boolean hasCodec(Object object) {
+        return object != null && classIds.containsKey(object.getClass());
+    }
+
+    /**
+     * Converts an object to a blob.
+     *
+     * @param object the object
+     *
+     * @return the blob
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     */
+    public byte[] encode(Object object) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            Integer classId = object == null ? null : classIds.get(object.getClass());
+            if (classId == null) {
+                ObjectOutputStream oos = new ObjectOutputStream(bos);
+                try {
+                    oos.writeObject(object);
+                } finally {
+                    oos.close();
+                }
+            } else {
+                DataOutputStream dos = new DataOutputStream(bos);
+                try {
+                    dos.writeByte(MAGIC);
+                    dos.writeByte(FORMAT_VERSION);
+                    writeVarInt(dos, classId);
+                    writeWithCodec(object, classId, dos);
+                } finally {
+                    dos.close();
+                }
+            }
+        } finally {
+            bos.close();
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Converts a blob back to an object.
+     *
+     * @param blob the blob
+     *
+     * @return the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the object
+     */
+    public Object decode(byte[] blob) throws IOException, ClassNotFoundException {
+        return decode(new ByteArrayInputStream(BlobCompressor.decompress(blob)));
+    }
+
+    /**
+     * Reads an object from the stream of a blob. The stream is not closed.
+     *
+     * @param inputStream the input stream of the blob
+     *
+     * @return the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the object
+     */
+    public Object decode(InputStream inputStream) throws IOException, ClassNotFoundException {
+        if (!inputStream.markSupported()) {
+            inputStream = new BufferedInputStream(inputStream);
+        }
+        inputStream.mark(1);
+        int firstByte = inputStream.read();
+        if (firstByte == (BlobCompressor.COMPRESSED_MAGIC & 0xFF)) {
+            return decode(BlobCompressor.decompress(inputStream));
+        }
+        if (firstByte != (MAGIC & 0xFF)) {
+            inputStream.reset();
+            ObjectInputStream in = new ObjectInputStream(inputStream);
+            return in.readObject();
+        }
+        DataInputStream dis = new DataInputStream(inputStream);
+        int formatVersion = dis.readUnsignedByte();
+        if (formatVersion > FORMAT_VERSION) {
+            throw new IOException("Blob format version " + formatVersion + " not supported, the latest supported version is " + FORMAT_VERSION + ".");
+        }
+        return readWithCodec(readVarInt(dis), dis);
+    }
+
+    /**
+     * Writes a nested object using its codec if registered, Java
+     * serialization otherwise.
+     *
+     * @param object the object, can be null
+     * @param output the output stream
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     */
+    public void writeObject(Object object, DataOutputStream output) throws IOException {
+        if (object == null) {
+            writeVarInt(output, NULL_ID);
+            return;
+        }
+        Integer classId = classIds.get(object.getClass());
+        if (classId != null) {
+            writeVarInt(output, classId);
+            writeWithCodec(object, classId, output);
+        } else {
+            writeVarInt(output, JAVA_SERIALIZATION_ID);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+            try {
+                oos.writeObject(object);
+            } finally {
+                oos.close();
+            }
+            byte[] bytes = bos.toByteArray();
+            writeVarInt(output, bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * Reads a nested object written by writeObject.
+     *
+     * @param input the input stream
+     *
+     * @return the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the object
+     */
+    public Object readObject(DataInputStream input) throws IOException, ClassNotFoundException {
+        int classId = readVarInt(input);
+        switch (classId) {
+            case NULL_ID:
+                return null;
+            case JAVA_SERIALIZATION_ID:
+                byte[] bytes = new byte[readVarInt(input)];
+                input.readFully(bytes);
+                ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+                try {
+                    return in.readObject();
+                } finally {
+                    in.close();
+                }
+            default:
+                return readWithCodec(classId, input);
+        }
+    }
+
+    /**
+     * Writes an object using the codec of the given class id.
+     *
+     * @param object the object
+     * @param classId the class id
+     * @param output the output stream
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     */
+    @SuppressWarnings("unchecked")
+    private void writeWithCodec(Object object, int classId, DataOutputStream output) throws IOException {
+        ((ObjectCodec<Object>) codecs.get(classId)).write(object, output, this);
+    }
+
+    /**
+     * Reads an object using the codec of the given class id.
+     *
+     * @param classId the class id
+     * @param input the input stream
+     *
+     * @return the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a nested object
+     */
+    private Object readWithCodec(int classId, DataInputStream input) throws IOException, ClassNotFoundException {
+        ObjectCodec<?> codec = codecs.get(classId);
+        if (codec == null) {
+            throw new IOException("No codec registered for class id " + classId + ".");
+        }
+        return codec.read(input, this);
+    }
+
+    /**
+     * Writes a non negative integer using one byte per seven bits.
+     *
+     * @param output the output stream
+     * @param value the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the value
+     */
+    public static void writeVarInt(DataOutputStream output, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            output.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte(value);
+    }
+
+    /**
+     * Reads an integer written by writeVarInt.
+     *
+     * @param input the input stream
+     *
+     * @return the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the value
+     */
+    public static int readVarInt(DataInputStream input) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = input.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length integer.");
+    }
+
+    /**
+     * Writes a string in UTF-8 preceded by its length, null is supported.
+     *
+     * @param output the output stream
+     * @param string the string, can be null
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the string
+     */
+    public static void writeString(DataOutputStream output, String string) throws IOException {
+        if (string == null) {
+            writeVarInt(output, 0);
+            return;
+        }
+        byte[] bytes = string.getBytes("UTF-8");
+        writeVarInt(output, bytes.length + 1);
+        output.write(bytes);
+    }
+
+    /**
+     * Reads a string written by writeString.
+     *
+     * @param input the input stream
+     *
+     * @return the string, can be null
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the string
+     */
+    public static String readString(DataInputStream input) throws IOException {
+        int length = readVarInt(input);
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        input.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Writes a list of strings, null is supported.
+     *
+     * @param output the output stream
+     * @param strings the list of strings, can be null
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the list
+     */
+    public static void writeStrings(DataOutputStream output, ArrayList<String> strings) throws IOException {
+        if (strings == null) {
+            writeVarInt(output, 0);
+            return;
+        }
+        writeVarInt(output, strings.size() + 1);
+        for (String string : strings) {
+            writeString(output, string);
+        }
+    }
+
+    /**
+     * Reads a list of strings written by writeStrings.
+     *
+     * @param input the input stream
+     *
+     * @return the list of strings, can be null
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the list
+     */
+    public static ArrayList<String> readStrings(DataInputStream input) throws IOException {
+        int size = readVarInt(input) - 1;
+        if (size == -1) {
+            return null;
+        }
+        ArrayList<String> strings = new ArrayList<String>(size);
+        for (int i = 0; i < size; ++i) {
+            strings.add(readString(input));
+        }
+        return strings;
+    }
+
+    /**
+     * Writes the user refinement parameters of an object.
+     *
+     * @param output the output stream
+     * @param experimentObject the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the parameters
+     */
+    public void writeUrParams(DataOutputStream output, ExperimentObject experimentObject) throws IOException {
+        HashMap<String, UrParameter> urParams = experimentObject.getUrParams();
+        if (urParams == null) {
+            writeVarInt(output, 0);
+            return;
+        }
+        writeVarInt(output, urParams.size() + 1);
+        for (UrParameter urParameter : urParams.values()) {
+            writeObject(urParameter, output);
+        }
+    }
+
+    /**
+     * Reads user refinement parameters written by writeUrParams and adds them
+     * to the given object.
+     *
+     * @param input the input stream
+     * @param experimentObject the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the parameters
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a parameter
+     */
+    public void readUrParams(DataInputStream input, ExperimentObject experimentObject) throws IOException, ClassNotFoundException {
+        int size = readVarInt(input) - 1;
+        for (int i = 0; i < size; ++i) {
+            experimentObject.addUrParam((UrParameter) readObject(input));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.compomics.util.db.codecs;
+
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Codec for the peptide assumptions.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideAssumptionCodec implements ObjectCodec<PeptideAssumption> {
+
+    /**
+     * Flag set when the score is set.
+     */
+    private static final int HAS_SCORE = 1;
+    /**
+     * Flag set when the raw score is set.
+     */
+    private static final int HAS_RAW_SCORE = 2;
+    /**
+     * Flag set when the amino acid scores are set.
+     */
+    private static final int HAS_AMINO_ACID_SCORES = 4;
+
+    @Override
+    public Class<PeptideAssumption> getObjectClass() {
+        return PeptideAssumption.class;
+    }
+
+    @Override
+    public void write(PeptideAssumption peptideAssumption, DataOutputStream output, ObjectCodecRegistry registry) throws IOException {
+        Double score = peptideAssumption.getScore();
+        Double rawScore = peptideAssumption.getRawScore();
+        ArrayList<double[]> aminoAcidScores = peptideAssumption.getAminoAcidScores();
+        int flags = 0;
+        if (score != null) {
+            flags |= HAS_SCORE;
+        }
+        if (rawScore != null) {
+            flags |= HAS_RAW_SCORE;
+        }
+        if (aminoAcidScores != null) {
+            flags |= HAS_AMINO_ACID_SCORES;
+        }
+        output.writeByte(flags);
+        ObjectCodecRegistry.writeVarInt(output, peptideAssumption.getRank());
+        ObjectCodecRegistry.writeVarInt(output, peptideAssumption.getAdvocate());
+        if (score != null) {
+            output.writeDouble(score);
+        }
+        if (rawScore != null) {
+            output.writeDouble(rawScore);
+        }
+        if (aminoAcidScores != null) {
+            ObjectCodecRegistry.writeVarInt(output, aminoAcidScores.size());
+            for (double[] scores : aminoAcidScores) {
+                ObjectCodecRegistry.writeVarInt(output, scores.length);
+                for (double aaScore : scores) {
+                    output.writeDouble(aaScore);
+                }
+            }
+        }
+        ObjectCodecRegistry.writeString(output, peptideAssumption.getIdentificationFile());
+        registry.writeObject(peptideAssumption.getIdentificationCharge(), output);
+        registry.writeObject(peptideAssumption.getPeptide(), output);
+        registry.writeUrParams(output, peptideAssumption);
+    }
+
+    @Override
+    public PeptideAssumption read(DataInputStream input, ObjectCodecRegistry registry) throws IOException, ClassNotFoundException {
+        int flags = input.readUnsignedByte();
+        int rank = ObjectCodecRegistry.readVarInt(input);
+        int advocate = ObjectCodecRegistry.readVarInt(input);
+        Double score = (flags & HAS_SCORE) != 0 ? input.readDouble() : null;
+        Double rawScore = (flags & HAS_RAW_SCORE) != 0 ? input.readDouble() : null;
+        ArrayList<double[]> aminoAcidScores = null;
+        if ((flags & HAS_AMINO_ACID_SCORES) != 0) {
+            int size = ObjectCodecRegistry.readVarInt(input);
+            aminoAcidScores = new ArrayList<double[]>(size);
+            for (int i = 0; i < size; ++i) {
+                double[] scores = new double[ObjectCodecRegistry.readVarInt(input)];
+                for (int j = 0; j < scores.length; ++j) {
+                    scores[j] = input.readDouble();
+                }
+                aminoAcidScores.add(scores);
+            }
+        }
+        String identificationFile = ObjectCodecRegistry.readString(input);
+        Charge charge = (Charge) registry.readObject(input);
+        Peptide peptide = (Peptide) registry.readObject(input);
+
+        PeptideAssumption peptideAssumption;
+        if (score != null) {
+            peptideAssumption = new PeptideAssumption(peptide, rank, advocate, charge, score, identificationFile);
+        } else {
+            // the score, advocate and file are only left unset by this constructor
+            peptideAssumption = new PeptideAssumption(peptide, charge);
+            peptideAssumption.setRank(rank);
+        }
+        peptideAssumption.setRawScore(rawScore);
+        peptideAssumption.setAminoAcidScores(aminoAcidScores);
+        registry.readUrParams(input, peptideAssumption);
+        return peptideAssumption;
+    }
+}
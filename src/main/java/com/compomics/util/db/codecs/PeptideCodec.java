@@ -0,0 +1,76 @@
+package com.compomics.util.db.codecs;
+
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.matches.VariantMatch;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Codec for the peptides. The keys and mass cached in the peptide are not
+ * stored and computed again when needed.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideCodec implements ObjectCodec<Peptide> {
+
+    @Override
+    public Class<Peptide> getObjectClass() {
+        return Peptide.class;
+    }
+
+    @Override
+    public void write(Peptide peptide, DataOutputStream output, ObjectCodecRegistry registry) throws IOException {
+        ObjectCodecRegistry.writeString(output, peptide.getSequence());
+        ArrayList<ModificationMatch> modificationMatches = peptide.getModificationMatches();
+        if (modificationMatches == null) {
+            ObjectCodecRegistry.writeVarInt(output, 0);
+        } else {
+            ObjectCodecRegistry.writeVarInt(output, modificationMatches.size() + 1);
+            for (ModificationMatch modificationMatch : modificationMatches) {
+                registry.writeObject(modificationMatch, output);
+            }
+        }
+        ObjectCodecRegistry.writeStrings(output, peptide.getParentProteinsNoRemapping());
+        ArrayList<VariantMatch> variantMatches = peptide.getVariantMatches();
+        if (variantMatches == null) {
+            ObjectCodecRegistry.writeVarInt(output, 0);
+        } else {
+            ObjectCodecRegistry.writeVarInt(output, variantMatches.size() + 1);
+            for (VariantMatch variantMatch : variantMatches) {
+                registry.writeObject(variantMatch, output);
+            }
+        }
+        registry.writeUrParams(output, peptide);
+    }
+
+    @Override
+    public Peptide read(DataInputStream input, ObjectCodecRegistry registry) throws IOException, ClassNotFoundException {
+        String sequence = ObjectCodecRegistry.readString(input);
+        int nModifications = ObjectCodecRegistry.readVarInt(input) - 1;
+        ArrayList<ModificationMatch> modificationMatches = null;
+        if (nModifications >= 0) {
+            modificationMatches = new ArrayList<ModificationMatch>(nModifications);
+            for (int i = 0; i < nModifications; ++i) {
+                modificationMatches.add((ModificationMatch) registry.readObject(input));
+            }
+        }
+        Peptide peptide = new Peptide(sequence, modificationMatches);
+        ArrayList<String> parentProteins = ObjectCodecRegistry.readStrings(input);
+        if (parentProteins != null) {
+            peptide.setParentProteins(parentProteins);
+        }
+        int nVariants = ObjectCodecRegistry.readVarInt(input) - 1;
+        if (nVariants >= 0) {
+            ArrayList<VariantMatch> variantMatches = new ArrayList<VariantMatch>(nVariants);
+            for (int i = 0; i < nVariants; ++i) {
+                variantMatches.add((VariantMatch) registry.readObject(input));
+            }
+            peptide.setVariantMatches(variantMatches);
+        }
+        registry.readUrParams(input, peptide);
+        return peptide;
+    }
+}
@@ -0,0 +1,42 @@
+package com.compomics.util.db.codecs;
+
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Codec for the peptide matches.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideMatchCodec implements ObjectCodec<PeptideMatch> {
+
+    @Override
+    public Class<PeptideMatch> getObjectClass() {
+        return PeptideMatch.class;
+    }
+
+    @Override
+    public void write(PeptideMatch peptideMatch, DataOutputStream output, ObjectCodecRegistry registry) throws IOException {
+        ObjectCodecRegistry.writeString(output, peptideMatch.getKey());
+        registry.writeObject(peptideMatch.getTheoreticPeptide(), output);
+        ObjectCodecRegistry.writeStrings(output, peptideMatch.getSpectrumMatchesKeys());
+        registry.writeUrParams(output, peptideMatch);
+    }
+
+    @Override
+    public PeptideMatch read(DataInputStream input, ObjectCodecRegistry registry) throws IOException, ClassNotFoundException {
+        String key = ObjectCodecRegistry.readString(input);
+        Peptide peptide = (Peptide) registry.readObject(input);
+        PeptideMatch peptideMatch = new PeptideMatch(peptide, key);
+        ArrayList<String> spectrumMatchesKeys = ObjectCodecRegistry.readStrings(input);
+        if (spectrumMatchesKeys != null) {
+            peptideMatch.getSpectrumMatchesKeys().addAll(spectrumMatchesKeys);
+        }
+        registry.readUrParams(input, peptideMatch);
+        return peptideMatch;
+    }
+}
@@ -0,0 +1,41 @@
+package com.compomics.util.db.codecs;
+
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Codec for the protein matches.
+ *
+ * @author Marc Vaudel
+ */
+public class ProteinMatchCodec implements ObjectCodec<ProteinMatch> {
+
+    @Override
+    public Class<ProteinMatch> getObjectClass() {
+        return ProteinMatch.class;
+    }
+
+    @Override
+    public void write(ProteinMatch proteinMatch, DataOutputStream output, ObjectCodecRegistry registry) throws IOException {
+        ObjectCodecRegistry.writeStrings(output, proteinMatch.getTheoreticProteinsAccessions());
+        ObjectCodecRegistry.writeString(output, proteinMatch.getMainMatch());
+        ObjectCodecRegistry.writeStrings(output, proteinMatch.getPeptideMatchesKeys());
+        registry.writeUrParams(output, proteinMatch);
+    }
+
+    @Override
+    public ProteinMatch read(DataInputStream input, ObjectCodecRegistry registry) throws IOException, ClassNotFoundException {
+        ProteinMatch proteinMatch = new ProteinMatch();
+        ArrayList<String> accessions = ObjectCodecRegistry.readStrings(input);
+        if (accessions != null) {
+            proteinMatch.getTheoreticProteinsAccessions().addAll(accessions);
+        }
+        proteinMatch.setMainMatch(ObjectCodecRegistry.readString(input));
+        proteinMatch.setPeptideKeys(ObjectCodecRegistry.readStrings(input));
+        registry.readUrParams(input, proteinMatch);
+        return proteinMatch;
+    }
+}
@@ -0,0 +1,166 @@
+package com.compomics.util.db.codecs;
+
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.identification.spectrum_assumptions.TagAssumption;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Codec for the spectrum matches. As with Java serialization, the best
+ * assumptions remain the same objects as the corresponding assumptions of the
+ * assumptions map.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumMatchCodec implements ObjectCodec<SpectrumMatch> {
+
+    /**
+     * Reference written for a null best assumption.
+     */
+    private static final int NULL_REFERENCE = 0;
+    /**
+     * Reference written for a best assumption which is not in the assumptions
+     * map and is written after the reference.
+     */
+    private static final int INLINE_REFERENCE = 1;
+
+    @Override
+    public Class<SpectrumMatch> getObjectClass() {
+        return SpectrumMatch.class;
+    }
+
+    @Override
+    public void write(SpectrumMatch spectrumMatch, DataOutputStream output, ObjectCodecRegistry registry) throws IOException {
+        ObjectCodecRegistry.writeString(output, spectrumMatch.getKey());
+        Integer spectrumNumber = spectrumMatch.getSpectrumNumber();
+        if (spectrumNumber == null) {
+            output.writeBoolean(false);
+        } else {
+            output.writeBoolean(true);
+            output.writeInt(spectrumNumber);
+        }
+
+        ArrayList<SpectrumIdentificationAssumption> assumptions = new ArrayList<SpectrumIdentificationAssumption>();
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = spectrumMatch.getAssumptionsMap();
+        if (assumptionsMap == null) {
+            ObjectCodecRegistry.writeVarInt(output, 0);
+        } else {
+            ObjectCodecRegistry.writeVarInt(output, assumptionsMap.size() + 1);
+            for (Integer advocateId : assumptionsMap.keySet()) {
+                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = assumptionsMap.get(advocateId);
+                output.writeInt(advocateId);
+                ObjectCodecRegistry.writeVarInt(output, advocateMap.size());
+                for (Double score : advocateMap.keySet()) {
+                    ArrayList<SpectrumIdentificationAssumption> scoreAssumptions = advocateMap.get(score);
+                    output.writeDouble(score);
+                    ObjectCodecRegistry.writeVarInt(output, scoreAssumptions.size());
+                    for (SpectrumIdentificationAssumption assumption : scoreAssumptions) {
+                        registry.writeObject(assumption, output);
+                        assumptions.add(assumption);
+                    }
+                }
+            }
+        }
+
+        writeBestAssumption(spectrumMatch.getBestPeptideAssumption(), assumptions, output, registry);
+        writeBestAssumption(spectrumMatch.getBestTagAssumption(), assumptions, output, registry);
+        registry.writeUrParams(output, spectrumMatch);
+    }
+
+    /**
+     * Writes a best assumption as a reference to the assumption of the
+     * assumptions map if present, inline otherwise.
+     *
+     * @param bestAssumption the best assumption
+     * @param assumptions the assumptions of the assumptions map in the order
+     * of writing
+     * @param output the output stream
+     * @param registry the registry
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the assumption
+     */
+    private void writeBestAssumption(SpectrumIdentificationAssumption bestAssumption, ArrayList<SpectrumIdentificationAssumption> assumptions, DataOutputStream output, ObjectCodecRegistry registry) throws IOException {
+        if (bestAssumption == null) {
+            ObjectCodecRegistry.writeVarInt(output, NULL_REFERENCE);
+            return;
+        }
+        for (int i = 0; i < assumptions.size(); ++i) {
+            if (assumptions.get(i) == bestAssumption) {
+                ObjectCodecRegistry.writeVarInt(output, INLINE_REFERENCE + 1 + i);
+                return;
+            }
+        }
+        ObjectCodecRegistry.writeVarInt(output, INLINE_REFERENCE);
+        registry.writeObject(bestAssumption, output);
+    }
+
+    @Override
+    public SpectrumMatch read(DataInputStream input, ObjectCodecRegistry registry) throws IOException, ClassNotFoundException {
+        SpectrumMatch spectrumMatch = new SpectrumMatch(ObjectCodecRegistry.readString(input));
+        if (input.readBoolean()) {
+            spectrumMatch.setSpectrumNumber(input.readInt());
+        }
+
+        ArrayList<SpectrumIdentificationAssumption> assumptions = new ArrayList<SpectrumIdentificationAssumption>();
+        int nAdvocates = ObjectCodecRegistry.readVarInt(input) - 1;
+        if (nAdvocates >= 0) {
+            HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = new HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>>(nAdvocates);
+            for (int i = 0; i < nAdvocates; ++i) {
+                int advocateId = input.readInt();
+                int nScores = ObjectCodecRegistry.readVarInt(input);
+                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = new HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>(nScores);
+                for (int j = 0; j < nScores; ++j) {
+                    double score = input.readDouble();
+                    int nAssumptions = ObjectCodecRegistry.readVarInt(input);
+                    ArrayList<SpectrumIdentificationAssumption> scoreAssumptions = new ArrayList<SpectrumIdentificationAssumption>(nAssumptions);
+                    for (int k = 0; k < nAssumptions; ++k) {
+                        SpectrumIdentificationAssumption assumption = (SpectrumIdentificationAssumption) registry.readObject(input);
+                        scoreAssumptions.add(assumption);
+                        assumptions.add(assumption);
+                    }
+                    advocateMap.put(score, scoreAssumptions);
+                }
+                assumptionsMap.put(advocateId, advocateMap);
+            }
+            spectrumMatch.setAssumptionsMap(assumptionsMap);
+        }
+
+        spectrumMatch.setBestPeptideAssumption((PeptideAssumption) readBestAssumption(assumptions, input, registry));
+        spectrumMatch.setBestTagAssumption((TagAssumption) readBestAssumption(assumptions, input, registry));
+        registry.readUrParams(input, spectrumMatch);
+        return spectrumMatch;
+    }
+
+    /**
+     * Reads a best assumption written by writeBestAssumption.
+     *
+     * @param assumptions the assumptions of the assumptions map in the order
+     * of reading
+     * @param input the input stream
+     * @param registry the registry
+     *
+     * @return the best assumption
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the assumption
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the assumption
+     */
+    private SpectrumIdentificationAssumption readBestAssumption(ArrayList<SpectrumIdentificationAssumption> assumptions, DataInputStream input, ObjectCodecRegistry registry) throws IOException, ClassNotFoundException {
+        int reference = ObjectCodecRegistry.readVarInt(input);
+        switch (reference) {
+            case NULL_REFERENCE:
+                return null;
+            case INLINE_REFERENCE:
+                return (SpectrumIdentificationAssumption) registry.readObject(input);
+            default:
+                return assumptions.get(reference - INLINE_REFERENCE - 1);
+        }
+    }
+}
@@ -1495,6 +1495,49 @@ public abstract class Identification extends ExperimentObject {
         }
     }
 
+    /**
+     * Creates the peptides and protein instances based on the spectrum matches
+     * using multiple threads. The peptides are mapped to the proteins in
+     * parallel and the matches are then assembled in the order of the
+     * sequential build, the result is therefore identical to
+     * buildPeptidesAndProteins(waitingHandler, sequenceMatchingPreferences).
+     * Note that the attribute bestAssumption should be set for every spectrum
+     * match at this point, and that the peptide mapper must support concurrent
+     * queries.
+     *
+     * @param waitingHandler the waiting handler displaying the progress. Can be
+     * null. The progress will be displayed as secondary.
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param nThreads the number of threads to use, the sequential build is
+     * used if lower than two
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * loading the object from the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object in the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while casting the database input in the desired match class
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the database
+     */
+    public void buildPeptidesAndProteins(WaitingHandler waitingHandler, SequenceMatchingPreferences sequenceMatchingPreferences, int nThreads) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        if (nThreads < 2) {
+            buildPeptidesAndProteins(waitingHandler, sequenceMatchingPreferences);
+            return;
+        }
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(getSpectrumIdentificationSize());
+            waitingHandler.setSecondaryProgressCounter(0);
+        }
+        ArrayList<String> spectrumMatchKeys = new ArrayList<String>(getSpectrumIdentificationSize());
+        for (String spectrumFile : spectrumIdentificationMap.keySet()) {
+            spectrumMatchKeys.addAll(spectrumIdentificationMap.get(spectrumFile));
+        }
+        PeptidesAndProteinsBuilder builder = new PeptidesAndProteinsBuilder(this, sequenceMatchingPreferences, waitingHandler);
+        builder.build(spectrumMatchKeys, nThreads);
+    }
+
     /**
      * Creates the peptides and protein instances based on the given spectrum
      * match. Note that only the best peptide assumption is used, the method has
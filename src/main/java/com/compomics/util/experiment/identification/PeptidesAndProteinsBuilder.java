@@ -0,0 +1,386 @@
+package com.compomics.util.experiment.identification;
+
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Builds the peptide and protein matches of an identification from its
+ * spectrum matches using multiple threads. The spectrum matches are split in
+ * chunks of consecutive keys, and the peptides of every chunk are mapped to
+ * the proteins by a pool of workers. The chunks are then reduced one after the
+ * other in the order of the sequential build, so that the matches obtained are
+ * identical. The matches created or modified by a chunk are written to the
+ * database once per chunk instead of once per spectrum match, and their keys
+ * are added to the identification only once written.
+ *
+ * @author Marc Vaudel
+ */
+class PeptidesAndProteinsBuilder {
+
+    /**
+     * The number of spectrum matches per chunk.
+     */
+    private static final int CHUNK_SIZE = 1000;
+    /**
+     * The identification to build.
+     */
+    private final Identification identification;
+    /**
+     * The sequence matching preferences.
+     */
+    private final SequenceMatchingPreferences sequenceMatchingPreferences;
+    /**
+     * The waiting handler, can be null.
+     */
+    private final WaitingHandler waitingHandler;
+    /**
+     * The peptide matches created by the current chunk indexed by key in
+     * order of creation.
+     */
+    private final LinkedHashMap<String, PeptideMatch> newPeptideMatches = new LinkedHashMap<String, PeptideMatch>();
+    /**
+     * The peptide matches already in the identification which were modified
+     * by the current chunk.
+     */
+    private final LinkedHashMap<String, PeptideMatch> updatedPeptideMatches = new LinkedHashMap<String, PeptideMatch>();
+    /**
+     * The protein matches created by the current chunk indexed by key in
+     * order of creation.
+     */
+    private final LinkedHashMap<String, ProteinMatch> newProteinMatches = new LinkedHashMap<String, ProteinMatch>();
+    /**
+     * The protein matches already in the identification which were modified
+     * by the current chunk.
+     */
+    private final LinkedHashMap<String, ProteinMatch> updatedProteinMatches = new LinkedHashMap<String, ProteinMatch>();
+
+    /**
+     * Constructor.
+     *
+     * @param identification the identification to build
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param waitingHandler the waiting handler, can be null
+     */
+    PeptidesAndProteinsBuilder(Identification identification, SequenceMatchingPreferences sequenceMatchingPreferences, WaitingHandler waitingHandler) {
+        this.identification = identification;
+        this.sequenceMatchingPreferences = sequenceMatchingPreferences;
+        this.waitingHandler = waitingHandler;
+    }
+
+    /**
+     * Builds the peptide and protein matches of the given spectrum matches.
+     *
+     * @param spectrumMatchKeys the keys of the spectrum matches in the order
+     * of the sequential build
+     * @param nThreads the number of threads to use
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a match
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     */
+    void build(ArrayList<String> spectrumMatchKeys, int nThreads) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        try {
+            // keep a bounded number of chunks in flight and reduce them in order
+            LinkedList<Future<ArrayList<PsmPeptide>>> chunks = new LinkedList<Future<ArrayList<PsmPeptide>>>();
+            for (int start = 0; start < spectrumMatchKeys.size(); start += CHUNK_SIZE) {
+                final ArrayList<String> keysInChunk = new ArrayList<String>(spectrumMatchKeys.subList(start, Math.min(start + CHUNK_SIZE, spectrumMatchKeys.size())));
+                chunks.add(pool.submit(new Callable<ArrayList<PsmPeptide>>() {
+                    @Override
+                    public ArrayList<PsmPeptide> call() throws Exception {
+                        return mapChunk(keysInChunk);
+                    }
+                }));
+                if (chunks.size() >= 2 * nThreads) {
+                    reduce(getChunk(chunks.removeFirst()));
+                    write();
+                }
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    break;
+                }
+            }
+            // the matches reduced so far are saved even if canceled, like in the sequential build
+            while (!chunks.isEmpty()) {
+                reduce(getChunk(chunks.removeFirst()));
+                write();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Writes the matches created or modified by the current chunk to the
+     * database and adds the keys of the created matches to the
+     * identification. A key is only added once its match is written, so that
+     * the identification never refers to a match missing from the database.
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing a match
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing a match
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     */
+    private void write() throws SQLException, IOException, InterruptedException {
+        IdentificationDB identificationDB = identification.getIdentificationDB();
+        try {
+            for (PeptideMatch peptideMatch : newPeptideMatches.values()) {
+                try {
+                    identificationDB.addPeptideMatch(peptideMatch);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    throw new IOException("Error while writing peptide match " + peptideMatch.getKey() + " in the database.");
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                    throw new SQLException("Error while writing peptide match " + peptideMatch.getKey() + " in the database.");
+                }
+                identification.peptideIdentification.add(peptideMatch.getKey());
+            }
+            for (PeptideMatch peptideMatch : updatedPeptideMatches.values()) {
+                identificationDB.updatePeptideMatch(peptideMatch);
+            }
+            for (ProteinMatch proteinMatch : newProteinMatches.values()) {
+                try {
+                    identificationDB.addProteinMatch(proteinMatch);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    throw new IOException("Error while writing protein match " + proteinMatch.getKey() + " in the database.");
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                    throw new SQLException("Error while writing protein match " + proteinMatch.getKey() + " in the database.");
+                }
+                String proteinKey = proteinMatch.getKey();
+                identification.proteinIdentification.add(proteinKey);
+                HashMap<String, HashSet<String>> proteinMap = identification.proteinMap;
+                for (String protein : proteinMatch.getTheoreticProteinsAccessions()) {
+                    HashSet<String> proteinKeys = proteinMap.get(protein);
+                    if (proteinKeys == null) {
+                        proteinKeys = new HashSet<String>();
+                        proteinMap.put(protein, proteinKeys);
+                    }
+                    proteinKeys.add(proteinKey);
+                }
+            }
+            for (ProteinMatch proteinMatch : updatedProteinMatches.values()) {
+                identificationDB.updateProteinMatch(proteinMatch);
+            }
+        } finally {
+            // the matches of the next chunk are retrieved from the identification
+            newPeptideMatches.clear();
+            updatedPeptideMatches.clear();
+            newProteinMatches.clear();
+            updatedProteinMatches.clear();
+        }
+    }
+
+    /**
+     * Maps the best peptide of the given spectrum matches to the proteins.
+     *
+     * @param keysInChunk the keys of the spectrum matches
+     *
+     * @return the best peptides and their keys in the order of the spectrum
+     * matches, spectrum matches without best peptide are skipped
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * loading the matches
+     * @throws IOException exception thrown whenever an error occurred while
+     * loading the matches
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a match
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     */
+    private ArrayList<PsmPeptide> mapChunk(ArrayList<String> keysInChunk) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        identification.loadSpectrumMatches(keysInChunk, null, false);
+        ArrayList<PsmPeptide> result = new ArrayList<PsmPeptide>(keysInChunk.size());
+        for (String spectrumMatchKey : keysInChunk) {
+            SpectrumMatch spectrumMatch = identification.getSpectrumMatch(spectrumMatchKey);
+            if (spectrumMatch == null) {
+                throw new IllegalArgumentException("Spectrum match " + spectrumMatchKey + " not found.");
+            }
+            if (spectrumMatch.getBestPeptideAssumption() != null) {
+                Peptide peptide = spectrumMatch.getBestPeptideAssumption().getPeptide();
+                if (peptide.getParentProteinsNoRemapping() == null) {
+                    peptide.getParentProteins(sequenceMatchingPreferences);
+                }
+                String peptideKey = peptide.getMatchingKey(sequenceMatchingPreferences);
+                String proteinKey = ProteinMatch.getProteinMatchKey(peptide);
+                result.add(new PsmPeptide(spectrumMatchKey, peptide, peptideKey, proteinKey));
+            }
+            if (waitingHandler != null) {
+                waitingHandler.increaseSecondaryProgressCounter();
+                if (waitingHandler.isRunCanceled()) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds the peptides of a chunk to the peptide and protein matches. The
+     * identification is not modified, the matches created or modified are
+     * kept until written.
+     *
+     * @param psmPeptides the peptides of the chunk
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * loading a match
+     * @throws IOException exception thrown whenever an error occurred while
+     * loading a match
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a match
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     */
+    private void reduce(ArrayList<PsmPeptide> psmPeptides) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        for (PsmPeptide psmPeptide : psmPeptides) {
+
+            String peptideKey = psmPeptide.peptideKey;
+            PeptideMatch peptideMatch = newPeptideMatches.get(peptideKey);
+            if (peptideMatch == null) {
+                peptideMatch = updatedPeptideMatches.get(peptideKey);
+            }
+            if (peptideMatch == null) {
+                if (identification.peptideIdentification.contains(peptideKey)) {
+                    peptideMatch = identification.getPeptideMatch(peptideKey);
+                    if (peptideMatch == null) {
+                        throw new IllegalArgumentException("Peptide match " + peptideKey + " not found.");
+                    }
+                    updatedPeptideMatches.put(peptideKey, peptideMatch);
+                } else {
+                    peptideMatch = new PeptideMatch(psmPeptide.peptide, peptideKey);
+                    newPeptideMatches.put(peptideKey, peptideMatch);
+                }
+            }
+            peptideMatch.addSpectrumMatchKey(psmPeptide.spectrumMatchKey);
+
+            String proteinKey = psmPeptide.proteinKey;
+            ProteinMatch proteinMatch = newProteinMatches.get(proteinKey);
+            if (proteinMatch == null) {
+                proteinMatch = updatedProteinMatches.get(proteinKey);
+            }
+            if (proteinMatch != null) {
+                if (!proteinMatch.getPeptideMatchesKeys().contains(peptideKey)) {
+                    proteinMatch.addPeptideMatchKey(peptideKey);
+                }
+            } else if (identification.proteinIdentification.contains(proteinKey)) {
+                proteinMatch = identification.getProteinMatch(proteinKey);
+                if (proteinMatch == null) {
+                    throw new IllegalArgumentException("Protein match " + proteinKey + " not found.");
+                }
+                if (!proteinMatch.getPeptideMatchesKeys().contains(peptideKey)) {
+                    proteinMatch.addPeptideMatchKey(peptideKey);
+                    updatedProteinMatches.put(proteinKey, proteinMatch);
+                }
+            } else {
+                proteinMatch = new ProteinMatch(peptideMatch.getTheoreticPeptide(), peptideKey);
+                if (!proteinMatch.getKey().equals(proteinKey)) {
+                    throw new IllegalArgumentException("Protein inference issue: the protein key " + proteinKey + " does not match the peptide proteins " + proteinMatch.getKey() + "."
+                            + " Peptide: " + peptideKey + " found in spectrum " + psmPeptide.spectrumMatchKey + ".");
+                }
+                newProteinMatches.put(proteinKey, proteinMatch);
+            }
+        }
+    }
+
+    /**
+     * Waits for the result of a chunk and rethrows the exceptions of the
+     * worker.
+     *
+     * @param chunk the future result of the chunk
+     *
+     * @return the result of the chunk
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * loading the matches
+     * @throws IOException exception thrown whenever an error occurred while
+     * loading the matches
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a match
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     */
+    private ArrayList<PsmPeptide> getChunk(Future<ArrayList<PsmPeptide>> chunk) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        try {
+            return chunk.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Error while mapping the peptides to the proteins.", cause);
+        }
+    }
+
+    /**
+     * The best peptide of a spectrum match and its keys.
+     */
+    private static class PsmPeptide {
+
+        /**
+         * The key of the spectrum match.
+         */
+        private final String spectrumMatchKey;
+        /**
+         * The best peptide of the spectrum match.
+         */
+        private final Peptide peptide;
+        /**
+         * The key of the peptide match.
+         */
+        private final String peptideKey;
+        /**
+         * The key of the protein match.
+         */
+        private final String proteinKey;
+
+        /**
+         * Constructor.
+         *
+         * @param spectrumMatchKey the key of the spectrum match
+         * @param peptide the best peptide of the spectrum match
+         * @param peptideKey the key of the peptide match
+         * @param proteinKey the key of the protein match
+         */
+        public PsmPeptide(String spectrumMatchKey, Peptide peptide, String peptideKey, String proteinKey) {
+            this.spectrumMatchKey = spectrumMatchKey;
+            this.peptide = peptide;
+            this.peptideKey = peptideKey;
+            this.proteinKey = proteinKey;
+        }
+    }
+}
@@ -173,6 +173,16 @@ public class SpectrumMatch extends IdentificationMatch {
         return assumptionsMap;
     }
 
+    /**
+     * Sets the assumptions map.
+     *
+     * @param assumptionsMap the assumptions map, indexed by advocate id and
+     * score
+     */
+    public void setAssumptionsMap(HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap) {
+        this.assumptionsMap = assumptionsMap;
+    }
+
     /**
      * Removes all assumptions but the best ones from the spectrum map.
      */
@@ -0,0 +1,270 @@
+package com.compomics.util.experiment.identification.matches_iterators;
+
+import com.compomics.util.db.LatencyHistogram;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads batches of matches in the cache in a background thread ahead of an
+ * iterator. The loader stays at most a given number of batches ahead of the
+ * iterator, so that the memory used by the prefetched matches remains bounded,
+ * and the iterator only waits when the batch of the next match is not loaded
+ * yet. The loader thread stops when the iterator does not progress for a while
+ * and is restarted as soon as the iterator moves to the next batch.
+ *
+ * @author Marc Vaudel
+ */
+abstract class MatchesPrefetcher {
+
+    /**
+     * The time in milliseconds after which the loader thread stops if the
+     * iterator does not consume the loaded batches.
+     */
+    private static final long IDLE_TIMEOUT = 10000;
+    /**
+     * The time in milliseconds between two checks of the loader while
+     * waiting for a batch.
+     */
+    private static final long WAIT_INTERVAL = 100;
+    /**
+     * The keys of the matches to load.
+     */
+    private final ArrayList<String> keys;
+    /**
+     * The number of matches per batch.
+     */
+    private final int batchSize;
+    /**
+     * The number of batches.
+     */
+    private final int nBatches;
+    /**
+     * The number of batches which can still be loaded ahead of the iterator.
+     */
+    private final Semaphore freeBatches;
+    /**
+     * The waiting handler, can be null.
+     */
+    private final WaitingHandler waitingHandler;
+    /**
+     * The name of the loader thread.
+     */
+    private final String name;
+    /**
+     * The number of batches loaded.
+     */
+    private volatile int nLoaded = 0;
+    /**
+     * Lock notified whenever a batch is loaded.
+     */
+    private final Object loadedLock = new Object();
+    /**
+     * The exception encountered by the loader, null if none.
+     */
+    private volatile Throwable exception = null;
+    /**
+     * Indicates whether the prefetching is stopped.
+     */
+    private volatile boolean closed = false;
+    /**
+     * Indicates whether a loader thread is running, guarded by this
+     * prefetcher.
+     */
+    private boolean loaderRunning = false;
+    /**
+     * The time the iterator spent waiting for a batch.
+     */
+    private final LatencyHistogram stalls = new LatencyHistogram();
+
+    /**
+     * Constructor.
+     *
+     * @param name the name of the loader thread
+     * @param keys the keys of the matches to load
+     * @param batchSize the number of matches per batch
+     * @param depth the maximal number of batches loaded ahead of the iterator
+     * @param waitingHandler the waiting handler, can be null
+     */
+    MatchesPrefetcher(String name, ArrayList<String> keys, int batchSize, int depth, WaitingHandler waitingHandler) {
+        this.name = name;
+        this.keys = keys;
+        this.batchSize = Math.max(batchSize, 1);
+        this.nBatches = (keys.size() + this.batchSize - 1) / this.batchSize;
+        this.freeBatches = new Semaphore(Math.max(depth, 1));
+        this.waitingHandler = waitingHandler;
+    }
+
+    /**
+     * Loads the given batch of matches in the cache.
+     *
+     * @param keysInBatch the keys of the matches of the batch
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the matches database
+     * @throws IOException exception thrown whenever an error occurred while
+     * interacting with the matches database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a match from the database
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while loading the matches
+     */
+    protected abstract void loadBatch(ArrayList<String> keysInBatch) throws SQLException, IOException, ClassNotFoundException, InterruptedException;
+
+    /**
+     * Notifies that the iterator reached the match at the given index and
+     * waits until the batch of this match is loaded.
+     *
+     * @param index the index of the match
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * loading a batch
+     * @throws IOException exception thrown whenever an error occurred while
+     * loading a batch
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while loading a batch
+     * @throws InterruptedException exception thrown whenever the thread is
+     * interrupted while waiting
+     */
+    void waitFor(int index) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        int batch = index / batchSize;
+        if (batch > 0 && index % batchSize == 0) {
+            // the previous batch is consumed, a loader stopped while idle can resume
+            freeBatches.release();
+            startLoader();
+        }
+        if (nLoaded > batch) {
+            return;
+        }
+        long start = System.nanoTime();
+        synchronized (loadedLock) {
+            while (nLoaded <= batch) {
+                checkException();
+                if (closed || waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    return;
+                }
+                startLoader();
+                loadedLock.wait(WAIT_INTERVAL);
+            }
+        }
+        stalls.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Starts the loader thread if not running and batches remain to be
+     * loaded.
+     */
+    private synchronized void startLoader() {
+        if (!loaderRunning && !closed && exception == null && nLoaded < nBatches) {
+            loaderRunning = true;
+            Thread loader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    load();
+                }
+            }, name);
+            loader.setDaemon(true);
+            loader.start();
+        }
+    }
+
+    /**
+     * Loads the batches until all are loaded, the prefetching is stopped, or
+     * the iterator does not progress.
+     */
+    private void load() {
+        try {
+            while (!closed && nLoaded < nBatches) {
+                if (!freeBatches.tryAcquire(IDLE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    synchronized (this) {
+                        // a permit released from now on restarts a loader
+                        if (freeBatches.availablePermits() == 0) {
+                            loaderRunning = false;
+                            return;
+                        }
+                    }
+                    continue;
+                }
+                if (closed) {
+                    break;
+                }
+                int start = nLoaded * batchSize;
+                int end = Math.min(start + batchSize, keys.size());
+                loadBatch(new ArrayList<String>(keys.subList(start, end)));
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    closed = true;
+                }
+                synchronized (loadedLock) {
+                    nLoaded++;
+                    loadedLock.notifyAll();
+                }
+            }
+        } catch (Throwable t) {
+            exception = t;
+            synchronized (loadedLock) {
+                loadedLock.notifyAll();
+            }
+        }
+        synchronized (this) {
+            loaderRunning = false;
+        }
+    }
+
+    /**
+     * Stops the prefetching. The batch being loaded, if any, is completed.
+     */
+    void close() {
+        closed = true;
+        freeBatches.release(nBatches);
+    }
+
+    /**
+     * Returns a snapshot of the time the iterator spent waiting for a batch,
+     * one duration per wait.
+     *
+     * @return the time the iterator spent waiting for a batch
+     */
+    LatencyHistogram getStalls() {
+        return stalls.copy();
+    }
+
+    /**
+     * Throws the exception encountered by the loader if any.
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the matches database
+     * @throws IOException exception thrown whenever an error occurred while
+     * interacting with the matches database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a match from the database
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while loading the matches
+     */
+    private void checkException() throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        Throwable loaderException = exception;
+        if (loaderException != null) {
+            if (loaderException instanceof SQLException) {
+                throw new SQLException("Error while loading matches: " + loaderException.getMessage(), loaderException);
+            }
+            if (loaderException instanceof IOException) {
+                throw new IOException("Error while loading matches: " + loaderException.getMessage(), loaderException);
+            }
+            if (loaderException instanceof ClassNotFoundException) {
+                throw new ClassNotFoundException("Error while loading matches: " + loaderException.getMessage(), loaderException);
+            }
+            if (loaderException instanceof InterruptedException) {
+                throw new InterruptedException("Loading of the matches interrupted.");
+            }
+            if (loaderException instanceof RuntimeException) {
+                throw (RuntimeException) loaderException;
+            }
+            if (loaderException instanceof Error) {
+                throw (Error) loaderException;
+            }
+            throw new IOException("Error while loading matches: " + loaderException.getMessage(), loaderException);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.compomics.util.experiment.identification.matches_iterators;
 
+import com.compomics.util.db.LatencyHistogram;
 import com.compomics.util.experiment.identification.Identification;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.personalization.UrParameter;
@@ -7,7 +8,6 @@ import com.compomics.util.waiting.WaitingHandler;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.concurrent.Semaphore;
 
 /**
  * An iterator for spectrum matches.
@@ -50,27 +50,27 @@ public class PsmIterator {
      */
     private int batchSize = defaultBatchSize;
     /**
-     * The current index of the batch loading.
+     * The default number of batches loaded ahead of the iterator.
      */
-    private int loadingIndex = -1;
-    /**
-     * Boolean indicating whether a thread is buffering.
-     */
-    private boolean buffering = false;
-    /**
-     * Mutex for the buffering.
-     */
-    private Semaphore bufferingMutex = new Semaphore(1);
+    public final int defaultPrefetchDepth = 2;
     /**
      * The default margin to use to start batch loading before the loading index
      * is reached.
+     *
+     * @deprecated the batches are now loaded in the background, the number of
+     * batches loaded ahead of the iterator is set by setPrefetchDepth
      */
+    @Deprecated
     public final double defaultMargin = 0.1;
     /**
-     * The margin to use to start batch loading before the loading index is
-     * reached.
+     * The number of batches loaded ahead of the iterator.
+     */
+    private int prefetchDepth = defaultPrefetchDepth;
+    /**
+     * The prefetcher loading the batches in the background, null until the
+     * iteration starts.
      */
-    private double margin = defaultMargin;
+    private MatchesPrefetcher prefetcher = null;
     /**
      * The waiting handler.
      */
@@ -238,7 +238,7 @@ public class PsmIterator {
     public SpectrumMatch next() throws SQLException, IOException, ClassNotFoundException, InterruptedException {
         int threadIndex = incrementIndex();
         if (threadIndex < nMatches) {
-            checkBuffer();
+            getPrefetcher().waitFor(threadIndex);
             String key = spectrumKeys.get(threadIndex);
             SpectrumMatch match = identification.getSpectrumMatch(key);
             return match;
@@ -247,8 +247,26 @@ public class PsmIterator {
     }
 
     /**
-     * Makes sure that the next matches are buffered in the identification
-     * cache.
+     * Returns the prefetcher of the iterator, creates and starts it if needed.
+     *
+     * @return the prefetcher of the iterator
+     */
+    private synchronized MatchesPrefetcher getPrefetcher() {
+        if (prefetcher == null) {
+            prefetcher = new MatchesPrefetcher("PsmIterator-prefetcher", spectrumKeys, batchSize, prefetchDepth, waitingHandler) {
+                @Override
+                protected void loadBatch(ArrayList<String> keysInBatch) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+                    PsmIterator.this.loadBatch(keysInBatch);
+                }
+            };
+        }
+        return prefetcher;
+    }
+
+    /**
+     * Loads a batch of matches in the identification cache.
+     *
+     * @param keysInBatch the keys of the matches of the batch
      *
      * @throws SQLException exception thrown whenever an error occurred while
      * interacting with the matches database
@@ -259,71 +277,29 @@ public class PsmIterator {
      * @throws InterruptedException exception thrown whenever a threading issue
      * occurred while retrieving the match
      */
-    private void checkBuffer() throws SQLException, IOException, ClassNotFoundException, InterruptedException {
-
-        if (!buffering) {
-
-            int trigger = loadingIndex - ((int) (margin * batchSize));
-
-            if (index >= trigger) {
-
-                bufferingMutex.acquire();
-
-                trigger = loadingIndex - ((int) (margin * batchSize));
-
-                if (index >= trigger) {
-
-                    buffering = true;
-
-                    int newLoadingIndex = Math.min(loadingIndex + batchSize, nMatches - 1);
-                    ArrayList<String> keysInBatch = new ArrayList<String>(spectrumKeys.subList(loadingIndex + 1, newLoadingIndex + 1));
-                    identification.loadSpectrumMatches(keysInBatch, waitingHandler, false);
-
-                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                        return;
-                    }
+    private void loadBatch(ArrayList<String> keysInBatch) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
 
-                    if (psmParameters != null) {
-                        for (UrParameter urParameter : psmParameters) {
-                            if (urParameter == null) {
-                                throw new IllegalArgumentException("Parameter to batch load is null.");
-                            }
-                            identification.loadSpectrumMatchParameters(keysInBatch, urParameter, waitingHandler, false);
-                            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                                return;
-                            }
-                        }
-                    }
-                    if (loadAssumptions) {
-                        identification.loadAssumptions(keysInBatch, waitingHandler, false);
-                        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                            return;
-                        }
-                    }
+        identification.loadSpectrumMatches(keysInBatch, waitingHandler, false);
 
-                    loadingIndex = newLoadingIndex;
-                    trigger += (int) (margin * batchSize / 2);
-                    trigger = Math.max(0, trigger);
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            return;
+        }
 
-                    if (index < trigger) {
-                        if (batchSize > defaultBatchSize) {
-                            batchSize = Math.max(defaultBatchSize, (int) 0.9 * batchSize);
-                        } else if (margin > defaultMargin) {
-                            margin = Math.max(defaultMargin, 0.9 * margin);
-                        }
-                    }
+        if (psmParameters != null) {
+            for (UrParameter urParameter : psmParameters) {
+                if (urParameter == null) {
+                    throw new IllegalArgumentException("Parameter to batch load is null.");
                 }
-
-                if (!bufferingMutex.hasQueuedThreads()) {
-                    buffering = false;
+                identification.loadSpectrumMatchParameters(keysInBatch, urParameter, waitingHandler, false);
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    return;
                 }
-                bufferingMutex.release();
             }
-        } else if (index == loadingIndex) {
-            margin *= 1.1;
-            if (margin >= 0.25) {
-                batchSize *= 1.1;
-                margin = defaultMargin;
+        }
+        if (loadAssumptions) {
+            identification.loadAssumptions(keysInBatch, waitingHandler, false);
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return;
             }
         }
     }
@@ -339,11 +315,54 @@ public class PsmIterator {
     }
 
     /**
-     * Set the batch size.
+     * Set the batch size. Only effective before the first call to next().
      *
      * @param batchSize the batch size
      */
     public void setBatchSize(int batchSize) {
         this.batchSize = batchSize;
     }
+
+    /**
+     * Sets the number of batches loaded ahead of the iterator. Only effective
+     * before the first call to next().
+     *
+     * @param prefetchDepth the number of batches loaded ahead of the iterator
+     */
+    public void setPrefetchDepth(int prefetchDepth) {
+        this.prefetchDepth = prefetchDepth;
+    }
+
+    /**
+     * Returns the number of batches loaded ahead of the iterator.
+     *
+     * @return the number of batches loaded ahead of the iterator
+     */
+    public int getPrefetchDepth() {
+        return prefetchDepth;
+    }
+
+    /**
+     * Returns a snapshot of the time spent by next() waiting for a batch to
+     * be loaded, one duration per wait.
+     *
+     * @return the time spent waiting for a batch
+     */
+    public synchronized LatencyHistogram getStalls() {
+        if (prefetcher == null) {
+            return new LatencyHistogram();
+        }
+        return prefetcher.getStalls();
+    }
+
+    /**
+     * Stops the background loading of the matches. Needed only when the
+     * iteration is abandoned before the end, an idle loader otherwise stops
+     * by itself after a while.
+     */
+    public synchronized void close() {
+        if (prefetcher != null) {
+            prefetcher.close();
+        }
+    }
 }
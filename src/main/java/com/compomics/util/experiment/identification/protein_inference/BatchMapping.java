@@ -0,0 +1,215 @@
+package com.compomics.util.experiment.identification.protein_inference;
+
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits a list of queries in consecutive batches and maps them using a
+ * given number of threads. The mappings are passed to a callback as soon as
+ * they are available. Consecutive queries are mapped by the same thread, peptide
+ * mappers can hence sort the queries to share work between neighbors. An
+ * instance is meant to be used for a single call to mapAll.
+ *
+ * @param <T> the type of query, e.g. peptide sequence or tag
+ *
+ * @author Dominik Kopczynski
+ */
+public abstract class BatchMapping<T> {
+
+    /**
+     * The maximal number of queries in a batch.
+     */
+    public static final int MAX_BATCH_SIZE = 1000;
+    /**
+     * The minimal number of queries in a batch.
+     */
+    public static final int MIN_BATCH_SIZE = 10;
+    /**
+     * The minimal number of batches per thread, allows balancing the load
+     * between threads.
+     */
+    public static final int MIN_BATCHES_PER_THREAD = 16;
+    /**
+     * The index of the next batch to map.
+     */
+    private final AtomicInteger nextBatch = new AtomicInteger(0);
+    /**
+     * Boolean indicating whether a mapping thread failed, the other threads
+     * then stop mapping.
+     */
+    private final AtomicBoolean failed = new AtomicBoolean(false);
+
+    /**
+     * Maps the queries of a batch and passes the mapping of every query to
+     * the callback.
+     *
+     * @param batch the queries of the batch
+     * @param callback the callback
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file.
+     * @throws ClassNotFoundException exception thrown whenever an error occurs
+     * while deserializing an object.
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while interacting with the index.
+     * @throws SQLException if an SQLException exception thrown whenever a
+     * problem occurred while interacting with the index database.
+     */
+    public abstract void mapBatch(List<T> batch, ProteinMappingCallback<T> callback) throws IOException, InterruptedException, ClassNotFoundException, SQLException;
+
+    /**
+     * Maps all queries. The secondary progress counter of the waiting handler
+     * is increased by one for every query mapped.
+     *
+     * @param queries the queries
+     * @param callback the callback receiving the mappings
+     * @param nThreads the number of threads to use
+     * @param waitingHandler the waiting handler, can be null
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file.
+     * @throws ClassNotFoundException exception thrown whenever an error occurs
+     * while deserializing an object.
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while interacting with the index.
+     * @throws SQLException if an SQLException exception thrown whenever a
+     * problem occurred while interacting with the index database.
+     */
+    public void mapAll(List<T> queries, ProteinMappingCallback<T> callback, int nThreads, WaitingHandler waitingHandler) throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+
+        if (queries.isEmpty()) {
+            return;
+        }
+
+        nThreads = Math.max(Math.min(nThreads, queries.size()), 1);
+        int batchSize = Math.max(Math.min(queries.size() / (MIN_BATCHES_PER_THREAD * nThreads), MAX_BATCH_SIZE), MIN_BATCH_SIZE);
+
+        if (nThreads == 1) {
+            try {
+                new BatchMapper(queries, batchSize, callback, waitingHandler).call();
+            } catch (Exception e) {
+                rethrow(e);
+            }
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+            try {
+                ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>(nThreads);
+                for (int i = 0; i < nThreads; i++) {
+                    futures.add(pool.submit(new BatchMapper(queries, batchSize, callback, waitingHandler)));
+                }
+                for (Future<Object> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        rethrow(e.getCause());
+                    }
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Rethrows the error encountered by a mapping thread.
+     *
+     * @param cause the error encountered by the mapping thread
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file.
+     * @throws ClassNotFoundException exception thrown whenever an error occurs
+     * while deserializing an object.
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while interacting with the index.
+     * @throws SQLException if an SQLException exception thrown whenever a
+     * problem occurred while interacting with the index database.
+     */
+    private static void rethrow(Throwable cause) throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        } else if (cause instanceof InterruptedException) {
+            throw (InterruptedException) cause;
+        } else if (cause instanceof ClassNotFoundException) {
+            throw (ClassNotFoundException) cause;
+        } else if (cause instanceof SQLException) {
+            throw (SQLException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new IllegalStateException(cause);
+    }
+
+    /**
+     * Callable mapping batches until all batches are mapped.
+     */
+    private class BatchMapper implements Callable<Object> {
+
+        /**
+         * The queries.
+         */
+        private final List<T> queries;
+        /**
+         * The number of queries per batch.
+         */
+        private final int batchSize;
+        /**
+         * The callback receiving the mappings.
+         */
+        private final ProteinMappingCallback<T> callback;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+
+        /**
+         * Constructor.
+         *
+         * @param queries the queries
+         * @param batchSize the number of queries per batch
+         * @param callback the callback receiving the mappings
+         * @param waitingHandler the waiting handler
+         */
+        public BatchMapper(List<T> queries, int batchSize, ProteinMappingCallback<T> callback, WaitingHandler waitingHandler) {
+            this.queries = queries;
+            this.batchSize = batchSize;
+            this.callback = callback;
+            this.waitingHandler = waitingHandler;
+        }
+
+        @Override
+        public Object call() throws Exception {
+            boolean completed = false;
+            try {
+                int start;
+                while ((start = nextBatch.getAndIncrement() * batchSize) < queries.size()) {
+                    if (failed.get() || waitingHandler != null && waitingHandler.isRunCanceled()) {
+                        break;
+                    }
+                    int end = Math.min(start + batchSize, queries.size());
+                    mapBatch(queries.subList(start, end), callback);
+                    if (waitingHandler != null) {
+                        waitingHandler.increaseSecondaryProgressCounter(end - start);
+                    }
+                }
+                completed = true;
+            } finally {
+                if (!completed) {
+                    failed.set(true);
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.compomics.util.experiment.identification.protein_inference;
+
+/**
+ * Snapshot of the statistics of the cache of a peptide mapper.
+ *
+ * @author Dominik Kopczynski
+ */
+public class MappingCacheStatistics {
+
+    /**
+     * The number of queries answered from the cache.
+     */
+    private final long hits;
+    /**
+     * The number of queries not found in the cache.
+     */
+    private final long misses;
+    /**
+     * The number of entries removed from the cache to make room for new ones.
+     */
+    private final long evictions;
+    /**
+     * The number of entries in the cache.
+     */
+    private final long entries;
+    /**
+     * The estimated size of the cache content in bytes, -1 if not available.
+     */
+    private final long bytes;
+    /**
+     * The maximal size of the cache content in bytes, -1 if not bounded in
+     * bytes.
+     */
+    private final long maxBytes;
+
+    /**
+     * Constructor.
+     *
+     * @param hits the number of queries answered from the cache
+     * @param misses the number of queries not found in the cache
+     * @param evictions the number of entries removed from the cache to make
+     * room for new ones
+     * @param entries the number of entries in the cache
+     * @param bytes the estimated size of the cache content in bytes, -1 if not
+     * available
+     * @param maxBytes the maximal size of the cache content in bytes, -1 if
+     * not bounded in bytes
+     */
+    public MappingCacheStatistics(long hits, long misses, long evictions, long entries, long bytes, long maxBytes) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.entries = entries;
+        this.bytes = bytes;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the number of queries answered from the cache.
+     *
+     * @return the number of queries answered from the cache
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of queries not found in the cache.
+     *
+     * @return the number of queries not found in the cache
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the share of queries answered from the cache, 0 if no query was
+     * made.
+     *
+     * @return the share of queries answered from the cache
+     */
+    public double getHitRate() {
+        long queries = hits + misses;
+        return queries == 0 ? 0 : ((double) hits) / queries;
+    }
+
+    /**
+     * Returns the number of entries removed from the cache to make room for
+     * new ones.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of entries in the cache.
+     *
+     * @return the number of entries in the cache
+     */
+    public long getEntries() {
+        return entries;
+    }
+
+    /**
+     * Returns the estimated size of the cache content in bytes, -1 if not
+     * available.
+     *
+     * @return the estimated size of the cache content in bytes
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the maximal size of the cache content in bytes, -1 if not
+     * bounded in bytes.
+     *
+     * @return the maximal size of the cache content in bytes
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "hits: " + hits + ", misses: " + misses + ", evictions: " + evictions + ", entries: " + entries + ", bytes: " + bytes + "/" + maxBytes;
+    }
+}
@@ -3,9 +3,11 @@ package com.compomics.util.experiment.identification.protein_inference;
 import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
 import com.compomics.util.experiment.identification.amino_acid_tags.matchers.TagMatcher;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
+import com.compomics.util.waiting.WaitingHandler;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 
 /**
  * Interface for a class mapping peptides to a protein.
@@ -88,11 +90,71 @@ public interface PeptideMapper {
      */
     public ArrayList<PeptideProteinMapping> getProteinMapping(Tag tag, TagMatcher tagMatcher, SequenceMatchingPreferences sequenceMatchingPreferences) throws IOException, InterruptedException, ClassNotFoundException, SQLException;
 
+    /**
+     * Maps the given peptide sequences in the FASTA file loaded in the sequence
+     * factory using the given number of threads. The mapping of every distinct
+     * peptide sequence is passed to the callback as soon as it is available,
+     * in no particular order. The secondary progress counter of the waiting
+     * handler is increased by one for every distinct peptide sequence mapped.
+     *
+     * @param peptideSequences the peptide sequences
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param callback the callback receiving the mappings, must be thread safe
+     * @param nThreads the number of threads to use
+     * @param waitingHandler the waiting handler, can be null
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file.
+     * @throws ClassNotFoundException exception thrown whenever an error occurs
+     * while deserializing an object.
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while interacting with the tree.
+     * @throws SQLException if an SQLException exception thrown whenever a
+     * problem occurred while interacting with the tree database.
+     */
+    public void getProteinMappings(Collection<String> peptideSequences, SequenceMatchingPreferences sequenceMatchingPreferences, ProteinMappingCallback<String> callback, int nThreads, WaitingHandler waitingHandler)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException;
+
+    /**
+     * Maps the given tags in the FASTA file loaded in the sequence factory
+     * using the given number of threads. The mapping of every tag is passed to
+     * the callback as soon as it is available, in no particular order. The
+     * secondary progress counter of the waiting handler is increased by one for
+     * every tag mapped. When using more than one thread, the tag matcher must
+     * be set to synchronized indexing.
+     *
+     * @param tags the tags
+     * @param tagMatcher the tag matcher to use
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param massTolerance the MS2 m/z tolerance
+     * @param callback the callback receiving the mappings, must be thread safe
+     * @param nThreads the number of threads to use
+     * @param waitingHandler the waiting handler, can be null
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file.
+     * @throws ClassNotFoundException exception thrown whenever an error occurs
+     * while deserializing an object.
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while interacting with the tree.
+     * @throws SQLException if an SQLException exception thrown whenever a
+     * problem occurred while interacting with the tree database.
+     */
+    public void getProteinMappings(Collection<Tag> tags, TagMatcher tagMatcher, SequenceMatchingPreferences sequenceMatchingPreferences, Double massTolerance, ProteinMappingCallback<Tag> callback, int nThreads, WaitingHandler waitingHandler)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException;
+
     /**
      * Empties all caches.
      */
     public void emptyCache();
 
+    /**
+     * Returns a snapshot of the statistics of the cache of this mapper.
+     *
+     * @return the statistics of the cache
+     */
+    public MappingCacheStatistics getCacheStatistics();
+
     /**
      * Closes all connections to files, tries to delete corrupted and deprecated
      * indexes.
@@ -0,0 +1,24 @@
+package com.compomics.util.experiment.identification.protein_inference;
+
+import java.util.ArrayList;
+
+/**
+ * Callback receiving the protein mappings of the queries of a batch mapping
+ * as soon as they are available. The callback is called from the mapping
+ * threads and must therefore be thread safe.
+ *
+ * @param <T> the type of query, e.g. peptide sequence or tag
+ *
+ * @author Dominik Kopczynski
+ */
+public interface ProteinMappingCallback<T> {
+
+    /**
+     * Called when the mapping of a query is completed.
+     *
+     * @param query the query
+     * @param peptideProteinMappings the protein mappings of the query, an
+     * empty list if not found
+     */
+    public void mappingCompleted(T query, ArrayList<PeptideProteinMapping> peptideProteinMappings);
+}
@@ -0,0 +1,113 @@
+package com.compomics.util.experiment.identification.protein_inference.executable;
+
+import com.compomics.util.experiment.biology.Protein;
+import com.compomics.util.experiment.identification.protein_inference.PeptideProteinMapping;
+import com.compomics.util.experiment.identification.protein_inference.fm_index.FMIndex;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory.ProteinIterator;
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import com.compomics.util.preferences.PeptideVariantsPreferences;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Command line benchmark of the cost of locating peptides in the FM index for
+ * different suffix array sampling rates. Peptides are drawn from the proteins
+ * of the FASTA file, short peptides having many hits spend most of their time
+ * locating the hits in the text. For every sampling shift the index is built,
+ * and the size of the index is reported together with the mapping time per
+ * peptide and per hit.
+ *
+ * @author Dominik Kopczynski
+ */
+public class LocateBenchmark {
+
+    /**
+     * The number of measured rounds per sampling shift, preceded by as many
+     * warm up rounds.
+     */
+    private static final int ROUNDS = 3;
+
+    /**
+     * Main class.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length < 1 || args[0].equals("-h") || args[0].equals("--help")) {
+            System.err.println("LocateBenchmark: reports the locate cost of the FM index against its size for suffix array sampling rates.");
+            System.err.println("usage: LocateBenchmark input-fasta [number-of-peptides] [peptide-length] [sampling-shifts]");
+            System.err.println();
+            System.err.println("Every 2^shift suffix array entry is sampled, shift " + FMIndex.DENSE_SAMPLING_SHIFT + " keeps the full suffix array.");
+            System.err.println("Sampling shifts are given comma separated, e.g. 0,2,3,5.");
+            System.err.println();
+            System.err.println("Default parameters:");
+            System.err.println("\tnumber of peptides:\t100000");
+            System.err.println("\tpeptide length:\t\t7");
+            System.err.println("\tsampling shifts:\t0,1,2,3,4,5");
+            System.exit(-1);
+        }
+        int numPeptides = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int peptideLength = args.length > 2 ? Integer.parseInt(args[2]) : 7;
+        String[] shifts = (args.length > 3 ? args[3] : "0,1,2,3,4,5").split(",");
+
+        WaitingHandlerCLIImpl waitingHandlerCLIImpl = new WaitingHandlerCLIImpl();
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        ArrayList<String> peptides = new ArrayList<String>(numPeptides);
+        try {
+            sequenceFactory.loadFastaFile(new File(args[0]), waitingHandlerCLIImpl);
+
+            // draw the peptides from the proteins, proportionally to their length
+            ArrayList<String> sequences = new ArrayList<String>();
+            ProteinIterator pi = sequenceFactory.getProteinIterator(false);
+            while (pi.hasNext()) {
+                Protein protein = pi.getNextProtein();
+                if (protein.getLength() >= peptideLength) {
+                    sequences.add(protein.getSequence().toUpperCase());
+                }
+            }
+            Random random = new Random(42);
+            while (peptides.size() < numPeptides && !sequences.isEmpty()) {
+                String sequence = sequences.get(random.nextInt(sequences.size()));
+                if (random.nextInt(sequence.length()) < peptideLength) {
+                    continue;
+                }
+                int start = random.nextInt(sequence.length() - peptideLength + 1);
+                peptides.add(sequence.substring(start, start + peptideLength));
+            }
+        } catch (Exception e) {
+            System.err.println("Error: could not open FASTA file");
+            System.exit(-1);
+        }
+
+        SequenceMatchingPreferences sequenceMatchingPreferences = new SequenceMatchingPreferences();
+        sequenceMatchingPreferences.setSequenceMatchingType(SequenceMatchingPreferences.MatchingType.indistiguishableAminoAcids);
+        sequenceMatchingPreferences.setLimitX(0.25);
+        PeptideVariantsPreferences peptideVariantsPreferences = PeptideVariantsPreferences.getNoVariantPreferences();
+
+        System.out.println("shift\tsampling\tindex MB\tsampled SA MB\tns/peptide\tns/hit\thits");
+        for (String shift : shifts) {
+            int samplingShift = Integer.parseInt(shift.trim());
+            FMIndex fmIndex = new FMIndex(null, false, null, peptideVariantsPreferences, 1, samplingShift);
+            long hits = 0;
+            double nsPerPeptide = Double.MAX_VALUE;
+            for (int round = 0; round < 2 * ROUNDS; ++round) {
+                hits = 0;
+                long start = System.nanoTime();
+                for (String peptide : peptides) {
+                    ArrayList<PeptideProteinMapping> peptideProteinMappings = fmIndex.getProteinMapping(peptide, sequenceMatchingPreferences);
+                    hits += peptideProteinMappings.size();
+                }
+                if (round >= ROUNDS) {
+                    nsPerPeptide = Math.min(nsPerPeptide, ((double) (System.nanoTime() - start)) / peptides.size());
+                }
+            }
+            double nsPerHit = hits > 0 ? nsPerPeptide * peptides.size() / hits : 0;
+            System.out.println(samplingShift + "\t" + (1 << samplingShift) + "\t\t" + (fmIndex.getAllocatedBytes() >> 20) + "\t\t" + (fmIndex.getSampledSuffixArrayBytes() >> 20) + "\t\t"
+                    + String.format("%.0f", nsPerPeptide) + "\t\t" + String.format("%.0f", nsPerHit) + "\t" + hits);
+            fmIndex = null;
+        }
+    }
+}
@@ -12,6 +12,7 @@ import com.compomics.util.experiment.identification.identification_parameters.Se
 import com.compomics.util.experiment.identification.protein_inference.PeptideMapper;
 import com.compomics.util.experiment.identification.protein_inference.PeptideMapperType;
 import com.compomics.util.experiment.identification.protein_inference.PeptideProteinMapping;
+import com.compomics.util.experiment.identification.protein_inference.ProteinMappingCallback;
 import com.compomics.util.experiment.identification.protein_inference.fm_index.FMIndex;
 import com.compomics.util.experiment.identification.protein_inference.proteintree.ProteinTree;
 import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
@@ -20,8 +21,11 @@ import com.compomics.util.preferences.IdentificationParameters;
 import com.compomics.util.preferences.PeptideVariantsPreferences;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.regex.Pattern;
 import java.io.BufferedReader;
 import java.io.FileReader;
@@ -99,11 +103,12 @@ public class PeptideMapping {
             sequenceMatchingPreferences.setLimitX(0.25);
         }
 
+        int nThreads = Math.max(Runtime.getRuntime().availableProcessors(), 1);
         System.err.println("Start indexing proteome");
         long startTimeIndex = System.nanoTime();
         PeptideMapper peptideMapper = null;
         if (peptideMapperType == PeptideMapperType.fm_index) {
-            peptideMapper = new FMIndex(waitingHandlerCLIImpl, true, peptideVariantsPreferences, searchParameters);
+            peptideMapper = new FMIndex(waitingHandlerCLIImpl, true, peptideVariantsPreferences, searchParameters, nThreads, sequenceMatchingPreferences.getFmIndexSamplingShift());
         } else {
             try {
                 peptideMapper = new ProteinTree(1000, 1000);
@@ -140,19 +145,21 @@ public class PeptideMapping {
                 System.exit(-1);
             }
             waitingHandlerCLIImpl.setSecondaryProgressCounterIndeterminate(false);
-            waitingHandlerCLIImpl.setMaxSecondaryProgressCounter(peptides.size());
+            waitingHandlerCLIImpl.setMaxSecondaryProgressCounter(new HashSet<String>(peptides).size());
             waitingHandlerCLIImpl.setSecondaryProgressCounter(0);
-            ArrayList<PeptideProteinMapping> allPeptideProteinMappings = new ArrayList<PeptideProteinMapping>();
 
-            // starting the mapping
+            // starting the mapping, every distinct peptide is mapped once
+            final HashMap<String, ArrayList<PeptideProteinMapping>> allPeptideProteinMappings = new HashMap<String, ArrayList<PeptideProteinMapping>>();
             try {
                 long startTimeMapping = System.nanoTime();
-                for (int i = 0; i < peptides.size(); ++i) {
-                    String peptide = peptides.get(i);
-                    waitingHandlerCLIImpl.increaseSecondaryProgressCounter();
-                    ArrayList<PeptideProteinMapping> peptideProteinMappings = peptideMapper.getProteinMapping(peptide, sequenceMatchingPreferences);
-                    allPeptideProteinMappings.addAll(peptideProteinMappings);
-                }
+                peptideMapper.getProteinMappings(peptides, sequenceMatchingPreferences, new ProteinMappingCallback<String>() {
+                    @Override
+                    public void mappingCompleted(String peptide, ArrayList<PeptideProteinMapping> peptideProteinMappings) {
+                        synchronized (allPeptideProteinMappings) {
+                            allPeptideProteinMappings.put(peptide, peptideProteinMappings);
+                        }
+                    }
+                }, nThreads, waitingHandlerCLIImpl);
                 long diffTimeMapping = System.nanoTime() - startTimeMapping;
                 System.err.println();
                 System.err.println("Mapping " + peptides.size() + " peptides took " + (diffTimeMapping / 1e9) + " seconds");
@@ -160,23 +167,36 @@ public class PeptideMapping {
                 System.err.println("Error: mapping went wrong for unknown reasons");
                 System.exit(-1);
             }
+            if (waitingHandlerCLIImpl.isRunCanceled()) {
+                System.err.println("Error: the mapping was canceled, no output written");
+                System.exit(-1);
+            }
 
+            // writing the mappings of every input line in the order of the input
             try {
                 PrintWriter writer = new PrintWriter(args[3], "UTF-8");
-                for (PeptideProteinMapping peptideProteinMapping : allPeptideProteinMappings) {
-                    String peptide = peptideProteinMapping.getPeptideSequence();
-                    String accession = peptideProteinMapping.getProteinAccession();
-                    int startIndex = peptideProteinMapping.getIndex();
-                    writer.println(peptide + "," + accession + "," + startIndex);
+                for (String peptide : peptides) {
+                    ArrayList<PeptideProteinMapping> peptideProteinMappings = allPeptideProteinMappings.get(peptide);
+                    if (peptideProteinMappings == null) {
+                        continue;
+                    }
+                    for (PeptideProteinMapping peptideProteinMapping : peptideProteinMappings) {
+                        String peptideSequence = peptideProteinMapping.getPeptideSequence();
+                        String accession = peptideProteinMapping.getProteinAccession();
+                        int startIndex = peptideProteinMapping.getIndex();
+                        writer.println(peptideSequence + "," + accession + "," + startIndex);
+                    }
                 }
                 writer.close();
+                if (writer.checkError()) {
+                    throw new IOException("Error while writing the mappings.");
+                }
             } catch (Exception e) {
                 System.err.println("Error: could not write into file '" + args[3] + "'");
                 System.exit(-1);
             }
         } else {
             ArrayList<Tag> tags = new ArrayList<Tag>();
-            ArrayList<Integer> tagIndexes = new ArrayList<Integer>();
             try {
                 String line = "";
                 BufferedReader br = new BufferedReader(new FileReader(args[2]));
@@ -206,25 +226,48 @@ public class PeptideMapping {
             waitingHandlerCLIImpl.setSecondaryProgressCounterIndeterminate(false);
             waitingHandlerCLIImpl.setMaxSecondaryProgressCounter(tags.size());
             waitingHandlerCLIImpl.setSecondaryProgressCounter(0);
-            ArrayList<PeptideProteinMapping> allPeptideProteinMappings = new ArrayList<PeptideProteinMapping>();
 
-            // starting the mapping
+            PrintWriter writer = null;
+            try {
+                writer = new PrintWriter(args[3], "UTF-8");
+            } catch (Exception e) {
+                System.err.println("Error: could not write into file '" + args[3] + "'");
+                System.exit(-1);
+            }
+            final PrintWriter mappingWriter = writer;
+
+            // starting the mapping, the mappings are written as soon as available
             try {
                 // setting up modifications lists, only relevant for protein tree
                 ArrayList<String> variableModifications = searchParameters.getPtmSettings().getVariableModifications();
                 ArrayList<String> fixedModifications = searchParameters.getPtmSettings().getFixedModifications();
 
                 TagMatcher tagMatcher = new TagMatcher(fixedModifications, variableModifications, sequenceMatchingPreferences);
+                tagMatcher.setSynchronizedIndexing(true);
 
                 long startTimeMapping = System.nanoTime();
-                for (int i = 0; i < tags.size(); ++i) {
-                    waitingHandlerCLIImpl.increaseSecondaryProgressCounter();
-                    ArrayList<PeptideProteinMapping> peptideProteinMappings = peptideMapper.getProteinMapping(tags.get(i), tagMatcher, sequenceMatchingPreferences, searchParameters.getFragmentIonAccuracyInDaltons());
-                    allPeptideProteinMappings.addAll(peptideProteinMappings);
-                    for (int j = 0; j < peptideProteinMappings.size(); ++j) {
-                        tagIndexes.add(i);
+                peptideMapper.getProteinMappings(tags, tagMatcher, sequenceMatchingPreferences, searchParameters.getFragmentIonAccuracyInDaltons(), new ProteinMappingCallback<Tag>() {
+                    @Override
+                    public void mappingCompleted(Tag tag, ArrayList<PeptideProteinMapping> peptideProteinMappings) {
+                        synchronized (mappingWriter) {
+                            for (PeptideProteinMapping peptideProteinMapping : peptideProteinMappings) {
+                                String peptide = peptideProteinMapping.getPeptideSequence();
+                                String accession = peptideProteinMapping.getProteinAccession();
+                                int startIndex = peptideProteinMapping.getIndex();
+                                for (TagComponent tagComponent : tag.getContent()) {
+                                    if (tagComponent instanceof MassGap) {
+                                        mappingWriter.print(tagComponent.getMass());
+                                    }
+                                    if (tagComponent instanceof AminoAcidSequence) {
+                                        mappingWriter.print(tagComponent.asSequence());
+                                    }
+                                    mappingWriter.print(",");
+                                }
+                                mappingWriter.println(peptide + "," + accession + "," + startIndex);
+                            }
+                        }
                     }
-                }
+                }, nThreads, waitingHandlerCLIImpl);
                 long diffTimeMapping = System.nanoTime() - startTimeMapping;
                 System.err.println();
                 System.err.println("Mapping " + tags.size() + " tags took " + (diffTimeMapping / 1e9) + " seconds");
@@ -233,27 +276,8 @@ public class PeptideMapping {
                 System.err.println("Error: an unexpected error happened.");
                 System.exit(-1);
             }
-
-            try {
-                PrintWriter writer = new PrintWriter(args[3], "UTF-8");
-                for (int i = 0; i < allPeptideProteinMappings.size(); ++i) {
-                    PeptideProteinMapping peptideProteinMapping = allPeptideProteinMappings.get(i);
-                    String peptide = peptideProteinMapping.getPeptideSequence();
-                    String accession = peptideProteinMapping.getProteinAccession();
-                    int startIndex = peptideProteinMapping.getIndex();
-                    for (TagComponent tagComponent : tags.get(tagIndexes.get(i)).getContent()) {
-                        if (tagComponent instanceof MassGap) {
-                            writer.print(tagComponent.getMass());
-                        }
-                        if (tagComponent instanceof AminoAcidSequence) {
-                            writer.print(tagComponent.asSequence());
-                        }
-                        writer.print(",");
-                    }
-                    writer.println(peptide + "," + accession + "," + startIndex);
-                }
-                writer.close();
-            } catch (Exception e) {
+            mappingWriter.close();
+            if (mappingWriter.checkError()) {
                 System.err.println("Error: could not write into file '" + args[3] + "'");
                 System.exit(-1);
             }
@@ -0,0 +1,438 @@
+package com.compomics.util.experiment.identification.protein_inference.executable;
+
+import com.compomics.util.experiment.biology.AminoAcidSequence;
+import com.compomics.util.experiment.biology.MassGap;
+import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
+import com.compomics.util.experiment.identification.amino_acid_tags.TagComponent;
+import com.compomics.util.experiment.identification.amino_acid_tags.matchers.TagMatcher;
+import com.compomics.util.experiment.identification.identification_parameters.PtmSettings;
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.experiment.identification.protein_inference.PeptideMapper;
+import com.compomics.util.experiment.identification.protein_inference.PeptideProteinMapping;
+import com.compomics.util.experiment.identification.protein_inference.fm_index.FMIndex;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import com.compomics.util.preferences.IdentificationParameters;
+import com.compomics.util.preferences.PeptideVariantsPreferences;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Peptide mapping daemon: the index is built or loaded once and mapping
+ * requests are then served over a socket bound to the loopback interface.
+ * Clients send one request per line:
+ * <ul>
+ * <li>peptide SEQUENCE: maps a peptide</li>
+ * <li>tag COMPONENTS: maps a tag, the comma separated components being amino
+ * acid sequences or mass gaps as in the PeptideMapping input</li>
+ * <li>stats: returns the counters of the server</li>
+ * <li>quit: closes the connection</li>
+ * </ul>
+ * Every request is answered by its mappings, one per line in the
+ * PeptideMapping output format, followed by a line "done n" with n the
+ * number of mappings, or by a line "error message". Requests can be
+ * pipelined, the responses come in the order of the requests and are flushed
+ * once no request is pending. Clients are served concurrently.
+ *
+ * @author Dominik Kopczynski
+ */
+public class PeptideMappingServer {
+
+    /**
+     * The default port.
+     */
+    public static final int DEFAULT_PORT = 9510;
+    /**
+     * The default number of clients served concurrently.
+     */
+    public static final int DEFAULT_MAX_CLIENTS = 16;
+    /**
+     * The peptide mapper.
+     */
+    private final PeptideMapper peptideMapper;
+    /**
+     * The sequence matching preferences.
+     */
+    private final SequenceMatchingPreferences sequenceMatchingPreferences;
+    /**
+     * The tag matcher.
+     */
+    private final TagMatcher tagMatcher;
+    /**
+     * The fragment ion tolerance in Dalton used for the tag mapping.
+     */
+    private final Double massTolerance;
+    /**
+     * The time the server was started in nanoseconds.
+     */
+    private final long startTime = System.nanoTime();
+    /**
+     * The number of connections accepted.
+     */
+    private final AtomicLong nConnections = new AtomicLong();
+    /**
+     * The number of peptide requests served.
+     */
+    private final AtomicLong nPeptideRequests = new AtomicLong();
+    /**
+     * The number of tag requests served.
+     */
+    private final AtomicLong nTagRequests = new AtomicLong();
+    /**
+     * The number of requests which failed.
+     */
+    private final AtomicLong nErrors = new AtomicLong();
+    /**
+     * The number of mappings returned.
+     */
+    private final AtomicLong nMappings = new AtomicLong();
+    /**
+     * The summed latency of the requests in nanoseconds.
+     */
+    private final AtomicLong totalLatency = new AtomicLong();
+    /**
+     * The maximal latency of a request in nanoseconds.
+     */
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param peptideMapper the peptide mapper
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param searchParameters the search parameters
+     */
+    public PeptideMappingServer(PeptideMapper peptideMapper, SequenceMatchingPreferences sequenceMatchingPreferences, SearchParameters searchParameters) {
+        this.peptideMapper = peptideMapper;
+        this.sequenceMatchingPreferences = sequenceMatchingPreferences;
+        this.massTolerance = searchParameters.getFragmentIonAccuracyInDaltons();
+        PtmSettings ptmSettings = searchParameters.getPtmSettings();
+        tagMatcher = new TagMatcher(ptmSettings.getFixedModifications(), ptmSettings.getVariableModifications(), sequenceMatchingPreferences);
+        tagMatcher.setSynchronizedIndexing(true);
+    }
+
+    /**
+     * Accepts clients on the given server socket until it is closed.
+     *
+     * @param serverSocket the server socket
+     * @param maxClients the maximal number of clients served concurrently,
+     * further clients wait for a connection to be closed
+     */
+    public void serve(ServerSocket serverSocket, int maxClients) {
+        ExecutorService pool = Executors.newFixedThreadPool(maxClients);
+        try {
+            while (!serverSocket.isClosed()) {
+                final Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException e) {
+                    if (serverSocket.isClosed()) {
+                        break;
+                    }
+                    e.printStackTrace();
+                    continue;
+                }
+                nConnections.incrementAndGet();
+                pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            handleClient(socket);
+                        } catch (IOException e) {
+                            System.err.println("Connection lost: " + e.getMessage());
+                        } finally {
+                            try {
+                                socket.close();
+                            } catch (IOException e) {
+                                // ignore
+                            }
+                        }
+                    }
+                });
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Serves the requests of a client until the client quits or closes the
+     * connection.
+     *
+     * @param socket the socket of the client
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * communicating with the client
+     */
+    private void handleClient(Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8")));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            long start = System.nanoTime();
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            int separator = line.indexOf(' ');
+            String command = (separator == -1 ? line : line.substring(0, separator)).toLowerCase();
+            String argument = separator == -1 ? "" : line.substring(separator + 1).trim();
+            if (command.equals("quit")) {
+                break;
+            } else if (command.equals("stats")) {
+                writer.println("stats " + getStatistics());
+                writer.println("done 0");
+            } else {
+                try {
+                    int nResults;
+                    if (command.equals("peptide")) {
+                        nResults = mapPeptide(argument, writer);
+                        nPeptideRequests.incrementAndGet();
+                    } else if (command.equals("tag")) {
+                        nResults = mapTag(argument, writer);
+                        nTagRequests.incrementAndGet();
+                    } else {
+                        throw new IllegalArgumentException("unknown request '" + command + "'");
+                    }
+                    writer.println("done " + nResults);
+                    nMappings.addAndGet(nResults);
+                } catch (Exception e) {
+                    nErrors.incrementAndGet();
+                    writer.println("error " + getErrorMessage(e));
+                }
+                recordLatency(System.nanoTime() - start);
+            }
+            if (!reader.ready()) {
+                flush(writer);
+            }
+        }
+        flush(writer);
+    }
+
+    /**
+     * Flushes the writer of a client. The print writer does not throw
+     * exceptions, the error state is hence checked to detect clients which
+     * closed the connection.
+     *
+     * @param writer the writer of the client
+     *
+     * @throws IOException exception thrown whenever the responses could not be
+     * written
+     */
+    private static void flush(PrintWriter writer) throws IOException {
+        if (writer.checkError()) {
+            throw new IOException("Could not write to the client.");
+        }
+    }
+
+    /**
+     * Returns the message of an exception on a single line to be sent to the
+     * client, the exception itself if the message is null.
+     *
+     * @param e the exception
+     *
+     * @return the message of the exception
+     */
+    private static String getErrorMessage(Exception e) {
+        String message = e.getMessage();
+        if (message == null) {
+            message = e.toString();
+        }
+        return message.replace('\r', ' ').replace('\n', ' ');
+    }
+
+    /**
+     * Maps a peptide and writes the mappings.
+     *
+     * @param peptide the peptide
+     * @param writer the writer of the client
+     *
+     * @return the number of mappings
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * mapping the peptide
+     */
+    private int mapPeptide(String peptide, PrintWriter writer) throws Exception {
+        if (!Pattern.matches("[a-zA-Z]+", peptide)) {
+            throw new IllegalArgumentException("invalid peptide '" + peptide + "'");
+        }
+        ArrayList<PeptideProteinMapping> peptideProteinMappings = peptideMapper.getProteinMapping(peptide.toUpperCase(), sequenceMatchingPreferences);
+        for (PeptideProteinMapping peptideProteinMapping : peptideProteinMappings) {
+            writer.println(peptideProteinMapping.getPeptideSequence() + "," + peptideProteinMapping.getProteinAccession() + "," + peptideProteinMapping.getIndex());
+        }
+        return peptideProteinMappings.size();
+    }
+
+    /**
+     * Maps a tag and writes the mappings.
+     *
+     * @param tagComponents the comma separated components of the tag
+     * @param writer the writer of the client
+     *
+     * @return the number of mappings
+     *
+     * @throws Exception exception thrown whenever an error occurred while
+     * mapping the tag
+     */
+    private int mapTag(String tagComponents, PrintWriter writer) throws Exception {
+        Tag tag = new Tag();
+        for (String part : tagComponents.split(",")) {
+            if (Pattern.matches("[a-zA-Z]+", part)) {
+                tag.addAminoAcidSequence(new AminoAcidSequence(part));
+            } else {
+                try {
+                    tag.addMassGap(Double.parseDouble(part));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("no valid tag '" + tagComponents + "'");
+                }
+            }
+        }
+        StringBuilder tagPrefix = new StringBuilder();
+        for (TagComponent tagComponent : tag.getContent()) {
+            if (tagComponent instanceof MassGap) {
+                tagPrefix.append(tagComponent.getMass());
+            }
+            if (tagComponent instanceof AminoAcidSequence) {
+                tagPrefix.append(tagComponent.asSequence());
+            }
+            tagPrefix.append(",");
+        }
+        ArrayList<PeptideProteinMapping> peptideProteinMappings = peptideMapper.getProteinMapping(tag, tagMatcher, sequenceMatchingPreferences, massTolerance);
+        for (PeptideProteinMapping peptideProteinMapping : peptideProteinMappings) {
+            writer.println(tagPrefix + peptideProteinMapping.getPeptideSequence() + "," + peptideProteinMapping.getProteinAccession() + "," + peptideProteinMapping.getIndex());
+        }
+        return peptideProteinMappings.size();
+    }
+
+    /**
+     * Records the latency of a request.
+     *
+     * @param latency the latency in nanoseconds
+     */
+    private void recordLatency(long latency) {
+        totalLatency.addAndGet(latency);
+        long max = maxLatency.get();
+        while (latency > max && !maxLatency.compareAndSet(max, latency)) {
+            max = maxLatency.get();
+        }
+    }
+
+    /**
+     * Returns the counters of the server on a single line: connections,
+     * requests, errors, mappings, mean and maximal latency in microseconds
+     * and throughput in requests per second since the start.
+     *
+     * @return the counters of the server
+     */
+    public String getStatistics() {
+        long nRequests = nPeptideRequests.get() + nTagRequests.get() + nErrors.get();
+        double uptime = (System.nanoTime() - startTime) / 1e9;
+        double meanLatency = nRequests > 0 ? totalLatency.get() / 1e3 / nRequests : 0;
+        return "connections=" + nConnections.get()
+                + " peptides=" + nPeptideRequests.get()
+                + " tags=" + nTagRequests.get()
+                + " errors=" + nErrors.get()
+                + " mappings=" + nMappings.get()
+                + " mean_latency_us=" + String.format("%.1f", meanLatency)
+                + " max_latency_us=" + String.format("%.1f", maxLatency.get() / 1e3)
+                + " throughput_per_s=" + String.format("%.1f", nRequests / uptime);
+    }
+
+    /**
+     * Main class.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length < 1 || args[0].equals("-h") || args[0].equals("--help")) {
+            System.err.println("PeptideMappingServer: serves peptide and sequence tag mappings against a given proteome.");
+            System.err.println("usage: PeptideMappingServer input-fasta [port] [utilities-parameter-file] [max-clients]");
+            System.err.println();
+            System.err.println("Requests, one per line:");
+            System.err.println("\tpeptide SEQUENCE\tpeptide mapping");
+            System.err.println("\ttag COMPONENTS\t\tsequence tag mapping, comma separated components");
+            System.err.println("\tstats\t\t\tserver counters");
+            System.err.println("\tquit\t\t\tclose the connection");
+            System.err.println("Every request is answered by its mappings followed by 'done n' or by 'error message'.");
+            System.err.println();
+            System.err.println("Default parameters:");
+            System.err.println("\tport:\t\t\t\t" + DEFAULT_PORT + ", loopback interface only");
+            System.err.println("\tindexing method:\t\tfm-index");
+            System.err.println("\tfragmentation tolerance [Da]:\t0.02");
+            System.err.println("\tmax clients:\t\t\t" + DEFAULT_MAX_CLIENTS);
+            System.exit(-1);
+        }
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+        int maxClients = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_MAX_CLIENTS;
+
+        System.err.println("Start reading FASTA file");
+        WaitingHandlerCLIImpl waitingHandlerCLIImpl = new WaitingHandlerCLIImpl();
+        try {
+            SequenceFactory.getInstance().loadFastaFile(new File(args[0]), waitingHandlerCLIImpl);
+        } catch (Exception e) {
+            System.err.println("Error: could not open FASTA file");
+            System.exit(-1);
+        }
+
+        SearchParameters searchParameters = null;
+        PeptideVariantsPreferences peptideVariantsPreferences = PeptideVariantsPreferences.getNoVariantPreferences();
+        SequenceMatchingPreferences sequenceMatchingPreferences = null;
+        if (args.length > 2) {
+            try {
+                IdentificationParameters identificationParameters = IdentificationParameters.getIdentificationParameters(new File(args[2]));
+                sequenceMatchingPreferences = identificationParameters.getSequenceMatchingPreferences();
+                searchParameters = identificationParameters.getSearchParameters();
+            } catch (Exception e) {
+                System.err.println("Error: could not open / parse parameter file");
+                System.exit(-1);
+            }
+        } else {
+            searchParameters = new SearchParameters();
+            searchParameters.setPtmSettings(new PtmSettings());
+            searchParameters.setFragmentIonAccuracy(0.02);
+            searchParameters.setFragmentAccuracyType(SearchParameters.MassAccuracyType.DA);
+            sequenceMatchingPreferences = new SequenceMatchingPreferences();
+            sequenceMatchingPreferences.setSequenceMatchingType(SequenceMatchingPreferences.MatchingType.indistiguishableAminoAcids);
+            sequenceMatchingPreferences.setLimitX(0.25);
+        }
+
+        System.err.println("Start indexing proteome");
+        long startTimeIndex = System.nanoTime();
+        int nThreads = Math.max(Runtime.getRuntime().availableProcessors(), 1);
+        FMIndex fmIndex = new FMIndex(waitingHandlerCLIImpl, true, peptideVariantsPreferences, searchParameters, nThreads, sequenceMatchingPreferences.getFmIndexSamplingShift());
+        double diffTimeIndex = System.nanoTime() - startTimeIndex;
+        System.err.println();
+        System.err.println("Indexing took " + (diffTimeIndex / 1e9) + " seconds and consumes " + (((float) fmIndex.getAllocatedBytes()) / 1e6) + " MB");
+
+        final PeptideMappingServer server = new PeptideMappingServer(fmIndex, sequenceMatchingPreferences, searchParameters);
+        ServerSocket serverSocket = null;
+        try {
+            serverSocket = new ServerSocket(port, 50, InetAddress.getByName(null));
+        } catch (IOException e) {
+            System.err.println("Error: could not listen on port " + port);
+            System.exit(-1);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                System.err.println("Server statistics: " + server.getStatistics());
+            }
+        });
+        System.err.println("Listening on " + serverSocket.getInetAddress().getHostAddress() + ":" + port);
+        server.serve(serverSocket, maxClients);
+    }
+}
@@ -0,0 +1,120 @@
+package com.compomics.util.experiment.identification.protein_inference.executable;
+
+import com.compomics.util.experiment.biology.AminoAcid;
+import com.compomics.util.experiment.identification.protein_inference.fm_index.RankStructure;
+import com.compomics.util.experiment.identification.protein_inference.fm_index.RankType;
+import com.compomics.util.experiment.identification.protein_inference.fm_index.WaveletTree;
+import java.util.Random;
+
+/**
+ * Command line microbenchmark of the rank structures used by the wavelet
+ * trees of the FM index. The rank queries and the wavelet tree queries used
+ * by the backward search are run on a random protein like text. As the just
+ * in time compilation of the second rank type benchmarked in a virtual
+ * machine is biased by the first, rank types are best compared in separate
+ * runs.
+ *
+ * @author Dominik Kopczynski
+ */
+public class RankBenchmark {
+
+    /**
+     * The number of measured rounds per benchmark, preceded by as many warm
+     * up rounds.
+     */
+    private static final int ROUNDS = 5;
+
+    /**
+     * Main class.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length > 0 && (args[0].equals("-h") || args[0].equals("--help"))) {
+            System.err.println("RankBenchmark: compares the rank structures of the FM index wavelet trees.");
+            System.err.println("usage: RankBenchmark [text-length] [number-of-queries] [rank-type]");
+            System.err.println();
+            System.err.println("Rank types are:");
+            for (RankType rankType : RankType.values()) {
+                System.err.println("\t" + rankType.index + "\t" + rankType.description);
+            }
+            System.err.println();
+            System.err.println("Default parameters:");
+            System.err.println("\ttext length:\t\t100000000");
+            System.err.println("\tnumber of queries:\t10000000");
+            System.err.println("\trank type:\t\tall, one after the other");
+            System.exit(-1);
+        }
+        int textLength = args.length > 0 ? Integer.parseInt(args[0]) : 100000000;
+        int numQueries = args.length > 1 ? Integer.parseInt(args[1]) : 10000000;
+        RankType[] rankTypes = args.length > 2 ? new RankType[]{RankType.getRankType(Integer.parseInt(args[2]))} : RankType.values();
+
+        Random random = new Random(42);
+        char[] aminoAcids = AminoAcid.getAminoAcids();
+        long[] alphabet = new long[]{0, 0};
+        for (char aa : aminoAcids) {
+            alphabet[aa >> 6] |= 1L << (aa & 63);
+        }
+        alphabet['$' >> 6] |= 1L << ('$' & 63);
+        alphabet['/' >> 6] |= 1L << ('/' & 63);
+
+        byte[] text = new byte[textLength];
+        for (int i = 0; i < textLength - 1; ++i) {
+            text[i] = (byte) (random.nextInt(300) == 0 ? '/' : aminoAcids[random.nextInt(aminoAcids.length)]);
+        }
+        text[textLength - 1] = '$';
+
+        int[] indexes = new int[numQueries];
+        int[] characters = new int[numQueries];
+        for (int i = 0; i < numQueries; ++i) {
+            indexes[i] = random.nextInt(textLength);
+            characters[i] = aminoAcids[random.nextInt(aminoAcids.length)];
+        }
+
+        long[] bitAlphabet = new long[]{0, 0};
+        for (int i = 0; i < aminoAcids.length; i += 2) {
+            bitAlphabet[aminoAcids[i] >> 6] |= 1L << (aminoAcids[i] & 63);
+        }
+
+        for (RankType rankType : rankTypes) {
+            RankStructure rank = rankType.createRank(text, bitAlphabet);
+            long checksum = 0;
+            double nsPerQuery = Double.MAX_VALUE;
+            for (int round = 0; round < 2 * ROUNDS; ++round) {
+                long start = System.nanoTime();
+                for (int i = 0; i < numQueries; ++i) {
+                    checksum += rank.getRankOne(indexes[i]);
+                }
+                if (round >= ROUNDS) {
+                    nsPerQuery = Math.min(nsPerQuery, ((double) (System.nanoTime() - start)) / numQueries);
+                }
+            }
+            System.out.println(rankType + " rank:\tgetRankOne " + String.format("%.2f", nsPerQuery) + " ns/query, " + (rank.getAllocatedByteCount() >> 20) + " MB, checksum " + checksum);
+        }
+
+        for (RankType rankType : rankTypes) {
+            WaveletTree waveletTree = new WaveletTree(text, alphabet, null, aminoAcids.length + 1, false, rankType);
+            long checksum = 0;
+            double rankNsPerQuery = Double.MAX_VALUE;
+            double rangeNsPerQuery = Double.MAX_VALUE;
+            for (int round = 0; round < 2 * ROUNDS; ++round) {
+                long start = System.nanoTime();
+                for (int i = 0; i < numQueries; ++i) {
+                    checksum += waveletTree.getRank(indexes[i], characters[i]);
+                }
+                long middle = System.nanoTime();
+                for (int i = 0; i < numQueries; ++i) {
+                    int leftIndex = indexes[i];
+                    int rightIndex = Math.min(leftIndex + (i & 1023), textLength - 1);
+                    int[] range = waveletTree.singleRangeQuery(leftIndex - 1, rightIndex, characters[i]);
+                    checksum += range[1] - range[0];
+                }
+                if (round >= ROUNDS) {
+                    rankNsPerQuery = Math.min(rankNsPerQuery, ((double) (middle - start)) / numQueries);
+                    rangeNsPerQuery = Math.min(rangeNsPerQuery, ((double) (System.nanoTime() - middle)) / numQueries);
+                }
+            }
+            System.out.println(rankType + " wavelet tree:\tgetRank " + String.format("%.2f", rankNsPerQuery) + " ns/query, singleRangeQuery " + String.format("%.2f", rangeNsPerQuery) + " ns/query, " + (waveletTree.getAllocatedByteCount() >> 20) + " MB, checksum " + checksum);
+        }
+    }
+}
@@ -16,23 +16,40 @@ import com.compomics.util.experiment.identification.identification_parameters.Pt
 import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.VariantMatch;
+import com.compomics.util.experiment.identification.protein_inference.BatchMapping;
+import com.compomics.util.experiment.identification.protein_inference.MappingCacheStatistics;
 import com.compomics.util.experiment.identification.protein_inference.PeptideMapper;
 import com.compomics.util.experiment.identification.protein_inference.PeptideProteinMapping;
+import com.compomics.util.experiment.identification.protein_inference.ProteinMappingCallback;
 import com.compomics.util.preferences.PeptideVariantsPreferences;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.waiting.WaitingHandler;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.TreeSet;
-import org.jsuffixarrays.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
 
 /**
@@ -43,21 +60,64 @@ import java.util.concurrent.Semaphore;
  */
 public class FMIndex implements PeptideMapper {
     /**
-     * Semaphore for caching.
+     * Cache for the intermediate tag to proteome mapping results.
      */
-    static Semaphore cacheMutex = new Semaphore(1);
+    private final TagMappingCache tagMappingCache = new TagMappingCache(TagMappingCache.getDefaultMaxBytes());
+    /**
+     * The buffers used as pattern search matrix when mapping tags, one per
+     * thread.
+     */
+    private final ThreadLocal<MatrixContentBuffer> matrixContentBuffers = new ThreadLocal<MatrixContentBuffer>() {
+        @Override
+        protected MatrixContentBuffer initialValue() {
+            return new MatrixContentBuffer();
+        }
+    };
     /**
     * Number of chunks of complete index.
     **/
     private int indexParts = 0;
     /**
-     * Byte size of index chuck.
+     * The maximal number of residues of an index part including delimiters
+     * and sentinel. The text, suffix array and rank structures of a part are
+     * addressed with integers, larger databases are split in several parts.
+     * When the index is saved, every array of a part is mapped on its own
+     * when loading, a part can hence exceed 2 GB as long as each of its
+     * arrays does not, see MAX_SAMPLED_SUFFIX_ARRAY_LENGTH.
+     */
+    public static final int MAX_PART_LENGTH = Integer.MAX_VALUE - 16;
+    /**
+     * The maximal length of the sampled suffix array of a part, such that the
+     * array does not exceed the 2 GB limit of a mapping. This bounds the
+     * length of the parts when the suffix array is sampled densely. The bit
+     * vectors of the wavelet trees use less than a byte per residue and are
+     * always below this limit.
+     */
+    private static final int MAX_SAMPLED_SUFFIX_ARRAY_LENGTH = Integer.MAX_VALUE / 4;
+    /**
+     * The minimal number of residues an index part is allowed to hold before
+     * the database is split, whatever the memory available.
+     */
+    private static final long MIN_PART_LENGTH = 100 * 1024 * 1024;
+    /**
+     * Estimate of the number of bytes needed per residue while building an
+     * index part: text, suffix array, Burrows-Wheeler transform, sampled
+     * suffix array and the temporary arrays of the wavelet tree.
+     */
+    private static final long CONSTRUCTION_BYTES_PER_RESIDUE = 7;
+    /**
+     * The number of threads to use when building the index parts.
+     */
+    private int nThreads = 1;
+    /**
+     * The type of rank structure used by the wavelet trees, see RankBenchmark
+     * for a comparison of the types.
      */
-    private final int indexChunkSize = 100 * 1024 * 1024;
+    private final RankType rankType = RankType.separate;
     /**
      * Sampled suffix array.
      */
-    private final ArrayList<int[]> suffixArraysPrimary = new ArrayList<int[]>();
+    private final ArrayList<IntBuffer> suffixArraysPrimary = new ArrayList<IntBuffer>();
     /**
      * Wavelet tree for storing the burrows wheeler transform.
      */
@@ -79,17 +139,27 @@ public class FMIndex implements PeptideMapper {
      */
     public ArrayList<Integer> indexStringLengths = new ArrayList<Integer>();
     /**
-     * Every 2^samplingShift suffix array entry will be sampled.
+     * The default sampling shift, every eighth suffix array entry is sampled.
      */
-    private final int samplingShift = 3;
+    public static final int DEFAULT_SAMPLING_SHIFT = 3;
     /**
-     * Mask of fast modulo operations.
+     * The sampling shift of the dense mode where the full suffix array is
+     * kept, trading four bytes per residue for locating the hits without
+     * walking the Burrows-Wheeler transform.
+     */
+    public static final int DENSE_SAMPLING_SHIFT = 0;
+    /**
+     * The largest sampling shift allowed.
+     */
+    public static final int MAX_SAMPLING_SHIFT = 10;
+    /**
+     * Every 2^samplingShift suffix array entry will be sampled.
      */
-    private final int samplingMask = (1 << samplingShift) - 1;
+    private int samplingShift = DEFAULT_SAMPLING_SHIFT;
     /**
-     * Bit shifting for fast multiplying / dividing operations.
+     * Mask of fast modulo operations.
      */
-    private final int sampling = 1 << samplingShift;
+    private int samplingMask = (1 << samplingShift) - 1;
     /**
      * Storing the starting positions of the protein sequences.
      */
@@ -365,7 +435,7 @@ public class FMIndex implements PeptideMapper {
     public long getAllocatedBytes() {
         long bytes = 0;
         for (int indexPart = 0; indexPart < indexParts; ++indexPart){
-            bytes += occurrenceTablesPrimary.get(indexPart).getAllocatedBytes() + occurrenceTablesReversed.get(indexPart).getAllocatedBytes() + suffixArraysPrimary.get(indexPart).length * 4;
+            bytes += occurrenceTablesPrimary.get(indexPart).getAllocatedByteCount() + occurrenceTablesReversed.get(indexPart).getAllocatedByteCount() + suffixArraysPrimary.get(indexPart).capacity() * 4L;
         }
         return bytes;
     }
@@ -381,6 +451,41 @@ public class FMIndex implements PeptideMapper {
      * @param searchParameters the search parameters
      */
     public FMIndex(WaitingHandler waitingHandler, boolean displayProgress, PeptideVariantsPreferences peptideVariantsPreferences, SearchParameters searchParameters) {
+        this(waitingHandler, displayProgress, peptideVariantsPreferences, searchParameters, 1);
+    }
+
+    /**
+     * Constructor. If PTM settings are provided the index will contain
+     * modification information, ignored if null. The index parts are built in
+     * parallel using the given number of threads.
+     *
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if true, the progress is displayed
+     * @param peptideVariantsPreferences contains all parameters for variants
+     * @param searchParameters the search parameters
+     * @param nThreads the number of threads to use when building the index
+     */
+    public FMIndex(WaitingHandler waitingHandler, boolean displayProgress, PeptideVariantsPreferences peptideVariantsPreferences, SearchParameters searchParameters, int nThreads) {
+        this(waitingHandler, displayProgress, peptideVariantsPreferences, searchParameters, nThreads, DEFAULT_SAMPLING_SHIFT);
+    }
+
+    /**
+     * Constructor. If PTM settings are provided the index will contain
+     * modification information, ignored if null. The index parts are built in
+     * parallel using the given number of threads, and every 2^samplingShift
+     * suffix array entry is sampled. Lower shifts locate the hits faster at
+     * the cost of memory, see DENSE_SAMPLING_SHIFT.
+     *
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if true, the progress is displayed
+     * @param peptideVariantsPreferences contains all parameters for variants
+     * @param searchParameters the search parameters
+     * @param nThreads the number of threads to use when building the index
+     * @param samplingShift the sampling shift of the suffix array
+     */
+    public FMIndex(WaitingHandler waitingHandler, boolean displayProgress, PeptideVariantsPreferences peptideVariantsPreferences, SearchParameters searchParameters, int nThreads, int samplingShift) {
+        this.nThreads = Math.max(nThreads, 1);
+        setSamplingShift(samplingShift);
         massTolerance = searchParameters.getFragmentIonAccuracy();
         massAccuracyType = searchParameters.getFragmentAccuracyType();
         init(waitingHandler, displayProgress, searchParameters.getPtmSettings(), peptideVariantsPreferences);
@@ -396,9 +501,81 @@ public class FMIndex implements PeptideMapper {
      * @param peptideVariantsPreferences contains all parameters for variants
      */
     public FMIndex(WaitingHandler waitingHandler, boolean displayProgress, PtmSettings ptmSettings, PeptideVariantsPreferences peptideVariantsPreferences) {
+        this(waitingHandler, displayProgress, ptmSettings, peptideVariantsPreferences, 1);
+    }
+
+    /**
+     * Constructor. If PTM settings are provided the index will contain
+     * modification information, ignored if null. The index parts are built in
+     * parallel using the given number of threads.
+     *
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if true, the progress is displayed
+     * @param ptmSettings contains modification parameters for identification
+     * @param peptideVariantsPreferences contains all parameters for variants
+     * @param nThreads the number of threads to use when building the index
+     */
+    public FMIndex(WaitingHandler waitingHandler, boolean displayProgress, PtmSettings ptmSettings, PeptideVariantsPreferences peptideVariantsPreferences, int nThreads) {
+        this(waitingHandler, displayProgress, ptmSettings, peptideVariantsPreferences, nThreads, DEFAULT_SAMPLING_SHIFT);
+    }
+
+    /**
+     * Constructor. If PTM settings are provided the index will contain
+     * modification information, ignored if null. The index parts are built in
+     * parallel using the given number of threads, and every 2^samplingShift
+     * suffix array entry is sampled. Lower shifts locate the hits faster at
+     * the cost of memory, see DENSE_SAMPLING_SHIFT.
+     *
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if true, the progress is displayed
+     * @param ptmSettings contains modification parameters for identification
+     * @param peptideVariantsPreferences contains all parameters for variants
+     * @param nThreads the number of threads to use when building the index
+     * @param samplingShift the sampling shift of the suffix array
+     */
+    public FMIndex(WaitingHandler waitingHandler, boolean displayProgress, PtmSettings ptmSettings, PeptideVariantsPreferences peptideVariantsPreferences, int nThreads, int samplingShift) {
+        this.nThreads = Math.max(nThreads, 1);
+        setSamplingShift(samplingShift);
         init(waitingHandler, displayProgress, ptmSettings, peptideVariantsPreferences);
     }
         
+    /**
+     * Sets the sampling shift, only called by the constructors before the
+     * index is built or loaded.
+     *
+     * @param samplingShift the sampling shift
+     */
+    private void setSamplingShift(int samplingShift) {
+        if (samplingShift < DENSE_SAMPLING_SHIFT || samplingShift > MAX_SAMPLING_SHIFT) {
+            throw new IllegalArgumentException("Suffix array sampling shift " + samplingShift + " out of range [" + DENSE_SAMPLING_SHIFT + "-" + MAX_SAMPLING_SHIFT + "].");
+        }
+        this.samplingShift = samplingShift;
+        this.samplingMask = (1 << samplingShift) - 1;
+    }
+
+    /**
+     * Returns the sampling shift, every 2^samplingShift suffix array entry is
+     * sampled.
+     *
+     * @return the sampling shift
+     */
+    public int getSamplingShift() {
+        return samplingShift;
+    }
+
+    /**
+     * Returns the number of bytes allocated for the sampled suffix arrays.
+     *
+     * @return the number of bytes allocated for the sampled suffix arrays
+     */
+    public long getSampledSuffixArrayBytes() {
+        long bytes = 0;
+        for (int indexPart = 0; indexPart < indexParts; ++indexPart) {
+            bytes += suffixArraysPrimary.get(indexPart).capacity() * 4L;
+        }
+        return bytes;
+    }
+
     /**
      * init function only called by the constructors. If PTM settings are provided the index will contain
      * modification information, ignored if null.
@@ -830,53 +1007,45 @@ public class FMIndex implements PeptideMapper {
             alphabet[sortedAas[i] >> 6] |= 1L << (sortedAas[i] & 63);
         }
 
-        // reading all proteins in a first pass to get information about number and total length
-        ArrayList<Integer> tmpLengths = new ArrayList<Integer>();
-        ArrayList<Integer> tmpProteins = new ArrayList<Integer>();
-        long ticker = indexChunkSize;
-        try {
-            int indexStringLength = 1;
-            int numProteins = 0;
-            ProteinIterator pi = sf.getProteinIterator(false);
-            while (pi.hasNext()) {
-                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                    return;
-                }
-                Protein currentProtein = pi.getNextProtein();
-                int proteinLen = currentProtein.getLength();
-                indexStringLength += proteinLen;
-                ++numProteins;
-                if (indexStringLength > ticker){
-                    tmpLengths.add(indexStringLength);
-                    tmpProteins.add(numProteins);
-                    indexStringLength = 1;
-                    numProteins = 0;
+        // try to load a previously persisted index before building it from the FASTA file
+        File fastaFile = sf.getCurrentFastaFile();
+        String indexKey = getIndexKey(ptmSettings, peptideVariantsPreferences);
+        boolean indexLoaded = false;
+        if (fastaFile != null) {
+            File indexFile = FMIndexFile.getIndexFile(fastaFile);
+            if (indexFile.exists()) {
+                try {
+                    indexLoaded = readIndex(indexFile, fastaFile.lastModified(), indexKey);
+                } catch (Exception e) {
+                    System.err.println("Reindexing: " + fastaFile.getName() + ". (Reason: " + e.getLocalizedMessage() + ")");
+                    clearIndex();
                 }
             }
-            tmpLengths.add(indexStringLength);
-            tmpProteins.add(numProteins);
-        } catch (Exception e) {
-            System.out.println(e.getMessage());
-            e.printStackTrace();
         }
-        
-        int maxProgressBar = 10 * tmpLengths.size();
 
-        if (waitingHandler != null && displayProgress && !waitingHandler.isRunCanceled()) {
-            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
-            waitingHandler.setMaxSecondaryProgressCounter(maxProgressBar);
-            waitingHandler.setSecondaryProgressCounter(0);
-        }
-        
-        try {
-            ProteinIterator pi = sf.getProteinIterator(false);
-            for (int i = 0; i < tmpLengths.size(); ++i){
-                addDataToIndex(pi, tmpLengths.get(i), tmpProteins.get(i), alphabet, waitingHandler, displayProgress);
+        if (!indexLoaded) {
+            try {
+                buildIndex(sf, alphabet, waitingHandler, displayProgress);
+            } catch (IOException e) {
+                clearIndex();
+                throw new IllegalStateException("Could not build the FM index. (Reason: " + e.getLocalizedMessage() + ")", e);
+            } catch (InterruptedException e) {
+                clearIndex();
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("FM index building interrupted.", e);
+            }
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return;
+            }
+            if (fastaFile != null) {
+                try {
+                    writeIndex(FMIndexFile.getIndexFile(fastaFile), fastaFile.lastModified(), indexKey);
+                } catch (Exception e) {
+                    System.err.println("Could not write the FM index to disk. (Reason: " + e.getLocalizedMessage() + ")");
+                }
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
-        
+
         int lookupLength = ((int) ((lookupMaxMass + computeInverseMassValue(massTolerance, lookupMaxMass)) * lookupMultiplier));
         lookupMasses = new long[(lookupLength >>> 6) + 3];
         for (int i = 0; i < lookupMasses.length; ++i) {
@@ -899,17 +1068,403 @@ public class FMIndex implements PeptideMapper {
                return (int)((m1.mass - m2.mass) * 1000000.);
            } 
         });
-        cache = (HashMap<String, CacheElement>[])new HashMap[indexParts];
-        for (int indexPart = 0; indexPart < indexParts; ++indexPart) cache[indexPart] = new HashMap<String, CacheElement>();
     }
     
     
     
     
-    void addDataToIndex(ProteinIterator pi, int indexStringLength, int numProteins, long[] alphabet, WaitingHandler waitingHandler, boolean displayProgress){
-        indexParts += 1;
+    /**
+     * Builds the index parts from the proteins of the sequence factory.
+     *
+     * @param sf the sequence factory
+     * @param alphabet the alphabet
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if true, the progress is displayed
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the database or if a part could not be built
+     * @throws InterruptedException exception thrown whenever the thread was
+     * interrupted while waiting for the parts
+     */
+    private void buildIndex(SequenceFactory sf, long[] alphabet, WaitingHandler waitingHandler, boolean displayProgress) throws IOException, InterruptedException {
+        // reading all proteins in a first pass to get information about number and total length
+        ArrayList<Integer> tmpLengths = new ArrayList<Integer>();
+        ArrayList<Integer> tmpProteins = new ArrayList<Integer>();
+        long maxPartLength = getMaxPartLength();
+        long indexStringLength = 1;
+        int numProteins = 0;
+        ProteinIterator pi = sf.getProteinIterator(false);
+        while (pi.hasNext()) {
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return;
+            }
+            Protein currentProtein = pi.getNextProtein();
+            int proteinLen = currentProtein.getLength();
+            // the part length includes one delimiter per protein and the sentinel
+            if (numProteins > 0 && indexStringLength + proteinLen + numProteins + 2 > maxPartLength) {
+                tmpLengths.add((int) indexStringLength);
+                tmpProteins.add(numProteins);
+                indexStringLength = 1;
+                numProteins = 0;
+            }
+            indexStringLength += proteinLen;
+            ++numProteins;
+        }
+        tmpLengths.add((int) indexStringLength);
+        tmpProteins.add(numProteins);
+        
+        int maxProgressBar = 10 * tmpLengths.size();
+
+        if (waitingHandler != null && displayProgress && !waitingHandler.isRunCanceled()) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(maxProgressBar);
+            waitingHandler.setSecondaryProgressCounter(0);
+        }
+        
+        // reading the proteins in a second pass, the sequences are read by this thread only while the parts are indexed in parallel
+        int nParallelParts = getNParallelParts(tmpLengths, tmpProteins);
+        Semaphore partsMutex = new Semaphore(nParallelParts);
+        ArrayList<IndexPartBuilder> partBuilders = new ArrayList<IndexPartBuilder>(tmpLengths.size());
+        ArrayList<Future<?>> futures = new ArrayList<Future<?>>(tmpLengths.size());
+        ExecutorService pool = Executors.newFixedThreadPool(nParallelParts);
+        try {
+            pi = sf.getProteinIterator(false);
+            for (int i = 0; i < tmpLengths.size(); ++i) {
+                partsMutex.acquire();
+                IndexPartBuilder partBuilder = readIndexPart(pi, tmpLengths.get(i), tmpProteins.get(i), alphabet, waitingHandler, displayProgress, partsMutex);
+                if (partBuilder == null) {
+                    break;
+                }
+                partBuilders.add(partBuilder);
+                futures.add(pool.submit(partBuilder));
+            }
+            for (Future<?> future : futures) {
+                getPart(future);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            return;
+        }
+
+        // adding the parts in the order of the database
+        for (int i = 0; i < tmpLengths.size(); ++i) {
+            if (i >= partBuilders.size() || !partBuilders.get(i).isFinished()) {
+                throw new IOException("FM index part " + i + " could not be built.");
+            }
+        }
+        for (IndexPartBuilder partBuilder : partBuilders) {
+            indexStringLengths.add(partBuilder.indexStringLength);
+            boundaries.add(partBuilder.boundaries);
+            accessions.add(partBuilder.accessions);
+            suffixArraysPrimary.add(IntBuffer.wrap(partBuilder.sampledSuffixArray));
+            occurrenceTablesPrimary.add(partBuilder.occurrenceTablePrimary);
+            occurrenceTablesReversed.add(partBuilder.occurrenceTableReversed);
+            lessTablesPrimary.add(partBuilder.lessTablePrimary);
+            lessTablesReversed.add(partBuilder.lessTableReversed);
+            indexParts += 1;
+        }
+        if (!boundaries.isEmpty()) {
+            boundaries.get(0)[0] = 1;
+        }
+    }
+
+    /**
+     * Waits for an index part to be built and rethrows the error which
+     * occurred while building it, if any.
+     *
+     * @param future the future of the part builder
+     *
+     * @throws IOException exception wrapping the error which occurred while
+     * building the part
+     * @throws InterruptedException exception thrown whenever the thread was
+     * interrupted while waiting for the part
+     */
+    private static void getPart(Future<?> future) throws IOException, InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IOException("An error occurred while building an FM index part.", e);
+        }
+    }
+
+    /**
+     * Returns the maximal number of residues of an index part: as large as
+     * the memory available allows for building one part per thread at the
+     * same time, so that the database is split in as few parts as possible
+     * while the parts of large databases are still built in parallel. The
+     * sampled suffix array of a part must also fit in a single mapping when
+     * the index is loaded.
+     *
+     * @return the maximal number of residues of an index part
+     */
+    private long getMaxPartLength() {
+        Runtime runtime = Runtime.getRuntime();
+        long availableMemory = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        long maxPartLength = availableMemory / (CONSTRUCTION_BYTES_PER_RESIDUE * nThreads);
+        long maxMappedPartLength = ((long) MAX_SAMPLED_SUFFIX_ARRAY_LENGTH - 2) << samplingShift;
+        return Math.min(Math.min(Math.max(maxPartLength, MIN_PART_LENGTH), MAX_PART_LENGTH), maxMappedPartLength);
+    }
+
+    /**
+     * Returns the number of index parts which can be built in parallel given
+     * the number of threads and the memory available.
+     *
+     * @param partLengths the number of residues of every part
+     * @param partProteins the number of proteins of every part
+     *
+     * @return the number of index parts to build in parallel
+     */
+    private int getNParallelParts(ArrayList<Integer> partLengths, ArrayList<Integer> partProteins) {
+        long maxPartLength = 1;
+        for (int i = 0; i < partLengths.size(); ++i) {
+            maxPartLength = Math.max(maxPartLength, partLengths.get(i) + partProteins.get(i) + 1);
+        }
+        Runtime runtime = Runtime.getRuntime();
+        long availableMemory = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        long memoryLimit = availableMemory / (CONSTRUCTION_BYTES_PER_RESIDUE * maxPartLength);
+        long nParallelParts = Math.min(Math.min(nThreads, partLengths.size()), memoryLimit);
+        return (int) Math.max(nParallelParts, 1);
+    }
+
+    /**
+     * Returns the key of the settings the index was built with. An index
+     * stored on disk is only reused if its key matches.
+     *
+     * @param ptmSettings the PTM settings, can be null
+     * @param peptideVariantsPreferences the variants preferences
+     *
+     * @return the key of the index settings
+     */
+    private String getIndexKey(PtmSettings ptmSettings, PeptideVariantsPreferences peptideVariantsPreferences) {
+        StringBuilder key = new StringBuilder();
+        key.append(samplingShift).append('|');
+        key.append(numMasses).append('|').append(hasPTMatTerminus).append('|');
+        if (ptmSettings != null) {
+            ArrayList<String> fixedModifications = new ArrayList<String>(ptmSettings.getFixedModifications());
+            Collections.sort(fixedModifications);
+            ArrayList<String> variableModifications = new ArrayList<String>(ptmSettings.getVariableModifications());
+            Collections.sort(variableModifications);
+            key.append(fixedModifications).append('|').append(variableModifications).append('|');
+        }
+        key.append(peptideVariantsPreferences.getnVariants()).append('|');
+        key.append(peptideVariantsPreferences.getUseSpecificCount()).append('|');
+        key.append(peptideVariantsPreferences.getnAaDeletions()).append('|');
+        key.append(peptideVariantsPreferences.getnAaInsertions()).append('|');
+        key.append(peptideVariantsPreferences.getnAaSubstitutions()).append('|');
+        key.append(peptideVariantsPreferences.getAaSubstitutionMatrix().getName());
+        return key.toString();
+    }
+
+    /**
+     * Removes all index parts.
+     */
+    private void clearIndex() {
+        indexParts = 0;
+        indexStringLengths.clear();
+        suffixArraysPrimary.clear();
+        boundaries.clear();
+        accessions.clear();
+        lessTablesPrimary.clear();
+        lessTablesReversed.clear();
+        occurrenceTablesPrimary.clear();
+        occurrenceTablesReversed.clear();
+    }
+
+    /**
+     * Writes the index parts to a file. The file is first written to a
+     * temporary file created in the same directory and moved to the index
+     * file when complete, see moveIndexFile, so that concurrent readers never
+     * see a partial index.
+     *
+     * @param indexFile the index file
+     * @param fastaLastModified the last modification time of the FASTA file
+     * @param indexKey the key of the index settings
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void writeIndex(File indexFile, long fastaLastModified, String indexKey) throws IOException {
+        File tempFile = File.createTempFile(indexFile.getName() + ".", ".tmp", indexFile.getAbsoluteFile().getParentFile());
+        try {
+            FileOutputStream fos = new FileOutputStream(tempFile);
+            try {
+                FileChannel channel = fos.getChannel();
+                DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos));
+                try {
+                    dos.writeInt(FMIndexFile.MAGIC_NUMBER);
+                    dos.writeInt(FMIndexFile.FORMAT_VERSION);
+                    dos.writeBoolean(FMIndexFile.ARRAY_BYTE_ORDER == ByteOrder.BIG_ENDIAN);
+                    dos.writeLong(fastaLastModified);
+                    FMIndexFile.writeString(dos, indexKey);
+                    dos.writeInt(indexParts);
+                    dos.flush();
+                    long tableOffset = channel.position();
+                    for (int indexPart = 0; indexPart < indexParts; ++indexPart) {
+                        dos.writeLong(0);
+                        dos.writeLong(0);
+                    }
+                    dos.flush();
+
+                    long[] partOffsets = new long[indexParts];
+                    long[] partLengths = new long[indexParts];
+                    for (int indexPart = 0; indexPart < indexParts; ++indexPart) {
+                        partOffsets[indexPart] = channel.position();
+                        dos.writeInt(indexStringLengths.get(indexPart));
+                        FMIndexFile.writeIntArray(dos, suffixArraysPrimary.get(indexPart));
+                        FMIndexFile.writeIntArray(dos, boundaries.get(indexPart));
+                        String[] partAccessions = accessions.get(indexPart);
+                        dos.writeInt(partAccessions.length);
+                        for (String accession : partAccessions) {
+                            FMIndexFile.writeString(dos, accession);
+                        }
+                        FMIndexFile.writeIntArray(dos, lessTablesPrimary.get(indexPart));
+                        FMIndexFile.writeIntArray(dos, lessTablesReversed.get(indexPart));
+                        occurrenceTablesPrimary.get(indexPart).write(dos);
+                        occurrenceTablesReversed.get(indexPart).write(dos);
+                        dos.flush();
+                        partLengths[indexPart] = channel.position() - partOffsets[indexPart];
+                    }
+
+                    ByteBuffer table = ByteBuffer.allocate(indexParts << 4);
+                    for (int indexPart = 0; indexPart < indexParts; ++indexPart) {
+                        table.putLong(partOffsets[indexPart]);
+                        table.putLong(partLengths[indexPart]);
+                    }
+                    table.flip();
+                    channel.write(table, tableOffset);
+                } finally {
+                    dos.close();
+                }
+            } finally {
+                fos.close();
+            }
+            moveIndexFile(tempFile, indexFile);
+        } finally {
+            if (tempFile.exists()) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Moves a completely written temporary index file to the index file. The
+     * temporary file is renamed over the index file, which atomically
+     * replaces an existing index on POSIX file systems. Where a rename cannot
+     * replace an existing file, e.g. on Windows, the existing index is
+     * deleted first, concurrent readers may then find no index in between and
+     * build their own.
+     *
+     * @param tempFile the temporary file, in the directory of the index file
+     * @param indexFile the index file
+     *
+     * @throws IOException exception thrown whenever the file could not be
+     * moved
+     */
+    private static void moveIndexFile(File tempFile, File indexFile) throws IOException {
+        if (tempFile.renameTo(indexFile)) {
+            return;
+        }
+        if (indexFile.exists() && !indexFile.delete()) {
+            throw new IOException("Could not replace " + indexFile.getAbsolutePath() + ".");
+        }
+        if (!tempFile.renameTo(indexFile)) {
+            throw new IOException("Could not rename " + tempFile.getAbsolutePath() + " to " + indexFile.getAbsolutePath() + ".");
+        }
+    }
+
+    /**
+     * Loads the index parts from a file written by writeIndex. The suffix
+     * arrays are memory mapped and not copied on the heap, the pages of the
+     * file are hence shared by all processes using the same index. Every
+     * suffix array is mapped on its own, the parts can thus be larger than
+     * the 2 GB limit of a mapping. The wavelet trees are accessed at every
+     * step of the backward search and are read on the heap like the
+     * boundaries, accessions and less tables.
+     *
+     * @param indexFile the index file
+     * @param fastaLastModified the last modification time of the FASTA file
+     * @param indexKey the key of the index settings
+     *
+     * @return true if the index was loaded, false if the file is outdated, was
+     * built with other settings or stores the arrays in another byte order
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private boolean readIndex(File indexFile, long fastaLastModified, String indexKey) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (raf.readInt() != FMIndexFile.MAGIC_NUMBER || raf.readInt() != FMIndexFile.FORMAT_VERSION
+                    || raf.readBoolean() != (FMIndexFile.ARRAY_BYTE_ORDER == ByteOrder.BIG_ENDIAN) || raf.readLong() != fastaLastModified) {
+                return false;
+            }
+            byte[] keyBytes = new byte[raf.readInt()];
+            raf.readFully(keyBytes);
+            if (!indexKey.equals(new String(keyBytes, "UTF-8"))) {
+                return false;
+            }
+            int numParts = raf.readInt();
+            long[] partOffsets = new long[numParts];
+            long[] partLengths = new long[numParts];
+            for (int indexPart = 0; indexPart < numParts; ++indexPart) {
+                partOffsets[indexPart] = raf.readLong();
+                partLengths[indexPart] = raf.readLong();
+            }
+
+            FMIndexFileReader reader = new FMIndexFileReader(channel, 0);
+            for (int indexPart = 0; indexPart < numParts; ++indexPart) {
+                reader.setPosition(partOffsets[indexPart]);
+                indexStringLengths.add(reader.getInt());
+                suffixArraysPrimary.add(reader.mapIntArray());
+                boundaries.add(reader.readIntArray());
+                String[] partAccessions = new String[reader.getInt()];
+                for (int i = 0; i < partAccessions.length; ++i) {
+                    partAccessions[i] = reader.readString();
+                }
+                accessions.add(partAccessions);
+                lessTablesPrimary.add(reader.readIntArray());
+                lessTablesReversed.add(reader.readIntArray());
+                occurrenceTablesPrimary.add(new WaveletTree(reader));
+                occurrenceTablesReversed.add(new WaveletTree(reader));
+                if (reader.getPosition() != partOffsets[indexPart] + partLengths[indexPart]) {
+                    throw new IOException("Corrupted index part " + indexPart + " in " + indexFile.getAbsolutePath() + ".");
+                }
+            }
+            indexParts = numParts;
+        } finally {
+            raf.close();
+        }
+        return true;
+    }
+    
+
+    /**
+     * Reads the proteins of the next index part, returns a builder for the
+     * part or null if the process was canceled.
+     *
+     * @param pi the protein iterator
+     * @param indexStringLength the number of residues of the part
+     * @param numProteins the number of proteins of the part
+     * @param alphabet the alphabet
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if true, the progress is displayed
+     * @param partsMutex the semaphore to release once the part is built
+     *
+     * @return a builder for the index part
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the database
+     * @throws InterruptedException exception thrown whenever the thread was
+     * interrupted while reading the database
+     */
+    private IndexPartBuilder readIndexPart(ProteinIterator pi, int indexStringLength, int numProteins, long[] alphabet, WaitingHandler waitingHandler, boolean displayProgress, Semaphore partsMutex) throws IOException, InterruptedException {
         indexStringLength += numProteins + 1; // delimiters between protein sequences + sentinal
-        indexStringLengths.add(indexStringLength);
         
         if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
             waitingHandler.increaseSecondaryProgressCounter();
@@ -921,120 +1476,211 @@ public class FMIndex implements PeptideMapper {
 
 
         int[] bndaries = new int[numProteins + 1];
-        boundaries.add(bndaries);
         String[] accssions = new String[numProteins];
-        accessions.add(accssions);
-        boundaries.get(0)[0] = 1;
 
         // reading proteins in a second pass to store their amino acid sequences and their accession numbers
         int tmpN = 0;
         int tmpNumProtein = 0;
-        try {
-            
-            for (int i = 0; i < numProteins; ++i){
-                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                    return;
-                }
-                if (!pi.hasNext()) throw new Exception("More sequences from database requested than contained.");
-                Protein currentProtein = pi.getNextProtein();
-                int proteinLen = currentProtein.getLength();
-                T[tmpN++] = '/'; // adding the delimiters
-                System.arraycopy(currentProtein.getSequence().toUpperCase().getBytes(), 0, T, tmpN, proteinLen);
-                tmpN += proteinLen;
-                accssions[tmpNumProtein++] = currentProtein.getAccession();
-                bndaries[tmpNumProtein] = tmpN + 1;
-
+        for (int i = 0; i < numProteins; ++i){
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return null;
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            if (!pi.hasNext()) throw new IOException("More sequences from database requested than contained.");
+            Protein currentProtein = pi.getNextProtein();
+            int proteinLen = currentProtein.getLength();
+            T[tmpN++] = '/'; // adding the delimiters
+            System.arraycopy(currentProtein.getSequence().toUpperCase().getBytes(), 0, T, tmpN, proteinLen);
+            tmpN += proteinLen;
+            accssions[tmpNumProtein++] = currentProtein.getAccession();
+            bndaries[tmpNumProtein] = tmpN + 1;
         }
         if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
             waitingHandler.increaseSecondaryProgressCounter();
         }
+        return new IndexPartBuilder(T, bndaries, accssions, alphabet, waitingHandler, displayProgress, partsMutex);
+    }
 
-        int[] T_int = new int[indexStringLength];
-        for (int i = 0; i < indexStringLength; ++i) {
-            T_int[i] = T[i];
-        }
-        int[] suffixArrayPrimary = (new DivSufSort()).buildSuffixArray(T_int, 0, indexStringLength);
+    /**
+     * Runnable building the suffix array, wavelet trees and less tables of an
+     * index part from its text.
+     */
+    private class IndexPartBuilder implements Runnable {
 
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
-        }
-        T_int = null;
+        /**
+         * The text of the part, released once the part is built.
+         */
+        private byte[] T;
+        /**
+         * The length of the text.
+         */
+        private final int indexStringLength;
+        /**
+         * The start positions of the proteins in the text.
+         */
+        private final int[] boundaries;
+        /**
+         * The accessions of the proteins.
+         */
+        private final String[] accessions;
+        /**
+         * The alphabet.
+         */
+        private final long[] alphabet;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * If true, the progress is displayed.
+         */
+        private final boolean displayProgress;
+        /**
+         * Semaphore released once the part is built.
+         */
+        private final Semaphore partsMutex;
+        /**
+         * Boolean indicating whether the part was built.
+         */
+        private boolean finished = false;
+        /**
+         * The sampled suffix array.
+         */
+        private int[] sampledSuffixArray;
+        /**
+         * The occurrence table of the text.
+         */
+        private WaveletTree occurrenceTablePrimary;
+        /**
+         * The occurrence table of the reversed text.
+         */
+        private WaveletTree occurrenceTableReversed;
+        /**
+         * The less table of the text.
+         */
+        private int[] lessTablePrimary;
+        /**
+         * The less table of the reversed text.
+         */
+        private int[] lessTableReversed;
 
-        // create Burrows-Wheeler-Transform
-        byte[] bwt = new byte[indexStringLength];
-        for (int i = 0; i < indexStringLength; ++i) {
-            bwt[i] = (suffixArrayPrimary[i] != 0) ? T[suffixArrayPrimary[i] - 1] : T[indexStringLength - 1];
+        /**
+         * Constructor.
+         *
+         * @param T the text of the part
+         * @param boundaries the start positions of the proteins in the text
+         * @param accessions the accessions of the proteins
+         * @param alphabet the alphabet
+         * @param waitingHandler the waiting handler
+         * @param displayProgress if true, the progress is displayed
+         * @param partsMutex semaphore released once the part is built
+         */
+        public IndexPartBuilder(byte[] T, int[] boundaries, String[] accessions, long[] alphabet, WaitingHandler waitingHandler, boolean displayProgress, Semaphore partsMutex) {
+            this.T = T;
+            this.indexStringLength = T.length;
+            this.boundaries = boundaries;
+            this.accessions = accessions;
+            this.alphabet = alphabet;
+            this.waitingHandler = waitingHandler;
+            this.displayProgress = displayProgress;
+            this.partsMutex = partsMutex;
         }
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
+
+        @Override
+        public void run() {
+            try {
+                buildPart();
+            } finally {
+                T = null;
+                partsMutex.release();
+            }
         }
 
-        // sampling suffix array
-        int[] sampledSuffixArray = new int[((indexStringLength + 1) >> samplingShift) + 1];
-        int sampledIndex = 0;
-        for (int i = 0; i < indexStringLength; i += sampling) {
+        /**
+         * Builds the part.
+         */
+        private void buildPart() {
+            int[] suffixArrayPrimary = SuffixArrayBuilder.buildSuffixArray(T);
+
+            if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
+                waitingHandler.increaseSecondaryProgressCounter();
+            }
+
+            // create Burrows-Wheeler-Transform and sample the suffix array in the same pass
+            byte[] bwt = new byte[indexStringLength];
+            sampledSuffixArray = new int[(int) (((long) indexStringLength + 1) >> samplingShift) + 1];
+            for (int i = 0; i < indexStringLength; ++i) {
+                int suffix = suffixArrayPrimary[i];
+                bwt[i] = (suffix != 0) ? T[suffix - 1] : T[indexStringLength - 1];
+                if ((i & samplingMask) == 0) {
+                    sampledSuffixArray[i >> samplingShift] = suffix;
+                }
+            }
+            suffixArrayPrimary = null;
+            if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
+                waitingHandler.increaseSecondaryProgressCounter();
+            }
             if (waitingHandler != null && waitingHandler.isRunCanceled()) {
                 return;
             }
-            sampledSuffixArray[sampledIndex++] = suffixArrayPrimary[i];
-        }
-        suffixArraysPrimary.add(sampledSuffixArray);
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
-        }
-        
+            if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
+                waitingHandler.increaseSecondaryProgressCounter();
+            }
 
-        // creating the occurrence table and less table for backward search over forward text
-        WaveletTree occurrenceTablePrimary = new WaveletTree(bwt, alphabet, waitingHandler, numMasses, hasPTMatTerminus);
-        int[] lessTablePrimary = occurrenceTablePrimary.createLessTable();
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
-        }
+            // creating the occurrence table and less table for backward search over forward text
+            occurrenceTablePrimary = new WaveletTree(bwt, alphabet, waitingHandler, numMasses, hasPTMatTerminus, rankType);
+            lessTablePrimary = occurrenceTablePrimary.createLessTable();
+            if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
+                waitingHandler.increaseSecondaryProgressCounter();
+            }
 
-        bwt = null;
-        // create inversed text for inversed index
-        byte[] TReversed = new byte[indexStringLength];
-        for (int i = 0; i < indexStringLength - 1; ++i) {
-            TReversed[indexStringLength - 2 - i] = T[i];
-        }
-        TReversed[indexStringLength - 1] = '$';
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
-        }
+            bwt = null;
+            // create inversed text for inversed index, reversing the text in place but the sentinel
+            for (int i = 0, k = indexStringLength - 2; i < k; ++i, --k) {
+                byte tmp = T[i];
+                T[i] = T[k];
+                T[k] = tmp;
+            }
+            byte[] TReversed = T;
+            T = null;
+            if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
+                waitingHandler.increaseSecondaryProgressCounter();
+            }
 
-        // create the inversed suffix array using at most 128 characters
-        T_int = new int[indexStringLength];
-        for (int i = 0; i < indexStringLength; ++i) {
-            T_int[i] = TReversed[i];
-        }
-        int[] suffixArrayReversed = (new DivSufSort()).buildSuffixArray(T_int, 0, indexStringLength);
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
-        }
+            // create the inversed suffix array
+            int[] suffixArrayReversed = SuffixArrayBuilder.buildSuffixArray(TReversed);
+            if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
+                waitingHandler.increaseSecondaryProgressCounter();
+            }
 
-        // create inversed Burrows-Wheeler-Transform
-        bwt = new byte[indexStringLength];
-        for (int i = 0; i < indexStringLength; ++i) {
-            bwt[i] = (suffixArrayReversed[i] != 0) ? TReversed[suffixArrayReversed[i] - 1] : TReversed[indexStringLength - 1];
-        }
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
+            // create inversed Burrows-Wheeler-Transform
+            bwt = new byte[indexStringLength];
+            for (int i = 0; i < indexStringLength; ++i) {
+                bwt[i] = (suffixArrayReversed[i] != 0) ? TReversed[suffixArrayReversed[i] - 1] : TReversed[indexStringLength - 1];
+            }
+            suffixArrayReversed = null;
+            TReversed = null;
+            if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
+                waitingHandler.increaseSecondaryProgressCounter();
+            }
+
+            // create inversed less and occurrence table
+            occurrenceTableReversed = new WaveletTree(bwt, alphabet, waitingHandler, numMasses, hasPTMatTerminus, rankType);
+            lessTableReversed = occurrenceTableReversed.createLessTable();
+            if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
+                waitingHandler.increaseSecondaryProgressCounter();
+            }
+
+            finished = waitingHandler == null || !waitingHandler.isRunCanceled();
         }
 
-        // create inversed less and occurrence table
-        WaveletTree occurrenceTableReversed = new WaveletTree(bwt, alphabet, waitingHandler, numMasses, hasPTMatTerminus);
-        int[] lessTableReversed = occurrenceTableReversed.createLessTable();
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
+        /**
+         * Indicates whether the part was built.
+         *
+         * @return a boolean indicating whether the part was built
+         */
+        public boolean isFinished() {
+            return finished;
         }
-        
-        occurrenceTablesPrimary.add(occurrenceTablePrimary);
-        occurrenceTablesReversed.add(occurrenceTableReversed);
-        lessTablesPrimary.add(lessTablePrimary);
-        lessTablesReversed.add(lessTableReversed);
     }
     
     
@@ -1214,7 +1860,10 @@ public class FMIndex implements PeptideMapper {
      * @return the text position
      */
     private int getTextPosition(int index, int indexPart) {
-        int[] suffixArrayPrimary = suffixArraysPrimary.get(indexPart);
+        IntBuffer suffixArrayPrimary = suffixArraysPrimary.get(indexPart);
+        if (samplingShift == DENSE_SAMPLING_SHIFT) {
+            return suffixArrayPrimary.get(index);
+        }
         int[] lessTablePrimary = lessTablesPrimary.get(indexPart);
         WaveletTree occurrenceTablePrimary = occurrenceTablesPrimary.get(indexPart);
         int indexStringLength = indexStringLengths.get(indexPart);
@@ -1225,7 +1874,7 @@ public class FMIndex implements PeptideMapper {
 
             ++numIterations;
         }
-        int pos = suffixArrayPrimary[index >> samplingShift] + numIterations;
+        int pos = suffixArrayPrimary.get(index >> samplingShift) + numIterations;
         return (pos < indexStringLength) ? pos : pos - indexStringLength;
     }
 
@@ -1240,6 +1889,23 @@ public class FMIndex implements PeptideMapper {
      */
     @Override
     public ArrayList<PeptideProteinMapping> getProteinMapping(String peptide, SequenceMatchingPreferences seqMatchPref) {
+        return getProteinMapping(peptide, seqMatchPref, null);
+    }
+
+    /**
+     * Main method for mapping a peptide with all variants against all
+     * registered proteins in the experiment. This method is implementing the
+     * backward search. If backward search caches are given, the search steps
+     * of exact matching are shared with the previous peptide mapped using the
+     * same caches.
+     *
+     * @param peptide the peptide
+     * @param seqMatchPref the sequence matching preferences
+     * @param backwardSearchCaches the backward search caches of every index
+     * part, ignored if null
+     * @return the protein mapping
+     */
+    private ArrayList<PeptideProteinMapping> getProteinMapping(String peptide, SequenceMatchingPreferences seqMatchPref, BackwardSearchCache[] backwardSearchCaches) {
         ArrayList<PeptideProteinMapping> peptideProteinMapping = new ArrayList<PeptideProteinMapping>();
         if (maxNumberVariants > 0 || maxNumberDeletions > 0 || maxNumberInsertions > 0 || maxNumberSubstitutions > 0) {
             if (genericVariantMatching) {
@@ -1255,13 +1921,101 @@ public class FMIndex implements PeptideMapper {
             }
         } else {
             for (int i = 0; i < indexParts; ++i){
-                peptideProteinMapping.addAll(getProteinMappingWithoutVariants(peptide, seqMatchPref, i));
+                BackwardSearchCache backwardSearchCache = backwardSearchCaches != null ? backwardSearchCaches[i] : null;
+                peptideProteinMapping.addAll(getProteinMappingWithoutVariants(peptide, seqMatchPref, i, backwardSearchCache));
             }
             return peptideProteinMapping;
         }
 
     }
 
+    @Override
+    public void getProteinMappings(Collection<String> peptideSequences, final SequenceMatchingPreferences sequenceMatchingPreferences, ProteinMappingCallback<String> callback, int nThreads, WaitingHandler waitingHandler) throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+
+        // sorting the peptides by reversed sequence so that peptides sharing a suffix are mapped one after the other
+        ArrayList<String> peptides = new ArrayList<String>(new HashSet<String>(peptideSequences));
+        Collections.sort(peptides, new Comparator<String>() {
+            @Override
+            public int compare(String peptide1, String peptide2) {
+                int i1 = peptide1.length() - 1, i2 = peptide2.length() - 1;
+                for (; i1 >= 0 && i2 >= 0; --i1, --i2) {
+                    int diff = peptide1.charAt(i1) - peptide2.charAt(i2);
+                    if (diff != 0) {
+                        return diff;
+                    }
+                }
+                return peptide1.length() - peptide2.length();
+            }
+        });
+
+        new BatchMapping<String>() {
+            @Override
+            public void mapBatch(List<String> batch, ProteinMappingCallback<String> callback) {
+                BackwardSearchCache[] backwardSearchCaches = new BackwardSearchCache[indexParts];
+                for (int i = 0; i < indexParts; ++i) {
+                    backwardSearchCaches[i] = new BackwardSearchCache();
+                }
+                for (String peptide : batch) {
+                    callback.mappingCompleted(peptide, getProteinMapping(peptide, sequenceMatchingPreferences, backwardSearchCaches));
+                }
+            }
+        }.mapAll(peptides, callback, nThreads, waitingHandler);
+    }
+
+    @Override
+    public void getProteinMappings(Collection<Tag> tags, final TagMatcher tagMatcher, final SequenceMatchingPreferences sequenceMatchingPreferences, final Double massTolerance, ProteinMappingCallback<Tag> callback, int nThreads, WaitingHandler waitingHandler) throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+        new BatchMapping<Tag>() {
+            @Override
+            public void mapBatch(List<Tag> batch, ProteinMappingCallback<Tag> callback) throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+                for (Tag tag : batch) {
+                    callback.mappingCompleted(tag, getProteinMapping(tag, tagMatcher, sequenceMatchingPreferences, massTolerance));
+                }
+            }
+        }.mapAll(new ArrayList<Tag>(tags), callback, nThreads, waitingHandler);
+    }
+
+    /**
+     * The backward search of the last peptide mapped without variants. The
+     * search steps of the longest common suffix with the next peptide can be
+     * reused.
+     */
+    private static class BackwardSearchCache {
+
+        /**
+         * The reversed sequence of the last peptide.
+         */
+        private String reversedPeptide = null;
+        /**
+         * The maximal number of X allowed for the last peptide.
+         */
+        private int maxX = -1;
+        /**
+         * The ranges found after every step of the backward search.
+         */
+        private final ArrayList<ArrayList<MatrixContent>> backwardList = new ArrayList<ArrayList<MatrixContent>>();
+
+        /**
+         * Returns the number of search steps which can be reused for the given
+         * peptide.
+         *
+         * @param newReversedPeptide the reversed sequence of the peptide
+         * @param newMaxX the maximal number of X allowed for the peptide
+         *
+         * @return the number of search steps which can be reused
+         */
+        private int getSharedLength(String newReversedPeptide, int newMaxX) {
+            if (reversedPeptide == null || maxX != newMaxX) {
+                return 0;
+            }
+            int maxLength = Math.min(reversedPeptide.length(), newReversedPeptide.length());
+            int sharedLength = 0;
+            while (sharedLength < maxLength && reversedPeptide.charAt(sharedLength) == newReversedPeptide.charAt(sharedLength)) {
+                ++sharedLength;
+            }
+            return sharedLength;
+        }
+    }
+
     /**
      * Exact mapping peptides against the proteome.
      *
@@ -1271,30 +2025,61 @@ public class FMIndex implements PeptideMapper {
      * @return the mapping
      */
     public ArrayList<PeptideProteinMapping> getProteinMappingWithoutVariants(String peptide, SequenceMatchingPreferences seqMatchPref, int indexPart) {
+        return getProteinMappingWithoutVariants(peptide, seqMatchPref, indexPart, null);
+    }
+
+    /**
+     * Exact mapping peptides against the proteome. If a backward search cache
+     * is given, the search steps of the suffix shared with the previous
+     * peptide mapped using this cache are reused.
+     *
+     * @param peptide the peptide
+     * @param seqMatchPref the sequence matching preferences
+     * @param indexPart the index part
+     * @param backwardSearchCache the backward search cache, ignored if null
+     * @return the mapping
+     */
+    private ArrayList<PeptideProteinMapping> getProteinMappingWithoutVariants(String peptide, SequenceMatchingPreferences seqMatchPref, int indexPart, BackwardSearchCache backwardSearchCache) {
         int[] lessTablePrimary = lessTablesPrimary.get(indexPart);
         WaveletTree occurrenceTablePrimary = occurrenceTablesPrimary.get(indexPart);
         ArrayList<PeptideProteinMapping> allMatches = new ArrayList<PeptideProteinMapping>();
 
         String pep_rev = new StringBuilder(peptide).reverse().toString();
         int lenPeptide = peptide.length();
-        ArrayList<String> combinations = createPeptideCombinations(pep_rev, seqMatchPref);
         int maxX = (int) (((seqMatchPref.getLimitX() != null) ? seqMatchPref.getLimitX() : 1) * lenPeptide);
 
-        ArrayList<MatrixContent>[] backwardList = (ArrayList<MatrixContent>[]) new ArrayList[lenPeptide + 1];
-
         int countX = 0;
-        for (int i = 0; i <= lenPeptide; ++i) {
-            backwardList[i] = new ArrayList<MatrixContent>(10);
-            if (i < lenPeptide && pep_rev.charAt(i) == 'X') {
+        for (int i = 0; i < lenPeptide; ++i) {
+            if (pep_rev.charAt(i) == 'X') {
                 ++countX;
             }
         }
 
         if (countX <= maxX) {
-            backwardList[0].add(new MatrixContent(indexStringLengths.get(indexPart) - 1)); // L, R, char, previous content, num of X
-            for (int j = 0; j < lenPeptide; ++j) {
+            ArrayList<String> combinations = createPeptideCombinations(pep_rev, seqMatchPref);
+            ArrayList<ArrayList<MatrixContent>> backwardList;
+            int sharedLength = 0;
+            if (backwardSearchCache != null) {
+                backwardList = backwardSearchCache.backwardList;
+                sharedLength = backwardSearchCache.getSharedLength(pep_rev, maxX);
+                backwardSearchCache.reversedPeptide = pep_rev;
+                backwardSearchCache.maxX = maxX;
+            } else {
+                backwardList = new ArrayList<ArrayList<MatrixContent>>(lenPeptide + 1);
+            }
+            while (backwardList.size() <= lenPeptide) {
+                backwardList.add(new ArrayList<MatrixContent>(10));
+            }
+            if (sharedLength == 0) {
+                backwardList.get(0).clear();
+                backwardList.get(0).add(new MatrixContent(indexStringLengths.get(indexPart) - 1)); // L, R, char, previous content, num of X
+            }
+
+            for (int j = sharedLength; j < lenPeptide; ++j) {
                 String combinationSequence = combinations.get(j);
-                ArrayList<MatrixContent> cell = backwardList[j];
+                ArrayList<MatrixContent> cell = backwardList.get(j);
+                ArrayList<MatrixContent> nextCell = backwardList.get(j + 1);
+                nextCell.clear();
                 for (MatrixContent content : cell) {
                     int leftIndexOld = content.left;
                     int rightIndexOld = content.right;
@@ -1313,14 +2098,14 @@ public class FMIndex implements PeptideMapper {
                             if (newNumX > maxX) {
                                 continue;
                             }
-                            backwardList[j + 1].add(new MatrixContent(leftIndex, rightIndex, aminoAcid, content, newNumX));
+                            nextCell.add(new MatrixContent(leftIndex, rightIndex, aminoAcid, content, newNumX));
                         }
                     }
                 }
             }
 
             // traceback
-            for (MatrixContent content : backwardList[lenPeptide]) {
+            for (MatrixContent content : backwardList.get(lenPeptide)) {
                 MatrixContent currentContent = content;
                 String currentPeptide = "";
 
@@ -1343,10 +2128,6 @@ public class FMIndex implements PeptideMapper {
             }
         }
 
-        /*
-        for (PeptideProteinMapping ppm : allMatches){
-            System.out.println(ppm.getPeptideSequence() + " " + ppm.getProteinAccession() + " " + ppm.getIndex());
-        }*/
         return allMatches;
     }
 
@@ -1691,7 +2472,22 @@ public class FMIndex implements PeptideMapper {
 
     @Override
     public void emptyCache() {
-        // No cache here
+        tagMappingCache.clear();
+    }
+
+    @Override
+    public MappingCacheStatistics getCacheStatistics() {
+        return tagMappingCache.getStatistics();
+    }
+
+    /**
+     * Sets the maximal number of bytes used by the cache of intermediate tag
+     * to proteome mapping results.
+     *
+     * @param maxBytes the maximal size of the cache in bytes
+     */
+    public void setTagMappingCacheSize(long maxBytes) {
+        tagMappingCache.setMaxBytes(maxBytes);
     }
 
     @Override
@@ -1797,22 +2593,22 @@ public class FMIndex implements PeptideMapper {
      * @param less the less array
      * @param occurrence the wavelet tree
      */
-    private void mappingSequenceAndMassesDA(TagElement[] combinations, LinkedList<MatrixContent>[] matrix, int[] less, WaveletTree occurrence) {
+    private void mappingSequenceAndMassesDA(TagElement[] combinations, MatrixContentBuffer matrix, int[] less, WaveletTree occurrence) {
         
         for (int j = 0; j < combinations.length; ++j) {
-            LinkedList<MatrixContent> content = matrix[j];
+            final int row = j;
             TagElement combination = combinations[j];
 
-            while (!content.isEmpty()) {
-                MatrixContent cell = content.removeFirst();
-                final int length = cell.length;
-                final int leftIndexOld = cell.left;
-                final int rightIndexOld = cell.right;
-                final int numX = cell.numX;
+            while (!matrix.isEmpty(row)) {
+                final int cell = matrix.poll(row);
+                final int length = matrix.length[cell];
+                final int leftIndexOld = matrix.left[cell];
+                final int rightIndexOld = matrix.right[cell];
+                final int numX = matrix.numX[cell];
 
                 if (combination.isMass) {
                     final double combinationMass = combination.mass;
-                    final double oldMass = cell.mass;
+                    final double oldMass = matrix.mass[cell];
                     int[][] setCharacter = occurrence.rangeQuery(leftIndexOld - 1, rightIndexOld);
                     addAmbiguous(setCharacter);
                     if (withVariableModifications) addModifications(setCharacter);
@@ -1840,8 +2636,8 @@ public class FMIndex implements PeptideMapper {
                             int offset = ((massDiff <= massTolerance) ? 1 : 0) | (withinMass ? 1 : 0);
                             
                             if (offset > 0) newNumX = 0;
-                            matrix[j + offset].add(new MatrixContent(leftIndex, rightIndex, aminoAcid, cell, newMass, length + 1, newNumX, borders[3], borders[4], j));
-                            if (withinMass) matrix[j + offset].getLast().XMassDiff = massDiff;
+                            matrix.add(j + offset, leftIndex, rightIndex, aminoAcid, cell, newMass, length + 1, newNumX, borders[3], borders[4], j, null);
+                            if (withinMass) matrix.XMassDiff[matrix.getLast(j + offset)] = massDiff;
                         }
                     }
                 } else {
@@ -1857,7 +2653,7 @@ public class FMIndex implements PeptideMapper {
                         int newNumX = numX + ((aminoAcidSearch == 'X') ? 1 : 0);
                         if (leftIndex <= rightIndex && newNumX <= xNumLimit) {
                             if (j < combinations.length - 1 && combinations[j].isMass != combinations[j + 1].isMass) newNumX = 0;
-                            matrix[j + 1].add(new MatrixContent(leftIndex, rightIndex, aminoAcid, cell, 0, length + 1, newNumX, -1, aminoAcidSearch, j));
+                            matrix.add(j + 1, leftIndex, rightIndex, aminoAcid, cell, 0, length + 1, newNumX, -1, aminoAcidSearch, j, null);
                         }
                     }
                 }
@@ -1875,22 +2671,22 @@ public class FMIndex implements PeptideMapper {
      * @param less the less array
      * @param occurrence the wavelet tree
      */
-    private void mappingSequenceAndMassesPPM(TagElement[] combinations, LinkedList<MatrixContent>[] matrix, int[] less, WaveletTree occurrence) {
+    private void mappingSequenceAndMassesPPM(TagElement[] combinations, MatrixContentBuffer matrix, int[] less, WaveletTree occurrence) {
         
         for (int j = 0; j < combinations.length; ++j) {
-            LinkedList<MatrixContent> content = matrix[j];
+            final int row = j;
             TagElement combination = combinations[j];
 
-            while (!content.isEmpty()) {
-                MatrixContent cell = content.removeFirst();
-                final int length = cell.length;
-                final int leftIndexOld = cell.left;
-                final int rightIndexOld = cell.right;
-                final int numX = cell.numX;
+            while (!matrix.isEmpty(row)) {
+                final int cell = matrix.poll(row);
+                final int length = matrix.length[cell];
+                final int leftIndexOld = matrix.left[cell];
+                final int rightIndexOld = matrix.right[cell];
+                final int numX = matrix.numX[cell];
 
                 if (combination.isMass) {
                     final double combinationMass = combination.mass;
-                    final double oldMass = cell.mass;
+                    final double oldMass = matrix.mass[cell];
                     int[][] setCharacter = occurrence.rangeQuery(leftIndexOld - 1, rightIndexOld);
                     addAmbiguous(setCharacter);
                     if (withVariableModifications) addModifications(setCharacter);
@@ -1920,8 +2716,8 @@ public class FMIndex implements PeptideMapper {
                             //System.out.println(j + " " + length + " " + (char)borders[0] + " " +  leftIndex + " " + rightIndex + " " + offset + " " + newNumX + " " + massDiff + " / " + combination.xNumLimit);
                             
                             if (offset > 0) newNumX = 0;
-                            matrix[j + offset].add(new MatrixContent(leftIndex, rightIndex, aminoAcid, cell, newMass, length + 1, newNumX, borders[3], borders[4], j));
-                            if (withinMass) matrix[j + offset].getLast().XMassDiff = massDiff;
+                            matrix.add(j + offset, leftIndex, rightIndex, aminoAcid, cell, newMass, length + 1, newNumX, borders[3], borders[4], j, null);
+                            if (withinMass) matrix.XMassDiff[matrix.getLast(j + offset)] = massDiff;
                         }
                     }
                 } else {
@@ -1937,7 +2733,7 @@ public class FMIndex implements PeptideMapper {
                         int newNumX = numX + ((aminoAcidSearch == 'X') ? 1 : 0);
                         if (leftIndex <= rightIndex && newNumX <= xNumLimit) {
                             if (j < combinations.length - 1 && combinations[j].isMass != combinations[j + 1].isMass) newNumX = 0;
-                            matrix[j + 1].add(new MatrixContent(leftIndex, rightIndex, aminoAcid, cell, 0, length + 1, newNumX, -1, aminoAcidSearch, j));
+                            matrix.add(j + 1, leftIndex, rightIndex, aminoAcid, cell, 0, length + 1, newNumX, -1, aminoAcidSearch, j, null);
                         }
                     }
                 }
@@ -2325,21 +3121,21 @@ public class FMIndex implements PeptideMapper {
      * @param massTolerance
      * @param CTermDirection
      */
-    private void mappingSequenceAndMassesPPM(TagElement[] combinations, LinkedList<MatrixContent>[] matrix, int[] less, WaveletTree occurrence, boolean CTermDirection) {
+    private void mappingSequenceAndMassesPPM(TagElement[] combinations, MatrixContentBuffer matrix, int[] less, WaveletTree occurrence, boolean CTermDirection) {
         final int lenCombinations = combinations.length;
         for (int k = 0; k < lenCombinations; ++k) {
             TagElement combination = combinations[k];
-            LinkedList<MatrixContent> content = matrix[k];
+            final int row = k;
 
-            while (!content.isEmpty()) {
-                MatrixContent cell = content.removeFirst();
-                final int length = cell.length;
-                final int leftIndexOld = cell.left;
-                final int rightIndexOld = cell.right;
+            while (!matrix.isEmpty(row)) {
+                final int cell = matrix.poll(row);
+                final int length = matrix.length[cell];
+                final int leftIndexOld = matrix.left[cell];
+                final int rightIndexOld = matrix.right[cell];
 
                 if (combination.isMass) {
                     final double combinationMass = combination.mass;
-                    final double oldMass = cell.mass;
+                    final double oldMass = matrix.mass[cell];
 
                     int[][] setCharacter = occurrence.rangeQuery(leftIndexOld - 1, rightIndexOld);
                     addAmbiguous(setCharacter);
@@ -2349,7 +3145,7 @@ public class FMIndex implements PeptideMapper {
                         for (int b = 0; b < setCharacter[numMasses][0]; ++b) {
                             int[] borders = setCharacter[b];
                             final int aminoAcid = borders[0];
-                            int newNumX = cell.numX + ((aminoAcid == 'X') ? 1 : 0);
+                            int newNumX = matrix.numX[cell] + ((aminoAcid == 'X') ? 1 : 0);
                             if (newNumX > combination.xNumLimit) continue;
                                 
 
@@ -2362,7 +3158,7 @@ public class FMIndex implements PeptideMapper {
                                 final int leftIndex = lessValue + borders[1];
                                 final int rightIndex = lessValue + borders[2] - 1;
                                 //System.out.println(k + " " + length + " " + (char)borders[0] + " " +  leftIndex + " " + rightIndex + " " + newNumX + " " + massDiff + " / " + combination.xNumLimit);
-                                MatrixContent newCell = new MatrixContent(leftIndex, rightIndex, aminoAcid, cell, newMass, length + 1, newNumX, borders[3], borders[4], k);
+                                int newCell = matrix.newCell(leftIndex, rightIndex, aminoAcid, cell, newMass, length + 1, newNumX, borders[3], borders[4], k, null);
                                 
                                 ModificationMatch modificationMatchEnd = null;
                                 ModificationMatch modificationMatchEndEnd = null;
@@ -2518,29 +3314,29 @@ public class FMIndex implements PeptideMapper {
                                 
                                 if (XmassDiff < -massTolerance) {
                                     if (newMass - computeInverseMassValue(massTolerance, combinationMass) + negativePTMMass <= combinationMass) {
-                                        content.add(newCell);
+                                        matrix.add(row, newCell);
                                     }
                                 } else if (modificationMatchEnd != null) {
                                     if (newNumX > 0 && !withinMass) continue;
-                                    MatrixContent newEndCell = new MatrixContent(leftIndex, rightIndex, '\0', newCell, 0, null, null, length + 1, 0, k, modificationMatchEnd, null, -1);
+                                    int newEndCell = matrix.newCell(leftIndex, rightIndex, '\0', newCell, 0, length + 1, 0, -1, -1, k, modificationMatchEnd);
                                     if (modificationMatchEndEnd == null) {
-                                        matrix[k + 1].add(newEndCell);
+                                        matrix.add(k + 1, newEndCell);
                                     }
                                     else {
-                                        MatrixContent newEndEndCell = new MatrixContent(leftIndex, rightIndex, '\0', newEndCell, 0, null, null, length + 1, 0, k, modificationMatchEndEnd, null, -1);
-                                        matrix[k + 1].add(newEndEndCell);
+                                        int newEndEndCell = matrix.newCell(leftIndex, rightIndex, '\0', newEndCell, 0, length + 1, 0, -1, -1, k, modificationMatchEndEnd);
+                                        matrix.add(k + 1, newEndEndCell);
                                     }
-                                    if (withinMass) matrix[k + 1].getLast().XMassDiff = XmassDiff;
-                                    matrix[k + 1].getLast().numX = 0;
+                                    if (withinMass) matrix.XMassDiff[matrix.getLast(k + 1)] = XmassDiff;
+                                    matrix.numX[matrix.getLast(k + 1)] = 0;
                                 } else {
                                     if (newNumX > 0 && !withinMass) continue;
-                                    matrix[k + 1].add(newCell);
-                                    matrix[k + 1].getLast().numX = 0;
-                                    if (withinMass) matrix[k + 1].getLast().XMassDiff = XmassDiff;
+                                    matrix.add(k + 1, newCell);
+                                    matrix.numX[matrix.getLast(k + 1)] = 0;
+                                    if (withinMass) matrix.XMassDiff[matrix.getLast(k + 1)] = XmassDiff;
                                 }
 
                             } else if (length > 1) {
-                                int lastAcid = cell.character;
+                                int lastAcid = matrix.character[cell];
                                 double massDiff = combinationMass - oldMass;
                                 ModificationMatch modificationMatchEnd = null;
                                 ModificationMatch modificationMatchEndEnd = null;
@@ -2935,15 +3731,15 @@ public class FMIndex implements PeptideMapper {
                                 }
 
                                 if (modificationMatchEnd != null) {
-                                    MatrixContent newEndCell = new MatrixContent(leftIndexOld, rightIndexOld, '\0', cell, 0, null, null, length, 0, k, modificationMatchEnd, null, -1);
+                                    int newEndCell = matrix.newCell(leftIndexOld, rightIndexOld, '\0', cell, 0, length, 0, -1, -1, k, modificationMatchEnd);
                                     if (modificationMatchEndEnd == null) {
-                                        matrix[k + 1].add(newEndCell);
+                                        matrix.add(k + 1, newEndCell);
                                     } else {
-                                        MatrixContent newEndEndCell = new MatrixContent(leftIndexOld, rightIndexOld, '\0', newEndCell, 0, null, null, length, 0, k, modificationMatchEndEnd, null, -1);
-                                        matrix[k + 1].add(newEndEndCell);
+                                        int newEndEndCell = matrix.newCell(leftIndexOld, rightIndexOld, '\0', newEndCell, 0, length, 0, -1, -1, k, modificationMatchEndEnd);
+                                        matrix.add(k + 1, newEndEndCell);
                                     }
-                                    if (withinMass) matrix[k + 1].getLast().XMassDiff = XmassDiff;
-                                    matrix[k + 1].getLast().numX = 0;
+                                    if (withinMass) matrix.XMassDiff[matrix.getLast(k + 1)] = XmassDiff;
+                                    matrix.numX[matrix.getLast(k + 1)] = 0;
                                 }
                             }
                         }
@@ -2959,7 +3755,7 @@ public class FMIndex implements PeptideMapper {
                                 final int lessValue = less[aminoAcidSearch];
                                 final int leftIndex = lessValue + borders[1];
                                 final int rightIndex = lessValue + borders[2] - 1;
-                                int newNumX = cell.numX + ((aminoAcid == 'X') ? 1 : 0);
+                                int newNumX = matrix.numX[cell] + ((aminoAcid == 'X') ? 1 : 0);
                                 if (newNumX > combination.xNumLimit) continue;
                                 double massDiff = Math.abs(combinationMass - newMass);
 
@@ -2970,8 +3766,8 @@ public class FMIndex implements PeptideMapper {
                                 int offset = ((computeMassValue(newMass, combinationMass) <= massTolerance) ? 1 : 0) | (withinMass ? 1 : 0);
                                 
                                 if (offset > 0) newNumX = 0;
-                                matrix[k + offset].add(new MatrixContent(leftIndex, rightIndex, aminoAcid, cell, newMass, length + 1, newNumX, borders[3], borders[4], k));
-                                if (withinMass) matrix[k + offset].getLast().XMassDiff = massDiff;
+                                matrix.add(k + offset, leftIndex, rightIndex, aminoAcid, cell, newMass, length + 1, newNumX, borders[3], borders[4], k, null);
+                                if (withinMass) matrix.XMassDiff[matrix.getLast(k + offset)] = massDiff;
                             }
                         }
                     }
@@ -2986,10 +3782,10 @@ public class FMIndex implements PeptideMapper {
                         final int[] range = occurrence.singleRangeQuery(leftIndexOld - 1, rightIndexOld, aminoAcidSearch);
                         final int leftIndex = lessValue + range[0];
                         final int rightIndex = lessValue + range[1] - 1;
-                        int newNumX = cell.numX + ((aminoAcidSearch == 'X') ? 1 : 0);
+                        int newNumX = matrix.numX[cell] + ((aminoAcidSearch == 'X') ? 1 : 0);
                         if (leftIndex <= rightIndex && newNumX <= xNumLimit) {
                             if (k < combinations.length - 1 && combinations[k].isMass != combinations[k + 1].isMass) newNumX = 0;
-                            matrix[k + 1].add(new MatrixContent(leftIndex, rightIndex, aminoAcid, cell, 0, length + 1, newNumX, -1, aminoAcidSearch, k));
+                            matrix.add(k + 1, leftIndex, rightIndex, aminoAcid, cell, 0, length + 1, newNumX, -1, aminoAcidSearch, k, null);
                         }
                     }
                 }
@@ -3007,21 +3803,21 @@ public class FMIndex implements PeptideMapper {
      * @param massTolerance
      * @param CTermDirection
      */
-    private void mappingSequenceAndMassesDA(TagElement[] combinations, LinkedList<MatrixContent>[] matrix, int[] less, WaveletTree occurrence, boolean CTermDirection) {
+    private void mappingSequenceAndMassesDA(TagElement[] combinations, MatrixContentBuffer matrix, int[] less, WaveletTree occurrence, boolean CTermDirection) {
         final int lenCombinations = combinations.length;
         for (int k = 0; k < lenCombinations; ++k) {
             TagElement combination = combinations[k];
-            LinkedList<MatrixContent> content = matrix[k];
+            final int row = k;
 
-            while (!content.isEmpty()) {
-                MatrixContent cell = content.removeFirst();
-                final int length = cell.length;
-                final int leftIndexOld = cell.left;
-                final int rightIndexOld = cell.right;
+            while (!matrix.isEmpty(row)) {
+                final int cell = matrix.poll(row);
+                final int length = matrix.length[cell];
+                final int leftIndexOld = matrix.left[cell];
+                final int rightIndexOld = matrix.right[cell];
 
                 if (combination.isMass) {
                     final double combinationMass = combination.mass;
-                    final double oldMass = cell.mass;
+                    final double oldMass = matrix.mass[cell];
 
                     int[][] setCharacter = occurrence.rangeQuery(leftIndexOld - 1, rightIndexOld);
                     addAmbiguous(setCharacter);
@@ -3031,7 +3827,7 @@ public class FMIndex implements PeptideMapper {
                         for (int b = 0; b < setCharacter[numMasses][0]; ++b) {
                             int[] borders = setCharacter[b];
                             final int aminoAcid = borders[0];
-                            int newNumX = cell.numX + ((aminoAcid == 'X') ? 1 : 0);
+                            int newNumX = matrix.numX[cell] + ((aminoAcid == 'X') ? 1 : 0);
                             if (newNumX > combination.xNumLimit) continue;
                                 
 
@@ -3044,7 +3840,7 @@ public class FMIndex implements PeptideMapper {
                                 final int leftIndex = lessValue + borders[1];
                                 final int rightIndex = lessValue + borders[2] - 1;
                                 //System.out.println(k + " " + length + " " + (char)borders[0] + " " +  leftIndex + " " + rightIndex + " " + newNumX + " " + massDiff + " / " + combination.xNumLimit);
-                                MatrixContent newCell = new MatrixContent(leftIndex, rightIndex, aminoAcid, cell, newMass, length + 1, newNumX, borders[3], borders[4], k);
+                                int newCell = matrix.newCell(leftIndex, rightIndex, aminoAcid, cell, newMass, length + 1, newNumX, borders[3], borders[4], k, null);
                                 
                                 ModificationMatch modificationMatchEnd = null;
                                 ModificationMatch modificationMatchEndEnd = null;
@@ -3200,29 +3996,29 @@ public class FMIndex implements PeptideMapper {
                                 
                                 if (XmassDiff < -massTolerance) {
                                     if (newMass - massTolerance + negativePTMMass <= combinationMass) {
-                                        content.add(newCell);
+                                        matrix.add(row, newCell);
                                     }
                                 } else if (modificationMatchEnd != null) {
                                     if (newNumX > 0 && !withinMass) continue;
-                                    MatrixContent newEndCell = new MatrixContent(leftIndex, rightIndex, '\0', newCell, 0, null, null, length + 1, 0, k, modificationMatchEnd, null, -1);
+                                    int newEndCell = matrix.newCell(leftIndex, rightIndex, '\0', newCell, 0, length + 1, 0, -1, -1, k, modificationMatchEnd);
                                     if (modificationMatchEndEnd == null) {
-                                        matrix[k + 1].add(newEndCell);
+                                        matrix.add(k + 1, newEndCell);
                                     }
                                     else {
-                                        MatrixContent newEndEndCell = new MatrixContent(leftIndex, rightIndex, '\0', newEndCell, 0, null, null, length + 1, 0, k, modificationMatchEndEnd, null, -1);
-                                        matrix[k + 1].add(newEndEndCell);
+                                        int newEndEndCell = matrix.newCell(leftIndex, rightIndex, '\0', newEndCell, 0, length + 1, 0, -1, -1, k, modificationMatchEndEnd);
+                                        matrix.add(k + 1, newEndEndCell);
                                     }
-                                    if (withinMass) matrix[k + 1].getLast().XMassDiff = XmassDiff;
-                                    matrix[k + 1].getLast().numX = 0;
+                                    if (withinMass) matrix.XMassDiff[matrix.getLast(k + 1)] = XmassDiff;
+                                    matrix.numX[matrix.getLast(k + 1)] = 0;
                                 } else {
                                     if (newNumX > 0 && !withinMass) continue;
-                                    matrix[k + 1].add(newCell);
-                                    matrix[k + 1].getLast().numX = 0;
-                                    if (withinMass) matrix[k + 1].getLast().XMassDiff = XmassDiff;
+                                    matrix.add(k + 1, newCell);
+                                    matrix.numX[matrix.getLast(k + 1)] = 0;
+                                    if (withinMass) matrix.XMassDiff[matrix.getLast(k + 1)] = XmassDiff;
                                 }
 
                             } else if (length > 1) {
-                                int lastAcid = cell.character;
+                                int lastAcid = matrix.character[cell];
                                 double massDiff = combinationMass - oldMass;
                                 ModificationMatch modificationMatchEnd = null;
                                 ModificationMatch modificationMatchEndEnd = null;
@@ -3611,15 +4407,15 @@ public class FMIndex implements PeptideMapper {
                                 }
 
                                 if (modificationMatchEnd != null) {
-                                    MatrixContent newEndCell = new MatrixContent(leftIndexOld, rightIndexOld, '\0', cell, 0, null, null, length, 0, k, modificationMatchEnd, null, -1);
+                                    int newEndCell = matrix.newCell(leftIndexOld, rightIndexOld, '\0', cell, 0, length, 0, -1, -1, k, modificationMatchEnd);
                                     if (modificationMatchEndEnd == null) {
-                                        matrix[k + 1].add(newEndCell);
+                                        matrix.add(k + 1, newEndCell);
                                     } else {
-                                        MatrixContent newEndEndCell = new MatrixContent(leftIndexOld, rightIndexOld, '\0', newEndCell, 0, null, null, length, 0, k, modificationMatchEndEnd, null, -1);
-                                        matrix[k + 1].add(newEndEndCell);
+                                        int newEndEndCell = matrix.newCell(leftIndexOld, rightIndexOld, '\0', newEndCell, 0, length, 0, -1, -1, k, modificationMatchEndEnd);
+                                        matrix.add(k + 1, newEndEndCell);
                                     }
-                                    if (withinMass) matrix[k + 1].getLast().XMassDiff = XmassDiff;
-                                    matrix[k + 1].getLast().numX = 0;
+                                    if (withinMass) matrix.XMassDiff[matrix.getLast(k + 1)] = XmassDiff;
+                                    matrix.numX[matrix.getLast(k + 1)] = 0;
                                 }
                             }
                         }
@@ -3635,7 +4431,7 @@ public class FMIndex implements PeptideMapper {
                                 final int lessValue = less[aminoAcidSearch];
                                 final int leftIndex = lessValue + borders[1];
                                 final int rightIndex = lessValue + borders[2] - 1;
-                                int newNumX = cell.numX + ((aminoAcid == 'X') ? 1 : 0);
+                                int newNumX = matrix.numX[cell] + ((aminoAcid == 'X') ? 1 : 0);
                                 if (newNumX > combination.xNumLimit) continue;
                                 double massDiff = Math.abs(combinationMass - newMass);
 
@@ -3646,8 +4442,8 @@ public class FMIndex implements PeptideMapper {
                                 int offset = ((massDiff <= massTolerance) ? 1 : 0) | (withinMass ? 1 : 0);
                                 
                                 if (offset > 0) newNumX = 0;
-                                matrix[k + offset].add(new MatrixContent(leftIndex, rightIndex, aminoAcid, cell, newMass, length + 1, newNumX, borders[3], borders[4], k));
-                                if (withinMass) matrix[k + offset].getLast().XMassDiff = massDiff;
+                                matrix.add(k + offset, leftIndex, rightIndex, aminoAcid, cell, newMass, length + 1, newNumX, borders[3], borders[4], k, null);
+                                if (withinMass) matrix.XMassDiff[matrix.getLast(k + offset)] = massDiff;
                             }
                         }
                     }
@@ -3662,10 +4458,10 @@ public class FMIndex implements PeptideMapper {
                         final int[] range = occurrence.singleRangeQuery(leftIndexOld - 1, rightIndexOld, aminoAcidSearch);
                         final int leftIndex = lessValue + range[0];
                         final int rightIndex = lessValue + range[1] - 1;
-                        int newNumX = cell.numX + ((aminoAcidSearch == 'X') ? 1 : 0);
+                        int newNumX = matrix.numX[cell] + ((aminoAcidSearch == 'X') ? 1 : 0);
                         if (leftIndex <= rightIndex && newNumX <= xNumLimit) {
                             if (k < combinations.length - 1 && combinations[k].isMass != combinations[k + 1].isMass) newNumX = 0;
-                            matrix[k + 1].add(new MatrixContent(leftIndex, rightIndex, aminoAcid, cell, 0, length + 1, newNumX, -1, aminoAcidSearch, k));
+                            matrix.add(k + 1, leftIndex, rightIndex, aminoAcid, cell, 0, length + 1, newNumX, -1, aminoAcidSearch, k, null);
                         }
                     }
                 }
@@ -3819,25 +4615,15 @@ public class FMIndex implements PeptideMapper {
         TagElement[] combinations = createPeptideCombinations(tagComponents, sequenceMatchingPreferences);
         TagElement[] combinationsReversed = createPeptideCombinations(tagComponentsReverse, sequenceMatchingPreferences);
 
-        LinkedList<MatrixContent>[] matrixReversed = (LinkedList<MatrixContent>[]) new LinkedList[combinationsReversed.length + 1];
-        LinkedList<MatrixContent>[] matrix = (LinkedList<MatrixContent>[]) new LinkedList[combinations.length + 1];
-        ArrayList<MatrixContent> cachePrimary = new ArrayList<MatrixContent>();
-
-        for (int i = 0; i <= combinationsReversed.length; ++i) {
-            matrixReversed[i] = new LinkedList<MatrixContent>();
-        }
-        for (int i = 0; i <= combinations.length; ++i) {
-            matrix[i] = new LinkedList<MatrixContent>();
-        }
+        // the same buffer is used for both directions, the search towards the N-terminus starts once the cells of the reversed search were converted
+        MatrixContentBuffer matrix = matrixContentBuffers.get();
 
-        if (cached != null) {
-            for (MatrixContent matrixContent : cached) {
-                matrix[0].add(matrixContent);
-            }
-        } else {
-            matrixReversed[0].add(new MatrixContent(indexStringLengths.get(indexPart) - 1));
-        }
         if (cached == null) {
+            MatrixContentBuffer matrixReversed = matrix;
+            matrixReversed.reset(combinationsReversed.length + 1);
+            matrixReversed.add(0, 0, indexStringLengths.get(indexPart) - 1, 0, -1, 0, 0, 0, -1, -1, -1, null);
+            ArrayList<MatrixContent> cachePrimary = new ArrayList<MatrixContent>();
+
             // Map Reverse
             if (!hasCTermDirection) {
                 if (massAccuracyType == SearchParameters.MassAccuracyType.DA){
@@ -3855,10 +4641,10 @@ public class FMIndex implements PeptideMapper {
                 }
             }
 
-            //System.out.println("found: " + matrixReversed[combinationsReversed.length].size());
             // Traceback Reverse
-            for (MatrixContent content : matrixReversed[combinationsReversed.length]) {
-                MatrixContent currentContent = content;
+            for (int i = 0; i < matrixReversed.size(combinationsReversed.length); ++i) {
+                final int content = matrixReversed.get(combinationsReversed.length, i);
+                int currentContent = content;
                 String currentPeptide = "";
                 String currentPeptideSearch = "";
 
@@ -3868,51 +4654,54 @@ public class FMIndex implements PeptideMapper {
                 ArrayList<int[]> Xcomponents = new ArrayList<int[]>();
                 HashMap<Integer, Double> XmassDiffs = new HashMap<Integer, Double>();
                 
-                while (currentContent.previousContent != null) {
-                    final int aminoAcid = currentContent.character;
+                while (matrixReversed.previous[currentContent] != -1) {
+                    final int aminoAcid = matrixReversed.character[currentContent];
                     if (aminoAcid > 0) {
-                        currentPeptide += (char) currentContent.character;
-                        int c = currentContent.ambiguousChar == -1 ? aminoAcid : currentContent.ambiguousChar;
-                        if (currentContent.character == 'X'){
-                            Xcomponents.add(new int[]{0, currentContent.tagComponent, currentContent.length});
-                            Xcomponents.get(Xcomponents.size() - 1)[2] = currentContent.length;
+                        currentPeptide += (char) aminoAcid;
+                        int c = matrixReversed.ambiguousChar[currentContent] == -1 ? aminoAcid : matrixReversed.ambiguousChar[currentContent];
+                        if (aminoAcid == 'X'){
+                            Xcomponents.add(new int[]{0, matrixReversed.tagComponent[currentContent], matrixReversed.length[currentContent]});
                         }
-                        //System.out.println((char) currentContent.character);
                         currentPeptideSearch += (char)c;
                         final int lessValue = lessPrimary[c];
                         final int[] range = occurrencePrimary.singleRangeQuery(leftIndexFront - 1, rightIndexFront, c);
                         leftIndexFront = lessValue + range[0];
                         rightIndexFront = lessValue + range[1] - 1;
                     }
-                    if (currentContent.XMassDiff > -1){
-                        XmassDiffs.put(currentContent.tagComponent, currentContent.XMassDiff);
+                    if (matrixReversed.XMassDiff[currentContent] > -1){
+                        XmassDiffs.put(matrixReversed.tagComponent[currentContent], matrixReversed.XMassDiff[currentContent]);
                     }
-                    if (currentContent.modification != null || currentContent.modificationPos >= 0) {
-                        if (currentContent.modificationPos >= 0) {
-                            if (modificationFlags[currentContent.modificationPos]) {
-                                modifications.add(new ModificationMatch(modifictationLabels[currentContent.modificationPos], currentContent.modificationPos >= 128, currentContent.length));
+                    final int modificationPos = matrixReversed.modificationPos[currentContent];
+                    if (matrixReversed.modification[currentContent] != null || modificationPos >= 0) {
+                        if (modificationPos >= 0) {
+                            if (modificationFlags[modificationPos]) {
+                                modifications.add(new ModificationMatch(modifictationLabels[modificationPos], modificationPos >= 128, matrixReversed.length[currentContent]));
                             }
                         } else {
-                            modifications.add(currentContent.modification);
+                            modifications.add(matrixReversed.modification[currentContent]);
                         }
                     }
-                    currentContent = currentContent.previousContent;
+                    currentContent = matrixReversed.previous[currentContent];
                 }
                 String reversePeptide = (new StringBuilder(currentPeptide).reverse()).toString();
                 String reversePeptideSearch = (new StringBuilder(currentPeptideSearch).reverse()).toString();
-                MatrixContent cell = new MatrixContent(leftIndexFront, rightIndexFront, reversePeptide.charAt(0), null, 0, reversePeptide, reversePeptideSearch, content.length, 0, 0, null, modifications, -1);
+                MatrixContent cell = new MatrixContent(leftIndexFront, rightIndexFront, reversePeptide.charAt(0), null, 0, reversePeptide, reversePeptideSearch, matrixReversed.length[content], 0, 0, null, modifications, -1);
                 cell.allXcomponents = Xcomponents;
                 cell.allXMassDiffs = XmassDiffs;
                 cachePrimary.add(cell);
             }
 
-            for (MatrixContent matrixContent : cachePrimary) {
-                matrix[0].add(matrixContent);
-            }
             cacheIt(refTagContent, cachePrimary, indexPart);
+            cached = cachePrimary;
+        }
+
+        // the cells the search towards the N-terminus starts from have the same index as the corresponding cached cell
+        matrix.reset(combinations.length + 1);
+        for (MatrixContent matrixContent : cached) {
+            matrix.add(0, matrixContent.left, matrixContent.right, matrixContent.character, -1, matrixContent.mass, matrixContent.length, matrixContent.numX, matrixContent.modificationPos, matrixContent.ambiguousChar, matrixContent.tagComponent, matrixContent.modification);
         }
         
-        if (!matrix[0].isEmpty()) {
+        if (!matrix.isEmpty(0)) {
             // Map towards NTerm
             if (!hasNTermDirection) {
                 if (massAccuracyType == SearchParameters.MassAccuracyType.DA){
@@ -3931,46 +4720,50 @@ public class FMIndex implements PeptideMapper {
             }
         }
         // Traceback from NTerm
-        for (MatrixContent content : matrix[combinations.length]) {
-            MatrixContent currentContent = content;
+        for (int hit = 0; hit < matrix.size(combinations.length); ++hit) {
+            final int content = matrix.get(combinations.length, hit);
+            final int contentLength = matrix.length[content];
+            int currentCell = content;
             String currentPeptide = "";
             String currentPeptideSearch = "";
             ArrayList<ModificationMatch> modifications = new ArrayList<ModificationMatch>();
             ArrayList<int[]> Xcomponents = new ArrayList<int[]>();
             HashMap<Integer, Double> XmassDiffs = new HashMap<Integer, Double>();
                 
-            while (currentContent.previousContent != null) {
-                if (currentContent.character != '\0') {
-                    currentPeptide += (char) currentContent.character;
-                    //System.out.println((char) currentContent.character);
-                    currentPeptideSearch += (char)(currentContent.ambiguousChar == -1 ? currentContent.character : currentContent.ambiguousChar);
-                    if (currentContent.character == 'X'){
-                        Xcomponents.add(new int[]{1, currentContent.tagComponent, content.length - currentContent.length + 1});
+            while (matrix.previous[currentCell] != -1) {
+                final int aminoAcid = matrix.character[currentCell];
+                if (aminoAcid != '\0') {
+                    currentPeptide += (char) aminoAcid;
+                    currentPeptideSearch += (char)(matrix.ambiguousChar[currentCell] == -1 ? aminoAcid : matrix.ambiguousChar[currentCell]);
+                    if (aminoAcid == 'X'){
+                        Xcomponents.add(new int[]{1, matrix.tagComponent[currentCell], contentLength - matrix.length[currentCell] + 1});
                     }
                 }
-                if (currentContent.XMassDiff > -1){
-                    XmassDiffs.put(currentContent.tagComponent + 1024, currentContent.XMassDiff);
+                if (matrix.XMassDiff[currentCell] > -1){
+                    XmassDiffs.put(matrix.tagComponent[currentCell] + 1024, matrix.XMassDiff[currentCell]);
                 }
 
-                if (currentContent.modification != null || currentContent.modificationPos >= 0) {
-                    if (currentContent.modificationPos >= 0) {
-                        if (modificationFlags[currentContent.modificationPos]) {
-                            modifications.add(new ModificationMatch(modifictationLabels[currentContent.modificationPos], currentContent.modificationPos >= 128, content.length - currentContent.length + 1));
+                final int modificationPos = matrix.modificationPos[currentCell];
+                final ModificationMatch modification = matrix.modification[currentCell];
+                if (modification != null || modificationPos >= 0) {
+                    if (modificationPos >= 0) {
+                        if (modificationFlags[modificationPos]) {
+                            modifications.add(new ModificationMatch(modifictationLabels[modificationPos], modificationPos >= 128, contentLength - matrix.length[currentCell] + 1));
                         }
                     } else {
-                        modifications.add(new ModificationMatch(currentContent.modification.getTheoreticPtm(), currentContent.modification.isVariable(), content.length - currentContent.modification.getModificationSite() + 1));
+                        modifications.add(new ModificationMatch(modification.getTheoreticPtm(), modification.isVariable(), contentLength - modification.getModificationSite() + 1));
                     }
                 }
 
-                currentContent = currentContent.previousContent;
+                currentCell = matrix.previous[currentCell];
             }
-            //System.out.println();
+            MatrixContent currentContent = cached.get(currentCell);
 
-            int leftIndex = content.left;
-            int rightIndex = content.right;
+            int leftIndex = matrix.left[content];
+            int rightIndex = matrix.right[content];
 
             for (int[] Xcomponent : currentContent.allXcomponents) {
-                Xcomponents.add(new int[]{Xcomponent[0], Xcomponent[1], Xcomponent[2] + content.length - currentContent.length});
+                Xcomponents.add(new int[]{Xcomponent[0], Xcomponent[1], Xcomponent[2] + contentLength - currentContent.length});
             }
             
             for (Integer key : currentContent.allXMassDiffs.keySet()){
@@ -3980,7 +4773,7 @@ public class FMIndex implements PeptideMapper {
             
 
             for (ModificationMatch modificationMatch : currentContent.modifications) {
-                modifications.add(new ModificationMatch(modificationMatch.getTheoreticPtm(), modificationMatch.isVariable(), modificationMatch.getModificationSite() + content.length - currentContent.length));
+                modifications.add(new ModificationMatch(modificationMatch.getTheoreticPtm(), modificationMatch.isVariable(), modificationMatch.getModificationSite() + contentLength - currentContent.length));
             }
 
             String peptide = currentPeptide + currentContent.peptideSequence;
@@ -4509,97 +5302,44 @@ public class FMIndex implements PeptideMapper {
     }
 
     /**
-     * Class for caching intermediate tag to proteome mapping results.
-     */
-    private class CacheElement {
-
-        Double massFirst;
-        String sequence;
-        Double massSecond;
-        ArrayList<MatrixContent> cachedPrimary;
-
-        /**
-         * Constructor
-         *
-         * @param massFirst
-         * @param sequence
-         * @param massSecond
-         * @param cachedPrimary
-         */
-        public CacheElement(Double massFirst, String sequence, Double massSecond, ArrayList<MatrixContent> cachedPrimary) {
-            this.sequence = sequence;
-            this.massFirst = massFirst;
-            this.massSecond = massSecond;
-            this.cachedPrimary = cachedPrimary;
-        }
-    }
-
-    /**
-     * List of cached intermediate tag to proteome mapping results.
-     */
-    private HashMap<String, CacheElement>[] cache = null;
-
-    /**
-     * Adding intermediate tag to proteome mapping results into the cache.
+     * Returns the cached intermediate tag to proteome mapping results, null
+     * if not cached or if the tag cannot be cached.
      *
-     * @param tagComponents
-     * @return
+     * @param tagComponents the components of the tag
+     * @param indexPart the index part
+     *
+     * @return the cached results
      */
     private ArrayList<MatrixContent> isCached(TagElement[] tagComponents, int indexPart) {
         if (tagComponents.length != 3 || !tagComponents[0].isMass || tagComponents[1].isMass || !tagComponents[2].isMass) {
             return null;
         }
-        ArrayList<MatrixContent> cached = null;
-
-        try {
-            cacheMutex.acquire();
-        } catch (Exception e) {
-            e.printStackTrace();
+        long sequenceKey = TagMappingCache.getSequenceKey(tagComponents[1].sequence);
+        if (sequenceKey < 0) {
+            return null;
         }
-        
-        
-        String key = tagComponents[1].sequence + String.format("%.5f", tagComponents[2].mass);
-        CacheElement cacheElement = cache[indexPart].get(key);
-        if (cacheElement != null) cached = cacheElement.cachedPrimary;
-        /*
-        for (CacheElement cacheElement : cache[indexPart]) {
-            if (cacheElement.sequence.equals(tagComponents[1].sequence) && Math.abs(cacheElement.massSecond - tagComponents[2].mass) < 1e-5) {
-                cached = new ArrayList<MatrixContent>(cacheElement.cachedPrimary);
-                break;
-            }
-        }*/
-        cacheMutex.release();
-        return cached;
+        return tagMappingCache.get(indexPart, sequenceKey, TagMappingCache.getMassKey(tagComponents[2].mass));
     }
 
     /**
      * Caching intermediate results of previous tag to proteome matches.
      *
-     * @param tagComponents
-     * @param cachedPrimary
+     * @param tagComponents the components of the tag
+     * @param cachedPrimary the intermediate results
+     * @param indexPart the index part
      */
     private void cacheIt(TagElement[] tagComponents, ArrayList<MatrixContent> cachedPrimary, int indexPart) {
         if (tagComponents.length != 3 || !tagComponents[0].isMass || tagComponents[1].isMass || !tagComponents[2].isMass) {
             return;
         }
-        try {
-            cacheMutex.acquire();
-        } catch (Exception e) {
-            e.printStackTrace();
+        long sequenceKey = TagMappingCache.getSequenceKey(tagComponents[1].sequence);
+        if (sequenceKey < 0) {
+            return;
         }
-
-        ArrayList<MatrixContent> cacheContentPrimary = new ArrayList<MatrixContent>();
+        ArrayList<MatrixContent> cacheContentPrimary = new ArrayList<MatrixContent>(cachedPrimary.size());
         for (MatrixContent matrixContent : cachedPrimary) {
             cacheContentPrimary.add(new MatrixContent(matrixContent));
         }
-        
-        String key = tagComponents[1].sequence + String.format("%.5f", tagComponents[2].mass);
-        CacheElement cacheElement = new CacheElement(tagComponents[0].mass, tagComponents[1].sequence, tagComponents[2].mass, cacheContentPrimary);
-        if (!cache[indexPart].containsKey(key)) cache[indexPart].put(key, cacheElement);
-        /*cache[indexPart].addFirst(cacheElement);
-        if (cache[indexPart].size() > 100) {
-            cache[indexPart].removeLast();
-        }*/
-        cacheMutex.release();
+        tagMappingCache.put(indexPart, sequenceKey, TagMappingCache.getMassKey(tagComponents[2].mass), cacheContentPrimary);
     }
 }
@@ -0,0 +1,173 @@
+package com.compomics.util.experiment.identification.protein_inference.fm_index;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Convenience methods for the on-disk representation of the FM index. The
+ * index file is written next to the FASTA file and is memory mapped when
+ * loaded back, see FMIndexFileReader. The single values and the lengths of
+ * the arrays are stored in big endian byte order. The content of the arrays
+ * of integers and longs is stored in the native byte order of the platform
+ * writing the file, so that the mapped arrays are read without swapping the
+ * bytes of every value. This byte order is recorded in the header of the
+ * file, an index written with another byte order is rebuilt.
+ *
+ * @author Dominik Kopczynski
+ */
+public class FMIndexFile {
+
+    /**
+     * Magic number at the beginning of every index file.
+     */
+    public static final int MAGIC_NUMBER = 0x464d4958; // FMIX
+    /**
+     * Version of the index file format. To be incremented whenever the layout
+     * of the file changes.
+     */
+    public static final int FORMAT_VERSION = 3;
+    /**
+     * The byte order of the content of the arrays of integers and longs.
+     */
+    public static final ByteOrder ARRAY_BYTE_ORDER = ByteOrder.nativeOrder();
+    /**
+     * The number of bytes of the chunks used to convert the arrays to the
+     * native byte order when writing them.
+     */
+    private static final int CHUNK_SIZE = 64 * 1024;
+    /**
+     * Extension of the index file.
+     */
+    public static final String EXTENSION = ".fmi";
+
+    /**
+     * Returns the index file corresponding to the given FASTA file.
+     *
+     * @param fastaFile the FASTA file
+     *
+     * @return the index file
+     */
+    public static File getIndexFile(File fastaFile) {
+        return new File(fastaFile.getParent(), getIndexName(fastaFile.getName()));
+    }
+
+    /**
+     * Returns the name of the FM index file corresponding to the given FASTA
+     * file name.
+     *
+     * @param fastaName the name of the FASTA file
+     *
+     * @return the name of the index file
+     */
+    public static String getIndexName(String fastaName) {
+        return fastaName + EXTENSION;
+    }
+
+    /**
+     * Writes an array of longs preceded by its length.
+     *
+     * @param outputStream the output stream
+     * @param array the array
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public static void writeLongArray(DataOutputStream outputStream, long[] array) throws IOException {
+        writeLongArray(outputStream, LongBuffer.wrap(array));
+    }
+
+    /**
+     * Writes an array of integers preceded by its length.
+     *
+     * @param outputStream the output stream
+     * @param array the array
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public static void writeIntArray(DataOutputStream outputStream, int[] array) throws IOException {
+        writeIntArray(outputStream, IntBuffer.wrap(array));
+    }
+
+    /**
+     * Writes the content of a buffer of longs preceded by its length, like
+     * writeLongArray.
+     *
+     * @param outputStream the output stream
+     * @param buffer the buffer
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public static void writeLongArray(DataOutputStream outputStream, LongBuffer buffer) throws IOException {
+        outputStream.writeInt(buffer.capacity());
+        LongBuffer source = buffer.duplicate();
+        source.clear();
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE).order(ARRAY_BYTE_ORDER);
+        while (source.hasRemaining()) {
+            int nValues = Math.min(source.remaining(), CHUNK_SIZE >> 3);
+            source.limit(source.position() + nValues);
+            chunk.clear();
+            chunk.asLongBuffer().put(source);
+            source.limit(source.capacity());
+            outputStream.write(chunk.array(), 0, nValues << 3);
+        }
+    }
+
+    /**
+     * Writes the content of a buffer of integers preceded by its length, like
+     * writeIntArray.
+     *
+     * @param outputStream the output stream
+     * @param buffer the buffer
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public static void writeIntArray(DataOutputStream outputStream, IntBuffer buffer) throws IOException {
+        outputStream.writeInt(buffer.capacity());
+        IntBuffer source = buffer.duplicate();
+        source.clear();
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE).order(ARRAY_BYTE_ORDER);
+        while (source.hasRemaining()) {
+            int nValues = Math.min(source.remaining(), CHUNK_SIZE >> 2);
+            source.limit(source.position() + nValues);
+            chunk.clear();
+            chunk.asIntBuffer().put(source);
+            source.limit(source.capacity());
+            outputStream.write(chunk.array(), 0, nValues << 2);
+        }
+    }
+
+    /**
+     * Writes an array of bytes preceded by its length.
+     *
+     * @param outputStream the output stream
+     * @param array the array
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public static void writeByteArray(DataOutputStream outputStream, byte[] array) throws IOException {
+        outputStream.writeInt(array.length);
+        outputStream.write(array);
+    }
+
+    /**
+     * Writes a string as UTF-8 bytes preceded by their length.
+     *
+     * @param outputStream the output stream
+     * @param string the string
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public static void writeString(DataOutputStream outputStream, String string) throws IOException {
+        writeByteArray(outputStream, string.getBytes("UTF-8"));
+    }
+}
@@ -0,0 +1,240 @@
+package com.compomics.util.experiment.identification.protein_inference.fm_index;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads an index file written by the FM index. The suffix arrays are mapped
+ * individually and returned as views of the file, they are hence not copied
+ * on the heap and their pages are shared by all processes using the index.
+ * As every array has its own mapping, no mapping exceeds the 2 GB limit of a
+ * buffer as long as every array is smaller than this limit. The other values
+ * are read through a mapped window moving along the file. The arrays of
+ * integers and longs are read in FMIndexFile.ARRAY_BYTE_ORDER.
+ *
+ * @author Dominik Kopczynski
+ */
+public class FMIndexFileReader {
+
+    /**
+     * The size in bytes of the window used to read the values which are not
+     * mapped individually.
+     */
+    public static final int WINDOW_SIZE = 16 * 1024 * 1024;
+    /**
+     * The channel of the index file.
+     */
+    private final FileChannel channel;
+    /**
+     * The length of the file in bytes.
+     */
+    private final long fileLength;
+    /**
+     * The window currently mapped, null if none.
+     */
+    private MappedByteBuffer window = null;
+    /**
+     * The position in the file of the beginning of the window.
+     */
+    private long windowStart = 0;
+    /**
+     * The length of the window in bytes.
+     */
+    private int windowLength = 0;
+    /**
+     * The position in the file of the next value to read.
+     */
+    private long position;
+
+    /**
+     * Constructor. The mappings remain valid after the channel is closed.
+     *
+     * @param channel the channel of the index file
+     * @param position the position in the file where to start reading
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * accessing the file
+     */
+    public FMIndexFileReader(FileChannel channel, long position) throws IOException {
+        this.channel = channel;
+        this.fileLength = channel.size();
+        this.position = position;
+    }
+
+    /**
+     * Returns the position in the file of the next value to read.
+     *
+     * @return the position in the file of the next value to read
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Sets the position in the file of the next value to read.
+     *
+     * @param position the position in the file of the next value to read
+     */
+    public void setPosition(long position) {
+        this.position = position;
+    }
+
+    /**
+     * Returns the window positioned at the current position and containing
+     * at least the given number of bytes, and advances the position.
+     *
+     * @param nBytes the number of bytes to read
+     *
+     * @return the window positioned at the bytes to read
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * mapping the file
+     */
+    private ByteBuffer read(int nBytes) throws IOException {
+        if (window == null || position < windowStart || position + nBytes > windowStart + windowLength) {
+            long length = Math.min(Math.max(WINDOW_SIZE, nBytes), fileLength - position);
+            if (length < nBytes) {
+                throw new EOFException("End of the index file reached at position " + position + ".");
+            }
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            windowStart = position;
+            windowLength = (int) length;
+        }
+        window.position((int) (position - windowStart));
+        position += nBytes;
+        return window;
+    }
+
+    /**
+     * Maps the given number of bytes at the current position and advances the
+     * position.
+     *
+     * @param nBytes the number of bytes to map
+     *
+     * @return the mapped bytes
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * mapping the file or if the number of bytes exceeds the size of a buffer
+     */
+    private MappedByteBuffer map(long nBytes) throws IOException {
+        if (nBytes > Integer.MAX_VALUE) {
+            throw new IOException("Array of " + nBytes + " bytes too large to be mapped.");
+        }
+        if (position + nBytes > fileLength) {
+            throw new EOFException("End of the index file reached at position " + position + ".");
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, nBytes);
+        position += nBytes;
+        return buffer;
+    }
+
+    /**
+     * Reads a byte.
+     *
+     * @return the byte
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public byte get() throws IOException {
+        return read(1).get();
+    }
+
+    /**
+     * Reads an integer.
+     *
+     * @return the integer
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public int getInt() throws IOException {
+        return read(4).getInt();
+    }
+
+    /**
+     * Reads a long.
+     *
+     * @return the long
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public long getLong() throws IOException {
+        return read(8).getLong();
+    }
+
+    /**
+     * Reads an array of bytes written by FMIndexFile.writeByteArray on the
+     * heap.
+     *
+     * @return the array
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public byte[] readByteArray() throws IOException {
+        byte[] array = new byte[getInt()];
+        read(array.length).get(array);
+        return array;
+    }
+
+    /**
+     * Reads an array of integers written by FMIndexFile.writeIntArray on the
+     * heap.
+     *
+     * @return the array
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public int[] readIntArray() throws IOException {
+        int[] array = new int[getInt()];
+        read(array.length << 2).slice().order(FMIndexFile.ARRAY_BYTE_ORDER).asIntBuffer().get(array);
+        return array;
+    }
+
+    /**
+     * Reads an array of longs written by FMIndexFile.writeLongArray on the
+     * heap.
+     *
+     * @return the array
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public long[] readLongArray() throws IOException {
+        long[] array = new long[getInt()];
+        map(((long) array.length) << 3).order(FMIndexFile.ARRAY_BYTE_ORDER).asLongBuffer().get(array);
+        return array;
+    }
+
+    /**
+     * Reads a string written by FMIndexFile.writeString.
+     *
+     * @return the string
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public String readString() throws IOException {
+        return new String(readByteArray(), "UTF-8");
+    }
+
+    /**
+     * Maps an array of integers written by FMIndexFile.writeIntArray.
+     *
+     * @return a view of the array in the file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * mapping the file
+     */
+    public IntBuffer mapIntArray() throws IOException {
+        int length = getInt();
+        return map(((long) length) << 2).order(FMIndexFile.ARRAY_BYTE_ORDER).asIntBuffer();
+    }
+}
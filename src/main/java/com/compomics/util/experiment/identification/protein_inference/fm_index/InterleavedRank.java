@@ -0,0 +1,139 @@
+package com.compomics.util.experiment.identification.protein_inference.fm_index;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Rank with the counts interleaved with the bit field. The bits are stored in
+ * blocks of seven words preceded by a header word, so that a block fills one
+ * cache line. The lower 32 bits of the header hold the number of ones before
+ * the block, the upper bits the number of ones in the first two, four and six
+ * words of the block, nine bits each. A rank query thus reads one block and
+ * counts the bits of at most two words.
+ *
+ * @author Dominik Kopczynski
+ */
+public class InterleavedRank implements RankStructure {
+
+    /**
+     * The number of words of a block including the header.
+     */
+    private static final int BLOCK_WORDS = 8;
+    /**
+     * The number of bits stored per block.
+     */
+    private static final int BLOCK_BITS = (BLOCK_WORDS - 1) << 6;
+    /**
+     * The length.
+     */
+    public final int length;
+    /**
+     * The blocks of header and bit field words.
+     */
+    private final long[] blocks;
+
+    /**
+     * Constructor.
+     *
+     * @param text the text
+     * @param aAlphabet the alphabet
+     */
+    public InterleavedRank(byte[] text, long[] aAlphabet) {
+        length = text.length;
+        int numBlocks = length / BLOCK_BITS + 1;
+        blocks = new long[numBlocks * BLOCK_WORDS];
+
+        int word = 1;
+        int pos = 0;
+        for (int i = 0; i < length; ++i) {
+            long bit = (aAlphabet[text[i] >>> 6] >>> (text[i] & 63)) & 1L;
+            blocks[word] |= bit << pos;
+            if (++pos == 64) {
+                pos = 0;
+                // skipping the header of the next block
+                word += ((word & (BLOCK_WORDS - 1)) == BLOCK_WORDS - 1) ? 2 : 1;
+            }
+        }
+
+        long count = 0;
+        for (int block = 0; block < numBlocks; ++block) {
+            int base = block * BLOCK_WORDS;
+            long header = count;
+            int blockCount = 0;
+            for (int w = 0; w < BLOCK_WORDS - 1; ++w) {
+                if (w == 2 || w == 4 || w == 6) {
+                    header |= ((long) blockCount) << (23 + 9 * (w >>> 1));
+                }
+                blockCount += Long.bitCount(blocks[base + 1 + w]);
+            }
+            blocks[base] = header;
+            count += blockCount;
+        }
+    }
+
+    /**
+     * Constructor reading a rank previously written by write on the heap.
+     *
+     * @param reader the reader of the index file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public InterleavedRank(FMIndexFileReader reader) throws IOException {
+        length = reader.getInt();
+        blocks = reader.readLongArray();
+    }
+
+    @Override
+    public void write(DataOutputStream outputStream) throws IOException {
+        outputStream.writeInt(length);
+        FMIndexFile.writeLongArray(outputStream, blocks);
+    }
+
+    @Override
+    public RankType getRankType() {
+        return RankType.interleaved;
+    }
+
+    @Override
+    public int getRank(int index, boolean zeros) {
+        int countOnes = getRankOne(index);
+        return zeros ? index + 1 - countOnes : countOnes;
+    }
+
+    @Override
+    public final int getRankOne(int index) {
+        final int block = index / BLOCK_BITS;
+        final int offset = index - block * BLOCK_BITS;
+        final int word = offset >>> 6;
+        final int base = block * BLOCK_WORDS;
+        final long header = blocks[base];
+        final int pair = word >>> 1;
+        // branch free: the count of the pairs is masked out for the first pair, the preceding word for even words
+        final int pairCount = ((int) (header >>> (23 + 9 * pair)) & 511) & (-pair >> 31);
+        final int wordCount = Long.bitCount(blocks[base + word] & -((long) (word & 1)));
+        return (int) header + pairCount + wordCount + Long.bitCount(blocks[base + 1 + word] << (63 - (offset & 63)));
+    }
+
+    @Override
+    public int getRankZero(int index) {
+        return index + 1 - getRankOne(index);
+    }
+
+    @Override
+    public boolean isOne(int index) {
+        return isOneInt(index) == 1;
+    }
+
+    @Override
+    public int isOneInt(int index) {
+        final int block = index / BLOCK_BITS;
+        final int offset = index - block * BLOCK_BITS;
+        return (int) ((blocks[block * BLOCK_WORDS + 1 + (offset >>> 6)] >>> (offset & 63)) & 1L);
+    }
+
+    @Override
+    public long getAllocatedByteCount() {
+        return ((long) blocks.length) << 3;
+    }
+}
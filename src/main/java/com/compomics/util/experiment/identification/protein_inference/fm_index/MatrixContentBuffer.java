@@ -0,0 +1,333 @@
+package com.compomics.util.experiment.identification.protein_inference.fm_index;
+
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import java.util.Arrays;
+
+/**
+ * Pooled representation of the pattern search matrix of the FMIndex. The
+ * content of the cells is stored column wise in primitive arrays and cells
+ * refer to their originating cell by index, see MatrixContent for the meaning
+ * of the columns. Every row of the matrix is a queue of cell indexes. The
+ * arrays are kept when the buffer is reset so that a buffer can be reused for
+ * every search of a thread without allocating, unless a search made them grow
+ * beyond a maximal capacity.
+ *
+ * @author Dominik Kopczynski
+ */
+public class MatrixContentBuffer {
+
+    /**
+     * Initial number of cells.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * Initial number of cells per row.
+     */
+    private static final int INITIAL_ROW_CAPACITY = 64;
+    /**
+     * Maximal number of cells kept when the buffer is reset, larger arrays are
+     * released.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 1 << 16;
+    /**
+     * Maximal number of cells per row kept when the buffer is reset, larger
+     * rows are released.
+     */
+    private static final int MAX_RETAINED_ROW_CAPACITY = 1 << 12;
+    /**
+     * Number of cells in the buffer.
+     */
+    private int size = 0;
+    /**
+     * Left index.
+     */
+    public int[] left = new int[INITIAL_CAPACITY];
+    /**
+     * Right index.
+     */
+    public int[] right = new int[INITIAL_CAPACITY];
+    /**
+     * Character which was chosen.
+     */
+    public int[] character = new int[INITIAL_CAPACITY];
+    /**
+     * Index of the originating cell, -1 for the cells the search started
+     * from.
+     */
+    public int[] previous = new int[INITIAL_CAPACITY];
+    /**
+     * Current mass.
+     */
+    public double[] mass = new double[INITIAL_CAPACITY];
+    /**
+     * Current peptide sequence length.
+     */
+    public int[] length = new int[INITIAL_CAPACITY];
+    /**
+     * Current number of contained X's.
+     */
+    public int[] numX = new int[INITIAL_CAPACITY];
+    /**
+     * Index of the modification in the modification labels, -1 if none.
+     */
+    public int[] modificationPos = new int[INITIAL_CAPACITY];
+    /**
+     * The original character if B, J, X, Z, -1 otherwise.
+     */
+    public int[] ambiguousChar = new int[INITIAL_CAPACITY];
+    /**
+     * The tag component the cell belongs to.
+     */
+    public int[] tagComponent = new int[INITIAL_CAPACITY];
+    /**
+     * The X mass difference, -1 if none.
+     */
+    public double[] XMassDiff = new double[INITIAL_CAPACITY];
+    /**
+     * Terminal modification, null if none.
+     */
+    public ModificationMatch[] modification = new ModificationMatch[INITIAL_CAPACITY];
+    /**
+     * The cell indexes of every row.
+     */
+    private int[][] rows = new int[0][];
+    /**
+     * Position of the first cell not yet polled in every row.
+     */
+    private int[] rowStarts = new int[0];
+    /**
+     * Number of cells in every row.
+     */
+    private int[] rowEnds = new int[0];
+
+    /**
+     * Empties the buffer and prepares the given number of rows. The allocated
+     * arrays are kept unless they grew beyond the maximal capacity, the
+     * references to the modifications are released.
+     *
+     * @param numRows the number of rows
+     */
+    public void reset(int numRows) {
+        if (left.length > MAX_RETAINED_CAPACITY) {
+            allocate(INITIAL_CAPACITY);
+        } else {
+            Arrays.fill(modification, 0, size, null);
+        }
+        size = 0;
+        for (int i = 0; i < rows.length; ++i) {
+            if (rows[i].length > MAX_RETAINED_ROW_CAPACITY) {
+                rows[i] = new int[INITIAL_ROW_CAPACITY];
+            }
+        }
+        if (rows.length < numRows) {
+            int[][] newRows = new int[numRows][];
+            System.arraycopy(rows, 0, newRows, 0, rows.length);
+            for (int i = rows.length; i < numRows; ++i) {
+                newRows[i] = new int[INITIAL_ROW_CAPACITY];
+            }
+            rows = newRows;
+            rowStarts = new int[numRows];
+            rowEnds = new int[numRows];
+        } else {
+            for (int i = 0; i < numRows; ++i) {
+                rowStarts[i] = 0;
+                rowEnds[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Adds a cell to the buffer without adding it to a row.
+     *
+     * @param left left index boundary
+     * @param right right index boundary
+     * @param character current character stored
+     * @param previous index of the previous cell, -1 if none
+     * @param mass current mass
+     * @param length length of the current peptide
+     * @param numX number of current X amino acids
+     * @param modificationPos index to modification list
+     * @param ambiguousChar the ambiguous character, -1 if none
+     * @param tagComponent the tag component
+     * @param modification the terminal modification, null if none
+     *
+     * @return the index of the cell
+     */
+    public int newCell(int left, int right, int character, int previous, double mass, int length, int numX, int modificationPos, int ambiguousChar, int tagComponent, ModificationMatch modification) {
+        if (size == this.left.length) {
+            grow();
+        }
+        int cell = size++;
+        this.left[cell] = left;
+        this.right[cell] = right;
+        this.character[cell] = character;
+        this.previous[cell] = previous;
+        this.mass[cell] = mass;
+        this.length[cell] = length;
+        this.numX[cell] = numX;
+        this.modificationPos[cell] = modificationPos;
+        this.ambiguousChar[cell] = ambiguousChar;
+        this.tagComponent[cell] = tagComponent;
+        this.XMassDiff[cell] = -1;
+        this.modification[cell] = modification;
+        return cell;
+    }
+
+    /**
+     * Adds a cell to the buffer and to the end of the given row.
+     *
+     * @param row the row
+     * @param left left index boundary
+     * @param right right index boundary
+     * @param character current character stored
+     * @param previous index of the previous cell, -1 if none
+     * @param mass current mass
+     * @param length length of the current peptide
+     * @param numX number of current X amino acids
+     * @param modificationPos index to modification list
+     * @param ambiguousChar the ambiguous character, -1 if none
+     * @param tagComponent the tag component
+     * @param modification the terminal modification, null if none
+     *
+     * @return the index of the cell
+     */
+    public int add(int row, int left, int right, int character, int previous, double mass, int length, int numX, int modificationPos, int ambiguousChar, int tagComponent, ModificationMatch modification) {
+        int cell = newCell(left, right, character, previous, mass, length, numX, modificationPos, ambiguousChar, tagComponent, modification);
+        add(row, cell);
+        return cell;
+    }
+
+    /**
+     * Adds a cell of the buffer to the end of the given row.
+     *
+     * @param row the row
+     * @param cell the index of the cell
+     */
+    public void add(int row, int cell) {
+        int[] rowCells = rows[row];
+        int end = rowEnds[row];
+        if (end == rowCells.length) {
+            int[] newRowCells = new int[rowCells.length << 1];
+            System.arraycopy(rowCells, 0, newRowCells, 0, end);
+            rows[row] = rowCells = newRowCells;
+        }
+        rowCells[end] = cell;
+        rowEnds[row] = end + 1;
+    }
+
+    /**
+     * Indicates whether all cells of a row were polled.
+     *
+     * @param row the row
+     *
+     * @return true if all cells of the row were polled
+     */
+    public boolean isEmpty(int row) {
+        return rowStarts[row] == rowEnds[row];
+    }
+
+    /**
+     * Returns the next cell of a row.
+     *
+     * @param row the row
+     *
+     * @return the index of the cell
+     */
+    public int poll(int row) {
+        return rows[row][rowStarts[row]++];
+    }
+
+    /**
+     * Returns the last cell added to a row.
+     *
+     * @param row the row
+     *
+     * @return the index of the cell
+     */
+    public int getLast(int row) {
+        return rows[row][rowEnds[row] - 1];
+    }
+
+    /**
+     * Returns the number of cells not yet polled of a row.
+     *
+     * @param row the row
+     *
+     * @return the number of cells
+     */
+    public int size(int row) {
+        return rowEnds[row] - rowStarts[row];
+    }
+
+    /**
+     * Returns the i-th cell not yet polled of a row.
+     *
+     * @param row the row
+     * @param i the position in the row
+     *
+     * @return the index of the cell
+     */
+    public int get(int row, int i) {
+        return rows[row][rowStarts[row] + i];
+    }
+
+    /**
+     * Replaces the columns by empty arrays of the given capacity.
+     *
+     * @param capacity the capacity
+     */
+    private void allocate(int capacity) {
+        left = new int[capacity];
+        right = new int[capacity];
+        character = new int[capacity];
+        previous = new int[capacity];
+        mass = new double[capacity];
+        length = new int[capacity];
+        numX = new int[capacity];
+        modificationPos = new int[capacity];
+        ambiguousChar = new int[capacity];
+        tagComponent = new int[capacity];
+        XMassDiff = new double[capacity];
+        modification = new ModificationMatch[capacity];
+    }
+
+    /**
+     * Doubles the capacity of the columns.
+     */
+    private void grow() {
+        int capacity = left.length << 1;
+        left = copyOf(left, capacity);
+        right = copyOf(right, capacity);
+        character = copyOf(character, capacity);
+        previous = copyOf(previous, capacity);
+        length = copyOf(length, capacity);
+        numX = copyOf(numX, capacity);
+        modificationPos = copyOf(modificationPos, capacity);
+        ambiguousChar = copyOf(ambiguousChar, capacity);
+        tagComponent = copyOf(tagComponent, capacity);
+        double[] newMass = new double[capacity];
+        System.arraycopy(mass, 0, newMass, 0, size);
+        mass = newMass;
+        double[] newXMassDiff = new double[capacity];
+        System.arraycopy(XMassDiff, 0, newXMassDiff, 0, size);
+        XMassDiff = newXMassDiff;
+        ModificationMatch[] newModification = new ModificationMatch[capacity];
+        System.arraycopy(modification, 0, newModification, 0, size);
+        modification = newModification;
+    }
+
+    /**
+     * Returns a copy of the first size elements of an array with the given
+     * capacity.
+     *
+     * @param array the array
+     * @param capacity the capacity of the copy
+     *
+     * @return the copy
+     */
+    private int[] copyOf(int[] array, int capacity) {
+        int[] copy = new int[capacity];
+        System.arraycopy(array, 0, copy, 0, size);
+        return copy;
+    }
+}
@@ -1,11 +1,14 @@
 package com.compomics.util.experiment.identification.protein_inference.fm_index;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 /**
  * Rank as used in the FM index.
  *
  * @author Dominik Kopczynski
  */
-public class Rank {
+public class Rank implements RankStructure {
 
     /**
      * The length.
@@ -102,6 +105,37 @@ public class Rank {
         }
     }
 
+    /**
+     * Constructor reading a rank previously written by write on the heap.
+     *
+     * @param reader the reader of the index file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public Rank(FMIndexFileReader reader) throws IOException {
+        length = reader.getInt();
+        bitfield = reader.readLongArray();
+        sums = reader.readIntArray();
+        sumsSecondLevel = reader.readByteArray();
+    }
+
+    /**
+     * Writes the rank to an output stream.
+     *
+     * @param outputStream the output stream
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    @Override
+    public void write(DataOutputStream outputStream) throws IOException {
+        outputStream.writeInt(length);
+        FMIndexFile.writeLongArray(outputStream, bitfield);
+        FMIndexFile.writeIntArray(outputStream, sums);
+        FMIndexFile.writeByteArray(outputStream, sumsSecondLevel);
+    }
+
     /**
      * Returns the rank.
      *
@@ -109,6 +143,7 @@ public class Rank {
      * @param zeros the zeros
      * @return the rank
      */
+    @Override
     public int getRank(int index, boolean zeros) {
         int cell = index >>> shift;
         int pos = index & mask;
@@ -123,6 +158,7 @@ public class Rank {
      * @param index the value
      * @return the rank
      */
+    @Override
     public final int getRankOne(int index) {
         final int cell = index >>> shift;
         final int pos = index & mask;
@@ -137,6 +173,7 @@ public class Rank {
      * @param index the value
      * @return the rank
      */
+    @Override
     public int getRankZero(int index) {
         int cell = index >>> shift;
         int pos = index & mask;
@@ -151,6 +188,7 @@ public class Rank {
      * @param index the value
      * @return true if the value is equal to one
      */
+    @Override
     public boolean isOne(int index) {
         int cell = index >>> shift;
         int pos = index & mask;
@@ -163,18 +201,39 @@ public class Rank {
      * @param index the value
      * @return the bit 
      */
+    @Override
     public int isOneInt(int index) {
         int cell = index >>> shift;
         int pos = index & mask;
         return (int)((bitfield[cell] >>> pos) & 1L);
     }
 
+    @Override
+    public RankType getRankType() {
+        return RankType.separate;
+    }
+
     /**
      * Returns the number of bytes for the allocated arrays.
      *
      * @return the number of bytes for the allocated arrays
      */
+    @Override
+    public long getAllocatedByteCount() {
+        return ((long) bitfield.length << 3) + ((long) sums.length << 2) + sumsSecondLevel.length;
+    }
+
+    /**
+     * Returns the number of bytes for the allocated arrays, capped to
+     * Integer.MAX_VALUE.
+     *
+     * @deprecated use getAllocatedByteCount, the arrays of large index parts
+     * can exceed Integer.MAX_VALUE bytes
+     *
+     * @return the number of bytes for the allocated arrays
+     */
+    @Deprecated
     public int getAllocatedBytes() {
-        return (bitfield.length << 3) + (sums.length << 2) + sumsSecondLevel.length;
+        return (int) Math.min(getAllocatedByteCount(), Integer.MAX_VALUE);
     }
 }
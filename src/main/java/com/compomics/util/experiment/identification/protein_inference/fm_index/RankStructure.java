@@ -0,0 +1,77 @@
+package com.compomics.util.experiment.identification.protein_inference.fm_index;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Interface for the rank structures of the bit vectors of a wavelet tree.
+ *
+ * @author Dominik Kopczynski
+ */
+public interface RankStructure {
+
+    /**
+     * Returns the rank.
+     *
+     * @param index the value
+     * @param zeros the zeros
+     * @return the rank
+     */
+    public int getRank(int index, boolean zeros);
+
+    /**
+     * Returns the rank of ones.
+     *
+     * @param index the value
+     * @return the rank
+     */
+    public int getRankOne(int index);
+
+    /**
+     * Returns the rank of zeros.
+     *
+     * @param index the value
+     * @return the rank
+     */
+    public int getRankZero(int index);
+
+    /**
+     * Returns true if the value is equal to one.
+     *
+     * @param index the value
+     * @return true if the value is equal to one
+     */
+    public boolean isOne(int index);
+
+    /**
+     * Returns the bit at the given index.
+     *
+     * @param index the value
+     * @return the bit
+     */
+    public int isOneInt(int index);
+
+    /**
+     * Returns the number of bytes for the allocated arrays.
+     *
+     * @return the number of bytes for the allocated arrays
+     */
+    public long getAllocatedByteCount();
+
+    /**
+     * Returns the type of the rank structure.
+     *
+     * @return the type of the rank structure
+     */
+    public RankType getRankType();
+
+    /**
+     * Writes the rank structure to an output stream.
+     *
+     * @param outputStream the output stream
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void write(DataOutputStream outputStream) throws IOException;
+}
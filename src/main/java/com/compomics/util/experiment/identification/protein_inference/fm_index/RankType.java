@@ -0,0 +1,106 @@
+package com.compomics.util.experiment.identification.protein_inference.fm_index;
+
+import java.io.IOException;
+
+/**
+ * Enum of the rank structures available for the wavelet trees.
+ *
+ * @author Dominik Kopczynski
+ */
+public enum RankType {
+
+    /**
+     * Bit field and two levels of counts stored in separate arrays.
+     */
+    separate(0, "Separate", "Bit field and counts stored in separate arrays."),
+    /**
+     * Counts interleaved with the bit field, one cache line per block.
+     */
+    interleaved(1, "Interleaved", "Counts interleaved with the bit field in blocks of one cache line.");
+
+    /**
+     * The unique index of the rank type.
+     */
+    public final int index;
+    /**
+     * The name of the rank type.
+     */
+    public final String name;
+    /**
+     * The description of the rank type.
+     */
+    public final String description;
+
+    /**
+     * Constructor.
+     *
+     * @param index a unique index
+     * @param name the name to assign
+     * @param description the description to use
+     */
+    private RankType(int index, String name, String description) {
+        this.index = index;
+        this.name = name;
+        this.description = description;
+    }
+
+    /**
+     * Builds a rank structure of this type over the bits of the text where
+     * the characters of the alphabet are set.
+     *
+     * @param text the text
+     * @param alphabet the alphabet
+     *
+     * @return the rank structure
+     */
+    public RankStructure createRank(byte[] text, long[] alphabet) {
+        switch (this) {
+            case interleaved:
+                return new InterleavedRank(text, alphabet);
+            default:
+                return new Rank(text, alphabet);
+        }
+    }
+
+    /**
+     * Reads a rank structure of this type previously written to an index
+     * file. The arrays of the rank structure are copied on the heap as they
+     * are accessed at every step of the backward search.
+     *
+     * @param reader the reader of the index file
+     *
+     * @return the rank structure
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public RankStructure readRank(FMIndexFileReader reader) throws IOException {
+        switch (this) {
+            case interleaved:
+                return new InterleavedRank(reader);
+            default:
+                return new Rank(reader);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Returns the rank type corresponding to the given index.
+     *
+     * @param index the index of the rank type
+     *
+     * @return the rank type
+     */
+    public static RankType getRankType(int index) {
+        for (RankType rankType : values()) {
+            if (rankType.index == index) {
+                return rankType;
+            }
+        }
+        throw new IllegalArgumentException("No rank type found for index " + index + ".");
+    }
+}
@@ -0,0 +1,869 @@
+package com.compomics.util.experiment.identification.protein_inference.fm_index;
+
+/**
+ * Builds suffix arrays directly over byte texts using induced sorting (SA-IS,
+ * Nong, Zhang and Chan, 2009). The implementation follows the structure of
+ * the sais library of Yuta Mori: the reduced problems are solved in the space
+ * of the suffix array itself, so that besides the text and the suffix array
+ * only the bucket arrays are allocated. The methods are implemented twice:
+ * over the byte text for the top level, which dominates the construction
+ * time, and over integer arrays for the reduced problems.
+ *
+ * @author Dominik Kopczynski
+ */
+public class SuffixArrayBuilder {
+
+    /**
+     * The size of the byte alphabet.
+     */
+    private static final int BYTE_ALPHABET_SIZE = 256;
+    /**
+     * Alphabet size below which the buckets are allocated separately rather
+     * than in the free space of the suffix array.
+     */
+    private static final int MIN_BUCKET_SIZE = 256;
+
+    /**
+     * Empty default constructor.
+     */
+    private SuffixArrayBuilder() {
+    }
+
+    /**
+     * Returns the suffix array of the given text.
+     *
+     * @param text the text
+     *
+     * @return the suffix array
+     */
+    public static int[] buildSuffixArray(byte[] text) {
+        int n = text.length;
+        int[] suffixArray = new int[n];
+        if (n == 1) {
+            suffixArray[0] = 0;
+        } else if (n > 1) {
+            suffixArrayIS(text, suffixArray, 0, n, BYTE_ALPHABET_SIZE);
+        }
+        return suffixArray;
+    }
+
+    /**
+     * Integer array accessed by the construction.
+     */
+    private static abstract class BaseArray {
+
+        /**
+         * Returns the value at the given index.
+         *
+         * @param i the index
+         *
+         * @return the value
+         */
+        abstract int get(int i);
+
+        /**
+         * Sets the value at the given index.
+         *
+         * @param i the index
+         * @param value the value
+         */
+        abstract void set(int i, int value);
+
+        /**
+         * Adds a value to the value at the given index.
+         *
+         * @param i the index
+         * @param value the value to add
+         *
+         * @return the new value
+         */
+        abstract int update(int i, int value);
+    }
+
+    /**
+     * Access to an integer array from an offset.
+     */
+    private static final class IntArray extends BaseArray {
+
+        /**
+         * The array.
+         */
+        private final int[] array;
+        /**
+         * The offset.
+         */
+        private final int offset;
+
+        /**
+         * Constructor.
+         *
+         * @param array the array
+         * @param offset the offset
+         */
+        IntArray(int[] array, int offset) {
+            this.array = array;
+            this.offset = offset;
+        }
+
+        @Override
+        int get(int i) {
+            return array[offset + i];
+        }
+
+        @Override
+        void set(int i, int value) {
+            array[offset + i] = value;
+        }
+
+        @Override
+        int update(int i, int value) {
+            return array[offset + i] += value;
+        }
+    }
+
+    /**
+     * Counts the occurrences of every character.
+     *
+     * @param T the text
+     * @param C the counts
+     * @param n the length of the text
+     * @param k the alphabet size
+     */
+    private static void getCounts(BaseArray T, BaseArray C, int n, int k) {
+        for (int i = 0; i < k; ++i) {
+            C.set(i, 0);
+        }
+        for (int i = 0; i < n; ++i) {
+            C.update(T.get(i), 1);
+        }
+    }
+
+    /**
+     * Counts the occurrences of every character.
+     *
+     * @param T the text, read unsigned
+     * @param C the counts
+     * @param n the length of the text
+     * @param k the alphabet size
+     */
+    private static void getCounts(byte[] T, BaseArray C, int n, int k) {
+        for (int i = 0; i < k; ++i) {
+            C.set(i, 0);
+        }
+        for (int i = 0; i < n; ++i) {
+            C.update((T[i] & 0xFF), 1);
+        }
+    }
+
+    /**
+     * Computes the start or end positions of the buckets.
+     *
+     * @param C the counts
+     * @param B the buckets
+     * @param k the alphabet size
+     * @param end if true the ends of the buckets are computed, the starts
+     * otherwise
+     */
+    private static void getBuckets(BaseArray C, BaseArray B, int k, boolean end) {
+        int sum = 0;
+        if (end) {
+            for (int i = 0; i < k; ++i) {
+                sum += C.get(i);
+                B.set(i, sum);
+            }
+        } else {
+            for (int i = 0; i < k; ++i) {
+                sum += C.get(i);
+                B.set(i, sum - C.get(i));
+            }
+        }
+    }
+
+    /**
+     * Sorts all LMS substrings by induction.
+     *
+     * @param T the text
+     * @param SA the suffix array
+     * @param C the counts
+     * @param B the buckets
+     * @param n the length of the text
+     * @param k the alphabet size
+     */
+    private static void sortLMS(BaseArray T, int[] SA, BaseArray C, BaseArray B, int n, int k) {
+        int b, i, j;
+        int c0, c1;
+        // L type suffixes
+        if (C == B) {
+            getCounts(T, C, n, k);
+        }
+        getBuckets(C, B, k, false);
+        j = n - 1;
+        b = B.get(c1 = T.get(j));
+        --j;
+        SA[b++] = (T.get(j) < c1) ? ~j : j;
+        for (i = 0; i < n; ++i) {
+            if (0 < (j = SA[i])) {
+                if ((c0 = T.get(j)) != c1) {
+                    B.set(c1, b);
+                    b = B.get(c1 = c0);
+                }
+                --j;
+                SA[b++] = (T.get(j) < c1) ? ~j : j;
+                SA[i] = 0;
+            } else if (j < 0) {
+                SA[i] = ~j;
+            }
+        }
+        // S type suffixes
+        if (C == B) {
+            getCounts(T, C, n, k);
+        }
+        getBuckets(C, B, k, true);
+        for (i = n - 1, b = B.get(c1 = 0); 0 <= i; --i) {
+            if (0 < (j = SA[i])) {
+                if ((c0 = T.get(j)) != c1) {
+                    B.set(c1, b);
+                    b = B.get(c1 = c0);
+                }
+                --j;
+                SA[--b] = (T.get(j) > c1) ? ~(j + 1) : j;
+                SA[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Sorts all LMS substrings by induction.
+     *
+     * @param T the text, read unsigned
+     * @param SA the suffix array
+     * @param C the counts
+     * @param B the buckets
+     * @param n the length of the text
+     * @param k the alphabet size
+     */
+    private static void sortLMS(byte[] T, int[] SA, BaseArray C, BaseArray B, int n, int k) {
+        int b, i, j;
+        int c0, c1;
+        // L type suffixes
+        if (C == B) {
+            getCounts(T, C, n, k);
+        }
+        getBuckets(C, B, k, false);
+        j = n - 1;
+        b = B.get(c1 = (T[j] & 0xFF));
+        --j;
+        SA[b++] = ((T[j] & 0xFF) < c1) ? ~j : j;
+        for (i = 0; i < n; ++i) {
+            if (0 < (j = SA[i])) {
+                if ((c0 = (T[j] & 0xFF)) != c1) {
+                    B.set(c1, b);
+                    b = B.get(c1 = c0);
+                }
+                --j;
+                SA[b++] = ((T[j] & 0xFF) < c1) ? ~j : j;
+                SA[i] = 0;
+            } else if (j < 0) {
+                SA[i] = ~j;
+            }
+        }
+        // S type suffixes
+        if (C == B) {
+            getCounts(T, C, n, k);
+        }
+        getBuckets(C, B, k, true);
+        for (i = n - 1, b = B.get(c1 = 0); 0 <= i; --i) {
+            if (0 < (j = SA[i])) {
+                if ((c0 = (T[j] & 0xFF)) != c1) {
+                    B.set(c1, b);
+                    b = B.get(c1 = c0);
+                }
+                --j;
+                SA[--b] = ((T[j] & 0xFF) > c1) ? ~(j + 1) : j;
+                SA[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Compacts the sorted LMS substrings in the first m cells of the suffix
+     * array and names them.
+     *
+     * @param T the text
+     * @param SA the suffix array
+     * @param n the length of the text
+     * @param m the number of LMS substrings
+     *
+     * @return the number of distinct names
+     */
+    private static int nameLMS(BaseArray T, int[] SA, int n, int m) {
+        int i, j, p, q, plen, qlen, name;
+        int c0, c1;
+        boolean diff;
+
+        // compact all the sorted substrings into the first m items of SA, 2 * m is not larger than n
+        for (i = 0; (p = SA[i]) < 0; ++i) {
+            SA[i] = ~p;
+        }
+        if (i < m) {
+            for (j = i, ++i;; ++i) {
+                if ((p = SA[i]) < 0) {
+                    SA[j++] = ~p;
+                    SA[i] = 0;
+                    if (j == m) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        // store the length of all substrings
+        i = n - 1;
+        j = n - 1;
+        c0 = T.get(n - 1);
+        do {
+            c1 = c0;
+        } while ((0 <= --i) && ((c0 = T.get(i)) >= c1));
+        while (0 <= i) {
+            do {
+                c1 = c0;
+            } while ((0 <= --i) && ((c0 = T.get(i)) <= c1));
+            if (0 <= i) {
+                SA[m + ((i + 1) >> 1)] = j - i;
+                j = i + 1;
+                do {
+                    c1 = c0;
+                } while ((0 <= --i) && ((c0 = T.get(i)) >= c1));
+            }
+        }
+
+        // find the lexicographic names of all substrings
+        for (i = 0, name = 0, q = n, qlen = 0; i < m; ++i) {
+            p = SA[i];
+            plen = SA[m + (p >> 1)];
+            diff = true;
+            if ((plen == qlen) && ((q + plen) < n)) {
+                for (j = 0; (j < plen) && (T.get(p + j) == T.get(q + j)); ++j) {
+                }
+                if (j == plen) {
+                    diff = false;
+                }
+            }
+            if (diff) {
+                ++name;
+                q = p;
+                qlen = plen;
+            }
+            SA[m + (p >> 1)] = name;
+        }
+
+        return name;
+    }
+
+    /**
+     * Compacts the sorted LMS substrings in the first m cells of the suffix
+     * array and names them.
+     *
+     * @param T the text, read unsigned
+     * @param SA the suffix array
+     * @param n the length of the text
+     * @param m the number of LMS substrings
+     *
+     * @return the number of distinct names
+     */
+    private static int nameLMS(byte[] T, int[] SA, int n, int m) {
+        int i, j, p, q, plen, qlen, name;
+        int c0, c1;
+        boolean diff;
+
+        // compact all the sorted substrings into the first m items of SA, 2 * m is not larger than n
+        for (i = 0; (p = SA[i]) < 0; ++i) {
+            SA[i] = ~p;
+        }
+        if (i < m) {
+            for (j = i, ++i;; ++i) {
+                if ((p = SA[i]) < 0) {
+                    SA[j++] = ~p;
+                    SA[i] = 0;
+                    if (j == m) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        // store the length of all substrings
+        i = n - 1;
+        j = n - 1;
+        c0 = (T[n - 1] & 0xFF);
+        do {
+            c1 = c0;
+        } while ((0 <= --i) && ((c0 = (T[i] & 0xFF)) >= c1));
+        while (0 <= i) {
+            do {
+                c1 = c0;
+            } while ((0 <= --i) && ((c0 = (T[i] & 0xFF)) <= c1));
+            if (0 <= i) {
+                SA[m + ((i + 1) >> 1)] = j - i;
+                j = i + 1;
+                do {
+                    c1 = c0;
+                } while ((0 <= --i) && ((c0 = (T[i] & 0xFF)) >= c1));
+            }
+        }
+
+        // find the lexicographic names of all substrings
+        for (i = 0, name = 0, q = n, qlen = 0; i < m; ++i) {
+            p = SA[i];
+            plen = SA[m + (p >> 1)];
+            diff = true;
+            if ((plen == qlen) && ((q + plen) < n)) {
+                for (j = 0; (j < plen) && ((T[p + j] & 0xFF) == (T[q + j] & 0xFF)); ++j) {
+                }
+                if (j == plen) {
+                    diff = false;
+                }
+            }
+            if (diff) {
+                ++name;
+                q = p;
+                qlen = plen;
+            }
+            SA[m + (p >> 1)] = name;
+        }
+
+        return name;
+    }
+
+    /**
+     * Induces the suffix array from the sorted LMS suffixes.
+     *
+     * @param T the text
+     * @param SA the suffix array
+     * @param C the counts
+     * @param B the buckets
+     * @param n the length of the text
+     * @param k the alphabet size
+     */
+    private static void induceSA(BaseArray T, int[] SA, BaseArray C, BaseArray B, int n, int k) {
+        int b, i, j;
+        int c0, c1;
+        // L type suffixes
+        if (C == B) {
+            getCounts(T, C, n, k);
+        }
+        getBuckets(C, B, k, false);
+        j = n - 1;
+        b = B.get(c1 = T.get(j));
+        SA[b++] = ((0 < j) && (T.get(j - 1) < c1)) ? ~j : j;
+        for (i = 0; i < n; ++i) {
+            j = SA[i];
+            SA[i] = ~j;
+            if (0 < j) {
+                if ((c0 = T.get(--j)) != c1) {
+                    B.set(c1, b);
+                    b = B.get(c1 = c0);
+                }
+                SA[b++] = ((0 < j) && (T.get(j - 1) < c1)) ? ~j : j;
+            }
+        }
+        // S type suffixes
+        if (C == B) {
+            getCounts(T, C, n, k);
+        }
+        getBuckets(C, B, k, true);
+        for (i = n - 1, b = B.get(c1 = 0); 0 <= i; --i) {
+            if (0 < (j = SA[i])) {
+                if ((c0 = T.get(--j)) != c1) {
+                    B.set(c1, b);
+                    b = B.get(c1 = c0);
+                }
+                SA[--b] = ((j == 0) || (T.get(j - 1) > c1)) ? ~j : j;
+            } else {
+                SA[i] = ~j;
+            }
+        }
+    }
+
+    /**
+     * Induces the suffix array from the sorted LMS suffixes.
+     *
+     * @param T the text, read unsigned
+     * @param SA the suffix array
+     * @param C the counts
+     * @param B the buckets
+     * @param n the length of the text
+     * @param k the alphabet size
+     */
+    private static void induceSA(byte[] T, int[] SA, BaseArray C, BaseArray B, int n, int k) {
+        int b, i, j;
+        int c0, c1;
+        // L type suffixes
+        if (C == B) {
+            getCounts(T, C, n, k);
+        }
+        getBuckets(C, B, k, false);
+        j = n - 1;
+        b = B.get(c1 = (T[j] & 0xFF));
+        SA[b++] = ((0 < j) && ((T[j - 1] & 0xFF) < c1)) ? ~j : j;
+        for (i = 0; i < n; ++i) {
+            j = SA[i];
+            SA[i] = ~j;
+            if (0 < j) {
+                if ((c0 = (T[--j] & 0xFF)) != c1) {
+                    B.set(c1, b);
+                    b = B.get(c1 = c0);
+                }
+                SA[b++] = ((0 < j) && ((T[j - 1] & 0xFF) < c1)) ? ~j : j;
+            }
+        }
+        // S type suffixes
+        if (C == B) {
+            getCounts(T, C, n, k);
+        }
+        getBuckets(C, B, k, true);
+        for (i = n - 1, b = B.get(c1 = 0); 0 <= i; --i) {
+            if (0 < (j = SA[i])) {
+                if ((c0 = (T[--j] & 0xFF)) != c1) {
+                    B.set(c1, b);
+                    b = B.get(c1 = c0);
+                }
+                SA[--b] = ((j == 0) || ((T[j - 1] & 0xFF) > c1)) ? ~j : j;
+            } else {
+                SA[i] = ~j;
+            }
+        }
+    }
+
+    /**
+     * Computes the suffix array of T[0..n-1] over the alphabet {0..k-1}
+     * using a working space of fs cells at the end of the suffix array.
+     *
+     * @param T the text
+     * @param SA the suffix array
+     * @param fs the free space at the end of the suffix array
+     * @param n the length of the text
+     * @param k the alphabet size
+     */
+    private static void suffixArrayIS(BaseArray T, int[] SA, int fs, int n, int k) {
+        BaseArray C, B, RA;
+        int i, j, b, m, p, q, name, newfs;
+        int c0, c1;
+        int flags;
+
+        if (k <= MIN_BUCKET_SIZE) {
+            C = new IntArray(new int[k], 0);
+            if (k <= fs) {
+                B = new IntArray(SA, n + fs - k);
+                flags = 1;
+            } else {
+                B = new IntArray(new int[k], 0);
+                flags = 3;
+            }
+        } else if (k <= fs) {
+            C = new IntArray(SA, n + fs - k);
+            if (k <= (fs - k)) {
+                B = new IntArray(SA, n + fs - k * 2);
+                flags = 0;
+            } else if (k <= (MIN_BUCKET_SIZE * 4)) {
+                B = new IntArray(new int[k], 0);
+                flags = 2;
+            } else {
+                B = C;
+                flags = 8;
+            }
+        } else {
+            C = B = new IntArray(new int[k], 0);
+            flags = 4 | 8;
+        }
+
+        // stage 1: reduce the problem by at least 1/2, sort all the LMS substrings
+        getCounts(T, C, n, k);
+        getBuckets(C, B, k, true);
+        for (i = 0; i < n; ++i) {
+            SA[i] = 0;
+        }
+        b = -1;
+        i = n - 1;
+        j = n;
+        m = 0;
+        c0 = T.get(n - 1);
+        do {
+            c1 = c0;
+        } while ((0 <= --i) && ((c0 = T.get(i)) >= c1));
+        while (0 <= i) {
+            do {
+                c1 = c0;
+            } while ((0 <= --i) && ((c0 = T.get(i)) <= c1));
+            if (0 <= i) {
+                if (0 <= b) {
+                    SA[b] = j;
+                }
+                b = B.update(c1, -1);
+                j = i;
+                ++m;
+                do {
+                    c1 = c0;
+                } while ((0 <= --i) && ((c0 = T.get(i)) >= c1));
+            }
+        }
+        if (1 < m) {
+            sortLMS(T, SA, C, B, n, k);
+            name = nameLMS(T, SA, n, m);
+        } else if (m == 1) {
+            SA[b] = j + 1;
+            name = 1;
+        } else {
+            name = 0;
+        }
+
+        // stage 2: solve the reduced problem, recurse if names are not yet unique
+        if (name < m) {
+            if ((flags & 4) != 0) {
+                C = null;
+                B = null;
+            }
+            if ((flags & 2) != 0) {
+                B = null;
+            }
+            newfs = (n + fs) - (m * 2);
+            if ((flags & (1 | 4 | 8)) == 0) {
+                if ((k + name) <= newfs) {
+                    newfs -= k;
+                } else {
+                    flags |= 8;
+                }
+            }
+            for (i = m + (n >> 1) - 1, j = m * 2 + newfs - 1; m <= i; --i) {
+                if (SA[i] != 0) {
+                    SA[j--] = SA[i] - 1;
+                }
+            }
+            RA = new IntArray(SA, m + newfs);
+            suffixArrayIS(RA, SA, newfs, m, name);
+
+            i = n - 1;
+            j = m * 2 - 1;
+            c0 = T.get(n - 1);
+            do {
+                c1 = c0;
+            } while ((0 <= --i) && ((c0 = T.get(i)) >= c1));
+            while (0 <= i) {
+                do {
+                    c1 = c0;
+                } while ((0 <= --i) && ((c0 = T.get(i)) <= c1));
+                if (0 <= i) {
+                    SA[j--] = i + 1;
+                    do {
+                        c1 = c0;
+                    } while ((0 <= --i) && ((c0 = T.get(i)) >= c1));
+                }
+            }
+            for (i = 0; i < m; ++i) {
+                SA[i] = SA[m + SA[i]];
+            }
+            if ((flags & 4) != 0) {
+                C = B = new IntArray(new int[k], 0);
+            }
+            if ((flags & 2) != 0) {
+                B = new IntArray(new int[k], 0);
+            }
+        }
+
+        // stage 3: induce the result for the original problem
+        if ((flags & 8) != 0) {
+            getCounts(T, C, n, k);
+        }
+        // put all left-most S characters into their buckets
+        if (1 < m) {
+            getBuckets(C, B, k, true);
+            i = m - 1;
+            j = n;
+            p = SA[m - 1];
+            c1 = T.get(p);
+            do {
+                q = B.get(c0 = c1);
+                while (q < j) {
+                    SA[--j] = 0;
+                }
+                do {
+                    SA[--j] = p;
+                    if (--i < 0) {
+                        break;
+                    }
+                    p = SA[i];
+                } while ((c1 = T.get(p)) == c0);
+            } while (0 <= i);
+            while (0 < j) {
+                SA[--j] = 0;
+            }
+        }
+        induceSA(T, SA, C, B, n, k);
+    }
+
+    /**
+     * Computes the suffix array of T[0..n-1] over the alphabet {0..k-1}
+     * using a working space of fs cells at the end of the suffix array.
+     *
+     * @param T the text, read unsigned
+     * @param SA the suffix array
+     * @param fs the free space at the end of the suffix array
+     * @param n the length of the text
+     * @param k the alphabet size
+     */
+    private static void suffixArrayIS(byte[] T, int[] SA, int fs, int n, int k) {
+        BaseArray C, B, RA;
+        int i, j, b, m, p, q, name, newfs;
+        int c0, c1;
+        int flags;
+
+        if (k <= MIN_BUCKET_SIZE) {
+            C = new IntArray(new int[k], 0);
+            if (k <= fs) {
+                B = new IntArray(SA, n + fs - k);
+                flags = 1;
+            } else {
+                B = new IntArray(new int[k], 0);
+                flags = 3;
+            }
+        } else if (k <= fs) {
+            C = new IntArray(SA, n + fs - k);
+            if (k <= (fs - k)) {
+                B = new IntArray(SA, n + fs - k * 2);
+                flags = 0;
+            } else if (k <= (MIN_BUCKET_SIZE * 4)) {
+                B = new IntArray(new int[k], 0);
+                flags = 2;
+            } else {
+                B = C;
+                flags = 8;
+            }
+        } else {
+            C = B = new IntArray(new int[k], 0);
+            flags = 4 | 8;
+        }
+
+        // stage 1: reduce the problem by at least 1/2, sort all the LMS substrings
+        getCounts(T, C, n, k);
+        getBuckets(C, B, k, true);
+        for (i = 0; i < n; ++i) {
+            SA[i] = 0;
+        }
+        b = -1;
+        i = n - 1;
+        j = n;
+        m = 0;
+        c0 = (T[n - 1] & 0xFF);
+        do {
+            c1 = c0;
+        } while ((0 <= --i) && ((c0 = (T[i] & 0xFF)) >= c1));
+        while (0 <= i) {
+            do {
+                c1 = c0;
+            } while ((0 <= --i) && ((c0 = (T[i] & 0xFF)) <= c1));
+            if (0 <= i) {
+                if (0 <= b) {
+                    SA[b] = j;
+                }
+                b = B.update(c1, -1);
+                j = i;
+                ++m;
+                do {
+                    c1 = c0;
+                } while ((0 <= --i) && ((c0 = (T[i] & 0xFF)) >= c1));
+            }
+        }
+        if (1 < m) {
+            sortLMS(T, SA, C, B, n, k);
+            name = nameLMS(T, SA, n, m);
+        } else if (m == 1) {
+            SA[b] = j + 1;
+            name = 1;
+        } else {
+            name = 0;
+        }
+
+        // stage 2: solve the reduced problem, recurse if names are not yet unique
+        if (name < m) {
+            if ((flags & 4) != 0) {
+                C = null;
+                B = null;
+            }
+            if ((flags & 2) != 0) {
+                B = null;
+            }
+            newfs = (n + fs) - (m * 2);
+            if ((flags & (1 | 4 | 8)) == 0) {
+                if ((k + name) <= newfs) {
+                    newfs -= k;
+                } else {
+                    flags |= 8;
+                }
+            }
+            for (i = m + (n >> 1) - 1, j = m * 2 + newfs - 1; m <= i; --i) {
+                if (SA[i] != 0) {
+                    SA[j--] = SA[i] - 1;
+                }
+            }
+            RA = new IntArray(SA, m + newfs);
+            suffixArrayIS(RA, SA, newfs, m, name);
+
+            i = n - 1;
+            j = m * 2 - 1;
+            c0 = (T[n - 1] & 0xFF);
+            do {
+                c1 = c0;
+            } while ((0 <= --i) && ((c0 = (T[i] & 0xFF)) >= c1));
+            while (0 <= i) {
+                do {
+                    c1 = c0;
+                } while ((0 <= --i) && ((c0 = (T[i] & 0xFF)) <= c1));
+                if (0 <= i) {
+                    SA[j--] = i + 1;
+                    do {
+                        c1 = c0;
+                    } while ((0 <= --i) && ((c0 = (T[i] & 0xFF)) >= c1));
+                }
+            }
+            for (i = 0; i < m; ++i) {
+                SA[i] = SA[m + SA[i]];
+            }
+            if ((flags & 4) != 0) {
+                C = B = new IntArray(new int[k], 0);
+            }
+            if ((flags & 2) != 0) {
+                B = new IntArray(new int[k], 0);
+            }
+        }
+
+        // stage 3: induce the result for the original problem
+        if ((flags & 8) != 0) {
+            getCounts(T, C, n, k);
+        }
+        // put all left-most S characters into their buckets
+        if (1 < m) {
+            getBuckets(C, B, k, true);
+            i = m - 1;
+            j = n;
+            p = SA[m - 1];
+            c1 = (T[p] & 0xFF);
+            do {
+                q = B.get(c0 = c1);
+                while (q < j) {
+                    SA[--j] = 0;
+                }
+                do {
+                    SA[--j] = p;
+                    if (--i < 0) {
+                        break;
+                    }
+                    p = SA[i];
+                } while ((c1 = (T[p] & 0xFF)) == c0);
+            } while (0 <= i);
+            while (0 < j) {
+                SA[--j] = 0;
+            }
+        }
+        induceSA(T, SA, C, B, n, k);
+    }
+}
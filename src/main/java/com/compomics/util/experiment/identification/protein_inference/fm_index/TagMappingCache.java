@@ -0,0 +1,387 @@
+package com.compomics.util.experiment.identification.protein_inference.fm_index;
+
+import com.compomics.util.experiment.identification.protein_inference.MappingCacheStatistics;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache for the intermediate results of the tag to proteome mapping. The
+ * cache is bounded by an estimate of the bytes used by its content and evicts
+ * the least recently used entries. Entries are identified by the index part,
+ * the amino acid sequence of the tag packed in a long and the mass quantized
+ * to 1e-5 Da. The cache is split in stripes locked independently so that
+ * mapping threads rarely wait for each other.
+ *
+ * @author Dominik Kopczynski
+ */
+public class TagMappingCache {
+
+    /**
+     * The number of stripes.
+     */
+    public static final int N_STRIPES = 16;
+    /**
+     * The maximal length of a sequence which can be packed in a key.
+     */
+    public static final int MAX_SEQUENCE_LENGTH = 12;
+    /**
+     * Estimate of the bytes used by a cache entry besides its content: key,
+     * entry and map node.
+     */
+    private static final long ENTRY_OVERHEAD = 120;
+    /**
+     * Estimate of the bytes used by a MatrixContent besides its strings and
+     * lists.
+     */
+    private static final long MATRIX_CONTENT_BYTES = 168;
+    /**
+     * Estimate of the bytes used by a list besides its elements.
+     */
+    private static final long LIST_BYTES = 40;
+    /**
+     * Estimate of the bytes used by a string besides its characters.
+     */
+    private static final long STRING_BYTES = 40;
+    /**
+     * Estimate of the bytes used by a modification match.
+     */
+    private static final long MODIFICATION_BYTES = 48;
+    /**
+     * Estimate of the bytes used by an X component.
+     */
+    private static final long X_COMPONENT_BYTES = 36;
+    /**
+     * Estimate of the bytes used by an X mass difference.
+     */
+    private static final long X_MASS_DIFF_BYTES = 64;
+    /**
+     * The stripes of the cache.
+     */
+    private final Stripe[] stripes = new Stripe[N_STRIPES];
+    /**
+     * The maximal number of bytes of every stripe.
+     */
+    private volatile long stripeMaxBytes;
+    /**
+     * The number of hits.
+     */
+    private final AtomicLong hits = new AtomicLong(0);
+    /**
+     * The number of misses.
+     */
+    private final AtomicLong misses = new AtomicLong(0);
+    /**
+     * The number of evictions.
+     */
+    private final AtomicLong evictions = new AtomicLong(0);
+
+    /**
+     * Constructor.
+     *
+     * @param maxBytes the maximal number of bytes used by the cache content
+     */
+    public TagMappingCache(long maxBytes) {
+        for (int i = 0; i < N_STRIPES; ++i) {
+            stripes[i] = new Stripe();
+        }
+        setMaxBytes(maxBytes);
+    }
+
+    /**
+     * Returns the default maximal size of the cache: an eighth of the maximal
+     * heap size but not more than 256 MB.
+     *
+     * @return the default maximal size of the cache in bytes
+     */
+    public static long getDefaultMaxBytes() {
+        return Math.min(256L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 8);
+    }
+
+    /**
+     * Sets the maximal number of bytes used by the cache content. Entries are
+     * evicted when they are next added to a stripe.
+     *
+     * @param maxBytes the maximal number of bytes used by the cache content
+     */
+    public void setMaxBytes(long maxBytes) {
+        stripeMaxBytes = Math.max(maxBytes, 0) / N_STRIPES;
+    }
+
+    /**
+     * Returns the maximal number of bytes used by the cache content.
+     *
+     * @return the maximal number of bytes used by the cache content
+     */
+    public long getMaxBytes() {
+        return stripeMaxBytes * N_STRIPES;
+    }
+
+    /**
+     * Packs an amino acid sequence in a long using five bits per amino acid.
+     * Returns -1 if the sequence is longer than MAX_SEQUENCE_LENGTH or
+     * contains other characters than upper case letters.
+     *
+     * @param sequence the sequence
+     *
+     * @return the sequence key
+     */
+    public static long getSequenceKey(String sequence) {
+        if (sequence.length() > MAX_SEQUENCE_LENGTH) {
+            return -1;
+        }
+        long key = 0;
+        for (int i = 0; i < sequence.length(); ++i) {
+            char aa = sequence.charAt(i);
+            if (aa < 'A' || aa > 'Z') {
+                return -1;
+            }
+            key = (key << 5) | (aa - 'A' + 1);
+        }
+        return key;
+    }
+
+    /**
+     * Returns the mass quantized to 1e-5 Da.
+     *
+     * @param mass the mass
+     *
+     * @return the mass key
+     */
+    public static long getMassKey(double mass) {
+        return Math.round(mass * 1e5);
+    }
+
+    /**
+     * Returns the cached content for the given key, null if not found.
+     *
+     * @param indexPart the index part
+     * @param sequenceKey the sequence key
+     * @param massKey the mass key
+     *
+     * @return the cached content
+     */
+    public ArrayList<MatrixContent> get(int indexPart, long sequenceKey, long massKey) {
+        Key key = new Key(indexPart, sequenceKey, massKey);
+        ArrayList<MatrixContent> content = getStripe(key).get(key);
+        if (content != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return content;
+    }
+
+    /**
+     * Adds content to the cache if not already present and evicts the least
+     * recently used entries of the stripe if it exceeds its size.
+     *
+     * @param indexPart the index part
+     * @param sequenceKey the sequence key
+     * @param massKey the mass key
+     * @param content the content to cache
+     */
+    public void put(int indexPart, long sequenceKey, long massKey, ArrayList<MatrixContent> content) {
+        Key key = new Key(indexPart, sequenceKey, massKey);
+        long bytes = estimateBytes(content);
+        long maxBytes = stripeMaxBytes;
+        if (bytes > maxBytes) {
+            return;
+        }
+        int nEvicted = getStripe(key).put(key, content, bytes, maxBytes);
+        if (nEvicted > 0) {
+            evictions.addAndGet(nEvicted);
+        }
+    }
+
+    /**
+     * Empties the cache, the statistics are kept.
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the statistics of the cache.
+     *
+     * @return the statistics of the cache
+     */
+    public MappingCacheStatistics getStatistics() {
+        long entries = 0;
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                entries += stripe.entries.size();
+                bytes += stripe.bytes;
+            }
+        }
+        return new MappingCacheStatistics(hits.get(), misses.get(), evictions.get(), entries, bytes, getMaxBytes());
+    }
+
+    /**
+     * Returns the stripe of a key.
+     *
+     * @param key the key
+     *
+     * @return the stripe of the key
+     */
+    private Stripe getStripe(Key key) {
+        return stripes[(key.hashCode() & Integer.MAX_VALUE) % N_STRIPES];
+    }
+
+    /**
+     * Estimates the number of bytes used by the given content.
+     *
+     * @param content the content
+     *
+     * @return the estimated number of bytes
+     */
+    private static long estimateBytes(ArrayList<MatrixContent> content) {
+        long bytes = ENTRY_OVERHEAD + LIST_BYTES + 4 * content.size();
+        for (MatrixContent matrixContent : content) {
+            bytes += MATRIX_CONTENT_BYTES;
+            if (matrixContent.peptideSequence != null) {
+                bytes += STRING_BYTES + 2 * matrixContent.peptideSequence.length();
+            }
+            if (matrixContent.peptideSequenceSearch != null) {
+                bytes += STRING_BYTES + 2 * matrixContent.peptideSequenceSearch.length();
+            }
+            if (matrixContent.modifications != null) {
+                bytes += LIST_BYTES + (4 + MODIFICATION_BYTES) * matrixContent.modifications.size();
+            }
+            if (matrixContent.allXcomponents != null) {
+                bytes += LIST_BYTES + X_COMPONENT_BYTES * matrixContent.allXcomponents.size();
+            }
+            if (matrixContent.allXMassDiffs != null) {
+                bytes += LIST_BYTES + X_MASS_DIFF_BYTES * matrixContent.allXMassDiffs.size();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Key of a cache entry.
+     */
+    private static final class Key {
+
+        /**
+         * The index part.
+         */
+        private final int indexPart;
+        /**
+         * The sequence key.
+         */
+        private final long sequenceKey;
+        /**
+         * The mass key.
+         */
+        private final long massKey;
+        /**
+         * The hash code.
+         */
+        private final int hash;
+
+        /**
+         * Constructor.
+         *
+         * @param indexPart the index part
+         * @param sequenceKey the sequence key
+         * @param massKey the mass key
+         */
+        private Key(int indexPart, long sequenceKey, long massKey) {
+            this.indexPart = indexPart;
+            this.sequenceKey = sequenceKey;
+            this.massKey = massKey;
+            long h = sequenceKey * 0x9E3779B97F4A7C15L + massKey * 0xC2B2AE3D27D4EB4FL + indexPart;
+            this.hash = (int) (h ^ (h >>> 32));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return massKey == other.massKey && sequenceKey == other.sequenceKey && indexPart == other.indexPart;
+        }
+    }
+
+    /**
+     * Stripe of the cache: entries in access order with their estimated
+     * sizes.
+     */
+    private static class Stripe {
+
+        /**
+         * The cached contents in access order.
+         */
+        private final LinkedHashMap<Key, ArrayList<MatrixContent>> entries = new LinkedHashMap<Key, ArrayList<MatrixContent>>(16, 0.75f, true);
+        /**
+         * The estimated sizes of the entries.
+         */
+        private final HashMap<Key, Long> entryBytes = new HashMap<Key, Long>();
+        /**
+         * The estimated size of the stripe.
+         */
+        private long bytes = 0;
+
+        /**
+         * Returns the content of a key and marks it as recently used.
+         *
+         * @param key the key
+         *
+         * @return the content, null if not found
+         */
+        private synchronized ArrayList<MatrixContent> get(Key key) {
+            return entries.get(key);
+        }
+
+        /**
+         * Adds the content of a key if not present and evicts the least
+         * recently used entries exceeding the size of the stripe.
+         *
+         * @param key the key
+         * @param content the content
+         * @param contentBytes the estimated size of the content
+         * @param maxBytes the maximal size of the stripe
+         *
+         * @return the number of entries evicted
+         */
+        private synchronized int put(Key key, ArrayList<MatrixContent> content, long contentBytes, long maxBytes) {
+            if (entries.containsKey(key)) {
+                return 0;
+            }
+            entries.put(key, content);
+            entryBytes.put(key, contentBytes);
+            bytes += contentBytes;
+            int nEvicted = 0;
+            Iterator<Map.Entry<Key, ArrayList<MatrixContent>>> iterator = entries.entrySet().iterator();
+            while (bytes > maxBytes && iterator.hasNext()) {
+                Key eldest = iterator.next().getKey();
+                iterator.remove();
+                bytes -= entryBytes.remove(eldest);
+                ++nEvicted;
+            }
+            return nEvicted;
+        }
+
+        /**
+         * Empties the stripe.
+         */
+        private synchronized void clear() {
+            entries.clear();
+            entryBytes.clear();
+            bytes = 0;
+        }
+    }
+}
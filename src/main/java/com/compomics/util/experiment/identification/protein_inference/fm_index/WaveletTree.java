@@ -1,6 +1,8 @@
 package com.compomics.util.experiment.identification.protein_inference.fm_index;
 
 import com.compomics.util.waiting.WaitingHandler;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 
@@ -14,7 +16,7 @@ public class WaveletTree {
     /**
      * Instance of a rank.
      */
-    private Rank rank;
+    private RankStructure rank;
     
     /**
      * Stored alphabet in a 128 bitfield.
@@ -137,7 +139,21 @@ public class WaveletTree {
      * @param hasPTMatTerminus indicates how to handle / sign
      */
     public WaveletTree(byte[] text, long[] aAlphabet, WaitingHandler waitingHandler, int numMasses, boolean hasPTMatTerminus) {
-        prepareWaveletTree(text, aAlphabet, waitingHandler, numMasses, hasPTMatTerminus);
+        prepareWaveletTree(text, aAlphabet, waitingHandler, numMasses, hasPTMatTerminus, RankType.separate);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param text the text
+     * @param aAlphabet the alphabet
+     * @param waitingHandler the waiting handler
+     * @param numMasses  number of masses plus modifications
+     * @param hasPTMatTerminus indicates how to handle / sign
+     * @param rankType the type of rank structure to use for the bit vectors
+     */
+    public WaveletTree(byte[] text, long[] aAlphabet, WaitingHandler waitingHandler, int numMasses, boolean hasPTMatTerminus, RankType rankType) {
+        prepareWaveletTree(text, aAlphabet, waitingHandler, numMasses, hasPTMatTerminus, rankType);
     }
 
     /**
@@ -149,7 +165,7 @@ public class WaveletTree {
      * @param numMasses  number of masses plus modifications
      */
     public WaveletTree(byte[] text, long[] aAlphabet, WaitingHandler waitingHandler, int numMasses) {
-        prepareWaveletTree(text, aAlphabet, waitingHandler, numMasses, false);
+        prepareWaveletTree(text, aAlphabet, waitingHandler, numMasses, false, RankType.separate);
     }
 
     /**
@@ -160,8 +176,9 @@ public class WaveletTree {
      * @param waitingHandler the waiting handler
      * @param numMasses  number of masses plus modifications
      * @param hasPTMatTerminus indicates how to handle / sign
+     * @param rankType the type of rank structure to use for the bit vectors
      */
-    private void prepareWaveletTree(byte[] text, long[] aAlphabet, WaitingHandler waitingHandler, int numMasses, boolean hasPTMatTerminus) {
+    private void prepareWaveletTree(byte[] text, long[] aAlphabet, WaitingHandler waitingHandler, int numMasses, boolean hasPTMatTerminus, RankType rankType) {
 
         int[] counts = new int[128];
         for (byte c : text) {
@@ -182,7 +199,7 @@ public class WaveletTree {
             huffmanNodes.add(new HuffmanNode(first, second));
         }
         
-        createWaveletTreeHuffman(text, waitingHandler, huffmanNodes.get(0), numMasses, hasPTMatTerminus);
+        createWaveletTreeHuffman(text, waitingHandler, huffmanNodes.get(0), numMasses, hasPTMatTerminus, rankType);
         
         
         less = new int[128];
@@ -208,12 +225,90 @@ public class WaveletTree {
      * @param hasPTMatTerminus if there is a PTM at the terminus
      */
     public WaveletTree(byte[] text, WaitingHandler waitingHandler, HuffmanNode root, int numMasses, boolean hasPTMatTerminus) {
+        this(text, waitingHandler, root, numMasses, hasPTMatTerminus, RankType.separate);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param text the text
+     * @param waitingHandler the waiting handler
+     * @param root the root
+     * @param numMasses  number of masses plus modifications
+     * @param hasPTMatTerminus if there is a PTM at the terminus
+     * @param rankType the type of rank structure to use for the bit vectors
+     */
+    public WaveletTree(byte[] text, WaitingHandler waitingHandler, HuffmanNode root, int numMasses, boolean hasPTMatTerminus, RankType rankType) {
         this.numMasses = numMasses;
-        createWaveletTreeHuffman(text, waitingHandler, root, numMasses, hasPTMatTerminus);
+        createWaveletTreeHuffman(text, waitingHandler, root, numMasses, hasPTMatTerminus, rankType);
     }
     
     
 
+    /**
+     * Constructor reading a wavelet tree previously written by write. The bit
+     * vectors of the tree are read on the heap.
+     *
+     * @param reader the reader of the index file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public WaveletTree(FMIndexFileReader reader) throws IOException {
+        rank = RankType.getRankType(reader.get()).readRank(reader);
+        alphabetDirections[0] = reader.getLong();
+        alphabetDirections[1] = reader.getLong();
+        firstChar = reader.getInt();
+        lastChar = reader.getInt();
+        lenText = reader.getInt();
+        numMasses = reader.getInt();
+        leftRightMask = reader.getInt();
+        int flags = reader.get();
+        continueLeftRangeQuery = (flags & 1) != 0;
+        continueRightRangeQuery = (flags & 2) != 0;
+        if ((flags & 4) != 0) {
+            less = reader.readIntArray();
+        }
+        leftChild = ((flags & 8) != 0) ? new WaveletTree(reader) : null;
+        rightChild = ((flags & 16) != 0) ? new WaveletTree(reader) : null;
+    }
+
+    /**
+     * Writes the wavelet tree including all its children to an output stream.
+     *
+     * @param outputStream the output stream
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void write(DataOutputStream outputStream) throws IOException {
+        outputStream.writeByte(rank.getRankType().index);
+        rank.write(outputStream);
+        outputStream.writeLong(alphabetDirections[0]);
+        outputStream.writeLong(alphabetDirections[1]);
+        outputStream.writeInt(firstChar);
+        outputStream.writeInt(lastChar);
+        outputStream.writeInt(lenText);
+        outputStream.writeInt(numMasses);
+        outputStream.writeInt(leftRightMask);
+        int flags = 0;
+        if (continueLeftRangeQuery) flags |= 1;
+        if (continueRightRangeQuery) flags |= 2;
+        if (less != null) flags |= 4;
+        if (leftChild != null) flags |= 8;
+        if (rightChild != null) flags |= 16;
+        outputStream.writeByte(flags);
+        if (less != null) {
+            FMIndexFile.writeIntArray(outputStream, less);
+        }
+        if (leftChild != null) {
+            leftChild.write(outputStream);
+        }
+        if (rightChild != null) {
+            rightChild.write(outputStream);
+        }
+    }
+
     /**
      * Create wavelet tree huffman.
      *
@@ -224,6 +319,20 @@ public class WaveletTree {
      * @param hasPTMatTerminus if there is a PTM at the terminus
      */
     public void createWaveletTreeHuffman(byte[] text, WaitingHandler waitingHandler, HuffmanNode root, int numMasses, boolean hasPTMatTerminus) {
+        createWaveletTreeHuffman(text, waitingHandler, root, numMasses, hasPTMatTerminus, RankType.separate);
+    }
+
+    /**
+     * Create wavelet tree huffman.
+     *
+     * @param text the text
+     * @param waitingHandler the waiting handler
+     * @param root the root
+     * @param numMasses  number of masses plus modifications
+     * @param hasPTMatTerminus if there is a PTM at the terminus
+     * @param rankType the type of rank structure to use for the bit vectors
+     */
+    public void createWaveletTreeHuffman(byte[] text, WaitingHandler waitingHandler, HuffmanNode root, int numMasses, boolean hasPTMatTerminus, RankType rankType) {
         this.numMasses = numMasses;
         long[] alphabet = new long[2];
         alphabet[0] = root.alphabet[0];
@@ -250,7 +359,7 @@ public class WaveletTree {
         continueRightRangeQuery = (((alphabet_right[0] & (~alphabetExcluded[0])) + (alphabet_right[1] & (~alphabetExcluded[1]))) > 0);
 
         lenText = text.length;
-        rank = new Rank(text, alphabet_right);
+        rank = rankType.createRank(text, alphabet_right);
         leftChild = null;
         rightChild = null;
 
@@ -284,7 +393,7 @@ public class WaveletTree {
                         text_left[j++] = text[i];
                     }
                 }
-                leftChild = new WaveletTree(text_left, waitingHandler, root.leftChild, numMasses, hasPTMatTerminus);
+                leftChild = new WaveletTree(text_left, waitingHandler, root.leftChild, numMasses, hasPTMatTerminus, rankType);
             }
         }
         if (waitingHandler != null && waitingHandler.isRunCanceled()) {
@@ -309,7 +418,7 @@ public class WaveletTree {
                         text_right[j++] = text[i];
                     }
                 }
-                rightChild = new WaveletTree(text_right, waitingHandler, root.rightChild, numMasses, hasPTMatTerminus);
+                rightChild = new WaveletTree(text_right, waitingHandler, root.rightChild, numMasses, hasPTMatTerminus, rankType);
             }
         }
         if (leftChild != null) leftRightMask = 4;
@@ -400,17 +509,31 @@ public class WaveletTree {
      *
      * @return number of allocated bytes
      */
-    public int getAllocatedBytes() {
-        int bytes = rank.getAllocatedBytes();
+    public long getAllocatedByteCount() {
+        long bytes = rank.getAllocatedByteCount();
         if (leftChild != null) {
-            bytes += leftChild.getAllocatedBytes();
+            bytes += leftChild.getAllocatedByteCount();
         }
         if (rightChild != null) {
-            bytes += rightChild.getAllocatedBytes();
+            bytes += rightChild.getAllocatedByteCount();
         }
         return bytes;
     }
 
+    /**
+     * Returns the number of bytes for the allocated arrays, capped to
+     * Integer.MAX_VALUE.
+     *
+     * @deprecated use getAllocatedByteCount, the arrays of large index parts
+     * can exceed Integer.MAX_VALUE bytes
+     *
+     * @return number of allocated bytes
+     */
+    @Deprecated
+    public int getAllocatedBytes() {
+        return (int) Math.min(getAllocatedByteCount(), Integer.MAX_VALUE);
+    }
+
     /**
      * Returns a list of character and new left/right index for a given range.
      *
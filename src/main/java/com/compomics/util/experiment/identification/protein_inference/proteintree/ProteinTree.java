@@ -14,8 +14,11 @@ import com.compomics.util.experiment.identification.TagFactory;
 import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
 import com.compomics.util.experiment.identification.amino_acid_tags.TagComponent;
 import com.compomics.util.experiment.identification.amino_acid_tags.matchers.TagMatcher;
+import com.compomics.util.experiment.identification.protein_inference.BatchMapping;
+import com.compomics.util.experiment.identification.protein_inference.MappingCacheStatistics;
 import com.compomics.util.experiment.identification.protein_inference.PeptideMapper;
 import com.compomics.util.experiment.identification.protein_inference.PeptideProteinMapping;
+import com.compomics.util.experiment.identification.protein_inference.ProteinMappingCallback;
 import com.compomics.util.math.BasicMathFunctions;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.preferences.SequenceMatchingPreferences.MatchingType;
@@ -28,13 +31,17 @@ import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class sorts the proteins into groups.
@@ -112,6 +119,18 @@ public class ProteinTree implements PeptideMapper {
      * Peptide sequences in slow cache.
      */
     private ArrayDeque<String> lastSlowQueriedPeptidesCacheContent = new ArrayDeque<String>(cacheSize);
+    /**
+     * The number of peptide queries answered from the caches.
+     */
+    private final AtomicLong cacheHits = new AtomicLong(0);
+    /**
+     * The number of peptide queries not found in the caches.
+     */
+    private final AtomicLong cacheMisses = new AtomicLong(0);
+    /**
+     * The number of peptides removed from the caches.
+     */
+    private final AtomicLong cacheEvictions = new AtomicLong(0);
     /**
      * The version of the protein tree.
      */
@@ -1014,9 +1033,13 @@ public class ProteinTree implements PeptideMapper {
                         result = lastSlowQueriedPeptidesCache.get(reversedSequence);
                     }
                     if (result != null) {
+                        cacheHits.incrementAndGet();
                         return getReversedResults(result, reversedSequence);
                     }
                 }
+                if (useCache) {
+                    cacheMisses.incrementAndGet();
+                }
 
                 long timeStart = System.currentTimeMillis();
 
@@ -1059,7 +1082,11 @@ public class ProteinTree implements PeptideMapper {
                     long queryTime = timeEnd - timeStart;
                     addToCache(peptideSequence, result, queryTime);
                 }
+            } else {
+                cacheHits.incrementAndGet();
             }
+        } else {
+            cacheHits.incrementAndGet();
         }
 
         return result;
@@ -1080,6 +1107,7 @@ public class ProteinTree implements PeptideMapper {
             if (lastQueriedPeptidesCacheContent.size() > cacheSize) {
                 String key = lastQueriedPeptidesCacheContent.pollLast();
                 lastQueriedPeptidesCache.remove(key);
+                cacheEvictions.incrementAndGet();
             }
         } else {
             lastSlowQueriedPeptidesCache.put(peptideSequence, mapping);
@@ -1087,10 +1115,35 @@ public class ProteinTree implements PeptideMapper {
             if (lastSlowQueriedPeptidesCacheContent.size() > cacheSize) {
                 String key = lastSlowQueriedPeptidesCacheContent.pollLast();
                 lastSlowQueriedPeptidesCache.remove(key);
+                cacheEvictions.incrementAndGet();
             }
         }
     }
 
+    @Override
+    public void getProteinMappings(Collection<String> peptideSequences, final SequenceMatchingPreferences sequenceMatchingPreferences, ProteinMappingCallback<String> callback, int nThreads, WaitingHandler waitingHandler) throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+        new BatchMapping<String>() {
+            @Override
+            public void mapBatch(List<String> batch, ProteinMappingCallback<String> callback) throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+                for (String peptideSequence : batch) {
+                    callback.mappingCompleted(peptideSequence, getProteinMapping(peptideSequence, sequenceMatchingPreferences));
+                }
+            }
+        }.mapAll(new ArrayList<String>(new LinkedHashSet<String>(peptideSequences)), callback, nThreads, waitingHandler);
+    }
+
+    @Override
+    public void getProteinMappings(Collection<Tag> tags, final TagMatcher tagMatcher, final SequenceMatchingPreferences sequenceMatchingPreferences, final Double massTolerance, ProteinMappingCallback<Tag> callback, int nThreads, WaitingHandler waitingHandler) throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+        new BatchMapping<Tag>() {
+            @Override
+            public void mapBatch(List<Tag> batch, ProteinMappingCallback<Tag> callback) throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+                for (Tag tag : batch) {
+                    callback.mappingCompleted(tag, getProteinMapping(tag, tagMatcher, sequenceMatchingPreferences, massTolerance));
+                }
+            }
+        }.mapAll(new ArrayList<Tag>(tags), callback, nThreads, waitingHandler);
+    }
+
     @Override
     public ArrayList<PeptideProteinMapping> getProteinMapping(Tag tag, TagMatcher tagMatcher, SequenceMatchingPreferences sequenceMatchingPreferences) throws IOException, InterruptedException, ClassNotFoundException, SQLException {
         throw new InterruptedException("Error: function not implemented");
@@ -1421,6 +1474,12 @@ public class ProteinTree implements PeptideMapper {
         proteinLengthsCache.clear();
     }
 
+    @Override
+    public synchronized MappingCacheStatistics getCacheStatistics() {
+        long entries = lastQueriedPeptidesCache.size() + lastSlowQueriedPeptidesCache.size();
+        return new MappingCacheStatistics(cacheHits.get(), cacheMisses.get(), cacheEvictions.get(), entries, -1, -1);
+    }
+
     /**
      * Reduces the node cache size by the given share. If less than 100 nodes
      * are left they will all be removed.
@@ -1442,7 +1442,7 @@ public class SequenceFactory {
             PeptideMapperType peptideMapperType = sequenceMatchingPreferences.getPeptideMapperType();
             switch (peptideMapperType) {
                 case fm_index:
-                    defaultPeptideMapper = new FMIndex(waitingHandler, displayProgress, peptideVariantsPreferences, searchParameters);
+                    defaultPeptideMapper = new FMIndex(waitingHandler, displayProgress, peptideVariantsPreferences, searchParameters, nThreads, sequenceMatchingPreferences.getFmIndexSamplingShift());
                     break;
                 case tree:
 
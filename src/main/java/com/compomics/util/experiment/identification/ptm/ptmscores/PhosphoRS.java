@@ -513,7 +513,7 @@ public class PhosphoRS {
         if (w == 0.0) {
             return 1.0;
         }
-        int N = spectrum.getPeakMap().size();
+        int N = spectrum.getNPeaks();
         if (N <= 1) {
             return 1.0;
         }
@@ -748,7 +748,7 @@ public class PhosphoRS {
         }
 
         ArrayList<MSnSpectrum> reducedSpectra = new ArrayList<MSnSpectrum>(MAX_DEPTH);
-        HashMap<Double, ArrayList<Peak>> intensityToPeakMap = new HashMap<Double, ArrayList<Peak>>(spectrum.getPeakMap().size());
+        HashMap<Double, ArrayList<Peak>> intensityToPeakMap = new HashMap<Double, ArrayList<Peak>>(spectrum.getNPeaks());
 
         for (Peak peak : spectrum.getPeakList()) {
             double intensity = peak.intensity;
@@ -817,32 +817,35 @@ public class PhosphoRS {
             throw new IllegalArgumentException("All peaks removed by filtering.");
         }
 
-        HashMap<Double, Peak> peakMap = spectrum.getPeakMap(),
-                newMap = new HashMap<Double, Peak>(peakMap.size()),
-                tempMap = new HashMap<Double, Peak>();
+        double[] mzValues = spectrum.getOrderedMzValues();
+        double[] intensityValues = spectrum.getIntensityValuesAsArray();
+        HashMap<Double, Peak> newMap = new HashMap<Double, Peak>(mzValues.length);
+        HashMap<Double, Integer> tempMap = new HashMap<Double, Integer>();
         Double refMz = null;
 
-        for (Double mz : spectrum.getOrderedMzValues()) {
+        for (int j = 0; j < mzValues.length; j++) {
+            double mz = mzValues[j];
             if (refMz == null) {
                 refMz = mz;
             } else if (mz > refMz + window) {
                 if (tempMap.size() <= maxPeaks) {
-                    newMap.putAll(tempMap);
+                    for (int index : tempMap.values()) {
+                        newMap.put(mzValues[index], spectrum.getPeak(index));
+                    }
                     tempMap.clear();
                 } else {
                     ArrayList<Double> intensities = new ArrayList<Double>(tempMap.keySet());
                     Collections.sort(intensities, Collections.reverseOrder());
                     for (int i = 0; i < Math.min(intensities.size(), maxPeaks); i++) {
                         Double intensity = intensities.get(i);
-                        Peak peak = tempMap.get(intensity);
-                        newMap.put(peak.mz, peak);
+                        int index = tempMap.get(intensity);
+                        newMap.put(mzValues[index], spectrum.getPeak(index));
                     }
                     tempMap.clear();
                 }
                 refMz += window;
             }
-            Peak peak = peakMap.get(mz);
-            tempMap.put(peak.intensity, peak);
+            tempMap.put(intensityValues[j], j);
         }
 
         ArrayList<Double> intensities = new ArrayList<Double>(tempMap.keySet());
@@ -850,8 +853,8 @@ public class PhosphoRS {
 
         for (int i = 0; i < Math.min(intensities.size(), maxPeaks); i++) {
             Double intensity = intensities.get(i);
-            Peak peak = tempMap.get(intensity);
-            newMap.put(peak.mz, peak);
+            int index = tempMap.get(intensity);
+            newMap.put(mzValues[index], spectrum.getPeak(index));
         }
 
         return new MSnSpectrum(spectrum.getLevel(), spectrum.getPrecursor(), spectrum.getSpectrumTitle() + "_filtered", newMap, spectrum.getFileName());
@@ -691,7 +691,7 @@ public abstract class SpectrumAnnotator {
         double targetMass = theoreticIon.getTheoreticMz(charge);
         for (double mz : spectrum.getOrderedMzValues()) {
             if (Math.abs(mz - targetMass) <= massTolerance) {
-                result.add(new IonMatch(spectrum.getPeakMap().get(mz), theoreticIon, charge));
+                result.add(new IonMatch(spectrum.getPeak(mz), theoreticIon, charge));
             }
             if (mz > targetMass + massTolerance) {
                 break;
@@ -0,0 +1,1220 @@
+package com.compomics.util.experiment.io.massspectrometry;
+
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads an MGF file mapped in memory. The file is mapped in segments and the
+ * peak lines are parsed directly from the mapped bytes into arrays of m/z and
+ * intensities, without creating a String per line. The other lines are parsed
+ * like in the MgfReader, so that the spectra, precursors and indexes returned
+ * are the same as the ones of the MgfReader.
+ *
+ * Note that the mapped segments are only released upon garbage collection,
+ * the file might therefore remain locked for a while after closing the reader
+ * on some systems.
+ *
+ * @author Marc Vaudel
+ */
+public class MappedMgfReader {
+
+    /**
+     * The default size in bytes of the mapped segments.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    /**
+     * The minimal size in bytes of the ranges of a file indexed in parallel.
+     */
+    public static final long MIN_RANGE_SIZE = 16 * 1024 * 1024;
+    /**
+     * The encoding of the text lines.
+     */
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    /**
+     * The powers of ten which can be represented exactly as double.
+     */
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    /**
+     * The largest mantissa which can be represented exactly as double.
+     */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    /**
+     * The maximal number of significant digits parsed without falling back to
+     * Double.parseDouble.
+     */
+    private static final int MAX_DIGITS = 18;
+    /**
+     * The tags of the spectrum header which are not parsed.
+     */
+    private static final String[] IGNORED_TAGS = {"TOLU", "TOL", "SEQ", "COMP", "ETAG", "TAG"};
+    /**
+     * The mgf file.
+     */
+    private final File mgfFile;
+    /**
+     * The random access file of the mgf file.
+     */
+    private final RandomAccessFile randomAccessFile;
+    /**
+     * The channel used to map the file.
+     */
+    private final FileChannel channel;
+    /**
+     * The length of the file in bytes.
+     */
+    private final long fileLength;
+    /**
+     * The size in bytes of the mapped segments.
+     */
+    private final int segmentSize;
+    /**
+     * The segment of the file currently mapped, null if none.
+     */
+    private MappedByteBuffer segment = null;
+    /**
+     * The position in the file of the beginning of the segment.
+     */
+    private long segmentStart = 0;
+    /**
+     * The length of the segment in bytes.
+     */
+    private int segmentLength = 0;
+    /**
+     * The position in the file of the next line.
+     */
+    private long position = 0;
+    /**
+     * The index in the segment of the first byte of the current line.
+     */
+    private int lineStart;
+    /**
+     * The index in the segment after the last byte of the current line,
+     * excluding the line feed.
+     */
+    private int lineEnd;
+    /**
+     * Buffer for the bytes of the lines converted to String.
+     */
+    private byte[] lineBytes = new byte[256];
+    /**
+     * The m/z of the peaks of the spectrum being parsed.
+     */
+    private double[] mzBuffer = new double[1024];
+    /**
+     * The intensities of the peaks of the spectrum being parsed.
+     */
+    private double[] intensityBuffer = new double[1024];
+    /**
+     * The number of peaks of the spectrum being parsed.
+     */
+    private int nPeaks = 0;
+    /**
+     * The m/z of the last peak parsed.
+     */
+    private double peakMz;
+    /**
+     * The intensity of the last peak parsed.
+     */
+    private double peakIntensity;
+
+    /**
+     * Constructor.
+     *
+     * @param mgfFile the mgf file
+     *
+     * @throws FileNotFoundException exception thrown whenever the file is not
+     * found
+     * @throws IOException exception thrown whenever an error occurred while
+     * opening the file
+     */
+    public MappedMgfReader(File mgfFile) throws FileNotFoundException, IOException {
+        this(mgfFile, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param mgfFile the mgf file
+     * @param segmentSize the size in bytes of the mapped segments
+     *
+     * @throws FileNotFoundException exception thrown whenever the file is not
+     * found
+     * @throws IOException exception thrown whenever an error occurred while
+     * opening the file
+     */
+    public MappedMgfReader(File mgfFile, int segmentSize) throws FileNotFoundException, IOException {
+        this.mgfFile = mgfFile;
+        this.segmentSize = Math.max(segmentSize, 1024);
+        randomAccessFile = new RandomAccessFile(mgfFile, "r");
+        channel = randomAccessFile.getChannel();
+        fileLength = channel.size();
+    }
+
+    /**
+     * Returns the mgf file.
+     *
+     * @return the mgf file
+     */
+    public File getFile() {
+        return mgfFile;
+    }
+
+    /**
+     * Returns the length of the file in bytes.
+     *
+     * @return the length of the file in bytes
+     */
+    public long length() {
+        return fileLength;
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * closing the file
+     */
+    public synchronized void close() throws IOException {
+        segment = null;
+        channel.close();
+        randomAccessFile.close();
+    }
+
+    /**
+     * Maps a segment of the file.
+     *
+     * @param start the position in the file of the beginning of the segment
+     * @param size the desired size of the segment in bytes
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * mapping the file
+     */
+    private void map(long start, long size) throws IOException {
+        long length = Math.min(Math.min(size, fileLength - start), Integer.MAX_VALUE);
+        segment = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        segmentStart = start;
+        segmentLength = (int) length;
+    }
+
+    /**
+     * Moves to the next line and sets the boundaries of the line in the
+     * segment, mapping the next segment of the file when needed.
+     *
+     * @return true if a line was found, false if the end of the file is
+     * reached
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * mapping the file
+     */
+    private boolean nextLine() throws IOException {
+        if (position >= fileLength) {
+            return false;
+        }
+        if (segment == null || position < segmentStart || position >= segmentStart + segmentLength) {
+            map(position, segmentSize);
+        }
+        while (true) {
+            int start = (int) (position - segmentStart);
+            int end = start;
+            while (end < segmentLength && segment.get(end) != '\n') {
+                end++;
+            }
+            if (end < segmentLength || segmentStart + segmentLength == fileLength) {
+                lineStart = start;
+                lineEnd = end;
+                position = segmentStart + end + 1;
+                return true;
+            }
+            // the line continues after the segment
+            if (start > 0) {
+                map(position, segmentSize);
+            } else if (segmentLength < Integer.MAX_VALUE) {
+                map(position, 2L * segmentLength);
+            } else {
+                throw new IOException("Line too long at position " + position + " in " + mgfFile.getName() + ".");
+            }
+        }
+    }
+
+    /**
+     * Returns the current line as String.
+     *
+     * @return the current line
+     */
+    private String getLine() {
+        int length = lineEnd - lineStart;
+        if (length > lineBytes.length) {
+            lineBytes = new byte[Math.max(length, 2 * lineBytes.length)];
+        }
+        for (int i = 0; i < length; i++) {
+            lineBytes[i] = segment.get(lineStart + i);
+        }
+        return new String(lineBytes, 0, length, CHARSET);
+    }
+
+    /**
+     * Indicates whether the current line starts with a digit, in which case
+     * it can only be a peak.
+     *
+     * @return a boolean indicating whether the current line starts with a
+     * digit
+     */
+    private boolean startsWithDigit() {
+        if (lineStart == lineEnd) {
+            return false;
+        }
+        byte first = segment.get(lineStart);
+        return first >= '0' && first <= '9';
+    }
+
+    /**
+     * Indicates whether a byte is a white space as matched by \s in regular
+     * expressions.
+     *
+     * @param b the byte
+     *
+     * @return a boolean indicating whether the byte is a white space
+     */
+    private static boolean isWhiteSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B || b == '\n';
+    }
+
+    /**
+     * Parses the current line as peak. Like in the MgfReader, the line is
+     * split on white spaces and the first two values are used as m/z and
+     * intensity. The result is stored in peakMz and peakIntensity.
+     *
+     * @param parseMz if false only the intensity is parsed
+     *
+     * @return a boolean indicating whether the line could be parsed
+     */
+    private boolean parsePeak(boolean parseMz) {
+        int firstEnd = lineStart;
+        while (firstEnd < lineEnd && !isWhiteSpace(segment.get(firstEnd))) {
+            firstEnd++;
+        }
+        int secondStart = firstEnd;
+        while (secondStart < lineEnd && isWhiteSpace(segment.get(secondStart))) {
+            secondStart++;
+        }
+        if (secondStart == lineEnd) {
+            return false;
+        }
+        int secondEnd = secondStart;
+        while (secondEnd < lineEnd && !isWhiteSpace(segment.get(secondEnd))) {
+            secondEnd++;
+        }
+        try {
+            if (parseMz) {
+                peakMz = parseDouble(segment, lineStart, firstEnd);
+            }
+            peakIntensity = parseDouble(segment, secondStart, secondEnd);
+            return true;
+        } catch (NumberFormatException e) {
+            // ignore comments and all other lines
+            return false;
+        }
+    }
+
+    /**
+     * Parses the current line as peak and adds it to the peaks of the
+     * spectrum if it could be parsed.
+     */
+    private void addPeak() {
+        if (parsePeak(true)) {
+            if (nPeaks == mzBuffer.length) {
+                mzBuffer = Arrays.copyOf(mzBuffer, 2 * nPeaks);
+                intensityBuffer = Arrays.copyOf(intensityBuffer, 2 * nPeaks);
+            }
+            mzBuffer[nPeaks] = peakMz;
+            intensityBuffer[nPeaks] = peakIntensity;
+            nPeaks++;
+        }
+    }
+
+    /**
+     * Parses a decimal number written in ASCII. Numbers of at most 18
+     * significant digits with a decimal exponent between -22 and 22 are parsed
+     * directly, other values are passed to Double.parseDouble. In both cases
+     * the result is identical to Double.parseDouble.
+     *
+     * @param buffer the buffer containing the number
+     * @param start the index of the first character of the number
+     * @param end the index after the last character of the number
+     *
+     * @return the number
+     *
+     * @throws NumberFormatException exception thrown if the characters do not
+     * represent a number
+     */
+    public static double parseDouble(ByteBuffer buffer, int start, int end) throws NumberFormatException {
+
+        int i = start;
+        boolean negative = false;
+        if (i < end) {
+            byte sign = buffer.get(i);
+            if (sign == '-') {
+                negative = true;
+                i++;
+            } else if (sign == '+') {
+                i++;
+            }
+        }
+
+        long mantissa = 0;
+        int nDigits = 0;
+        int exponent = 0;
+        boolean digitFound = false;
+
+        for (; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            digitFound = true;
+            if (mantissa != 0 || digit != 0) {
+                if (++nDigits > MAX_DIGITS) {
+                    return parseDoubleFallback(buffer, start, end);
+                }
+                mantissa = 10 * mantissa + digit;
+            }
+        }
+        if (i < end && buffer.get(i) == '.') {
+            i++;
+            for (; i < end; i++) {
+                int digit = buffer.get(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                digitFound = true;
+                if (mantissa != 0 || digit != 0) {
+                    if (++nDigits > MAX_DIGITS) {
+                        return parseDoubleFallback(buffer, start, end);
+                    }
+                    mantissa = 10 * mantissa + digit;
+                }
+                exponent--;
+            }
+        }
+        if (!digitFound) {
+            return parseDoubleFallback(buffer, start, end);
+        }
+        if (i < end && (buffer.get(i) == 'e' || buffer.get(i) == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end) {
+                byte sign = buffer.get(i);
+                if (sign == '-') {
+                    negativeExponent = true;
+                    i++;
+                } else if (sign == '+') {
+                    i++;
+                }
+            }
+            int explicitExponent = 0;
+            boolean exponentDigitFound = false;
+            for (; i < end; i++) {
+                int digit = buffer.get(i) - '0';
+                if (digit < 0 || digit > 9 || explicitExponent > 1000) {
+                    return parseDoubleFallback(buffer, start, end);
+                }
+                exponentDigitFound = true;
+                explicitExponent = 10 * explicitExponent + digit;
+            }
+            if (!exponentDigitFound) {
+                return parseDoubleFallback(buffer, start, end);
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+        if (i != end) {
+            return parseDoubleFallback(buffer, start, end);
+        }
+
+        if (mantissa == 0) {
+            return negative ? -0.0 : 0.0;
+        }
+        if (mantissa > MAX_EXACT_MANTISSA || exponent < -22 || exponent > 22) {
+            return parseDoubleFallback(buffer, start, end);
+        }
+
+        // both operands are exact, the result is therefore correctly rounded
+        double value = mantissa;
+        if (exponent < 0) {
+            value /= POWERS_OF_TEN[-exponent];
+        } else {
+            value *= POWERS_OF_TEN[exponent];
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a number using Double.parseDouble.
+     *
+     * @param buffer the buffer containing the number
+     * @param start the index of the first character of the number
+     * @param end the index after the last character of the number
+     *
+     * @return the number
+     *
+     * @throws NumberFormatException exception thrown if the characters do not
+     * represent a number
+     */
+    private static double parseDoubleFallback(ByteBuffer buffer, int start, int end) throws NumberFormatException {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return Double.parseDouble(new String(bytes, CHARSET));
+    }
+
+    /**
+     * Decodes a title like the MgfReader. The decoding is skipped when the
+     * title contains no character affected by it.
+     *
+     * @param title the title as found in the file
+     *
+     * @return the decoded title
+     *
+     * @throws UnsupportedEncodingException exception thrown if the encoding
+     * is not supported
+     */
+    private static String decodeTitle(String title) throws UnsupportedEncodingException {
+        if (title.indexOf('%') == -1 && title.indexOf('+') == -1) {
+            return title;
+        }
+        return URLDecoder.decode(title, "utf-8");
+    }
+
+    /**
+     * Returns the spectrum starting at the given index. See
+     * MgfReader.getSpectrum.
+     *
+     * @param index the index where to start looking for the spectrum
+     * @param fileName the name of the mgf file
+     *
+     * @return the next spectrum encountered
+     *
+     * @throws IOException exception thrown whenever an error is encountered
+     * while reading the spectrum
+     * @throws IllegalArgumentException exception thrown whenever the file is
+     * not of a compatible format
+     */
+    public synchronized MSnSpectrum getSpectrum(long index, String fileName) throws IOException, IllegalArgumentException {
+
+        position = index;
+        double precursorMz = 0, precursorIntensity = 0, rt = -1.0, rt1 = -1, rt2 = -1;
+        ArrayList<Charge> precursorCharges = new ArrayList<Charge>();
+        String scanNumber = "", spectrumTitle = "";
+        nPeaks = 0;
+        boolean insideSpectrum = false;
+
+        while (nextLine()) {
+
+            if (startsWithDigit()) {
+                if (insideSpectrum) {
+                    addPeak();
+                }
+                continue;
+            }
+
+            String line = getLine();
+
+            // fix for lines ending with \r
+            if (line.endsWith("\r")) {
+                line = line.replace("\r", "");
+            }
+
+            if (line.startsWith("BEGIN IONS")) {
+                insideSpectrum = true;
+                nPeaks = 0;
+            } else if (line.startsWith("TITLE")) {
+                insideSpectrum = true;
+                spectrumTitle = line.substring(line.indexOf('=') + 1);
+                try {
+                    spectrumTitle = decodeTitle(spectrumTitle);
+                } catch (UnsupportedEncodingException e) {
+                    System.out.println("An exception was thrown when trying to decode an mgf title: " + spectrumTitle);
+                    e.printStackTrace();
+                }
+            } else if (line.startsWith("CHARGE")) {
+                precursorCharges = MgfReader.parseCharges(line);
+            } else if (line.startsWith("PEPMASS")) {
+                String temp = line.substring(line.indexOf("=") + 1);
+                String[] values = temp.split("\\s");
+                precursorMz = Double.parseDouble(values[0]);
+                if (values.length > 1) {
+                    precursorIntensity = Double.parseDouble(values[1]);
+                } else {
+                    precursorIntensity = 0.0;
+                }
+            } else if (line.startsWith("RTINSECONDS")) {
+                try {
+                    String rtInput = line.substring(line.indexOf('=') + 1);
+                    String[] rtWindow = rtInput.split("-");
+                    if (rtWindow.length == 1) {
+                        String tempRt = rtWindow[0];
+                        // possible fix for values like RTINSECONDS=PT121.250000S
+                        if (tempRt.startsWith("PT") && tempRt.endsWith("S")) {
+                            tempRt = tempRt.substring(2, tempRt.length() - 1);
+                        }
+                        rt = Double.parseDouble(tempRt);
+                    } else if (rtWindow.length == 2) {
+                        rt1 = Double.parseDouble(rtWindow[0]);
+                        rt2 = Double.parseDouble(rtWindow[1]);
+                    }
+                } catch (Exception e) {
+                    System.out.println("An exception was thrown when trying to decode the retention time: " + spectrumTitle);
+                    e.printStackTrace();
+                    // ignore exception, RT will not be parsed
+                }
+            } else if (isIgnoredTag(line)) {
+                // tag not implemented
+            } else if (line.startsWith("SCANS")) {
+                scanNumber = line.substring(line.indexOf('=') + 1);
+            } else if (line.startsWith("INSTRUMENT")) {
+                // ion series not implemented
+            } else if (line.startsWith("END IONS")) {
+                Precursor precursor;
+                if (rt1 != -1 && rt2 != -1) {
+                    precursor = new Precursor(precursorMz, precursorIntensity, precursorCharges, rt1, rt2);
+                } else {
+                    precursor = new Precursor(rt, precursorMz, precursorIntensity, precursorCharges);
+                }
+                MSnSpectrum msnSpectrum = new MSnSpectrum(2, precursor, spectrumTitle, fileName);
+                msnSpectrum.setPeaks(Arrays.copyOf(mzBuffer, nPeaks), Arrays.copyOf(intensityBuffer, nPeaks), 0);
+                msnSpectrum.setScanNumber(scanNumber);
+                return msnSpectrum;
+            } else if (insideSpectrum && !line.equals("")) {
+                addPeak();
+            }
+        }
+
+        throw new IllegalArgumentException("End of the file reached before encountering the tag \"END IONS\".");
+    }
+
+    /**
+     * Indicates whether a line starts with a tag which is not parsed.
+     *
+     * @param line the line
+     *
+     * @return a boolean indicating whether a line starts with a tag which is
+     * not parsed
+     */
+    private static boolean isIgnoredTag(String line) {
+        for (String tag : IGNORED_TAGS) {
+            if (line.startsWith(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the precursor of the spectrum starting at the given index. See
+     * MgfReader.getPrecursor.
+     *
+     * @param index the index where to start looking for the spectrum
+     * @param fileName the name of the mgf file
+     *
+     * @return the precursor of the spectrum
+     *
+     * @throws IOException exception thrown whenever an error is encountered
+     * while reading the spectrum
+     * @throws IllegalArgumentException exception thrown whenever the file is
+     * not of a compatible format
+     */
+    public synchronized Precursor getPrecursor(long index, String fileName) throws IOException, IllegalArgumentException {
+
+        position = index;
+        String title = null;
+        double precursorMz = 0, precursorIntensity = 0, rt = -1.0, rt1 = -1, rt2 = -1;
+        ArrayList<Charge> precursorCharges = new ArrayList<Charge>(1);
+
+        while (nextLine()) {
+
+            String line = getLine();
+
+            // fix for lines ending with \r
+            if (line.endsWith("\r")) {
+                line = line.replace("\r", "");
+            }
+
+            if (line.startsWith("TITLE")) {
+                title = line.substring(line.indexOf("=") + 1);
+                try {
+                    title = decodeTitle(title);
+                } catch (UnsupportedEncodingException e) {
+                    System.out.println("An exception was thrown when trying to decode an mgf title: " + title);
+                    e.printStackTrace();
+                }
+            } else if (line.startsWith("CHARGE")) {
+                precursorCharges = MgfReader.parseCharges(line);
+            } else if (line.startsWith("PEPMASS")) {
+                String temp = line.substring(line.indexOf("=") + 1);
+                String[] values = temp.split("\\s");
+                precursorMz = Double.parseDouble(values[0]);
+                if (values.length > 1) {
+                    precursorIntensity = Double.parseDouble(values[1]);
+                } else {
+                    precursorIntensity = 0.0;
+                }
+            } else if (line.startsWith("RTINSECONDS")) {
+                try {
+                    String rtInput = line.substring(line.indexOf('=') + 1);
+                    String[] rtWindow = rtInput.split("-");
+                    if (rtWindow.length == 1) {
+                        String tempRt = rtWindow[0];
+                        if (tempRt.startsWith("PT") && tempRt.endsWith("S")) { // possible fix for values like RTINSECONDS=PT121.250000S
+                            tempRt = tempRt.substring(2, tempRt.length() - 1);
+                        }
+                        rt = Double.parseDouble(tempRt);
+                    } else if (rtWindow.length == 2) {
+                        rt1 = Double.parseDouble(rtWindow[0]);
+                        rt2 = Double.parseDouble(rtWindow[1]);
+                    }
+                } catch (Exception e) {
+                    System.out.println("An exception was thrown when trying to decode the retention time: " + title);
+                    e.printStackTrace(); // ignore exception, RT will not be parsed
+                }
+            } else if (!line.isEmpty()) {
+                if (line.startsWith("END IONS") || (!line.contains("#") && !line.contains("="))) {
+                    if (rt1 != -1 && rt2 != -1) {
+                        return new Precursor(precursorMz, precursorIntensity, precursorCharges, rt1, rt2);
+                    }
+                    return new Precursor(rt, precursorMz, precursorIntensity, precursorCharges);
+                }
+            }
+        }
+
+        throw new IllegalArgumentException("End of the file reached before encountering the tag \"END IONS\". File: " + fileName + ", title: " + title);
+    }
+
+    /**
+     * Returns the index of all spectra in the given MGF file. See
+     * MgfReader.getIndexMap.
+     *
+     * @param mgfFile the given MGF file
+     * @param waitingHandler a waitingHandler showing the progress, can be null
+     *
+     * @return the index of all spectra
+     *
+     * @throws FileNotFoundException exception thrown whenever the file is not
+     * found
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading the file
+     */
+    public static MgfIndex getIndexMap(File mgfFile, WaitingHandler waitingHandler) throws FileNotFoundException, IOException {
+        IndexRange range = new IndexRange(0, mgfFile.length());
+        ArrayList<IndexRange> ranges = new ArrayList<IndexRange>(1);
+        ranges.add(range);
+        initializeProgress(waitingHandler);
+        range.scan(mgfFile, waitingHandler, new AtomicLong(), Math.max(mgfFile.length() / 100, 1));
+        return mergeRanges(mgfFile, ranges, waitingHandler);
+    }
+
+    /**
+     * Returns the index of all spectra in the given MGF file using multiple
+     * threads. The file is split in ranges of at least MIN_RANGE_SIZE bytes.
+     * See getIndexMap(File, WaitingHandler, int, long).
+     *
+     * @param mgfFile the given MGF file
+     * @param waitingHandler a waitingHandler showing the progress, can be null
+     * @param nThreads the number of threads to use
+     *
+     * @return the index of all spectra
+     *
+     * @throws FileNotFoundException exception thrown whenever the file is not
+     * found
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading the file
+     * @throws InterruptedException exception thrown whenever a threading
+     * issue occurred
+     */
+    public static MgfIndex getIndexMap(File mgfFile, WaitingHandler waitingHandler, int nThreads) throws FileNotFoundException, IOException, InterruptedException {
+        long rangeSize = Math.max(mgfFile.length() / (4 * Math.max(nThreads, 1)), MIN_RANGE_SIZE);
+        return getIndexMap(mgfFile, waitingHandler, nThreads, rangeSize);
+    }
+
+    /**
+     * Returns the index of all spectra in the given MGF file using multiple
+     * threads. The file is split in byte ranges of the given size, and every
+     * range is snapped to the first "BEGIN IONS" line starting in it. The
+     * ranges are scanned in parallel and the partial indexes are merged in
+     * the order of the file, the duplicate titles being renamed during the
+     * merge. The resulting index is the same as the one obtained by scanning
+     * the file sequentially.
+     *
+     * @param mgfFile the given MGF file
+     * @param waitingHandler a waitingHandler showing the progress, can be null
+     * @param nThreads the number of threads to use
+     * @param rangeSize the size in bytes of the ranges
+     *
+     * @return the index of all spectra
+     *
+     * @throws FileNotFoundException exception thrown whenever the file is not
+     * found
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading the file
+     * @throws InterruptedException exception thrown whenever a threading
+     * issue occurred
+     */
+    public static MgfIndex getIndexMap(final File mgfFile, final WaitingHandler waitingHandler, int nThreads, long rangeSize) throws FileNotFoundException, IOException, InterruptedException {
+
+        if (!mgfFile.exists()) {
+            throw new FileNotFoundException("File " + mgfFile.getAbsolutePath() + " not found.");
+        }
+
+        long fileLength = mgfFile.length();
+        rangeSize = Math.max(rangeSize, 1);
+        ArrayList<IndexRange> ranges = new ArrayList<IndexRange>();
+        for (long start = 0; start < fileLength || start == 0; start += rangeSize) {
+            ranges.add(new IndexRange(start, Math.min(start + rangeSize, fileLength)));
+        }
+
+        initializeProgress(waitingHandler);
+        final AtomicLong progress = new AtomicLong();
+        final long progressUnit = Math.max(fileLength / 100, 1);
+
+        if (nThreads < 2 || ranges.size() == 1) {
+            for (IndexRange range : ranges) {
+                range.scan(mgfFile, waitingHandler, progress, progressUnit);
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    break;
+                }
+            }
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(nThreads, ranges.size()));
+            try {
+                ArrayList<Future<IndexRange>> futures = new ArrayList<Future<IndexRange>>(ranges.size());
+                for (final IndexRange range : ranges) {
+                    futures.add(pool.submit(new Callable<IndexRange>() {
+                        @Override
+                        public IndexRange call() throws Exception {
+                            range.scan(mgfFile, waitingHandler, progress, progressUnit);
+                            return range;
+                        }
+                    }));
+                }
+                for (Future<IndexRange> future : futures) {
+                    getRange(future);
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        return mergeRanges(mgfFile, ranges, waitingHandler);
+    }
+
+    /**
+     * Waits for the scanning of a range to complete and throws the exception
+     * encountered while scanning if any.
+     *
+     * @param future the future result of the range
+     *
+     * @return the scanned range
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading the file
+     * @throws InterruptedException exception thrown whenever a threading
+     * issue occurred
+     */
+    private static IndexRange getRange(Future<IndexRange> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Error while indexing the mgf file.", cause);
+        }
+    }
+
+    /**
+     * Initializes the secondary progress of the waiting handler.
+     *
+     * @param waitingHandler a waitingHandler showing the progress, can be null
+     */
+    private static void initializeProgress(WaitingHandler waitingHandler) {
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(100);
+            waitingHandler.setSecondaryProgressCounter(0);
+        }
+    }
+
+    /**
+     * Merges the scanned ranges of a file in an index. The ranges must be
+     * given in the order of the file.
+     *
+     * @param mgfFile the given MGF file
+     * @param ranges the scanned ranges
+     * @param waitingHandler a waitingHandler showing the progress, can be null
+     *
+     * @return the index of all spectra
+     */
+    private static MgfIndex mergeRanges(File mgfFile, ArrayList<IndexRange> ranges, WaitingHandler waitingHandler) {
+
+        HashMap<String, Long> indexes = new HashMap<String, Long>();
+        HashMap<String, Integer> spectrumIndexes = new HashMap<String, Integer>();
+        HashMap<Integer, Double> precursorMzMap = new HashMap<Integer, Double>();
+        LinkedHashSet<String> spectrumTitles = new LinkedHashSet<String>();
+        HashMap<String, Integer> duplicateTitles = new HashMap<String, Integer>();
+        int spectrumCounter = 0;
+        double maxRT = -1, minRT = Double.MAX_VALUE, maxMz = -1, maxIntensity = 0;
+        int maxCharge = 0, maxPeakCount = 0;
+        boolean peakPicked = true;
+        boolean precursorChargesMissing = false;
+        boolean titleSet = false;
+
+        for (IndexRange range : ranges) {
+
+            for (int i = 0; i < range.titles.size(); i++) {
+                String title = range.titles.get(i);
+                Integer nDuplicates = duplicateTitles.get(title);
+                if (nDuplicates != null || spectrumTitles.contains(title)) {
+                    if (nDuplicates == null) {
+                        nDuplicates = 0;
+                        System.err.println("Warning: Spectrum title " + title + " is not unique in " + mgfFile.getName() + "!");
+                    }
+                    duplicateTitles.put(title, ++nDuplicates);
+                    title += "_" + nDuplicates;
+                }
+                spectrumTitles.add(title);
+                indexes.put(title, range.titleIndexes.get(i));
+                spectrumIndexes.put(title, spectrumCounter + range.titleSpectra.get(i));
+            }
+            for (Integer spectrumIndex : range.precursorMzMap.keySet()) {
+                precursorMzMap.put(spectrumCounter + spectrumIndex, range.precursorMzMap.get(spectrumIndex));
+            }
+            spectrumCounter += range.nSpectra;
+
+            maxRT = Math.max(maxRT, range.maxRT);
+            minRT = Math.min(minRT, range.minRT);
+            maxMz = Math.max(maxMz, range.maxMz);
+            maxIntensity = Math.max(maxIntensity, range.maxIntensity);
+            maxCharge = Math.max(maxCharge, range.maxCharge);
+            maxPeakCount = Math.max(maxPeakCount, range.maxPeakCount);
+            if (titleSet) {
+                maxPeakCount = Math.max(maxPeakCount, range.untitledPeakCount);
+            }
+            if (range.titleAtEnd != null) {
+                titleSet = range.titleAtEnd;
+            }
+            peakPicked = peakPicked && range.peakPicked;
+            precursorChargesMissing = precursorChargesMissing || range.precursorChargesMissing;
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        if (minRT == Double.MAX_VALUE) {
+            minRT = 0;
+        }
+
+        return new MgfIndex(new ArrayList<String>(spectrumTitles), duplicateTitles, indexes, spectrumIndexes, precursorMzMap, mgfFile.getName(), minRT, maxRT,
+                maxMz, maxIntensity, maxCharge, maxPeakCount, peakPicked, precursorChargesMissing, mgfFile.lastModified(), spectrumCounter);
+    }
+
+    /**
+     * Partial index of the spectra starting in a byte range of an mgf file.
+     * A range contains the spectra whose "BEGIN IONS" line starts in it, the
+     * lines following the last spectrum being read until the next "BEGIN
+     * IONS" line.
+     */
+    private static class IndexRange {
+
+        /**
+         * The position in the file of the beginning of the range.
+         */
+        private final long start;
+        /**
+         * The position in the file of the end of the range, excluded.
+         */
+        private final long end;
+        /**
+         * The decoded titles found in the range in the order of the file, not
+         * yet made unique.
+         */
+        private final ArrayList<String> titles = new ArrayList<String>();
+        /**
+         * The index in the file of the spectrum of every title.
+         */
+        private final ArrayList<Long> titleIndexes = new ArrayList<Long>();
+        /**
+         * The number of the spectrum of every title in the range.
+         */
+        private final ArrayList<Integer> titleSpectra = new ArrayList<Integer>();
+        /**
+         * The precursor m/z indexed by number of the spectrum in the range.
+         */
+        private final HashMap<Integer, Double> precursorMzMap = new HashMap<Integer, Double>();
+        /**
+         * The number of spectra in the range.
+         */
+        private int nSpectra = 0;
+        /**
+         * The extreme values found in the range.
+         */
+        private double maxRT = -1, minRT = Double.MAX_VALUE, maxMz = -1, maxIntensity = 0;
+        /**
+         * The maximal charge and peak count found in the range.
+         */
+        private int maxCharge = 0, maxPeakCount = 0;
+        /**
+         * Indicates whether all peaks of the range have a non-zero intensity.
+         */
+        private boolean peakPicked = true;
+        /**
+         * Indicates whether a spectrum of the range has no charge tag.
+         */
+        private boolean precursorChargesMissing = false;
+        /**
+         * The peak count at the first "END IONS" tag if no title was found
+         * before in the range, -1 otherwise. In a sequential scan this count
+         * is used for the maximal peak count if the title of the previous
+         * range is still set.
+         */
+        private int untitledPeakCount = -1;
+        /**
+         * Indicates whether a title is set at the end of the range, null if
+         * the range contains no title and no "END IONS" tag, in which case the
+         * state of the previous range carries over.
+         */
+        private Boolean titleAtEnd = null;
+
+        /**
+         * Constructor.
+         *
+         * @param start the position in the file of the beginning of the range
+         * @param end the position in the file of the end of the range,
+         * excluded
+         */
+        private IndexRange(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Scans the range.
+         *
+         * @param mgfFile the mgf file
+         * @param waitingHandler a waitingHandler showing the progress, can be
+         * null
+         * @param progress the number of bytes scanned in all ranges
+         * @param progressUnit the number of bytes corresponding to one percent
+         * of progress
+         *
+         * @throws FileNotFoundException exception thrown whenever the file is
+         * not found
+         * @throws IOException exception thrown whenever an error occurs while
+         * reading the file
+         */
+        private void scan(File mgfFile, WaitingHandler waitingHandler, AtomicLong progress, long progressUnit) throws FileNotFoundException, IOException {
+
+            long currentIndex = 0, lastIndex = start;
+            String title = null;
+            boolean titleInherited = start > 0;
+            int peakCount = 0;
+            boolean insideSpectrum = false;
+            boolean chargeTagFound = false;
+            boolean spectrumFound = start == 0;
+
+            MappedMgfReader reader = new MappedMgfReader(mgfFile);
+
+            try {
+
+                if (start > 0) {
+                    // skip to the first line starting in the range
+                    reader.position = start - 1;
+                    reader.nextLine();
+                }
+
+                while (reader.nextLine()) {
+
+                    if (reader.startsWithDigit()) {
+                        if (insideSpectrum && reader.parsePeak(false)) {
+                            if (peakPicked && reader.peakIntensity == 0) {
+                                peakPicked = false;
+                            }
+                            peakCount++;
+                        }
+                        continue;
+                    }
+
+                    String line = reader.getLine();
+
+                    // fix for lines ending with \r
+                    if (line.endsWith("\r")) {
+                        line = line.replace("\r", "");
+                    }
+
+                    if (line.equals("BEGIN IONS")) {
+                        if (reader.segmentStart + reader.lineStart >= end) {
+                            // first spectrum of the next range
+                            break;
+                        }
+                        spectrumFound = true;
+                        insideSpectrum = true;
+                        chargeTagFound = false;
+                        currentIndex = reader.position;
+                        nSpectra++;
+                        peakCount = 0;
+                        if (waitingHandler != null) {
+                            if (waitingHandler.isRunCanceled()) {
+                                break;
+                            }
+                            waitingHandler.setSecondaryProgressCounter((int) (progress.addAndGet(currentIndex - lastIndex) / progressUnit));
+                            lastIndex = currentIndex;
+                        }
+                    } else if (!spectrumFound) {
+                        // end of the last spectrum of the previous range
+                    } else if (line.startsWith("TITLE")) {
+
+                        title = line.substring(line.indexOf('=') + 1);
+                        titleInherited = false;
+
+                        try {
+                            title = decodeTitle(title);
+                        } catch (UnsupportedEncodingException e) {
+                            if (waitingHandler != null) {
+                                waitingHandler.appendReport("An exception was thrown when trying to decode an mgf title: " + title, true, true);
+                            }
+                            System.out.println("An exception was thrown when trying to decode an mgf title: " + title);
+                            e.printStackTrace();
+                        }
+                        titles.add(title);
+                        titleIndexes.add(currentIndex);
+                        titleSpectra.add(nSpectra - 1);
+                    } else if (line.startsWith("CHARGE")) {
+                        ArrayList<Charge> precursorCharges = MgfReader.parseCharges(line);
+                        for (Charge charge : precursorCharges) {
+                            if (charge.value > maxCharge) {
+                                maxCharge = charge.value;
+                            }
+                        }
+                        chargeTagFound = true;
+                    } else if (line.startsWith("PEPMASS")) {
+                        String temp = line.substring(line.indexOf("=") + 1);
+                        String[] values = temp.split("\\s");
+                        double precursorMz = Double.parseDouble(values[0]);
+
+                        if (precursorMz > maxMz) {
+                            maxMz = precursorMz;
+                        }
+
+                        if (values.length > 1) {
+                            double precursorIntensity = Double.parseDouble(values[1]);
+
+                            if (precursorIntensity > maxIntensity) {
+                                maxIntensity = precursorIntensity;
+                            }
+                        }
+
+                        precursorMzMap.put(nSpectra - 1, precursorMz);
+
+                    } else if (line.startsWith("RTINSECONDS")) {
+
+                        String rtInput = "";
+
+                        try {
+                            rtInput = line.substring(line.indexOf('=') + 1);
+                            String[] rtWindow = rtInput.split("-");
+
+                            if (rtWindow.length == 1) {
+                                String tempRt = rtWindow[0];
+                                // possible fix for values like RTINSECONDS=PT121.250000S
+                                if (tempRt.startsWith("PT") && tempRt.endsWith("S")) {
+                                    tempRt = tempRt.substring(2, tempRt.length() - 1);
+                                }
+                                double rt = Double.parseDouble(tempRt);
+                                if (rt > maxRT) {
+                                    maxRT = rt;
+                                }
+                                if (rt < minRT) {
+                                    minRT = rt;
+                                }
+                            } else if (rtWindow.length == 2 && !rtWindow[0].equals("")) {
+                                double rt1 = Double.parseDouble(rtWindow[0]);
+                                if (rt1 > maxRT) {
+                                    maxRT = rt1;
+                                }
+                                if (rt1 < minRT) {
+                                    minRT = rt1;
+                                }
+                                double rt2 = Double.parseDouble(rtWindow[1]);
+                                if (rt2 > maxRT) {
+                                    maxRT = rt2;
+                                }
+                                if (rt2 < minRT) {
+                                    minRT = rt2;
+                                }
+                            }
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("Cannot parse retention time: " + rtInput);
+                        }
+                    } else if (line.startsWith("END IONS")) {
+                        insideSpectrum = false;
+                        if (titleInherited) {
+                            untitledPeakCount = peakCount;
+                        } else if (title != null) {
+                            if (peakCount > maxPeakCount) {
+                                maxPeakCount = peakCount;
+                            }
+                        }
+                        title = null;
+                        titleInherited = false;
+                        if (!chargeTagFound) {
+                            precursorChargesMissing = true;
+                        }
+                    } else if (insideSpectrum && !line.equals("")) {
+                        if (reader.parsePeak(false)) {
+                            if (peakPicked && reader.peakIntensity == 0) {
+                                peakPicked = false;
+                            }
+                            peakCount++;
+                        }
+                    }
+                }
+
+            } finally {
+                reader.close();
+            }
+
+            if (!titleInherited) {
+                titleAtEnd = title != null;
+            }
+        }
+    }
+}
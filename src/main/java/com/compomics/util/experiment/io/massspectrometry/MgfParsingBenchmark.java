@@ -0,0 +1,186 @@
+package com.compomics.util.experiment.io.massspectrometry;
+
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import uk.ac.ebi.pride.tools.braf.BufferedRandomAccessFile;
+
+/**
+ * Command line benchmark of the parsing of mgf files. The indexing and the
+ * reading of all spectra of a file are timed using the MgfReader and the
+ * MappedMgfReader, and the throughput is printed in MB/s and spectra/s. The
+ * sequential parsing of the file using a buffered reader is given as
+ * reference. The indexing is also timed in parallel using all available
+ * processors. The indexes and spectra obtained are compared.
+ * <p>
+ * The rows of the old reader depend on the BufferedRandomAccessFile found in
+ * the class path, its location is printed so that a run against a stand-in
+ * of this class is not mistaken for a comparison with the MgfReader.
+ *
+ * @author Marc Vaudel
+ */
+public class MgfParsingBenchmark {
+
+    /**
+     * Main class.
+     *
+     * @param args command line arguments
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && (args[0].equals("-h") || args[0].equals("--help"))) {
+            System.err.println("MgfParsingBenchmark: measures the throughput of the mgf readers.");
+            System.err.println("usage: MgfParsingBenchmark [mgf-file | number-of-spectra] [number-of-peaks]");
+            System.err.println();
+            System.err.println("Default parameters:");
+            System.err.println("\tnumber of spectra:\t20000 (synthetic file)");
+            System.err.println("\tnumber of peaks:\t200 (synthetic file)");
+            System.exit(-1);
+        }
+        File mgfFile;
+        boolean synthetic = args.length == 0 || !new File(args[0]).exists();
+        if (synthetic) {
+            int nSpectra = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+            int nPeaks = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+            mgfFile = File.createTempFile("mgf_benchmark", ".mgf");
+            writeFile(mgfFile, nSpectra, nPeaks);
+        } else {
+            mgfFile = new File(args[0]);
+        }
+        try {
+            double megaBytes = mgfFile.length() / (1024.0 * 1024.0);
+            System.out.println("file: " + mgfFile.getName() + " (" + String.format(Locale.US, "%.1f", megaBytes) + " MB)");
+            CodeSource codeSource = BufferedRandomAccessFile.class.getProtectionDomain().getCodeSource();
+            System.out.println("old reader: BufferedRandomAccessFile from " + (codeSource == null ? "unknown location" : codeSource.getLocation()));
+            System.out.println("step\t\treader\tMB/s\tspectra/s");
+
+            long start = System.nanoTime();
+            MgfIndex index = MgfReader.getIndexMap(mgfFile, null);
+            long oldIndexing = System.nanoTime() - start;
+            start = System.nanoTime();
+            MgfIndex mappedIndex = MappedMgfReader.getIndexMap(mgfFile, null);
+            long mappedIndexing = System.nanoTime() - start;
+            if (!index.getSpectrumTitles().equals(mappedIndex.getSpectrumTitles())
+                    || !index.getMaxPeakCount().equals(mappedIndex.getMaxPeakCount())) {
+                throw new IllegalStateException("The indexes differ.");
+            }
+            int nThreads = Math.max(Runtime.getRuntime().availableProcessors(), 1);
+            start = System.nanoTime();
+            MgfIndex parallelIndex = MappedMgfReader.getIndexMap(mgfFile, null, nThreads, Math.max(mgfFile.length() / (4 * nThreads), 1));
+            long parallelIndexing = System.nanoTime() - start;
+            if (!index.getSpectrumTitles().equals(parallelIndex.getSpectrumTitles())
+                    || !index.getMaxPeakCount().equals(parallelIndex.getMaxPeakCount())) {
+                throw new IllegalStateException("The indexes differ.");
+            }
+            int nSpectra = index.getNSpectra();
+            print("indexing", "old", megaBytes, nSpectra, oldIndexing);
+            print("indexing", "mapped", megaBytes, nSpectra, mappedIndexing);
+            print("indexing", "parallel (" + nThreads + ")", megaBytes, nSpectra, parallelIndexing);
+
+            ArrayList<String> titles = index.getSpectrumTitles();
+            ArrayList<MSnSpectrum> spectra = new ArrayList<MSnSpectrum>(titles.size());
+            BufferedRandomAccessFile bufferedRandomAccessFile = new BufferedRandomAccessFile(mgfFile, "r", 1024 * 100);
+            try {
+                start = System.nanoTime();
+                for (String title : titles) {
+                    spectra.add(MgfReader.getSpectrum(bufferedRandomAccessFile, index.getIndex(title), mgfFile.getName()));
+                }
+            } finally {
+                bufferedRandomAccessFile.close();
+            }
+            long oldReading = System.nanoTime() - start;
+            MappedMgfReader mappedMgfReader = new MappedMgfReader(mgfFile);
+            long mappedReading;
+            try {
+                start = System.nanoTime();
+                int i = 0;
+                for (String title : titles) {
+                    MSnSpectrum spectrum = mappedMgfReader.getSpectrum(mappedIndex.getIndex(title), mgfFile.getName());
+                    MSnSpectrum expected = spectra.get(i++);
+                    if (!Arrays.equals(expected.getOrderedMzValues(), spectrum.getOrderedMzValues())
+                            || !Arrays.equals(expected.getIntensityValuesAsArray(), spectrum.getIntensityValuesAsArray())) {
+                        throw new IllegalStateException("The peaks of spectrum " + title + " differ.");
+                    }
+                }
+                mappedReading = System.nanoTime() - start;
+            } finally {
+                mappedMgfReader.close();
+            }
+            start = System.nanoTime();
+            new MgfReader().getSpectra(mgfFile);
+            long bufferedReading = System.nanoTime() - start;
+            print("reading", "buffered", megaBytes, nSpectra, bufferedReading);
+            print("reading", "old", megaBytes, nSpectra, oldReading);
+            print("reading", "mapped", megaBytes, nSpectra, mappedReading);
+        } finally {
+            if (synthetic) {
+                mgfFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Prints the throughput of a step.
+     *
+     * @param step the name of the step
+     * @param reader the name of the reader
+     * @param megaBytes the size of the file in MB
+     * @param nSpectra the number of spectra
+     * @param nanoSeconds the duration of the step in nanoseconds
+     */
+    private static void print(String step, String reader, double megaBytes, int nSpectra, long nanoSeconds) {
+        double seconds = nanoSeconds / 1000000000.0;
+        System.out.println(step + "\t" + reader + "\t" + String.format(Locale.US, "%.1f", megaBytes / seconds)
+                + "\t" + String.format(Locale.US, "%.0f", nSpectra / seconds));
+    }
+
+    /**
+     * Writes a synthetic mgf file.
+     *
+     * @param mgfFile the file to write
+     * @param nSpectra the number of spectra
+     * @param nPeaks the number of peaks per spectrum
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private static void writeFile(File mgfFile, int nSpectra, int nPeaks) throws IOException {
+        Random random = new Random(42);
+        BufferedWriter bw = new BufferedWriter(new FileWriter(mgfFile));
+        try {
+            for (int i = 0; i < nSpectra; i++) {
+                bw.write("BEGIN IONS");
+                bw.newLine();
+                bw.write("TITLE=controllerType=0 controllerNumber=1 scan=" + i);
+                bw.newLine();
+                bw.write("RTINSECONDS=" + String.format(Locale.US, "%.4f", 0.5 * i));
+                bw.newLine();
+                bw.write("PEPMASS=" + String.format(Locale.US, "%.8f", 400 + 1200 * random.nextDouble()) + " " + String.format(Locale.US, "%.4f", 1e6 * random.nextDouble()));
+                bw.newLine();
+                bw.write("CHARGE=" + (2 + random.nextInt(3)) + "+");
+                bw.newLine();
+                bw.write("SCANS=" + i);
+                bw.newLine();
+                double mz = 100;
+                for (int j = 0; j < nPeaks; j++) {
+                    mz += 10 * random.nextDouble();
+                    bw.write(String.format(Locale.US, "%.6f", mz) + " " + String.format(Locale.US, "%.4f", 1e5 * random.nextDouble()));
+                    bw.newLine();
+                }
+                bw.write("END IONS");
+                bw.newLine();
+                bw.newLine();
+            }
+        } finally {
+            bw.close();
+        }
+    }
+}
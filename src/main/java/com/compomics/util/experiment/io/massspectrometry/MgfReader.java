@@ -1156,7 +1156,7 @@ public class MgfReader {
      * @return the possible charges found
      * @throws IllegalArgumentException
      */
-    private static ArrayList<Charge> parseCharges(String chargeLine) throws IllegalArgumentException {
+    static ArrayList<Charge> parseCharges(String chargeLine) throws IllegalArgumentException {
 
         ArrayList<Charge> result = new ArrayList<Charge>(1);
         String tempLine = chargeLine.substring(chargeLine.indexOf("=") + 1);
@@ -1324,12 +1324,16 @@ public class MgfReader {
                 aplWriter.write("fragmentation=" + fragmentation + "\n");
                 aplWriter.write("charge=" + spectrum.getPrecursor().getPossibleCharges().get(0).value + "\n"); //@TODO what if many/no charge is present?
                 aplWriter.write("header=" + spectrum.getSpectrumTitle() + "\n");
-                HashMap<Double, Peak> peakMap = spectrum.getPeakMap();
-                ArrayList<Double> fragmentMasses = new ArrayList<Double>(peakMap.keySet());
-                Collections.sort(fragmentMasses);
+                double[] fragmentMasses, intensities;
+                try {
+                    fragmentMasses = spectrum.getOrderedMzValues();
+                    intensities = spectrum.getIntensityValuesAsArray();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Interrupted while writing the spectrum " + title + ".");
+                }
 
-                for (double fragmentMass : fragmentMasses) {
-                    aplWriter.write(fragmentMass + "\t" + peakMap.get(fragmentMass).intensity + "\n");
+                for (int i = 0; i < fragmentMasses.length; i++) {
+                    aplWriter.write(fragmentMasses[i] + "\t" + intensities[i] + "\n");
                 }
 
                 aplWriter.write("peaklist end\n\n");
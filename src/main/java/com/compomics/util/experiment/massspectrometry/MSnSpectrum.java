@@ -55,7 +55,7 @@ public class MSnSpectrum extends Spectrum {
         this.level = level;
         this.precursor = precursor;
         this.spectrumTitle = spectrumTitle;
-        this.peakList = peakMap;
+        setPeakList(peakMap);
         this.fileName = fileName;
     }
 
@@ -73,7 +73,7 @@ public class MSnSpectrum extends Spectrum {
         this.level = level;
         this.precursor = precursor;
         this.spectrumTitle = spectrumTitle;
-        this.peakList = peakMap;
+        setPeakList(peakMap);
         this.fileName = fileName;
         this.scanStartTime = scanStartTime;
     }
@@ -157,15 +157,9 @@ public class MSnSpectrum extends Spectrum {
             results.append("SCANS=").append(scanNumber).append(lineBreak);
         }
 
-        // add the values to a tree map to get them sorted in mz    
-        TreeMap<Double, Double> sortedPeakList = new TreeMap<Double, Double>();
-
-        for (Peak peak : peakList.values()) {
-            sortedPeakList.put(peak.mz, peak.intensity);
-        }
-
-        for (Map.Entry<Double, Double> entry : sortedPeakList.entrySet()) {
-            results.append(entry.getKey()).append(" ").append(entry.getValue()).append(lineBreak);
+        // the peaks are sorted by m/z
+        for (Peak peak : getPeakList()) {
+            results.append(peak.mz).append(" ").append(peak.intensity).append(lineBreak);
         }
 
         results.append("END IONS").append(lineBreak).append(lineBreak);
@@ -3,16 +3,20 @@ package com.compomics.util.experiment.massspectrometry;
 import com.compomics.util.experiment.identification.matches.IonMatch;
 import com.compomics.util.experiment.personalization.ExperimentObject;
 import com.compomics.util.math.BasicMathFunctions;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.concurrent.Semaphore;
 import org.apache.commons.math.MathException;
 
 /**
- * This class models a spectrum.
+ * This class models a spectrum. The peaks are stored in arrays sorted by
+ * ascending m/z, maps and lists of Peak objects are created on demand.
  *
  * @author Marc Vaudel
  * @author Harald Barsnes
@@ -23,6 +27,10 @@ public abstract class Spectrum extends ExperimentObject {
      * The version UID for Serialization/Deserialization compatibility.
      */
     static final long serialVersionUID = 7152424141470431489L;
+    /**
+     * Empty array used for spectra without peaks.
+     */
+    private static final double[] NO_PEAKS = new double[0];
     /**
      * Spectrum title.
      */
@@ -36,13 +44,32 @@ public abstract class Spectrum extends ExperimentObject {
      */
     protected int level;
     /**
-     * mz indexed Peak list.
+     * mz indexed Peak list. Only used to read spectra serialized before the
+     * peaks were stored in arrays, null otherwise. Subclasses should access
+     * the peaks via the getters and setters.
      */
     protected HashMap<Double, Peak> peakList;
     /**
-     * Intensity indexed Peak map.
+     * The m/z of the peaks sorted in ascending order.
+     */
+    private double[] mzValues = NO_PEAKS;
+    /**
+     * The intensities of the peaks in the order of the m/z values.
+     */
+    private double[] intensityValues = NO_PEAKS;
+    /**
+     * The retention times of the peaks in the order of the m/z values, null if
+     * all peaks have the same retention time.
      */
-    protected HashMap<Double, ArrayList<Peak>> intensityPeakMap = null;
+    private double[] rtValues = null;
+    /**
+     * The retention time of all peaks when rtValues is null.
+     */
+    private double peakRt = 0;
+    /**
+     * Intensity indexed Peak map. Null until set by the getter.
+     */
+    protected transient HashMap<Double, ArrayList<Peak>> intensityPeakMap = null;
     /**
      * Scan number or range.
      */
@@ -56,37 +83,16 @@ public abstract class Spectrum extends ExperimentObject {
      * The splitter in the key between spectrumFile and spectrumTitle.
      */
     public static final String SPECTRUM_KEY_SPLITTER = "_cus_";
-    /**
-     * The peak list as an array directly plottable by JFreeChart.
-     */
-    private double[][] jFreePeakList = null;
-    /**
-     * The mz values as array. Null until set by the getter.
-     */
-    private double[] mzValuesAsArray = null;
-    /**
-     * The mz values sorted in acceding order as array. Null until set by the
-     * getter.
-     */
-    private double[] mzValuesOrderedAsArray = null;
     /**
      * The peak list as an array list formatted as text, e.g. [[303.17334
      * 3181.14],[318.14542 37971.93], ... ].
      */
     private String peakListAsString = null;
-    /**
-     * The intensity values as array. Null until set by the getter.
-     */
-    private double[] intensityValuesAsArray = null;
     /**
      * The intensity values as array normalized against the most intense peak.
      * Null until set by the getter.
      */
     private double[] intensityValuesNormaizedAsArray = null; // @TODO: correct typo
-    /**
-     * The mz and intensity values as array. Null until set by the getter.
-     */
-    private double[][] mzAndIntensityAsArray = null;
     /**
      * The total intensity.
      */
@@ -95,18 +101,10 @@ public abstract class Spectrum extends ExperimentObject {
      * The maximal intensity.
      */
     private Double maxIntensity;
-    /**
-     * The maximal m/z.
-     */
-    private Double maxMz;
-    /**
-     * The minimal m/z.
-     */
-    private Double minMz;
     /**
      * Mutex for the setting of the attributes in cache.
      */
-    private Semaphore mutex = new Semaphore(1);
+    private transient Semaphore mutex = new Semaphore(1);
     /**
      * Cache for the intensity limit.
      */
@@ -119,7 +117,7 @@ public abstract class Spectrum extends ExperimentObject {
      * The binned cumulative function of the distribution of the log of the
      * peaks intensities.
      */
-    private SimpleNoiseDistribution binnedCumulativeFunction = null;
+    private transient SimpleNoiseDistribution binnedCumulativeFunction = null;
 
     /**
      * Convenience method returning the key for a spectrum.
@@ -194,71 +192,206 @@ public abstract class Spectrum extends ExperimentObject {
      * interrupted
      */
     public double[][] getJFreePeakList() throws InterruptedException {
-        if (jFreePeakList == null) {
-            mutex.acquire();
-            if (jFreePeakList == null) {
-                double[] mz = new double[peakList.size()];
-                double[] intensity = new double[peakList.size()];
-                int cpt = 0;
-                for (Peak currentPeak : peakList.values()) {
-                    mz[cpt] = currentPeak.mz;
-                    intensity[cpt] = currentPeak.intensity;
-                    cpt++;
-                }
-
-                jFreePeakList = new double[6][mz.length];
-                jFreePeakList[0] = mz;
-                jFreePeakList[1] = mz;
-                jFreePeakList[2] = mz;
-                jFreePeakList[3] = intensity;
-                jFreePeakList[4] = intensity;
-                jFreePeakList[5] = intensity;
-            }
-            mutex.release();
-        }
-        return jFreePeakList;
+        double[] mz = mzValues;
+        double[] intensity = intensityValues;
+        return new double[][]{mz, mz, mz, intensity, intensity, intensity};
     }
 
     /**
-     * Returns a peak map where peaks are indexed by their m/z.
+     * Returns a peak map where peaks are indexed by their m/z. The map is
+     * created upon every call, changes to the map are not reflected in the
+     * spectrum.
      *
      * @return a peak map
      */
     public HashMap<Double, Peak> getPeakMap() {
-        return peakList;
+        double[] mz = mzValues;
+        HashMap<Double, Peak> result = new HashMap<Double, Peak>(Math.max(16, 2 * mz.length));
+        for (int i = 0; i < mz.length; i++) {
+            result.put(mz[i], getPeak(i));
+        }
+        return result;
     }
 
     /**
-     * Adds a peak to the spectrum peak list.
+     * Returns the peak at the given index in the list of peaks sorted by
+     * ascending m/z.
+     *
+     * @param index the index of the peak
+     *
+     * @return the peak at the given index
+     */
+    public Peak getPeak(int index) {
+        double rt = rtValues == null ? peakRt : rtValues[index];
+        return new Peak(mzValues[index], intensityValues[index], rt);
+    }
+
+    /**
+     * Returns the peak at the given m/z, null if none.
+     *
+     * @param mz the m/z of the peak
+     *
+     * @return the peak at the given m/z
+     */
+    public Peak getPeak(double mz) {
+        int index = Arrays.binarySearch(mzValues, mz);
+        if (index < 0) {
+            return null;
+        }
+        return getPeak(index);
+    }
+
+    /**
+     * Adds a peak to the spectrum peak list. A peak already present at the
+     * same m/z is replaced.
      *
      * @param aPeak the peak to add
      */
     public synchronized void addPeak(Peak aPeak) {
-        if (peakList == null) {
-            peakList = new HashMap<Double, Peak>();
+        double[] mz = mzValues;
+        int index = Arrays.binarySearch(mz, aPeak.mz);
+        if (index >= 0) {
+            double[] intensity = intensityValues.clone();
+            intensity[index] = aPeak.intensity;
+            double[] rt = getRtValues();
+            rt[index] = aPeak.rt;
+            setArrays(mz, intensity, rt);
+        } else {
+            int insertion = -index - 1;
+            setArrays(insert(mz, insertion, aPeak.mz), insert(intensityValues, insertion, aPeak.intensity), insert(getRtValues(), insertion, aPeak.rt));
         }
-        this.peakList.put(aPeak.mz, aPeak);
         resetSavedData();
     }
 
+    /**
+     * Returns a copy of the given array with a value inserted at the given
+     * index.
+     *
+     * @param array the original array
+     * @param index the index where the value should be inserted
+     * @param value the value to insert
+     *
+     * @return a copy of the array with the value inserted
+     */
+    private static double[] insert(double[] array, int index, double value) {
+        double[] result = new double[array.length + 1];
+        System.arraycopy(array, 0, result, 0, index);
+        result[index] = value;
+        System.arraycopy(array, index, result, index + 1, array.length - index);
+        return result;
+    }
+
+    /**
+     * Returns the retention times of all peaks as a new array.
+     *
+     * @return the retention times of all peaks
+     */
+    private double[] getRtValues() {
+        if (rtValues != null) {
+            return rtValues.clone();
+        }
+        double[] rt = new double[mzValues.length];
+        Arrays.fill(rt, peakRt);
+        return rt;
+    }
+
+    /**
+     * Sets the peak arrays. The retention times are only stored when they
+     * differ between peaks.
+     *
+     * @param mz the m/z values sorted in ascending order
+     * @param intensity the intensities in the order of the m/z values
+     * @param rt the retention times in the order of the m/z values
+     */
+    private void setArrays(double[] mz, double[] intensity, double[] rt) {
+        double commonRt = rt.length > 0 ? rt[0] : 0;
+        boolean sameRt = true;
+        for (double peakRetentionTime : rt) {
+            if (peakRetentionTime != commonRt) {
+                sameRt = false;
+                break;
+            }
+        }
+        this.peakRt = commonRt;
+        this.rtValues = sameRt ? null : rt;
+        this.intensityValues = intensity;
+        this.mzValues = mz;
+    }
+
+    /**
+     * Sets the peaks from a collection. If several peaks have the same m/z
+     * the last one is kept.
+     *
+     * @param peaks the peaks to set
+     */
+    private void setPeaks(Collection<Peak> peaks) {
+        Peak[] sortedPeaks = peaks.toArray(new Peak[peaks.size()]);
+        Arrays.sort(sortedPeaks, Peak.AscendingMzComparator);
+        int nPeaks = 0;
+        double[] mz = new double[sortedPeaks.length];
+        double[] intensity = new double[sortedPeaks.length];
+        double[] rt = new double[sortedPeaks.length];
+        for (Peak peak : sortedPeaks) {
+            if (nPeaks == 0 || peak.mz != mz[nPeaks - 1]) {
+                nPeaks++;
+            }
+            mz[nPeaks - 1] = peak.mz;
+            intensity[nPeaks - 1] = peak.intensity;
+            rt[nPeaks - 1] = peak.rt;
+        }
+        if (nPeaks < sortedPeaks.length) {
+            mz = Arrays.copyOf(mz, nPeaks);
+            intensity = Arrays.copyOf(intensity, nPeaks);
+            rt = Arrays.copyOf(rt, nPeaks);
+        }
+        setArrays(mz, intensity, rt);
+    }
+
     /**
      * Set the peaks.
      *
      * @param peaks the peaks to set
      */
     public synchronized void setPeaks(ArrayList<Peak> peaks) {
+        setPeaks((Collection<Peak>) peaks);
+        resetSavedData();
+    }
 
-        if (peakList != null) {
-            this.peakList.clear();
-        } else {
-            peakList = new HashMap<Double, Peak>();
+    /**
+     * Sets the peaks from arrays of m/z and intensities. The arrays are used
+     * as they are if the m/z values are sorted in strictly ascending order,
+     * they are otherwise sorted, and if several peaks have the same m/z the
+     * last one is kept. The retention time of the peaks is set to the given
+     * value.
+     *
+     * @param mz the m/z values of the peaks
+     * @param intensity the intensities of the peaks in the order of the m/z
+     * values
+     * @param rt the retention time of the peaks
+     */
+    public synchronized void setPeaks(double[] mz, double[] intensity, double rt) {
+        if (mz.length != intensity.length) {
+            throw new IllegalArgumentException("Different number of m/z values (" + mz.length + ") and intensities (" + intensity.length + ").");
         }
-
-        for (Peak p : peaks) {
-            double mz = p.mz;
-            peakList.put(mz, p);
+        boolean sorted = true;
+        for (int i = 1; i < mz.length; i++) {
+            if (mz[i] <= mz[i - 1]) {
+                sorted = false;
+                break;
+            }
+        }
+        if (sorted) {
+            rtValues = null;
+            peakRt = rt;
+            intensityValues = intensity;
+            mzValues = mz;
+        } else {
+            ArrayList<Peak> peaks = new ArrayList<Peak>(mz.length);
+            for (int i = 0; i < mz.length; i++) {
+                peaks.add(new Peak(mz[i], intensity[i], rt));
+            }
+            setPeaks((Collection<Peak>) peaks);
         }
-
         resetSavedData();
     }
 
@@ -299,12 +432,18 @@ public abstract class Spectrum extends ExperimentObject {
     }
 
     /**
-     * Returns the peak list.
+     * Returns the peak list sorted by ascending m/z. The list is created upon
+     * every call, changes to the list are not reflected in the spectrum.
      *
      * @return the peak list
      */
     public Collection<Peak> getPeakList() {
-        return peakList.values();
+        int nPeaks = mzValues.length;
+        ArrayList<Peak> result = new ArrayList<Peak>(nPeaks);
+        for (int i = 0; i < nPeaks; i++) {
+            result.add(getPeak(i));
+        }
+        return result;
     }
 
     /**
@@ -313,7 +452,11 @@ public abstract class Spectrum extends ExperimentObject {
      * @param peakList HashSet of peaks containing the peaks of the spectrum
      */
     public synchronized void setPeakList(HashMap<Double, Peak> peakList) {
-        this.peakList = peakList;
+        if (peakList == null) {
+            setArrays(NO_PEAKS, NO_PEAKS, NO_PEAKS);
+        } else {
+            setPeaks(peakList.values());
+        }
         resetSavedData();
     }
 
@@ -330,24 +473,23 @@ public abstract class Spectrum extends ExperimentObject {
 
         if (peakListAsString == null) {
 
-            double[] mzValues = getOrderedMzValues();
             mutex.acquire();
 
+            double[] mz = mzValues;
+            double[] intensity = intensityValues;
             StringBuilder sb = new StringBuilder();
             sb.append("[");
 
-            for (double mzValue : mzValues) {
+            for (int i = 0; i < mz.length; i++) {
 
                 if (sb.length() > 1) {
                     sb.append(",");
                 }
 
-                Peak currentPeak = peakList.get(mzValue);
-
                 sb.append("[");
-                sb.append(currentPeak.mz);
+                sb.append(mz[i]);
                 sb.append(",");
-                sb.append(currentPeak.intensity);
+                sb.append(intensity[i]);
                 sb.append("]");
             }
 
@@ -383,14 +525,11 @@ public abstract class Spectrum extends ExperimentObject {
      * consumption of the model.
      */
     public synchronized void removePeakList() {
-        if (peakList != null) {
-            peakList.clear();
-        }
+        setArrays(NO_PEAKS, NO_PEAKS, NO_PEAKS);
     }
 
     /**
-     * Returns the mz values as an array. Note: the array is not necessarily
-     * ordered.
+     * Returns the mz values as an array sorted in ascending order.
      *
      * @return the mz values as an array
      *
@@ -398,20 +537,7 @@ public abstract class Spectrum extends ExperimentObject {
      * interrupted
      */
     public double[] getMzValuesAsArray() throws InterruptedException {
-
-        if (mzValuesAsArray == null) {
-            mutex.acquire();
-            if (mzValuesAsArray == null) {
-                mzValuesAsArray = new double[peakList.size()];
-                int counter = 0;
-                for (double currentMz : peakList.keySet()) {
-                    mzValuesAsArray[counter++] = currentMz;
-                }
-            }
-            mutex.release();
-        }
-
-        return mzValuesAsArray;
+        return mzValues;
     }
 
     /**
@@ -423,30 +549,25 @@ public abstract class Spectrum extends ExperimentObject {
      * interrupted
      */
     public double[] getOrderedMzValues() throws InterruptedException {
-        if (mzValuesOrderedAsArray == null) {
-            getMzValuesAsArray();
-            if (mzValuesOrderedAsArray == null) {
-                mutex.acquire();
-                mzValuesOrderedAsArray = mzValuesAsArray.clone();
-                Arrays.sort(mzValuesOrderedAsArray);
-                mutex.release();
-            }
-        }
-        return mzValuesOrderedAsArray;
+        return mzValues;
     }
 
     /**
-     * Setter for the intensityValuesAsArray.
+     * Setter for the intensityValuesAsArray. The intensities must be in the
+     * order of the m/z values.
      *
      * @param intensityValuesAsArray the intensity values array
      */
     public synchronized void setIntensityValuesAsArray(double[] intensityValuesAsArray) {
-        this.intensityValuesAsArray = intensityValuesAsArray;
-        removePeakList();
+        if (intensityValuesAsArray.length != mzValues.length) {
+            throw new IllegalArgumentException("Different number of m/z values (" + mzValues.length + ") and intensities (" + intensityValuesAsArray.length + ").");
+        }
+        this.intensityValues = intensityValuesAsArray;
+        resetSavedData();
     }
 
     /**
-     * Returns the intensity values as an array.
+     * Returns the intensity values as an array in the order of the m/z values.
      *
      * @return the intensity values as an array
      *
@@ -454,20 +575,7 @@ public abstract class Spectrum extends ExperimentObject {
      * interrupted
      */
     public double[] getIntensityValuesAsArray() throws InterruptedException {
-
-        if (intensityValuesAsArray == null || (intensityValuesAsArray.length != peakList.size())) {
-            mutex.acquire();
-            if (intensityValuesAsArray == null || (intensityValuesAsArray.length != peakList.size())) {
-                intensityValuesAsArray = new double[peakList.size()];
-                int counter = 0;
-                for (Peak currentPeak : peakList.values()) {
-                    intensityValuesAsArray[counter++] = currentPeak.intensity;
-                }
-            }
-            mutex.release();
-        }
-
-        return intensityValuesAsArray;
+        return intensityValues;
     }
 
     /**
@@ -487,23 +595,16 @@ public abstract class Spectrum extends ExperimentObject {
 
             if (intensityValuesNormaizedAsArray == null) {
 
-                intensityValuesNormaizedAsArray = new double[peakList.size()];
-
-                double highestIntensity = 0.0;
-                int counter = 0;
-
-                for (Peak currentPeak : peakList.values()) {
-                    intensityValuesNormaizedAsArray[counter++] = currentPeak.intensity;
-                    if (currentPeak.intensity > highestIntensity) {
-                        highestIntensity = currentPeak.intensity;
-                    }
-                }
+                double[] normalizedIntensities = intensityValues.clone();
+                double highestIntensity = getMaxIntensity(normalizedIntensities);
 
                 if (highestIntensity > 0) {
-                    for (int i = 0; i < intensityValuesNormaizedAsArray.length; i++) {
-                        intensityValuesNormaizedAsArray[i] = intensityValuesNormaizedAsArray[i] / highestIntensity * 100;
+                    for (int i = 0; i < normalizedIntensities.length; i++) {
+                        normalizedIntensities[i] = normalizedIntensities[i] / highestIntensity * 100;
                     }
                 }
+
+                intensityValuesNormaizedAsArray = normalizedIntensities;
             }
 
             mutex.release();
@@ -522,29 +623,7 @@ public abstract class Spectrum extends ExperimentObject {
      * interrupted
      */
     public double[][] getMzAndIntensityAsArray() throws InterruptedException {
-
-        if (mzAndIntensityAsArray == null) {
-
-            double[] orderedMzValues = getOrderedMzValues();
-            mutex.acquire();
-
-            if (mzAndIntensityAsArray == null) {
-
-                mzAndIntensityAsArray = new double[2][peakList.size()];
-                int counter = 0;
-
-                for (double mz : orderedMzValues) {
-                    Peak currentPeak = peakList.get(mz);
-                    mzAndIntensityAsArray[0][counter] = currentPeak.mz;
-                    mzAndIntensityAsArray[1][counter] = currentPeak.intensity;
-                    counter++;
-                }
-            }
-
-            mutex.release();
-        }
-
-        return mzAndIntensityAsArray;
+        return new double[][]{mzValues, intensityValues};
     }
 
     /**
@@ -563,11 +642,13 @@ public abstract class Spectrum extends ExperimentObject {
 
             if (totalIntensity == null) {
 
-                totalIntensity = 0.0;
+                double sum = 0.0;
 
-                for (Peak currentPeak : peakList.values()) {
-                    totalIntensity += currentPeak.intensity;
+                for (double intensity : intensityValues) {
+                    sum += intensity;
                 }
+
+                totalIntensity = sum;
             }
 
             mutex.release();
@@ -591,14 +672,7 @@ public abstract class Spectrum extends ExperimentObject {
             mutex.acquire();
 
             if (maxIntensity == null) {
-
-                maxIntensity = 0.0;
-
-                for (Peak currentPeak : peakList.values()) {
-                    if (currentPeak.intensity > maxIntensity) {
-                        maxIntensity = currentPeak.intensity;
-                    }
-                }
+                maxIntensity = getMaxIntensity(intensityValues);
             }
 
             mutex.release();
@@ -607,6 +681,23 @@ public abstract class Spectrum extends ExperimentObject {
         return maxIntensity;
     }
 
+    /**
+     * Returns the largest of the given intensities, 0 if none is larger.
+     *
+     * @param intensities the intensities
+     *
+     * @return the largest intensity
+     */
+    private static double getMaxIntensity(double[] intensities) {
+        double max = 0.0;
+        for (double intensity : intensities) {
+            if (intensity > max) {
+                max = intensity;
+            }
+        }
+        return max;
+    }
+
     /**
      * Returns the max mz value.
      *
@@ -616,23 +707,11 @@ public abstract class Spectrum extends ExperimentObject {
      * interrupted
      */
     public double getMaxMz() throws InterruptedException {
-
-        if (maxMz == null) {
-
-            mutex.acquire();
-            if (maxMz == null) {
-
-                if (peakList.keySet().isEmpty()) {
-                    maxMz = 0.0;
-                } else {
-                    maxMz = Collections.max(peakList.keySet());
-                }
-            }
-
-            mutex.release();
+        double[] mz = mzValues;
+        if (mz.length == 0) {
+            return 0.0;
         }
-
-        return maxMz;
+        return mz[mz.length - 1];
     }
 
     /**
@@ -644,23 +723,11 @@ public abstract class Spectrum extends ExperimentObject {
      * interrupted
      */
     public double getMinMz() throws InterruptedException {
-
-        if (minMz == null) {
-
-            mutex.acquire();
-
-            if (minMz == null) {
-                if (peakList.keySet().isEmpty()) {
-                    minMz = 0.0;
-                } else {
-                    minMz = Collections.min(peakList.keySet());
-                }
-            }
-
-            mutex.release();
+        double[] mz = mzValues;
+        if (mz.length == 0) {
+            return 0.0;
         }
-
-        return minMz;
+        return mz[0];
     }
 
     /**
@@ -676,9 +743,9 @@ public abstract class Spectrum extends ExperimentObject {
 
         ArrayList<Double> peakIntensities = new ArrayList<Double>();
 
-        for (Peak currentPeak : peakList.values()) {
-            if (currentPeak.intensity > threshold) {
-                peakIntensities.add(currentPeak.intensity);
+        for (double intensity : intensityValues) {
+            if (intensity > threshold) {
+                peakIntensities.add(intensity);
             }
         }
 
@@ -711,20 +778,19 @@ public abstract class Spectrum extends ExperimentObject {
      * @return the intensity limit
      */
     private double estimateIntneistyLimit(double intensityFraction) {
-        ArrayList<Double> intensities = new ArrayList<Double>(peakList.size());
 
-        for (Peak peak : peakList.values()) {
-            double mz = peak.mz;
-            // Skip the low mass region of the spectrum @TODO: skip precursor as well
-            if (mz > 200) {
-                intensities.add(peak.intensity);
-            }
-        }
+        double[] mz = mzValues;
+        double[] intensity = intensityValues;
+
+        // Skip the low mass region of the spectrum @TODO: skip precursor as well
+        int start = Arrays.binarySearch(mz, 200);
+        start = start < 0 ? -start - 1 : start + 1;
 
-        if (intensities.isEmpty()) {
+        if (start == mz.length) {
             return 0;
         }
 
+        double[] intensities = Arrays.copyOfRange(intensity, start, mz.length);
         return BasicMathFunctions.percentile(intensities, intensityFraction);
     }
 
@@ -737,13 +803,15 @@ public abstract class Spectrum extends ExperimentObject {
      */
     public HashMap<Double, Peak> getRecalibratedPeakList(HashMap<Double, Double> mzCorrections) {
 
-        HashMap<Double, Peak> result = new HashMap<Double, Peak>(peakList.size());
+        double[] mz = mzValues;
+        double[] intensity = intensityValues;
+        HashMap<Double, Peak> result = new HashMap<Double, Peak>(mz.length);
         ArrayList<Double> keys = new ArrayList<Double>(mzCorrections.keySet());
         Collections.sort(keys);
 
-        for (Peak peak : peakList.values()) {
+        for (int peakIndex = 0; peakIndex < mz.length; peakIndex++) {
 
-            double fragmentMz = peak.mz;
+            double fragmentMz = mz[peakIndex];
             double key1 = keys.get(0);
             double correction = 0.0;
 
@@ -778,7 +846,7 @@ public abstract class Spectrum extends ExperimentObject {
                 }
             }
 
-            result.put(peak.mz - correction, new Peak(peak.mz - correction, peak.intensity));
+            result.put(fragmentMz - correction, new Peak(fragmentMz - correction, intensity[peakIndex]));
         }
 
         return result;
@@ -792,9 +860,16 @@ public abstract class Spectrum extends ExperimentObject {
      * @return a peak list which does not contain the peak matched
      */
     public HashMap<Double, Peak> getDesignaledPeakList(ArrayList<IonMatch> matches) {
-        HashMap<Double, Peak> result = new HashMap<Double, Peak>(peakList);
+        HashSet<Double> matchedMz = new HashSet<Double>(matches.size());
         for (IonMatch ionMatch : matches) {
-            result.remove(ionMatch.peak.mz);
+            matchedMz.add(ionMatch.peak.mz);
+        }
+        double[] mz = mzValues;
+        HashMap<Double, Peak> result = new HashMap<Double, Peak>(Math.max(16, 2 * mz.length));
+        for (int i = 0; i < mz.length; i++) {
+            if (!matchedMz.contains(mz[i])) {
+                result.put(mz[i], getPeak(i));
+            }
         }
         return result;
     }
@@ -813,13 +888,14 @@ public abstract class Spectrum extends ExperimentObject {
      * interrupted
      */
     public HashMap<Double, Peak> getSubSpectrum(double mzMin, double mzMax) throws InterruptedException {
+        double[] mz = mzValues;
         HashMap<Double, Peak> result = new HashMap<Double, Peak>();
-        for (double mz : getOrderedMzValues()) {
-            if (mz >= mzMin && mz < mzMax) {
-                result.put(mz, peakList.get(mz));
-            } else if (mz >= mzMax) {
-                break;
-            }
+        int start = Arrays.binarySearch(mz, mzMin);
+        if (start < 0) {
+            start = -start - 1;
+        }
+        for (int i = start; i < mz.length && mz[i] < mzMax; i++) {
+            result.put(mz[i], getPeak(i));
         }
         return result;
     }
@@ -841,20 +917,24 @@ public abstract class Spectrum extends ExperimentObject {
 
             if (intensityPeakMap == null) {
 
-                intensityPeakMap = new HashMap<Double, ArrayList<Peak>>(peakList.size());
+                int nPeaks = mzValues.length;
+                HashMap<Double, ArrayList<Peak>> intensityMap = new HashMap<Double, ArrayList<Peak>>(nPeaks);
 
-                for (Peak peak : peakList.values()) {
+                for (int i = 0; i < nPeaks; i++) {
 
+                    Peak peak = getPeak(i);
                     double intensity = peak.intensity;
-                    ArrayList<Peak> peaksAtIntensity = intensityPeakMap.get(intensity);
+                    ArrayList<Peak> peaksAtIntensity = intensityMap.get(intensity);
 
                     if (peaksAtIntensity == null) {
                         peaksAtIntensity = new ArrayList<Peak>();
-                        intensityPeakMap.put(intensity, peaksAtIntensity);
+                        intensityMap.put(intensity, peaksAtIntensity);
                     }
 
                     peaksAtIntensity.add(peak);
                 }
+
+                intensityPeakMap = intensityMap;
             }
 
             mutex.release();
@@ -869,10 +949,7 @@ public abstract class Spectrum extends ExperimentObject {
      * @return the number of peaks in the spectrum
      */
     public int getNPeaks() {
-        if (peakList == null) {
-            return 0;
-        }
-        return peakList.size();
+        return mzValues.length;
     }
 
     /**
@@ -888,18 +965,11 @@ public abstract class Spectrum extends ExperimentObject {
      * Resets all the saved values to null. Used after altering the peak data.
      */
     private void resetSavedData() {
-        jFreePeakList = null;
         peakListAsString = null;
-        mzValuesAsArray = null;
-        mzValuesOrderedAsArray = null;
-        intensityValuesAsArray = null;
         intensityValuesNormaizedAsArray = null;
         binnedCumulativeFunction = null;
-        mzAndIntensityAsArray = null;
         totalIntensity = null;
         maxIntensity = null;
-        maxMz = null;
-        minMz = null;
         intensityPeakMap = null;
         intensityLimit = null;
     }
@@ -918,10 +988,32 @@ public abstract class Spectrum extends ExperimentObject {
         if (binnedCumulativeFunction == null) {
             mutex.acquire();
             if (binnedCumulativeFunction == null) {
-                binnedCumulativeFunction = new SimpleNoiseDistribution(peakList);
+                binnedCumulativeFunction = new SimpleNoiseDistribution(intensityValues);
             }
             mutex.release();
         }
         return binnedCumulativeFunction;
     }
+
+    /**
+     * Reads the spectrum and converts the peak map of spectra serialized
+     * before the peaks were stored in arrays.
+     *
+     * @param in the input stream
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever a class of the
+     * serialized object cannot be found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        mutex = new Semaphore(1);
+        if (peakList != null) {
+            setPeaks(peakList.values());
+            peakList = null;
+        } else if (mzValues == null) {
+            setArrays(NO_PEAKS, NO_PEAKS, NO_PEAKS);
+        }
+    }
 }
@@ -1,7 +1,7 @@
 package com.compomics.util.experiment.massspectrometry;
 
+import com.compomics.util.experiment.io.massspectrometry.MappedMgfReader;
 import com.compomics.util.experiment.io.massspectrometry.MgfIndex;
-import com.compomics.util.experiment.io.massspectrometry.MgfReader;
 import com.compomics.util.experiment.massspectrometry.indexes.PrecursorMap;
 import com.compomics.util.waiting.WaitingHandler;
 import com.compomics.util.io.SerializationUtils;
@@ -18,7 +18,6 @@ import uk.ac.ebi.jmzml.model.mzml.ScanList;
 import uk.ac.ebi.jmzml.model.mzml.SelectedIonList;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshaller;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
-import uk.ac.ebi.pride.tools.braf.BufferedRandomAccessFile;
 
 /**
  * This factory will provide the spectra when needed.
@@ -53,10 +52,10 @@ public class SpectrumFactory {
      */
     private HashMap<String, File> filesMap = new HashMap<String, File>();
     /**
-     * Map of the random access files of the loaded mgf files (filename &gt;
-     * random access file).
+     * Map of the memory mapped readers of the loaded mgf files (filename &gt;
+     * reader).
      */
-    private HashMap<String, BufferedRandomAccessFile> mgfRandomAccessFilesMap = new HashMap<String, BufferedRandomAccessFile>();
+    private HashMap<String, MappedMgfReader> mgfReadersMap = new HashMap<String, MappedMgfReader>();
     /**
      * Map of the mgf indexes (fileName &gt; mgf index).
      */
@@ -116,7 +115,7 @@ public class SpectrumFactory {
         loadedPrecursorsMap.clear();
         loadedSpectra.clear();
         filesMap.clear();
-        mgfRandomAccessFilesMap.clear();
+        mgfReadersMap.clear();
         mgfIndexesMap.clear();
         mzMLUnmarshallers.clear();
         idToSpectrumName.clear();
@@ -209,7 +208,12 @@ public class SpectrumFactory {
             }
 
             if (mgfIndex == null) {
-                mgfIndex = MgfReader.getIndexMap(spectrumFile, waitingHandler);
+                try {
+                    int nThreads = Math.max(Runtime.getRuntime().availableProcessors(), 1);
+                    mgfIndex = MappedMgfReader.getIndexMap(spectrumFile, waitingHandler, nThreads);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Interrupted while indexing " + spectrumFile.getAbsolutePath() + ".");
+                }
 
                 if (waitingHandler != null && waitingHandler.isRunCanceled()) {
                     return; // return without saving the partial index
@@ -222,7 +226,7 @@ public class SpectrumFactory {
                 throw new IllegalArgumentException("An error occurred while indexing " + spectrumFile.getAbsolutePath());
             }
 
-            mgfRandomAccessFilesMap.put(fileName, new BufferedRandomAccessFile(spectrumFile, "r", 1024 * 100));
+            mgfReadersMap.put(fileName, new MappedMgfReader(spectrumFile));
             mgfIndexesMap.put(fileName, mgfIndex);
 
         } else if (fileName.toLowerCase().endsWith(".mzml")) {
@@ -634,7 +638,7 @@ public class SpectrumFactory {
                 throw new IOException("Spectrum \'" + spectrumTitle + "\' in mgf file \'" + fileName + "\' not found.");
             }
             try {
-                currentPrecursor = MgfReader.getPrecursor(mgfRandomAccessFilesMap.get(fileName), mgfIndexesMap.get(fileName).getIndex(spectrumTitle), fileName);
+                currentPrecursor = mgfReadersMap.get(fileName).getPrecursor(mgfIndexesMap.get(fileName).getIndex(spectrumTitle), fileName);
             } catch (Exception e) {
                 if (waitingTime < timeOut) {
                     try {
@@ -789,7 +793,7 @@ public class SpectrumFactory {
                 throw new IOException("Spectrum \'" + spectrumTitle + "\' in mgf file \'" + spectrumFile + "\' not found!");
             }
             try {
-                currentSpectrum = MgfReader.getSpectrum(mgfRandomAccessFilesMap.get(spectrumFile), mgfIndexesMap.get(spectrumFile).getIndex(spectrumTitle), spectrumFile);
+                currentSpectrum = mgfReadersMap.get(spectrumFile).getSpectrum(mgfIndexesMap.get(spectrumFile).getIndex(spectrumTitle), spectrumFile);
             } catch (Exception e) {
                 if (waitingTime < timeOut) {
                     try {
@@ -924,8 +928,8 @@ public class SpectrumFactory {
      * closing the files
      */
     public void closeFiles() throws IOException {
-        for (BufferedRandomAccessFile randomAccessFile : mgfRandomAccessFilesMap.values()) {
-            randomAccessFile.close();
+        for (MappedMgfReader mgfReader : mgfReadersMap.values()) {
+            mgfReader.close();
         }
     }
 
@@ -935,7 +939,7 @@ public class SpectrumFactory {
      * @return a list of loaded mgf files
      */
     public ArrayList<String> getMgfFileNames() {
-        return new ArrayList<String>(mgfRandomAccessFilesMap.keySet());
+        return new ArrayList<String>(mgfReadersMap.keySet());
     }
 
     /**
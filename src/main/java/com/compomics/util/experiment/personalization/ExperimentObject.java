@@ -32,6 +32,16 @@ public abstract class ExperimentObject implements Serializable, Cloneable {
         urParams.put(parameter.getParameterKey(), parameter);
     }
     
+    /**
+     * Returns the user refinement parameters indexed by key, null if none was
+     * set.
+     *
+     * @return the user refinement parameters
+     */
+    public HashMap<String, UrParameter> getUrParams() {
+        return urParams;
+    }
+
     /**
      * Removes a user parameter from the user parameters map.
      * 
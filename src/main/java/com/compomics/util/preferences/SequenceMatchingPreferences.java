@@ -2,6 +2,7 @@ package com.compomics.util.preferences;
 
 import com.compomics.util.experiment.biology.mutations.MutationMatrix;
 import com.compomics.util.experiment.identification.protein_inference.PeptideMapperType;
+import com.compomics.util.experiment.identification.protein_inference.fm_index.FMIndex;
 import java.io.Serializable;
 
 /**
@@ -119,6 +120,11 @@ public class SequenceMatchingPreferences implements Serializable {
      * The peptide mapper to use, FMI by default.
      */
     private PeptideMapperType peptideMapperType = PeptideMapperType.fm_index;
+    /**
+     * The sampling shift of the FM index suffix array, every
+     * 2^fmIndexSamplingShift entry is sampled. Null for the default.
+     */
+    private Integer fmIndexSamplingShift = null;
 
     /**
      * Constructor for empty preferences.
@@ -222,6 +228,35 @@ public class SequenceMatchingPreferences implements Serializable {
         this.peptideMapperType = peptideMapperEnum;
     }
 
+    /**
+     * Returns the sampling shift of the FM index suffix array, every
+     * 2^shift entry is sampled. Lower values locate the matches faster but
+     * use more memory.
+     *
+     * @return the sampling shift of the FM index suffix array
+     */
+    public int getFmIndexSamplingShift() {
+        if (fmIndexSamplingShift == null) { // Backward compatibility.
+            return FMIndex.DEFAULT_SAMPLING_SHIFT;
+        }
+        return fmIndexSamplingShift;
+    }
+
+    /**
+     * Sets the sampling shift of the FM index suffix array. Use
+     * FMIndex.DENSE_SAMPLING_SHIFT to keep the full suffix array for latency
+     * critical applications.
+     *
+     * @param fmIndexSamplingShift the sampling shift of the FM index suffix
+     * array
+     */
+    public void setFmIndexSamplingShift(int fmIndexSamplingShift) {
+        if (fmIndexSamplingShift < FMIndex.DENSE_SAMPLING_SHIFT || fmIndexSamplingShift > FMIndex.MAX_SAMPLING_SHIFT) {
+            throw new IllegalArgumentException("Suffix array sampling shift " + fmIndexSamplingShift + " out of range [" + FMIndex.DENSE_SAMPLING_SHIFT + "-" + FMIndex.MAX_SAMPLING_SHIFT + "].");
+        }
+        this.fmIndexSamplingShift = fmIndexSamplingShift;
+    }
+
     /**
      * Indicates whether another sequence matching preferences is the same as
      * this one.
@@ -251,6 +286,9 @@ public class SequenceMatchingPreferences implements Serializable {
         if (!hasLimitX() && sequenceMatchingPreferences.hasLimitX()) {
             return false;
         }
+        if (getFmIndexSamplingShift() != sequenceMatchingPreferences.getFmIndexSamplingShift()) {
+            return false;
+        }
         return true;
     }
 
@@ -266,6 +304,9 @@ public class SequenceMatchingPreferences implements Serializable {
         StringBuilder output = new StringBuilder();
 
         output.append("Index: ").append(peptideMapperType).append(".").append(newLine);
+        if (peptideMapperType == PeptideMapperType.fm_index) {
+            output.append("Suffix array sampling: ").append(1 << getFmIndexSamplingShift()).append(".").append(newLine);
+        }
         output.append("Method: ").append(sequenceMatchingType).append(".").append(newLine);
         output.append("Max share of x's: ").append(limitX).append(".").append(newLine);
 
@@ -0,0 +1,152 @@
+package com.compomics.util.test.experiment.identification;
+
+import com.compomics.util.Util;
+import com.compomics.util.db.ObjectsCache;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.Advocate;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.identifications.Ms2Identification;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.File;
+import java.util.ArrayList;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests that the multithreaded build of the peptide and protein matches gives
+ * the same matches as the sequential build.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptidesAndProteinsBuildTest extends TestCase {
+
+    /**
+     * The number of spectrum matches, spanning several chunks of the
+     * multithreaded build.
+     */
+    private static final int N_SPECTRA = 2500;
+    /**
+     * The number of distinct peptides.
+     */
+    private static final int N_PEPTIDES = 500;
+    /**
+     * The number of distinct proteins.
+     */
+    private static final int N_PROTEINS = 150;
+    /**
+     * The amino acids used to build the peptide sequences, I and L are
+     * excluded as they are not distinguished by the matching key.
+     */
+    private static final String AMINO_ACIDS = "ACDEFGHKMNPQRSTVWY";
+    /**
+     * The folder of the databases.
+     */
+    private File folder;
+    /**
+     * The sequence matching preferences.
+     */
+    private SequenceMatchingPreferences sequenceMatchingPreferences;
+
+    @Override
+    protected void setUp() throws Exception {
+        folder = new File(System.getProperty("java.io.tmpdir"), "peptides_and_proteins_build_test_" + System.nanoTime());
+        folder.mkdirs();
+        sequenceMatchingPreferences = new SequenceMatchingPreferences();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Util.deleteDir(folder);
+    }
+
+    /**
+     * Tests that the peptide and protein matches of the multithreaded build
+     * are identical to the ones of the sequential build.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testBuild() throws Exception {
+        Identification sequential = getIdentification("sequential");
+        Identification multithreaded = getIdentification("multithreaded");
+        try {
+            sequential.buildPeptidesAndProteins((WaitingHandler) null, sequenceMatchingPreferences);
+            multithreaded.buildPeptidesAndProteins(null, sequenceMatchingPreferences, 2);
+
+            Assert.assertEquals(N_PEPTIDES, sequential.getPeptideIdentification().size());
+            Assert.assertEquals(sequential.getPeptideIdentification(), multithreaded.getPeptideIdentification());
+            Assert.assertEquals(sequential.getProteinIdentification(), multithreaded.getProteinIdentification());
+            Assert.assertEquals(sequential.getProteinMap(), multithreaded.getProteinMap());
+            for (String peptideKey : sequential.getPeptideIdentification()) {
+                PeptideMatch expected = sequential.getPeptideMatch(peptideKey);
+                PeptideMatch peptideMatch = multithreaded.getPeptideMatch(peptideKey);
+                Assert.assertEquals(expected.getSpectrumMatchesKeys(), peptideMatch.getSpectrumMatchesKeys());
+            }
+            for (String proteinKey : sequential.getProteinIdentification()) {
+                ProteinMatch expected = sequential.getProteinMatch(proteinKey);
+                ProteinMatch proteinMatch = multithreaded.getProteinMatch(proteinKey);
+                Assert.assertEquals(expected.getPeptideMatchesKeys(), proteinMatch.getPeptideMatchesKeys());
+                Assert.assertEquals(expected.getTheoreticProteinsAccessions(), proteinMatch.getTheoreticProteinsAccessions());
+            }
+        } finally {
+            sequential.close();
+            multithreaded.close();
+        }
+    }
+
+    /**
+     * Returns an identification with spectrum matches whose best peptides
+     * are shared by several spectra and mapped to one or two proteins.
+     *
+     * @param name the name of the identification
+     *
+     * @return the identification
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    private Identification getIdentification(String name) throws Exception {
+        ObjectsCache objectsCache = new ObjectsCache();
+        objectsCache.setAutomatedMemoryManagement(false);
+        objectsCache.setCacheSize(1000);
+        Identification identification = new Ms2Identification(name);
+        identification.establishConnection(new File(folder, name).getAbsolutePath(), true, objectsCache);
+        for (int i = 0; i < N_SPECTRA; i++) {
+            int peptideIndex = (i * 11) % N_PEPTIDES;
+            ArrayList<String> proteins = new ArrayList<String>(2);
+            proteins.add("P" + (peptideIndex % N_PROTEINS));
+            if (peptideIndex % 3 == 0) {
+                proteins.add("P" + ((peptideIndex + 1) % N_PROTEINS));
+            }
+            Peptide peptide = new Peptide(getSequence(peptideIndex), new ArrayList<ModificationMatch>());
+            peptide.setParentProteins(proteins);
+            SpectrumMatch spectrumMatch = new SpectrumMatch(Spectrum.getSpectrumKey("file_" + (i % 2) + ".mgf", "spectrum_" + i));
+            spectrumMatch.setBestPeptideAssumption(new PeptideAssumption(peptide, 1, Advocate.mascot.getIndex(), new Charge(Charge.PLUS, 2), 0.1, "no file"));
+            identification.addSpectrumMatch(spectrumMatch);
+        }
+        return identification;
+    }
+
+    /**
+     * Returns a distinct peptide sequence for the given index.
+     *
+     * @param index the index of the peptide
+     *
+     * @return the sequence of the peptide
+     */
+    private static String getSequence(int index) {
+        StringBuilder sequence = new StringBuilder("PEP");
+        int remainder = index;
+        do {
+            sequence.append(AMINO_ACIDS.charAt(remainder % AMINO_ACIDS.length()));
+            remainder /= AMINO_ACIDS.length();
+        } while (remainder > 0);
+        return sequence.append('K').toString();
+    }
+}
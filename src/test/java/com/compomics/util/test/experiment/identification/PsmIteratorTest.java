@@ -0,0 +1,162 @@
+package com.compomics.util.test.experiment.identification;
+
+import com.compomics.util.experiment.identification.identifications.Ms2Identification;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.matches_iterators.PsmIterator;
+import com.compomics.util.waiting.WaitingHandler;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the prefetching of the batches of matches by the PSM iterator.
+ *
+ * @author Marc Vaudel
+ */
+public class PsmIteratorTest extends TestCase {
+
+    /**
+     * The number of matches per batch.
+     */
+    private static final int BATCH_SIZE = 100;
+
+    /**
+     * Tests that the batches are loaded in order and never more than the
+     * prefetch depth ahead of the iterator.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testPrefetching() throws Exception {
+        ArrayList<String> keys = getKeys(1050);
+        TestIdentification identification = new TestIdentification(-1);
+        PsmIterator psmIterator = new PsmIterator(keys, identification, false, null);
+        psmIterator.setBatchSize(BATCH_SIZE);
+        psmIterator.setPrefetchDepth(3);
+        int index = 0;
+        while (psmIterator.hasNext()) {
+            SpectrumMatch spectrumMatch = psmIterator.next();
+            Assert.assertEquals(keys.get(index), spectrumMatch.getKey());
+            int nLoaded = identification.loadedKeys.size();
+            Assert.assertTrue(nLoaded > index);
+            Assert.assertTrue(nLoaded <= (index / BATCH_SIZE + 3) * BATCH_SIZE);
+            index++;
+        }
+        Assert.assertEquals(keys.size(), index);
+        Assert.assertEquals(keys, identification.loadedKeys);
+    }
+
+    /**
+     * Tests that a loader stopped while the iterator is idle resumes
+     * prefetching as soon as the iterator moves to the next batch. Takes
+     * more than the idle timeout of the loader.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testIdleConsumer() throws Exception {
+        ArrayList<String> keys = getKeys(4 * BATCH_SIZE);
+        TestIdentification identification = new TestIdentification(-1);
+        PsmIterator psmIterator = new PsmIterator(keys, identification, false, null);
+        psmIterator.setBatchSize(BATCH_SIZE);
+        psmIterator.setPrefetchDepth(2);
+        int index = 0;
+        while (psmIterator.hasNext()) {
+            psmIterator.next();
+            if (index == 0) {
+                // longer than the idle timeout, the loader stops after loading two batches
+                Thread.sleep(11000);
+            } else if (index % BATCH_SIZE == 0) {
+                // leave time to the loader to load the next batch
+                Thread.sleep(500);
+            }
+            index++;
+        }
+        Assert.assertEquals("Stalls after the cold start.", 1, psmIterator.getStalls().getCount());
+    }
+
+    /**
+     * Tests that an Error thrown by the loader is thrown by the iterator.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testFailure() throws Exception {
+        ArrayList<String> keys = getKeys(3 * BATCH_SIZE);
+        PsmIterator psmIterator = new PsmIterator(keys, new TestIdentification(1), false, null);
+        psmIterator.setBatchSize(BATCH_SIZE);
+        int index = 0;
+        try {
+            while (psmIterator.hasNext()) {
+                psmIterator.next();
+                index++;
+            }
+            fail("No error thrown by the iterator.");
+        } catch (AssertionError e) {
+            Assert.assertEquals("Batch not loadable.", e.getMessage());
+        }
+        Assert.assertEquals(BATCH_SIZE, index);
+    }
+
+    /**
+     * Returns the given number of spectrum keys.
+     *
+     * @param nKeys the number of keys
+     *
+     * @return the keys
+     */
+    private static ArrayList<String> getKeys(int nKeys) {
+        ArrayList<String> keys = new ArrayList<String>(nKeys);
+        for (int i = 0; i < nKeys; i++) {
+            keys.add("file_cus_spectrum_" + i);
+        }
+        return keys;
+    }
+
+    /**
+     * Identification recording the keys of the loaded matches and creating
+     * the matches on demand.
+     */
+    private static class TestIdentification extends Ms2Identification {
+
+        /**
+         * The version UID for serialization/deserialization compatibility.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * The keys of the loaded matches in loading order.
+         */
+        private final List<String> loadedKeys = Collections.synchronizedList(new ArrayList<String>());
+        /**
+         * The index of the batch throwing an Error, -1 for none.
+         */
+        private final int failingBatch;
+        /**
+         * The number of batches loaded.
+         */
+        private int nBatches = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param failingBatch the index of the batch throwing an Error, -1
+         * for none
+         */
+        public TestIdentification(int failingBatch) {
+            super("test");
+            this.failingBatch = failingBatch;
+        }
+
+        @Override
+        public void loadSpectrumMatches(ArrayList<String> spectrumKeys, WaitingHandler waitingHandler, boolean displayProgress) {
+            if (nBatches++ == failingBatch) {
+                throw new AssertionError("Batch not loadable.");
+            }
+            loadedKeys.addAll(spectrumKeys);
+        }
+
+        @Override
+        public SpectrumMatch getSpectrumMatch(String spectrumKey) {
+            return new SpectrumMatch(spectrumKey);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.compomics.util.test.experiment.io;
+
+import com.compomics.util.Util;
+import com.compomics.util.db.LogStructuredStore;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the log-structured store used as database backend.
+ *
+ * @author Marc Vaudel
+ */
+public class LogStructuredStoreTest extends TestCase {
+
+    /**
+     * The name of the test table, quoted like the table names of the
+     * identification database.
+     */
+    private static final String TABLE_NAME = "\"Test_table.mgf\"";
+    /**
+     * The folder of the store.
+     */
+    private File folder;
+
+    @Override
+    protected void setUp() throws Exception {
+        folder = new File(System.getProperty("java.io.tmpdir"), "log_structured_store_test_" + System.nanoTime());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Util.deleteDir(folder);
+    }
+
+    /**
+     * Returns the blob of the given object number.
+     *
+     * @param i the object number
+     *
+     * @return the blob of the object
+     */
+    private byte[] getValue(int i) {
+        byte[] value = new byte[i % 100];
+        Arrays.fill(value, (byte) i);
+        return value;
+    }
+
+    /**
+     * Tests writing, overwriting and deleting objects, and reopening the
+     * store.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testReadWrite() throws Exception {
+        LogStructuredStore store = new LogStructuredStore(folder);
+        store.addTable(TABLE_NAME);
+        for (int i = 0; i < 1000; i++) {
+            store.put(TABLE_NAME, "key_" + i, getValue(i));
+        }
+        Assert.assertNull(store.get(TABLE_NAME, "key_1"));
+        store.commit(TABLE_NAME);
+        store.put(TABLE_NAME, "key_1", getValue(2));
+        store.delete(TABLE_NAME, "key_3");
+        store.commit(TABLE_NAME);
+        Assert.assertTrue(Arrays.equals(getValue(2), store.get(TABLE_NAME, "key_1")));
+        Assert.assertFalse(store.contains(TABLE_NAME, "key_3"));
+        Assert.assertEquals(999, store.size(TABLE_NAME));
+        store.close();
+
+        store = new LogStructuredStore(folder);
+        Assert.assertTrue(store.hasTable(TABLE_NAME));
+        Assert.assertEquals(999, store.size(TABLE_NAME));
+        Assert.assertTrue(Arrays.equals(getValue(2), store.get(TABLE_NAME, "key_1")));
+        Assert.assertNull(store.get(TABLE_NAME, "key_3"));
+        Assert.assertTrue(Arrays.equals(getValue(999), store.get(TABLE_NAME, "key_999")));
+        store.close();
+    }
+
+    /**
+     * Tests that the writes after the last commit marker and a corrupted tail
+     * are discarded upon recovery.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testRecovery() throws Exception {
+        LogStructuredStore store = new LogStructuredStore(folder);
+        store.addTable(TABLE_NAME);
+        store.put(TABLE_NAME, "committed", getValue(10));
+        store.commit(TABLE_NAME);
+        long committedSize = store.getSegmentSize(TABLE_NAME);
+        store.close();
+
+        // simulate a crash in the middle of a transaction
+        File segment = folder.listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            file.seek(file.length());
+            file.write(new byte[]{1, 0, 0, 0, 3, 0, 0, 0, 50, 'a', 'b'});
+        } finally {
+            file.close();
+        }
+
+        store = new LogStructuredStore(folder);
+        Assert.assertEquals(1, store.size(TABLE_NAME));
+        Assert.assertEquals(committedSize, segment.length());
+        Assert.assertTrue(Arrays.equals(getValue(10), store.get(TABLE_NAME, "committed")));
+        store.put(TABLE_NAME, "uncommitted", getValue(11));
+        store.close();
+
+        store = new LogStructuredStore(folder);
+        Assert.assertFalse(store.contains(TABLE_NAME, "uncommitted"));
+        store.close();
+    }
+
+    /**
+     * Tests that the overwritten objects are removed by the compaction.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testCompaction() throws Exception {
+        LogStructuredStore store = new LogStructuredStore(folder);
+        store.setCompactionThreshold(0);
+        store.addTable(TABLE_NAME);
+        for (int j = 0; j < 10; j++) {
+            for (int i = 0; i < 100; i++) {
+                store.put(TABLE_NAME, "key_" + i, getValue(i + j));
+            }
+            store.commit(TABLE_NAME);
+        }
+        long compactedSize = 8 + 13;
+        for (int i = 0; i < 100; i++) {
+            compactedSize += 13 + ("key_" + i).length() + getValue(i + 9).length;
+        }
+        Assert.assertTrue(store.getSegmentSize(TABLE_NAME) < 2 * compactedSize);
+        store.compact(TABLE_NAME);
+        Assert.assertEquals(compactedSize, store.getSegmentSize(TABLE_NAME));
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(Arrays.equals(getValue(i + 9), store.get(TABLE_NAME, "key_" + i)));
+        }
+        store.close();
+
+        Assert.assertEquals(1, folder.listFiles().length);
+        store = new LogStructuredStore(folder);
+        Assert.assertEquals(100, store.size(TABLE_NAME));
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(Arrays.equals(getValue(i + 9), store.get(TABLE_NAME, "key_" + i)));
+        }
+        store.close();
+    }
+}
@@ -0,0 +1,177 @@
+package com.compomics.util.test.experiment.io;
+
+import com.compomics.util.db.codecs.BlobCompressor;
+import com.compomics.util.db.codecs.ObjectCodecRegistry;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.Advocate;
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the binary codecs used to store the matches in the database.
+ *
+ * @author Marc Vaudel
+ */
+public class ObjectCodecTest extends TestCase {
+
+    /**
+     * Returns a peptide carrying a fixed and a variable modification and two
+     * parent proteins.
+     *
+     * @return a test peptide
+     */
+    private Peptide getPeptide() {
+        ArrayList<ModificationMatch> modificationMatches = new ArrayList<ModificationMatch>();
+        modificationMatches.add(new ModificationMatch("carbamidomethyl c", false, 3));
+        ModificationMatch variableModification = new ModificationMatch("oxidation of m", true, 5);
+        variableModification.setConfident(true);
+        modificationMatches.add(variableModification);
+        Peptide peptide = new Peptide("PECTMIDE", modificationMatches);
+        ArrayList<String> proteins = new ArrayList<String>();
+        proteins.add("P12345");
+        proteins.add("Q67890");
+        peptide.setParentProteins(proteins);
+        return peptide;
+    }
+
+    /**
+     * Tests the round trip of a spectrum match.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testSpectrumMatch() throws Exception {
+
+        ObjectCodecRegistry registry = ObjectCodecRegistry.getDefaultRegistry();
+
+        SpectrumMatch spectrumMatch = new SpectrumMatch("file_cus_title");
+        spectrumMatch.setSpectrumNumber(12);
+        PeptideAssumption first = new PeptideAssumption(getPeptide(), 1, Advocate.mascot.getIndex(), new Charge(Charge.PLUS, 2), 0.01, "file.dat");
+        first.setRawScore(42.5);
+        PeptideAssumption second = new PeptideAssumption(new Peptide("PEPTIDEK", new ArrayList<ModificationMatch>()), 2, Advocate.mascot.getIndex(), new Charge(Charge.PLUS, 3), 0.2, "file.dat");
+        spectrumMatch.addHit(Advocate.mascot.getIndex(), first, false);
+        spectrumMatch.addHit(Advocate.mascot.getIndex(), second, false);
+        spectrumMatch.setBestPeptideAssumption(first);
+
+        byte[] blob = registry.encode(spectrumMatch);
+        Assert.assertEquals(ObjectCodecRegistry.MAGIC, blob[0]);
+        SpectrumMatch decoded = (SpectrumMatch) registry.decode(blob);
+
+        Assert.assertEquals(spectrumMatch.getKey(), decoded.getKey());
+        Assert.assertEquals(12, decoded.getSpectrumNumber().intValue());
+        HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> mascotAssumptions = decoded.getAllAssumptions(Advocate.mascot.getIndex());
+        Assert.assertEquals(2, mascotAssumptions.size());
+        PeptideAssumption decodedFirst = (PeptideAssumption) mascotAssumptions.get(0.01).get(0);
+        Assert.assertEquals(1, decodedFirst.getRank());
+        Assert.assertEquals(2, decodedFirst.getIdentificationCharge().value);
+        Assert.assertEquals(42.5, decodedFirst.getRawScore(), 0.0);
+        Assert.assertEquals("file.dat", decodedFirst.getIdentificationFile());
+        Assert.assertEquals(first.getPeptide().getKey(), decodedFirst.getPeptide().getKey());
+        Assert.assertTrue(decoded.getBestPeptideAssumption() == decodedFirst);
+        Assert.assertNull(decoded.getBestTagAssumption());
+    }
+
+    /**
+     * Tests the round trip of a peptide and of the peptide and protein
+     * matches.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testPeptideAndProteinMatches() throws Exception {
+
+        ObjectCodecRegistry registry = ObjectCodecRegistry.getDefaultRegistry();
+
+        Peptide peptide = getPeptide();
+        Peptide decodedPeptide = (Peptide) registry.decode(registry.encode(peptide));
+        Assert.assertEquals(peptide.getSequence(), decodedPeptide.getSequence());
+        Assert.assertEquals(peptide.getKey(), decodedPeptide.getKey());
+        Assert.assertEquals(peptide.getParentProteinsNoRemapping(), decodedPeptide.getParentProteinsNoRemapping());
+        Assert.assertEquals(2, decodedPeptide.getModificationMatches().size());
+        ModificationMatch modificationMatch = decodedPeptide.getModificationMatches().get(1);
+        Assert.assertTrue(modificationMatch.isVariable());
+        Assert.assertTrue(modificationMatch.isConfident());
+        Assert.assertFalse(modificationMatch.isInferred());
+        Assert.assertEquals(5, modificationMatch.getModificationSite());
+
+        PeptideMatch peptideMatch = new PeptideMatch(peptide, peptide.getKey());
+        peptideMatch.addSpectrumMatchKey("file_cus_title1");
+        peptideMatch.addSpectrumMatchKey("file_cus_title2");
+        PeptideMatch decodedPeptideMatch = (PeptideMatch) registry.decode(registry.encode(peptideMatch));
+        Assert.assertEquals(peptideMatch.getKey(), decodedPeptideMatch.getKey());
+        Assert.assertEquals(peptideMatch.getSpectrumMatchesKeys(), decodedPeptideMatch.getSpectrumMatchesKeys());
+        Assert.assertEquals(peptide.getKey(), decodedPeptideMatch.getTheoreticPeptide().getKey());
+
+        ProteinMatch proteinMatch = new ProteinMatch("P12345");
+        proteinMatch.addPeptideMatchKey(peptide.getKey());
+        ProteinMatch decodedProteinMatch = (ProteinMatch) registry.decode(registry.encode(proteinMatch));
+        Assert.assertEquals(proteinMatch.getKey(), decodedProteinMatch.getKey());
+        Assert.assertEquals(proteinMatch.getMainMatch(), decodedProteinMatch.getMainMatch());
+        Assert.assertEquals(proteinMatch.getTheoreticProteinsAccessions(), decodedProteinMatch.getTheoreticProteinsAccessions());
+        Assert.assertEquals(proteinMatch.getPeptideMatchesKeys(), decodedProteinMatch.getPeptideMatchesKeys());
+    }
+
+    /**
+     * Tests that blobs written with Java serialization remain readable and
+     * that objects without codec fall back to Java serialization.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testJavaSerializationFallback() throws Exception {
+
+        ObjectCodecRegistry registry = ObjectCodecRegistry.getDefaultRegistry();
+
+        ProteinMatch proteinMatch = new ProteinMatch("P12345");
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(proteinMatch);
+        oos.close();
+        ProteinMatch legacyMatch = (ProteinMatch) registry.decode(bos.toByteArray());
+        Assert.assertEquals(proteinMatch.getKey(), legacyMatch.getKey());
+
+        ArrayList<String> list = new ArrayList<String>();
+        list.add("test");
+        Assert.assertFalse(registry.hasCodec(list));
+        Assert.assertEquals(list, registry.decode(registry.encode(list)));
+    }
+
+    /**
+     * Tests that compressed blobs are decoded from arrays and streams, and
+     * that blobs which do not shrink are left uncompressed.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testCompression() throws Exception {
+
+        ObjectCodecRegistry registry = ObjectCodecRegistry.getDefaultRegistry();
+
+        ProteinMatch proteinMatch = new ProteinMatch("P12345");
+        for (int i = 0; i < 50; i++) {
+            proteinMatch.addPeptideMatchKey("PEPTIDEK_" + i + "_M3-oxidation of m");
+        }
+        byte[] blob = registry.encode(proteinMatch);
+        byte[] compressed = BlobCompressor.compress(blob, 1);
+        Assert.assertTrue(BlobCompressor.isCompressed(compressed));
+        Assert.assertTrue(compressed.length < blob.length);
+        Assert.assertTrue(Arrays.equals(blob, BlobCompressor.decompress(compressed)));
+        ProteinMatch decoded = (ProteinMatch) registry.decode(compressed);
+        Assert.assertEquals(proteinMatch.getPeptideMatchesKeys(), decoded.getPeptideMatchesKeys());
+        decoded = (ProteinMatch) registry.decode(new ByteArrayInputStream(compressed));
+        Assert.assertEquals(proteinMatch.getPeptideMatchesKeys(), decoded.getPeptideMatchesKeys());
+
+        byte[] small = registry.encode(new ProteinMatch("P1"));
+        Assert.assertTrue(small == BlobCompressor.compress(small, 1));
+        Assert.assertTrue(small == BlobCompressor.decompress(small));
+    }
+}
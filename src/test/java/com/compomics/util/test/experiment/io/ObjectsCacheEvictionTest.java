@@ -0,0 +1,266 @@
+package com.compomics.util.test.experiment.io;
+
+import com.compomics.util.Util;
+import com.compomics.util.db.ObjectWeigher;
+import com.compomics.util.db.ObjectsCache;
+import com.compomics.util.db.ObjectsDB;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the writing of the objects evicted from the cache to the database.
+ *
+ * @author Marc Vaudel
+ */
+public class ObjectsCacheEvictionTest extends TestCase {
+
+    /**
+     * The name of the test table.
+     */
+    private static final String TABLE_NAME = "test_table";
+    /**
+     * The number of objects fitting in the memory budget of the cache.
+     */
+    private static final int CACHE_SIZE = 10;
+    /**
+     * The weight of an object, larger than the budget used to evict all
+     * objects.
+     */
+    private static final long WEIGHT = 2;
+    /**
+     * Latch counted down when a blocking object starts being serialized.
+     */
+    private static volatile CountDownLatch writingStarted;
+    /**
+     * Latch on which the serialization of a blocking object waits.
+     */
+    private static volatile CountDownLatch writingReleased;
+    /**
+     * The folder of the database.
+     */
+    private File folder;
+    /**
+     * The cache.
+     */
+    private ObjectsCache objectsCache;
+    /**
+     * The database.
+     */
+    private ObjectsDB objectsDB;
+
+    @Override
+    protected void setUp() throws Exception {
+        writingStarted = new CountDownLatch(1);
+        writingReleased = new CountDownLatch(1);
+        folder = new File(System.getProperty("java.io.tmpdir"), "objects_cache_eviction_test_" + System.nanoTime());
+        objectsCache = new ObjectsCache();
+        objectsCache.setAutomatedMemoryManagement(false);
+        objectsCache.setMemoryBudget(CACHE_SIZE * WEIGHT);
+        objectsCache.setObjectWeigher(new ObjectWeigher() {
+            @Override
+            public long getWeight(Object object) {
+                return WEIGHT;
+            }
+        });
+        objectsDB = new ObjectsDB(folder.getAbsolutePath(), "test", true, objectsCache, ObjectsDB.Backend.LOG_STRUCTURED);
+        objectsDB.addTable(TABLE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        writingReleased.countDown();
+        try {
+            objectsCache.setWriteBehind(false);
+        } finally {
+            objectsDB.close();
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Tests that the modified objects are written when evicted and that the
+     * unmodified ones are not.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testWriteModifiedEntries() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            objectsCache.addObject(objectsDB.getName(), TABLE_NAME, "modified_" + i, "value_" + i, true, true);
+            objectsCache.addObject(objectsDB.getName(), TABLE_NAME, "unmodified_" + i, "value_" + i, false, true);
+        }
+        evictAll();
+        Assert.assertEquals(0, objectsCache.getNObjects());
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals("value_" + i, objectsDB.retrieveObject(TABLE_NAME, "modified_" + i, true, false));
+            Assert.assertFalse(objectsDB.inDB(TABLE_NAME, "unmodified_" + i, false));
+        }
+    }
+
+    /**
+     * Tests that the entries which could not be written, including when an
+     * Error is thrown, are put back in the cache and can be evicted again.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testFailedWrite() throws Exception {
+        objectsCache.addObject(objectsDB.getName(), TABLE_NAME, "failing", new FailingObject(), true, true);
+        for (int i = 0; i < CACHE_SIZE / 2; i++) {
+            objectsCache.addObject(objectsDB.getName(), TABLE_NAME, "key_" + i, "value_" + i, true, true);
+        }
+        try {
+            evictAll();
+            fail("No error thrown when writing a failing object.");
+        } catch (AssertionError e) {
+            // expected
+        }
+        Assert.assertEquals(CACHE_SIZE / 2 + 1, objectsCache.getNObjects());
+        Assert.assertTrue(objectsCache.getObject(objectsDB.getName(), TABLE_NAME, "failing") instanceof FailingObject);
+
+        // the restored entries are not flagged as evicting and can be removed without waiting
+        objectsDB.deleteObject(TABLE_NAME, "failing");
+        Assert.assertFalse(objectsCache.inCache(objectsDB.getName(), TABLE_NAME, "failing"));
+
+        evictAll();
+        Assert.assertEquals(0, objectsCache.getNObjects());
+        for (int i = 0; i < CACHE_SIZE / 2; i++) {
+            Assert.assertEquals("value_" + i, objectsDB.retrieveObject(TABLE_NAME, "key_" + i, true, false));
+        }
+    }
+
+    /**
+     * Tests that an object deleted while being written is not written back
+     * in the database after its deletion.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testRemoveDuringEviction() throws Exception {
+        objectsCache.addObject(objectsDB.getName(), TABLE_NAME, "blocking", new BlockingObject(), true, true);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread evictionThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    evictAll();
+                } catch (Throwable t) {
+                    error.set(t);
+                }
+            }
+        });
+        Thread deletionThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    objectsDB.deleteObject(TABLE_NAME, "blocking");
+                } catch (Throwable t) {
+                    error.set(t);
+                }
+            }
+        });
+        evictionThread.start();
+        Assert.assertTrue(writingStarted.await(10, TimeUnit.SECONDS));
+        deletionThread.start();
+        deletionThread.join(200);
+        Assert.assertTrue("The deletion did not wait for the object being written.", deletionThread.isAlive());
+        writingReleased.countDown();
+        evictionThread.join(10000);
+        deletionThread.join(10000);
+        Assert.assertNull(error.get());
+        Assert.assertFalse(objectsCache.inCache(objectsDB.getName(), TABLE_NAME, "blocking"));
+        Assert.assertFalse(objectsDB.inDB(TABLE_NAME, "blocking", false));
+    }
+
+    /**
+     * Tests that with write-behind the evicted objects leave the cache at
+     * once and remain accessible until written.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testWriteBehindHandOff() throws Exception {
+        objectsCache.setWriteBehind(true);
+        BlockingObject blockingObject = new BlockingObject();
+        objectsCache.addObject(objectsDB.getName(), TABLE_NAME, "blocking", blockingObject, true, true);
+        evictAll();
+        Assert.assertTrue(writingStarted.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(0, objectsCache.getNObjects());
+        Assert.assertTrue(objectsCache.inCache(objectsDB.getName(), TABLE_NAME, "blocking"));
+        Assert.assertSame(blockingObject, objectsCache.getObject(objectsDB.getName(), TABLE_NAME, "blocking"));
+        writingReleased.countDown();
+        objectsCache.flush();
+        Assert.assertFalse(objectsCache.inCache(objectsDB.getName(), TABLE_NAME, "blocking"));
+        Assert.assertTrue(objectsDB.retrieveObject(TABLE_NAME, "blocking", true, false) instanceof BlockingObject);
+    }
+
+    /**
+     * Evicts all objects of the cache by temporarily lowering the memory
+     * budget.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    private void evictAll() throws Exception {
+        // every object exceeds this budget
+        objectsCache.setMemoryBudget(1);
+        try {
+            objectsCache.updateCache();
+        } finally {
+            objectsCache.setMemoryBudget(CACHE_SIZE * WEIGHT);
+        }
+    }
+
+    /**
+     * Object throwing an Error when serialized.
+     */
+    private static class FailingObject implements Serializable {
+
+        /**
+         * The version UID for serialization/deserialization compatibility.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Throws an Error.
+         *
+         * @param out the output stream
+         */
+        private void writeObject(ObjectOutputStream out) {
+            throw new AssertionError("Object not serializable.");
+        }
+    }
+
+    /**
+     * Object whose serialization waits until released by the test.
+     */
+    private static class BlockingObject implements Serializable {
+
+        /**
+         * The version UID for serialization/deserialization compatibility.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Waits for the test to release the writing and writes the object.
+         *
+         * @param out the output stream
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the object
+         */
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            writingStarted.countDown();
+            try {
+                if (!writingReleased.await(10, TimeUnit.SECONDS)) {
+                    throw new IOException("Writing not released.");
+                }
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            out.defaultWriteObject();
+        }
+    }
+}
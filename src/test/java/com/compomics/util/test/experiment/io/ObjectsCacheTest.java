@@ -0,0 +1,120 @@
+package com.compomics.util.test.experiment.io;
+
+import com.compomics.util.db.ObjectWeigher;
+import com.compomics.util.db.ObjectsCache;
+import com.compomics.util.db.ObjectsCacheStatistics;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the size-aware eviction of the objects cache. The objects are never
+ * modified, the cache thus never needs to write to a database.
+ *
+ * @author Marc Vaudel
+ */
+public class ObjectsCacheTest extends TestCase {
+
+    /**
+     * The name of the test database.
+     */
+    private static final String DB_NAME = "test_db";
+    /**
+     * The name of the test table.
+     */
+    private static final String TABLE_NAME = "test_table";
+    /**
+     * The weight of an object.
+     */
+    private static final long WEIGHT = 1000;
+
+    /**
+     * Returns a cache limited to the given number of objects by its memory
+     * budget.
+     *
+     * @param nObjects the number of objects fitting in the budget
+     *
+     * @return a cache with a memory budget
+     */
+    private ObjectsCache getCache(int nObjects) {
+        ObjectsCache objectsCache = new ObjectsCache();
+        objectsCache.setAutomatedMemoryManagement(false);
+        objectsCache.setMemoryBudget(nObjects * WEIGHT);
+        objectsCache.setObjectWeigher(new ObjectWeigher() {
+            @Override
+            public long getWeight(Object object) {
+                return WEIGHT;
+            }
+        });
+        return objectsCache;
+    }
+
+    /**
+     * Tests that the estimated memory used by the cache remains within the
+     * budget.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testMemoryBudget() throws Exception {
+        ObjectsCache objectsCache = getCache(100);
+        for (int i = 0; i < 1000; i++) {
+            objectsCache.addObject(DB_NAME, TABLE_NAME, "key_" + i, Integer.valueOf(i), false, true);
+        }
+        Assert.assertTrue(objectsCache.getResidentBytes() <= objectsCache.getMemoryBudget());
+        Assert.assertEquals(objectsCache.getNObjects() * WEIGHT, objectsCache.getResidentBytes());
+        ObjectsCacheStatistics statistics = objectsCache.getStatistics(DB_NAME, TABLE_NAME);
+        Assert.assertEquals(objectsCache.getNObjects(), statistics.getResidentObjects());
+        Assert.assertEquals(objectsCache.getResidentBytes(), statistics.getResidentBytes());
+        Assert.assertEquals(1000 - objectsCache.getNObjects(), statistics.getEvictions());
+    }
+
+    /**
+     * Tests that frequently read objects are not evicted by a scan of objects
+     * read once.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testFrequencyAdmission() throws Exception {
+        ObjectsCache objectsCache = getCache(100);
+        for (int i = 0; i < 100; i++) {
+            objectsCache.addObject(DB_NAME, TABLE_NAME, "hot_" + i, Integer.valueOf(i), false, true);
+        }
+        for (int j = 0; j < 10; j++) {
+            for (int i = 0; i < 100; i++) {
+                Assert.assertNotNull(objectsCache.getObject(DB_NAME, TABLE_NAME, "hot_" + i));
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            objectsCache.addObject(DB_NAME, TABLE_NAME, "cold_" + i, Integer.valueOf(i), false, true);
+        }
+        int nHot = 0;
+        for (int i = 0; i < 100; i++) {
+            if (objectsCache.inCache(DB_NAME, TABLE_NAME, "hot_" + i)) {
+                nHot++;
+            }
+        }
+        Assert.assertTrue("Only " + nHot + " frequently read objects in cache.", nHot >= 75);
+    }
+
+    /**
+     * Tests the hit and miss counts.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testStatistics() throws Exception {
+        ObjectsCache objectsCache = getCache(100);
+        Assert.assertNull(objectsCache.getStatistics(DB_NAME, TABLE_NAME));
+        for (int i = 0; i < 10; i++) {
+            objectsCache.addObject(DB_NAME, TABLE_NAME, "key_" + i, Integer.valueOf(i), false, true);
+        }
+        for (int i = 0; i < 20; i++) {
+            objectsCache.getObject(DB_NAME, TABLE_NAME, "key_" + i);
+        }
+        ObjectsCacheStatistics statistics = objectsCache.getStatistics(DB_NAME, TABLE_NAME);
+        Assert.assertEquals(10, statistics.getHits());
+        Assert.assertEquals(10, statistics.getMisses());
+        Assert.assertEquals(0.5, statistics.getHitRate(), 1e-9);
+        Assert.assertEquals(0, statistics.getEvictions());
+        Assert.assertEquals(10 * WEIGHT, statistics.getResidentBytes());
+        Assert.assertEquals(1, objectsCache.getStatistics().size());
+    }
+}
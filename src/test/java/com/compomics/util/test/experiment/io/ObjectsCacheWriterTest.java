@@ -0,0 +1,243 @@
+package com.compomics.util.test.experiment.io;
+
+import com.compomics.util.Util;
+import com.compomics.util.db.ObjectWeigher;
+import com.compomics.util.db.ObjectsCache;
+import com.compomics.util.db.ObjectsDB;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the writing of the modified objects evicted from the cache in the
+ * background.
+ *
+ * @author Marc Vaudel
+ */
+public class ObjectsCacheWriterTest extends TestCase {
+
+    /**
+     * The name of the test table.
+     */
+    private static final String TABLE_NAME = "test_table";
+    /**
+     * The number of objects fitting in the memory budget of the cache.
+     */
+    private static final int CACHE_SIZE = 10;
+    /**
+     * The weight of an object, larger than the budget used to evict all
+     * objects.
+     */
+    private static final long WEIGHT = 2;
+    /**
+     * The folder of the database.
+     */
+    private File folder;
+    /**
+     * The cache.
+     */
+    private ObjectsCache objectsCache;
+    /**
+     * The database.
+     */
+    private ObjectsDB objectsDB;
+
+    @Override
+    protected void setUp() throws Exception {
+        FailingObject.failing = true;
+        folder = new File(System.getProperty("java.io.tmpdir"), "objects_cache_writer_test_" + System.nanoTime());
+        objectsCache = new ObjectsCache();
+        objectsCache.setAutomatedMemoryManagement(false);
+        objectsCache.setMemoryBudget(CACHE_SIZE * WEIGHT);
+        objectsCache.setObjectWeigher(new ObjectWeigher() {
+            @Override
+            public long getWeight(Object object) {
+                return WEIGHT;
+            }
+        });
+        objectsDB = new ObjectsDB(folder.getAbsolutePath(), "test", true, objectsCache, ObjectsDB.Backend.LOG_STRUCTURED);
+        objectsDB.addTable(TABLE_NAME);
+        objectsCache.setWriteBehind(true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            objectsCache.setWriteBehind(false);
+        } finally {
+            objectsDB.close();
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Tests that the evicted objects are in the database once flushed.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testFlush() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            objectsCache.addObject(objectsDB.getName(), TABLE_NAME, "key_" + i, "value_" + i, true, true);
+        }
+        objectsCache.flush();
+        int nWritten = 0;
+        for (int i = 0; i < 100; i++) {
+            if (!objectsCache.inCache(objectsDB.getName(), TABLE_NAME, "key_" + i)) {
+                Assert.assertEquals("value_" + i, objectsDB.retrieveObject(TABLE_NAME, "key_" + i, true, false));
+                nWritten++;
+            }
+        }
+        Assert.assertTrue(nWritten >= 100 - CACHE_SIZE);
+        Assert.assertTrue(objectsCache.getNObjects() <= CACHE_SIZE);
+    }
+
+    /**
+     * Tests that an error thrown while writing in the background, including
+     * an Error, is thrown by flush, that the objects which could not be
+     * written are kept and written again by the next flush, and that the
+     * writing continues afterwards.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testFailure() throws Exception {
+        objectsCache.addObject(objectsDB.getName(), TABLE_NAME, "failing", new FailingObject(), true, false);
+        for (int i = 0; i < 2 * CACHE_SIZE; i++) {
+            objectsCache.addObject(objectsDB.getName(), TABLE_NAME, "other_key_" + i, "value_" + i, true, false);
+        }
+        evictAll();
+        try {
+            objectsCache.flush();
+            fail("No exception thrown by flush after a failed write.");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getCause() instanceof AssertionError);
+        }
+        Assert.assertTrue(objectsCache.getObject(objectsDB.getName(), TABLE_NAME, "failing") instanceof FailingObject);
+        for (int i = 0; i < 2 * CACHE_SIZE; i++) {
+            Assert.assertEquals("value_" + i, getObject("other_key_" + i));
+        }
+
+        FailingObject.failing = false;
+        objectsCache.flush();
+        Assert.assertNull(objectsCache.getObject(objectsDB.getName(), TABLE_NAME, "failing"));
+        Assert.assertTrue(objectsDB.retrieveObject(TABLE_NAME, "failing", true, false) instanceof FailingObject);
+        for (int i = 0; i < 2 * CACHE_SIZE; i++) {
+            Assert.assertEquals("value_" + i, objectsDB.retrieveObject(TABLE_NAME, "other_key_" + i, true, false));
+        }
+
+        for (int i = 0; i < 2 * CACHE_SIZE; i++) {
+            objectsCache.addObject(objectsDB.getName(), TABLE_NAME, "key_" + i, "value_" + i, true, true);
+        }
+        objectsCache.flush();
+        Assert.assertTrue(objectsCache.isWriteBehind());
+        Assert.assertEquals("value_0", objectsDB.retrieveObject(TABLE_NAME, "key_0", true, false));
+    }
+
+    /**
+     * Tests that disabling the write-behind writes the queued objects and
+     * stops the writer even if a write failed, the objects which could not be
+     * written being put back in the cache.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testShutdown() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            objectsCache.addObject(objectsDB.getName(), TABLE_NAME, "key_" + i, "value_" + i, true, true);
+        }
+        objectsCache.setWriteBehind(false);
+        Assert.assertFalse(objectsCache.isWriteBehind());
+        Assert.assertEquals("value_0", objectsDB.retrieveObject(TABLE_NAME, "key_0", true, false));
+
+        objectsCache.setWriteBehind(true);
+        objectsCache.addObject(objectsDB.getName(), TABLE_NAME, "failing", new FailingObject(), true, false);
+        for (int i = 100; i < 100 + 2 * CACHE_SIZE; i++) {
+            objectsCache.addObject(objectsDB.getName(), TABLE_NAME, "key_" + i, "value_" + i, true, false);
+        }
+        evictAll();
+        try {
+            objectsCache.setWriteBehind(false);
+            fail("No exception thrown when closing the writer after a failed write.");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getCause() instanceof AssertionError);
+        }
+        Assert.assertFalse(objectsCache.isWriteBehind());
+        Assert.assertTrue(objectsCache.inCache(objectsDB.getName(), TABLE_NAME, "failing"));
+        for (int i = 100; i < 100 + 2 * CACHE_SIZE; i++) {
+            Assert.assertEquals("value_" + i, getObject("key_" + i));
+        }
+
+        FailingObject.failing = false;
+        objectsCache.saveCache(null, true);
+        Assert.assertFalse(objectsCache.inCache(objectsDB.getName(), TABLE_NAME, "failing"));
+        Assert.assertTrue(objectsDB.retrieveObject(TABLE_NAME, "failing", true, false) instanceof FailingObject);
+    }
+
+    /**
+     * Returns an object from the cache, including the objects waiting to be
+     * written, or from the database if not found.
+     *
+     * @param objectKey the key of the object
+     *
+     * @return the object
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    private Object getObject(String objectKey) throws Exception {
+        Object object = objectsCache.getObject(objectsDB.getName(), TABLE_NAME, objectKey);
+        if (object == null) {
+            object = objectsDB.retrieveObject(TABLE_NAME, objectKey, true, false);
+        }
+        return object;
+    }
+
+    /**
+     * Hands all objects of the cache over to the writer by temporarily
+     * lowering the memory budget. A failure of the writer is reported by the
+     * next flush or close, whether or not it is already reported here.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    private void evictAll() throws Exception {
+        // every object exceeds this budget
+        objectsCache.setMemoryBudget(1);
+        try {
+            objectsCache.updateCache();
+        } catch (IOException e) {
+            Assert.assertTrue(e.getCause() instanceof AssertionError);
+        } finally {
+            objectsCache.setMemoryBudget(CACHE_SIZE * WEIGHT);
+        }
+    }
+
+    /**
+     * Object throwing an Error when serialized as long as failing is set.
+     */
+    private static class FailingObject implements Serializable {
+
+        /**
+         * The version UID for serialization/deserialization compatibility.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * Indicates whether the serialization fails.
+         */
+        private static volatile boolean failing = true;
+
+        /**
+         * Throws an Error if failing, writes the object otherwise.
+         *
+         * @param out the output stream
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the object
+         */
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            if (failing) {
+                throw new AssertionError("Object not serializable.");
+            }
+            out.defaultWriteObject();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.compomics.util.test.experiment.io;
+
+import com.compomics.util.Util;
+import com.compomics.util.db.LatencyHistogram;
+import com.compomics.util.db.ObjectsCache;
+import com.compomics.util.db.ObjectsDB;
+import com.compomics.util.db.ObjectsDBMetrics;
+import com.compomics.util.db.ObjectsDBStatistics;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import javax.management.ObjectName;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the metrics of the objects database.
+ *
+ * @author Marc Vaudel
+ */
+public class ObjectsDBMetricsTest extends TestCase {
+
+    /**
+     * The name of the test table.
+     */
+    private static final String TABLE_NAME = "test_table";
+
+    /**
+     * Tests the percentiles estimated by the latency histogram.
+     */
+    public void testLatencyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(1000000, histogram.getMaxNanos());
+        Assert.assertEquals(500500.0, histogram.getMeanNanos(), 0.001);
+        long median = histogram.getPercentileNanos(0.5);
+        Assert.assertTrue(median >= 500000 && median < 1000000);
+        Assert.assertEquals(1000000, histogram.getPercentileNanos(1));
+        LatencyHistogram copy = histogram.copy();
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(1000, copy.getCount());
+    }
+
+    /**
+     * Tests that the reads, writes and bytes of a table are recorded.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testTableMetrics() throws Exception {
+        File folder = new File(System.getProperty("java.io.tmpdir"), "objects_db_metrics_test_" + System.nanoTime());
+        ObjectsDB objectsDB = new ObjectsDB(folder.getAbsolutePath(), "test", true, new ObjectsCache(), ObjectsDB.Backend.LOG_STRUCTURED);
+        try {
+            objectsDB.addTable(TABLE_NAME);
+            HashMap<String, Object> objects = new HashMap<String, Object>();
+            for (int i = 0; i < 100; i++) {
+                objects.put("key_" + i, "value_" + i);
+            }
+            objectsDB.insertObjects(TABLE_NAME, objects, null);
+            for (int i = 0; i < 10; i++) {
+                Assert.assertEquals("value_" + i, objectsDB.retrieveObject(TABLE_NAME, "key_" + i, true, false));
+            }
+
+            ObjectsDBMetrics metrics = objectsDB.getMetrics();
+            ObjectsDBStatistics statistics = metrics.getStatistics(TABLE_NAME);
+            Assert.assertEquals(1, statistics.getWrites().getCount());
+            Assert.assertEquals(100, statistics.getObjectsWritten());
+            Assert.assertEquals(10, statistics.getReads().getCount());
+            Assert.assertEquals(10, statistics.getObjectsRead());
+            Assert.assertTrue(statistics.getBytesWritten() > statistics.getBytesRead());
+            Assert.assertTrue(statistics.getBytesRead() > 0);
+            Assert.assertTrue(metrics.getDbMutexWait().getCount() >= 11);
+
+            metrics.setEnabled(false);
+            objectsDB.retrieveObject(TABLE_NAME, "key_0", true, false);
+            Assert.assertEquals(10, metrics.getStatistics(TABLE_NAME).getReads().getCount());
+            metrics.reset();
+            Assert.assertNull(metrics.getStatistics(TABLE_NAME));
+        } finally {
+            objectsDB.close();
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Tests that the metrics registered over JMX are unregistered when the
+     * database is closed.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testUnregisterOnClose() throws Exception {
+        File folder = new File(System.getProperty("java.io.tmpdir"), "objects_db_metrics_test_" + System.nanoTime());
+        ObjectsDB objectsDB = new ObjectsDB(folder.getAbsolutePath(), "mbean_test", true, new ObjectsCache(), ObjectsDB.Backend.LOG_STRUCTURED);
+        ObjectName name = new ObjectName("com.compomics.util.db:type=ObjectsDB,name=" + ObjectName.quote("mbean_test"));
+        try {
+            objectsDB.getMetrics().registerMBean();
+            Assert.assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+        } finally {
+            objectsDB.close();
+            Util.deleteDir(folder);
+        }
+        Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+}
@@ -0,0 +1,130 @@
+package com.compomics.util.test.experiment.io;
+
+import com.compomics.util.Util;
+import com.compomics.util.db.ObjectsCache;
+import com.compomics.util.db.ObjectsDB;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the loading of the objects of a table in the cache by the decoding
+ * pipeline.
+ *
+ * @author Marc Vaudel
+ */
+public class ObjectsLoaderTest extends TestCase {
+
+    /**
+     * The name of the test table.
+     */
+    private static final String TABLE_NAME = "test_table";
+    /**
+     * The number of objects in the table, larger than the queue of the
+     * loader.
+     */
+    private static final int N_OBJECTS = 5000;
+    /**
+     * The folder of the database.
+     */
+    private File folder;
+    /**
+     * The cache.
+     */
+    private ObjectsCache objectsCache;
+    /**
+     * The database.
+     */
+    private ObjectsDB objectsDB;
+
+    @Override
+    protected void setUp() throws Exception {
+        folder = new File(System.getProperty("java.io.tmpdir"), "objects_loader_test_" + System.nanoTime());
+        objectsCache = new ObjectsCache();
+        objectsCache.setAutomatedMemoryManagement(false);
+        objectsCache.setCacheSize(2 * N_OBJECTS);
+        objectsDB = new ObjectsDB(folder.getAbsolutePath(), "test", true, objectsCache, ObjectsDB.Backend.LOG_STRUCTURED);
+        objectsDB.addTable(TABLE_NAME);
+        objectsDB.setLoadingThreads(2);
+        HashMap<String, Object> objects = new HashMap<String, Object>(N_OBJECTS);
+        for (int i = 0; i < N_OBJECTS; i++) {
+            objects.put("key_" + i, "value_" + i);
+        }
+        objectsDB.insertObjects(TABLE_NAME, objects, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        objectsDB.close();
+        Util.deleteDir(folder);
+    }
+
+    /**
+     * Tests that all objects of a table are decoded and added to the cache.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testLoading() throws Exception {
+        objectsDB.loadObjects(TABLE_NAME, null, false);
+        for (int i = 0; i < N_OBJECTS; i++) {
+            Assert.assertEquals("value_" + i, objectsCache.getObject(objectsDB.getName(), TABLE_NAME, "key_" + i));
+        }
+    }
+
+    /**
+     * Tests that an Error thrown while decoding an object is reported to the
+     * thread reading the table and does not block it, and that the database
+     * remains usable.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testFailure() throws Exception {
+        HashMap<String, Object> objects = new HashMap<String, Object>(1);
+        objects.put("failing", new FailingObject());
+        objectsDB.insertObjects(TABLE_NAME, objects, null);
+
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread loadingThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    objectsDB.loadObjects(TABLE_NAME, null, false);
+                } catch (Throwable t) {
+                    error.set(t);
+                }
+            }
+        });
+        loadingThread.start();
+        loadingThread.join(60000);
+        Assert.assertFalse("Loading blocked after a decoding error.", loadingThread.isAlive());
+        Assert.assertTrue(error.get() instanceof IOException);
+        Assert.assertTrue(error.get().getCause() instanceof AssertionError);
+
+        Assert.assertEquals("value_0", objectsDB.retrieveObject(TABLE_NAME, "key_0", true, false));
+    }
+
+    /**
+     * Object throwing an Error when deserialized.
+     */
+    private static class FailingObject implements Serializable {
+
+        /**
+         * The version UID for serialization/deserialization compatibility.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Throws an Error.
+         *
+         * @param in the input stream
+         */
+        private void readObject(ObjectInputStream in) {
+            throw new AssertionError("Object not deserializable.");
+        }
+    }
+}
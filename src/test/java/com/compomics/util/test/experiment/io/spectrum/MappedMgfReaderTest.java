@@ -0,0 +1,187 @@
+package com.compomics.util.test.experiment.io.spectrum;
+
+import com.compomics.util.experiment.io.massspectrometry.MappedMgfReader;
+import com.compomics.util.experiment.io.massspectrometry.MgfIndex;
+import com.compomics.util.experiment.io.massspectrometry.MgfReader;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import uk.ac.ebi.pride.tools.braf.BufferedRandomAccessFile;
+
+/**
+ * Tests the memory mapped mgf reader against the mgf reader.
+ *
+ * @author Marc Vaudel
+ */
+public class MappedMgfReaderTest extends TestCase {
+
+    /**
+     * Tests that the indexes, spectra and precursors are the same as the ones
+     * of the mgf reader, using segments smaller than the spectra.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testReader() throws Exception {
+        File mgfFile = File.createTempFile("mapped_mgf_test", ".mgf");
+        try {
+            FileWriter fw = new FileWriter(mgfFile);
+            try {
+                fw.write("BEGIN IONS\r\nTITLE=spectrum%201\r\nRTINSECONDS=218.6808\r\nPEPMASS=1060.86962890625 18161.67578125\r\nCHARGE=2 and 3+\r\n"
+                        + "964.581665 0.861346662\r\n1000.5 1.5e3\r\n1200.25 0\r\nEND IONS\r\n\r\n");
+                fw.write("BEGIN IONS\nTITLE=spectrum 2\nRTINSECONDS=218-219.71\nPEPMASS=800.5\nSCANS=12\n# comment\n"
+                        + " 350.1 20\n400.2\t30\t2+\n450.3 40\n\nEND IONS\n");
+                fw.write("BEGIN IONS\nTITLE=spectrum 2\nPEPMASS=900.1 5\nCHARGE=3+\n");
+                for (int i = 0; i < 100; i++) {
+                    fw.write((100 + 7.123456 * i) + " " + (1000.0 / (i + 1)) + "\n");
+                }
+                fw.write("END IONS");
+            } finally {
+                fw.close();
+            }
+
+            MgfIndex expectedIndex = MgfReader.getIndexMap(mgfFile);
+            MgfIndex index = MappedMgfReader.getIndexMap(mgfFile, null);
+            Assert.assertEquals(expectedIndex.getSpectrumTitles(), index.getSpectrumTitles());
+            Assert.assertEquals(3, index.getNSpectra());
+            Assert.assertEquals(expectedIndex.getMaxPeakCount(), index.getMaxPeakCount());
+            Assert.assertEquals(expectedIndex.getMaxMz(), index.getMaxMz());
+            Assert.assertEquals(expectedIndex.getMinRT(), index.getMinRT());
+            Assert.assertEquals(expectedIndex.getMaxRT(), index.getMaxRT());
+            Assert.assertEquals(expectedIndex.getMaxCharge(), index.getMaxCharge());
+            Assert.assertEquals(expectedIndex.isPeakPicked(), index.isPeakPicked());
+            Assert.assertEquals(expectedIndex.isPrecursorChargesMissing(), index.isPrecursorChargesMissing());
+
+            BufferedRandomAccessFile bufferedRandomAccessFile = new BufferedRandomAccessFile(mgfFile, "r", 1024);
+            MappedMgfReader reader = new MappedMgfReader(mgfFile, 1024);
+            try {
+                for (String title : index.getSpectrumTitles()) {
+                    Assert.assertEquals(expectedIndex.getIndex(title), index.getIndex(title));
+                    MSnSpectrum expected = MgfReader.getSpectrum(bufferedRandomAccessFile, expectedIndex.getIndex(title), mgfFile.getName());
+                    MSnSpectrum spectrum = reader.getSpectrum(index.getIndex(title), mgfFile.getName());
+                    Assert.assertEquals(expected.getSpectrumTitle(), spectrum.getSpectrumTitle());
+                    Assert.assertEquals(expected.getScanNumber(), spectrum.getScanNumber());
+                    Assert.assertTrue(Arrays.equals(expected.getOrderedMzValues(), spectrum.getOrderedMzValues()));
+                    Assert.assertTrue(Arrays.equals(expected.getIntensityValuesAsArray(), spectrum.getIntensityValuesAsArray()));
+                    Assert.assertEquals(expected.getPrecursor().getMz(), spectrum.getPrecursor().getMz());
+                    Assert.assertEquals(expected.getPrecursor().getRt(), spectrum.getPrecursor().getRt());
+                    Assert.assertEquals(expected.getPrecursor().getPossibleCharges().size(), spectrum.getPrecursor().getPossibleCharges().size());
+                    Precursor expectedPrecursor = MgfReader.getPrecursor(bufferedRandomAccessFile, expectedIndex.getIndex(title), mgfFile.getName());
+                    Precursor precursor = reader.getPrecursor(index.getIndex(title), mgfFile.getName());
+                    Assert.assertEquals(expectedPrecursor.getMz(), precursor.getMz());
+                    Assert.assertEquals(expectedPrecursor.getIntensity(), precursor.getIntensity());
+                }
+                Assert.assertEquals("spectrum 1", index.getSpectrumTitles().get(0));
+                Assert.assertEquals(3, reader.getSpectrum(index.getIndex("spectrum 1"), mgfFile.getName()).getNPeaks());
+                Assert.assertEquals(100, reader.getSpectrum(index.getIndex("spectrum 2_1"), mgfFile.getName()).getNPeaks());
+            } finally {
+                bufferedRandomAccessFile.close();
+                reader.close();
+            }
+        } finally {
+            mgfFile.delete();
+        }
+    }
+
+    /**
+     * Tests that the index built in parallel on ranges of different sizes is
+     * the same as the index built sequentially.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testParallelIndexing() throws Exception {
+        File mgfFile = File.createTempFile("mapped_mgf_test", ".mgf");
+        try {
+            FileWriter fw = new FileWriter(mgfFile);
+            try {
+                fw.write("TITLE=header\n");
+                for (int i = 0; i < 20; i++) {
+                    String lineBreak = i % 3 == 0 ? "\r\n" : "\n";
+                    fw.write("BEGIN IONS" + lineBreak + "TITLE=spectrum " + (i % 7) + lineBreak + "RTINSECONDS=" + (10 * i + 1) + lineBreak
+                            + "PEPMASS=" + (400.25 + i) + " " + (100 * i) + lineBreak);
+                    if (i % 4 != 0) {
+                        fw.write("CHARGE=" + (1 + i % 5) + "+" + lineBreak);
+                    }
+                    fw.write("100.5 " + (i % 5) + lineBreak + "200.25 10" + lineBreak + "300.125 20" + lineBreak + "END IONS" + lineBreak + lineBreak);
+                }
+                // a spectrum without end tag followed by a spectrum without title
+                fw.write("BEGIN IONS\nTITLE=unterminated\nPEPMASS=500\n100 1\n");
+                fw.write("BEGIN IONS\nPEPMASS=600\n");
+                for (int i = 0; i < 6; i++) {
+                    fw.write((100 + i) + " 1\n");
+                }
+                fw.write("END IONS\n");
+            } finally {
+                fw.close();
+            }
+
+            MgfIndex expected = MappedMgfReader.getIndexMap(mgfFile, null);
+            Assert.assertEquals(22, expected.getNSpectra());
+            Assert.assertEquals(6, expected.getMaxPeakCount().intValue());
+            Assert.assertEquals(2, expected.getDuplicatedSpectrumTitles().get("spectrum 0").intValue());
+
+            for (int rangeSize = 1; rangeSize <= mgfFile.length(); rangeSize += 7) {
+                MgfIndex index = MappedMgfReader.getIndexMap(mgfFile, null, 3, rangeSize);
+                Assert.assertEquals(expected.getSpectrumTitles(), index.getSpectrumTitles());
+                Assert.assertEquals(expected.getDuplicatedSpectrumTitles(), index.getDuplicatedSpectrumTitles());
+                for (String title : expected.getSpectrumTitles()) {
+                    Assert.assertEquals(expected.getIndex(title), index.getIndex(title));
+                    Assert.assertEquals(expected.getSpectrumIndex(title), index.getSpectrumIndex(title));
+                }
+                for (int i = -1; i <= expected.getNSpectra(); i++) {
+                    Assert.assertEquals(expected.getPrecursorMz(i), index.getPrecursorMz(i));
+                }
+                Assert.assertEquals(expected.getNSpectra(), index.getNSpectra());
+                Assert.assertEquals(expected.getMinRT(), index.getMinRT());
+                Assert.assertEquals(expected.getMaxRT(), index.getMaxRT());
+                Assert.assertEquals(expected.getMaxMz(), index.getMaxMz());
+                Assert.assertEquals(expected.getMaxIntensity(), index.getMaxIntensity());
+                Assert.assertEquals(expected.getMaxCharge(), index.getMaxCharge());
+                Assert.assertEquals(expected.getMaxPeakCount(), index.getMaxPeakCount());
+                Assert.assertEquals(expected.isPeakPicked(), index.isPeakPicked());
+                Assert.assertEquals(expected.isPrecursorChargesMissing(), index.isPrecursorChargesMissing());
+            }
+        } finally {
+            mgfFile.delete();
+        }
+    }
+
+    /**
+     * Tests that the parsing of numbers gives the same result as
+     * Double.parseDouble.
+     */
+    public void testParseDouble() {
+        String[] values = {"0", "-0.0", "1", "+2.5", "964.581665", "0.861346662", "1.5e3", "2E-5", "123456789012345678901234",
+            "0.000000000000000000000000012345", ".5", "5.", "1e400", "NaN", "-Infinity", "12.5d"};
+        for (String value : values) {
+            assertParsed(value);
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            assertParsed(Double.toString(10000 * random.nextDouble()));
+            assertParsed(String.format("%." + random.nextInt(12) + "f", 2000 * random.nextDouble()).replace(',', '.'));
+        }
+        try {
+            MappedMgfReader.parseDouble(ByteBuffer.wrap("1.2.3".getBytes()), 0, 5);
+            fail("No exception thrown for an invalid number.");
+        } catch (NumberFormatException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Asserts that a number is parsed like Double.parseDouble does.
+     *
+     * @param value the number as String
+     */
+    private static void assertParsed(String value) {
+        byte[] bytes = (" " + value + " ").getBytes();
+        double parsed = MappedMgfReader.parseDouble(ByteBuffer.wrap(bytes), 1, bytes.length - 1);
+        Assert.assertEquals(value, Double.doubleToLongBits(Double.parseDouble(value)), Double.doubleToLongBits(parsed));
+    }
+}
@@ -0,0 +1,134 @@
+package com.compomics.util.test.experiment.io.spectrum;
+
+import com.compomics.util.experiment.io.massspectrometry.export.Ms2Exporter;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Peak;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the storage of the peaks of a spectrum.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumPeaksTest extends TestCase {
+
+    /**
+     * Tests that the peaks are sorted by m/z and that the maps and arrays
+     * returned reflect the peaks.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testPeaks() throws Exception {
+        HashMap<Double, Peak> peakMap = new HashMap<Double, Peak>();
+        double[] mzValues = {500.2, 150.1, 1200.7, 300.3, 220.0};
+        double[] intensities = {10, 50, 20, 40, 30};
+        for (int i = 0; i < mzValues.length; i++) {
+            peakMap.put(mzValues[i], new Peak(mzValues[i], intensities[i], 12.5));
+        }
+        MSnSpectrum spectrum = new MSnSpectrum(2, null, "test", peakMap, "test.mgf");
+
+        Assert.assertEquals(5, spectrum.getNPeaks());
+        double[] orderedMz = spectrum.getOrderedMzValues();
+        double[] orderedIntensities = spectrum.getIntensityValuesAsArray();
+        double[] expectedMz = {150.1, 220.0, 300.3, 500.2, 1200.7};
+        double[] expectedIntensities = {50, 30, 40, 10, 20};
+        for (int i = 0; i < expectedMz.length; i++) {
+            Assert.assertEquals(expectedMz[i], orderedMz[i]);
+            Assert.assertEquals(expectedIntensities[i], orderedIntensities[i]);
+        }
+        Assert.assertEquals(150.1, spectrum.getMinMz());
+        Assert.assertEquals(1200.7, spectrum.getMaxMz());
+        Assert.assertEquals(150.0, spectrum.getTotalIntensity());
+        Assert.assertEquals(50.0, spectrum.getMaxIntensity());
+        Assert.assertEquals(peakMap.keySet(), spectrum.getPeakMap().keySet());
+        Assert.assertTrue(peakMap.get(300.3).isSameAs(spectrum.getPeak(300.3)));
+        Assert.assertEquals(12.5, spectrum.getPeak(300.3).rt);
+        Assert.assertNull(spectrum.getPeak(300.4));
+        Assert.assertEquals(2, spectrum.getSubSpectrum(220.0, 500.2).size());
+        Assert.assertEquals(25.0, spectrum.getIntensityLimit(0.5));
+
+        spectrum.addPeak(new Peak(250.0, 60, 13.0));
+        spectrum.addPeak(new Peak(500.2, 70, 12.5));
+        Assert.assertEquals(6, spectrum.getNPeaks());
+        Assert.assertEquals(250.0, spectrum.getOrderedMzValues()[2]);
+        Assert.assertEquals(70.0, spectrum.getPeak(500.2).intensity);
+        Assert.assertEquals(13.0, spectrum.getPeak(250.0).rt);
+        Assert.assertEquals(12.5, spectrum.getPeak(150.1).rt);
+        Assert.assertEquals(70.0, spectrum.getMaxIntensity());
+
+        ArrayList<Peak> peaks = new ArrayList<Peak>();
+        peaks.add(new Peak(400.0, 1));
+        peaks.add(new Peak(100.0, 2));
+        peaks.add(new Peak(400.0, 3));
+        spectrum.setPeaks(peaks);
+        Assert.assertEquals(2, spectrum.getNPeaks());
+        Assert.assertEquals(100.0, spectrum.getMinMz());
+        Assert.assertEquals(3.0, spectrum.getPeak(400.0).intensity);
+
+        spectrum.setPeaks(new double[]{300.0, 200.0}, new double[]{1.0, 2.0}, 0.0);
+        Assert.assertEquals(200.0, spectrum.getMzValuesAsArray()[0]);
+        Assert.assertEquals(2.0, spectrum.getIntensityValuesAsArray()[0]);
+    }
+
+    /**
+     * Tests that the peaks are kept upon serialization.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testSerialization() throws Exception {
+        HashMap<Double, Peak> peakMap = new HashMap<Double, Peak>();
+        for (int i = 0; i < 100; i++) {
+            peakMap.put(100.0 + i, new Peak(100.0 + i, i, i % 3));
+        }
+        MSnSpectrum spectrum = new MSnSpectrum(2, null, "test", peakMap, "test.mgf");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(spectrum);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        MSnSpectrum copy = (MSnSpectrum) in.readObject();
+        in.close();
+        Assert.assertEquals(100, copy.getNPeaks());
+        for (int i = 0; i < 100; i++) {
+            Peak peak = copy.getPeak(i);
+            Assert.assertEquals(100.0 + i, peak.mz);
+            Assert.assertEquals((double) i, peak.intensity);
+            Assert.assertEquals((double) (i % 3), peak.rt);
+        }
+        Assert.assertEquals(4950.0, copy.getTotalIntensity());
+    }
+
+    /**
+     * Tests that the peaks are exported by ascending m/z.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testExport() throws Exception {
+        HashMap<Double, Peak> peakMap = new HashMap<Double, Peak>();
+        peakMap.put(300.5, new Peak(300.5, 3));
+        peakMap.put(100.5, new Peak(100.5, 1));
+        peakMap.put(200.5, new Peak(200.5, 2));
+        ArrayList<Charge> charges = new ArrayList<Charge>();
+        charges.add(new Charge(Charge.PLUS, 2));
+        MSnSpectrum spectrum = new MSnSpectrum(2, new Precursor(0, 400.0, charges), "test", peakMap, "test.mgf");
+        StringWriter stringWriter = new StringWriter();
+        BufferedWriter bw = new BufferedWriter(stringWriter);
+        Ms2Exporter.writeSpectrum(bw, spectrum, 1);
+        bw.close();
+        String[] lines = stringWriter.toString().split("\\r?\\n");
+        Assert.assertEquals("100.5 1.0", lines[2]);
+        Assert.assertEquals("200.5 2.0", lines[3]);
+        Assert.assertEquals("300.5 3.0", lines[4]);
+    }
+}
@@ -1,5 +1,6 @@
 package com.compomics.util.test.experiment.sequences.indexing;
 
+import com.compomics.util.Util;
 import com.compomics.util.exceptions.ExceptionHandler;
 import com.compomics.util.exceptions.exception_handlers.CommandLineExceptionHandler;
 import com.compomics.util.experiment.biology.AminoAcid;
@@ -16,7 +17,12 @@ import com.compomics.util.experiment.identification.identification_parameters.Se
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.VariantMatch;
 import com.compomics.util.experiment.identification.protein_inference.PeptideProteinMapping;
+import com.compomics.util.experiment.identification.protein_inference.ProteinMappingCallback;
 import com.compomics.util.experiment.identification.protein_inference.fm_index.FMIndex;
+import com.compomics.util.experiment.identification.protein_inference.fm_index.FMIndexFile;
+import com.compomics.util.experiment.identification.protein_inference.fm_index.RankStructure;
+import com.compomics.util.experiment.identification.protein_inference.fm_index.RankType;
+import com.compomics.util.experiment.identification.protein_inference.fm_index.WaveletTree;
 import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
 import com.compomics.util.preferences.IdentificationParameters;
 import com.compomics.util.preferences.PeptideVariantsPreferences;
@@ -28,6 +34,8 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
 import junit.framework.Assert;
 import junit.framework.TestCase;
 import org.xmlpull.v1.XmlPullParserException;
@@ -48,6 +56,45 @@ public class FMIndexTest extends TestCase {
     boolean testVariantMatchingGeneric = true;
     boolean testVariantPTMMatching = true;
     boolean testVariantMatchingSpecific = true;
+    boolean testIndexPersistence = true;
+    boolean testBatchMapping = true;
+    boolean testRankTypes = true;
+    boolean testSamplingShifts = true;
+    /**
+     * Temporary folder where the FASTA files are copied, the indexes are
+     * written next to them.
+     */
+    private File tempFolder;
+
+    @Override
+    protected void setUp() throws Exception {
+        tempFolder = File.createTempFile("fm_index_test", "");
+        tempFolder.delete();
+        tempFolder.mkdir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SequenceFactory.getInstance().clearFactory();
+        Util.deleteDir(tempFolder);
+    }
+
+    /**
+     * Copies a FASTA file of the test resources to the temporary folder and
+     * returns the copy.
+     *
+     * @param name the name of the FASTA file
+     *
+     * @return the copy of the FASTA file
+     *
+     * @throws IOException thrown whenever an error occurs while copying the
+     * file
+     */
+    private File getSequences(String name) throws IOException {
+        File sequences = new File(tempFolder, name);
+        Util.copyFile(new File("src/test/resources/experiment", name), sequences);
+        return sequences;
+    }
 
     /**
      * Tests the import and the mapping of a few peptide sequences.
@@ -69,7 +116,7 @@ public class FMIndexTest extends TestCase {
 
         WaitingHandlerCLIImpl waitingHandlerCLIImpl = new WaitingHandlerCLIImpl();
         ExceptionHandler exceptionHandler = new CommandLineExceptionHandler();
-        File sequences = new File("src/test/resources/experiment/proteinTreeTestSequences");
+        File sequences = getSequences("proteinTreeTestSequences");
         SequenceFactory sequenceFactory = SequenceFactory.getInstance();
         sequenceFactory.loadFastaFile(sequences, waitingHandlerCLIImpl);
         PeptideVariantsPreferences peptideVariantsPreferences = PeptideVariantsPreferences.getNoVariantPreferences();
@@ -134,7 +181,7 @@ public class FMIndexTest extends TestCase {
 
         WaitingHandlerCLIImpl waitingHandlerCLIImpl = new WaitingHandlerCLIImpl();
         ExceptionHandler exceptionHandler = new CommandLineExceptionHandler();
-        File sequences = new File("src/test/resources/experiment/proteinTreeTestSequences");
+        File sequences = getSequences("proteinTreeTestSequences");
         SequenceFactory sequenceFactory = SequenceFactory.getInstance();
         sequenceFactory.loadFastaFile(sequences, waitingHandlerCLIImpl);
         PeptideVariantsPreferences peptideVariantsPreferences = PeptideVariantsPreferences.getNoVariantPreferences();
@@ -303,7 +350,7 @@ public class FMIndexTest extends TestCase {
 
         WaitingHandlerCLIImpl waitingHandlerCLIImpl = new WaitingHandlerCLIImpl();
         ExceptionHandler exceptionHandler = new CommandLineExceptionHandler();
-        File sequences = new File("src/test/resources/experiment/proteinTreeTestSequences");
+        File sequences = getSequences("proteinTreeTestSequences");
         SequenceFactory sequenceFactory = SequenceFactory.getInstance();
         sequenceFactory.loadFastaFile(sequences, waitingHandlerCLIImpl);
         PeptideVariantsPreferences peptideVariantsPreferences = PeptideVariantsPreferences.getNoVariantPreferences();
@@ -494,7 +541,7 @@ public class FMIndexTest extends TestCase {
 
         WaitingHandlerCLIImpl waitingHandlerCLIImpl = new WaitingHandlerCLIImpl();
         ExceptionHandler exceptionHandler = new CommandLineExceptionHandler();
-        File sequences = new File("src/test/resources/experiment/proteinTreeTestSequences_1");
+        File sequences = getSequences("proteinTreeTestSequences_1");
         SequenceFactory sequenceFactory = SequenceFactory.getInstance();
         sequenceFactory.loadFastaFile(sequences, waitingHandlerCLIImpl);
         
@@ -539,6 +586,12 @@ public class FMIndexTest extends TestCase {
         peptideProteinMapping = peptideProteinMappings.get(0);
         Assert.assertTrue(peptideProteinMapping.getPeptideSequence().compareTo("TMRITESTCK") == 0);
         
+        // mapping the same tag again is answered from the cache
+        peptideProteinMappings = fmIndex.getProteinMapping(tag, null, sequenceMatchingPreferences);
+        Assert.assertTrue(peptideProteinMappings.size() == 1);
+        Assert.assertTrue(peptideProteinMappings.get(0).getPeptideSequence().compareTo("TMRITESTCK") == 0);
+        Assert.assertTrue(fmIndex.getCacheStatistics().getHits() > 0);
+        
         
         
         
@@ -1722,7 +1775,7 @@ public class FMIndexTest extends TestCase {
 
         WaitingHandlerCLIImpl waitingHandlerCLIImpl = new WaitingHandlerCLIImpl();
         ExceptionHandler exceptionHandler = new CommandLineExceptionHandler();
-        File sequences = new File("src/test/resources/experiment/proteinTreeTestSequences_1");
+        File sequences = getSequences("proteinTreeTestSequences_1");
         SequenceFactory sequenceFactory = SequenceFactory.getInstance();
         sequenceFactory.loadFastaFile(sequences, waitingHandlerCLIImpl);
 
@@ -2184,7 +2237,7 @@ public class FMIndexTest extends TestCase {
 
         WaitingHandlerCLIImpl waitingHandlerCLIImpl = new WaitingHandlerCLIImpl();
         ExceptionHandler exceptionHandler = new CommandLineExceptionHandler();
-        File sequences = new File("src/test/resources/experiment/proteinTreeTestSequences_1");
+        File sequences = getSequences("proteinTreeTestSequences_1");
         SequenceFactory sequenceFactory = SequenceFactory.getInstance();
         sequenceFactory.loadFastaFile(sequences, waitingHandlerCLIImpl);
 
@@ -2418,7 +2471,7 @@ public class FMIndexTest extends TestCase {
 
         WaitingHandlerCLIImpl waitingHandlerCLIImpl = new WaitingHandlerCLIImpl();
         ExceptionHandler exceptionHandler = new CommandLineExceptionHandler();
-        File sequences = new File("src/test/resources/experiment/proteinTreeTestSequences_1");
+        File sequences = getSequences("proteinTreeTestSequences_1");
         SequenceFactory sequenceFactory = SequenceFactory.getInstance();
         sequenceFactory.loadFastaFile(sequences, waitingHandlerCLIImpl);
 
@@ -2690,4 +2743,229 @@ public class FMIndexTest extends TestCase {
         Assert.assertTrue(isPresent);
         Assert.assertTrue(correctVariants == 2);
     }
-}
\ No newline at end of file
+
+    /**
+     * Tests that an index loaded from its file on disk maps peptides the same
+     * way as a freshly built index.
+     *
+     * @throws FileNotFoundException thrown whenever a file is not found
+     * @throws IOException thrown whenever an error occurs while reading or
+     * writing a file
+     * @throws ClassNotFoundException thrown whenever an error occurs while
+     * deserializing an object
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the tree
+     * @throws SQLException if an SQLException thrown whenever a problem
+     * occurred while interacting with the tree database
+     */
+    public void testIndexPersistence() throws FileNotFoundException, IOException, ClassNotFoundException, SQLException, InterruptedException {
+        if (!testIndexPersistence) {
+            return;
+        }
+
+        WaitingHandlerCLIImpl waitingHandlerCLIImpl = new WaitingHandlerCLIImpl();
+        File sequences = getSequences("proteinTreeTestSequences");
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        sequenceFactory.loadFastaFile(sequences, waitingHandlerCLIImpl);
+        PeptideVariantsPreferences peptideVariantsPreferences = PeptideVariantsPreferences.getNoVariantPreferences();
+
+        File indexFile = FMIndexFile.getIndexFile(sequences);
+        if (indexFile.exists()) {
+            indexFile.delete();
+        }
+        FMIndex builtIndex = new FMIndex(null, false, null, peptideVariantsPreferences);
+        Assert.assertTrue(indexFile.exists());
+        for (String fileName : indexFile.getAbsoluteFile().getParentFile().list()) {
+            Assert.assertFalse(fileName.startsWith(indexFile.getName() + ".") && fileName.endsWith(".tmp"));
+        }
+        long lastModified = indexFile.lastModified();
+        FMIndex loadedIndex = new FMIndex(null, false, null, peptideVariantsPreferences);
+        Assert.assertTrue(indexFile.lastModified() == lastModified);
+        Assert.assertTrue(builtIndex.getAllocatedBytes() == loadedIndex.getAllocatedBytes());
+
+        SequenceMatchingPreferences sequenceMatchingPreferences = new SequenceMatchingPreferences();
+        sequenceMatchingPreferences.setSequenceMatchingType(SequenceMatchingPreferences.MatchingType.indistiguishableAminoAcids);
+        sequenceMatchingPreferences.setLimitX(0.25);
+        for (String peptide : new String[]{"ECTQDRGKTAFTEAVLLP", "SSS", "KTAF"}) {
+            HashMap<String, HashMap<String, ArrayList<Integer>>> builtIndexes = PeptideProteinMapping.getPeptideProteinIndexesMap(builtIndex.getProteinMapping(peptide, sequenceMatchingPreferences));
+            HashMap<String, HashMap<String, ArrayList<Integer>>> loadedIndexes = PeptideProteinMapping.getPeptideProteinIndexesMap(loadedIndex.getProteinMapping(peptide, sequenceMatchingPreferences));
+            for (HashMap<String, ArrayList<Integer>> proteinIndexes : builtIndexes.values()) {
+                for (ArrayList<Integer> indexes : proteinIndexes.values()) {
+                    Collections.sort(indexes);
+                }
+            }
+            for (HashMap<String, ArrayList<Integer>> proteinIndexes : loadedIndexes.values()) {
+                for (ArrayList<Integer> indexes : proteinIndexes.values()) {
+                    Collections.sort(indexes);
+                }
+            }
+            Assert.assertTrue(builtIndexes.equals(loadedIndexes));
+        }
+    }
+
+    /**
+     * Tests that the batch mapping returns the same mappings as the mapping
+     * of single peptides.
+     *
+     * @throws FileNotFoundException thrown whenever a file is not found
+     * @throws IOException thrown whenever an error occurs while reading or
+     * writing a file
+     * @throws ClassNotFoundException thrown whenever an error occurs while
+     * deserializing an object
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the index
+     * @throws SQLException if an SQLException thrown whenever a problem
+     * occurred while interacting with the index database
+     */
+    public void testBatchMapping() throws FileNotFoundException, IOException, ClassNotFoundException, SQLException, InterruptedException {
+        if (!testBatchMapping) {
+            return;
+        }
+
+        WaitingHandlerCLIImpl waitingHandlerCLIImpl = new WaitingHandlerCLIImpl();
+        File sequences = getSequences("proteinTreeTestSequences");
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        sequenceFactory.loadFastaFile(sequences, waitingHandlerCLIImpl);
+        PeptideVariantsPreferences peptideVariantsPreferences = PeptideVariantsPreferences.getNoVariantPreferences();
+        FMIndex fmIndex = new FMIndex(null, false, null, peptideVariantsPreferences);
+
+        SequenceMatchingPreferences sequenceMatchingPreferences = new SequenceMatchingPreferences();
+        sequenceMatchingPreferences.setSequenceMatchingType(SequenceMatchingPreferences.MatchingType.indistiguishableAminoAcids);
+        sequenceMatchingPreferences.setLimitX(0.25);
+
+        ArrayList<String> peptides = new ArrayList<String>();
+        for (String peptide : new String[]{"ECTQDRGKTAFTEAVLLP", "TAF", "KTAF", "GKTAF", "XKTAF", "SSS", "ASSS", "SSSS", "LLP", "AVLLP", "AVLIP", "KTAF"}) {
+            peptides.add(peptide);
+        }
+
+        HashMap<String, HashSet<String>> singleMappings = new HashMap<String, HashSet<String>>();
+        for (String peptide : peptides) {
+            HashSet<String> mappings = new HashSet<String>();
+            for (PeptideProteinMapping peptideProteinMapping : fmIndex.getProteinMapping(peptide, sequenceMatchingPreferences)) {
+                mappings.add(peptideProteinMapping.getPeptideSequence() + "_" + peptideProteinMapping.getProteinAccession() + "_" + peptideProteinMapping.getIndex());
+            }
+            singleMappings.put(peptide, mappings);
+        }
+
+        final HashMap<String, HashSet<String>> batchMappings = new HashMap<String, HashSet<String>>();
+        fmIndex.getProteinMappings(peptides, sequenceMatchingPreferences, new ProteinMappingCallback<String>() {
+            @Override
+            public void mappingCompleted(String peptide, ArrayList<PeptideProteinMapping> peptideProteinMappings) {
+                HashSet<String> mappings = new HashSet<String>();
+                for (PeptideProteinMapping peptideProteinMapping : peptideProteinMappings) {
+                    mappings.add(peptideProteinMapping.getPeptideSequence() + "_" + peptideProteinMapping.getProteinAccession() + "_" + peptideProteinMapping.getIndex());
+                }
+                synchronized (batchMappings) {
+                    Assert.assertTrue(!batchMappings.containsKey(peptide));
+                    batchMappings.put(peptide, mappings);
+                }
+            }
+        }, 4, null);
+
+        Assert.assertTrue(singleMappings.equals(batchMappings));
+    }
+
+    /**
+     * Tests that all rank types give the same ranks and wavelet tree queries.
+     */
+    public void testRankTypes() {
+        if (!testRankTypes) {
+            return;
+        }
+
+        Random random = new Random(1);
+        char[] aminoAcids = AminoAcid.getAminoAcids();
+        long[] alphabet = new long[]{0, 0};
+        for (char aa : aminoAcids) {
+            alphabet[aa >> 6] |= 1L << (aa & 63);
+        }
+        alphabet['$' >> 6] |= 1L << ('$' & 63);
+        alphabet['/' >> 6] |= 1L << ('/' & 63);
+        byte[] text = new byte[5000];
+        for (int i = 0; i < text.length - 1; ++i) {
+            text[i] = (byte) (random.nextInt(50) == 0 ? '/' : aminoAcids[random.nextInt(aminoAcids.length)]);
+        }
+        text[text.length - 1] = '$';
+
+        long[] bitAlphabet = new long[]{0, 0};
+        for (int i = 0; i < aminoAcids.length; i += 3) {
+            bitAlphabet[aminoAcids[i] >> 6] |= 1L << (aminoAcids[i] & 63);
+        }
+        RankStructure separateRank = RankType.separate.createRank(text, bitAlphabet);
+        RankStructure interleavedRank = RankType.interleaved.createRank(text, bitAlphabet);
+        int ones = 0;
+        for (int i = 0; i < text.length; ++i) {
+            int bit = (int) ((bitAlphabet[text[i] >> 6] >>> (text[i] & 63)) & 1L);
+            ones += bit;
+            Assert.assertEquals(bit, interleavedRank.isOneInt(i));
+            Assert.assertEquals(ones, interleavedRank.getRankOne(i));
+            Assert.assertEquals(i + 1 - ones, interleavedRank.getRankZero(i));
+            Assert.assertEquals(separateRank.getRankOne(i), interleavedRank.getRankOne(i));
+        }
+
+        WaveletTree separateTree = new WaveletTree(text, alphabet, null, aminoAcids.length + 1, false, RankType.separate);
+        WaveletTree interleavedTree = new WaveletTree(text, alphabet, null, aminoAcids.length + 1, false, RankType.interleaved);
+        for (int i = 0; i < text.length; i += 7) {
+            for (char aa : aminoAcids) {
+                Assert.assertEquals(separateTree.getRank(i, aa), interleavedTree.getRank(i, aa));
+                int[] separateRange = separateTree.singleRangeQuery(i - 1, Math.min(i + 100, text.length - 1), aa);
+                int[] interleavedRange = interleavedTree.singleRangeQuery(i - 1, Math.min(i + 100, text.length - 1), aa);
+                Assert.assertEquals(separateRange[0], interleavedRange[0]);
+                Assert.assertEquals(separateRange[1], interleavedRange[1]);
+            }
+        }
+    }
+
+    /**
+     * Tests that the mapping does not depend on the suffix array sampling.
+     *
+     * @throws FileNotFoundException thrown whenever a file is not found
+     * @throws IOException thrown whenever an error occurs while reading or
+     * writing a file
+     * @throws ClassNotFoundException thrown whenever an error occurs while
+     * deserializing an object
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the tree
+     * @throws SQLException if an SQLException thrown whenever a problem
+     * occurred while interacting with the tree database
+     */
+    public void testSamplingShifts() throws FileNotFoundException, IOException, ClassNotFoundException, SQLException, InterruptedException {
+        if (!testSamplingShifts) {
+            return;
+        }
+
+        WaitingHandlerCLIImpl waitingHandlerCLIImpl = new WaitingHandlerCLIImpl();
+        File sequences = getSequences("proteinTreeTestSequences");
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        sequenceFactory.loadFastaFile(sequences, waitingHandlerCLIImpl);
+        PeptideVariantsPreferences peptideVariantsPreferences = PeptideVariantsPreferences.getNoVariantPreferences();
+
+        SequenceMatchingPreferences sequenceMatchingPreferences = new SequenceMatchingPreferences();
+        sequenceMatchingPreferences.setSequenceMatchingType(SequenceMatchingPreferences.MatchingType.indistiguishableAminoAcids);
+        sequenceMatchingPreferences.setLimitX(0.25);
+        String[] peptides = new String[]{"ECTQDRGKTAFTEAVLLP", "SSS", "KTAF", "LL", "A"};
+
+        FMIndex defaultIndex = new FMIndex(null, false, null, peptideVariantsPreferences);
+        Assert.assertEquals(FMIndex.DEFAULT_SAMPLING_SHIFT, defaultIndex.getSamplingShift());
+        for (int samplingShift : new int[]{FMIndex.DENSE_SAMPLING_SHIFT, 1, 5}) {
+            FMIndex fmIndex = new FMIndex(null, false, null, peptideVariantsPreferences, 1, samplingShift);
+            Assert.assertEquals(samplingShift, fmIndex.getSamplingShift());
+            Assert.assertTrue((fmIndex.getSampledSuffixArrayBytes() < defaultIndex.getSampledSuffixArrayBytes()) == (samplingShift > FMIndex.DEFAULT_SAMPLING_SHIFT));
+            for (String peptide : peptides) {
+                HashMap<String, HashMap<String, ArrayList<Integer>>> defaultIndexes = PeptideProteinMapping.getPeptideProteinIndexesMap(defaultIndex.getProteinMapping(peptide, sequenceMatchingPreferences));
+                HashMap<String, HashMap<String, ArrayList<Integer>>> indexes = PeptideProteinMapping.getPeptideProteinIndexesMap(fmIndex.getProteinMapping(peptide, sequenceMatchingPreferences));
+                for (HashMap<String, ArrayList<Integer>> proteinIndexes : defaultIndexes.values()) {
+                    for (ArrayList<Integer> proteinIndex : proteinIndexes.values()) {
+                        Collections.sort(proteinIndex);
+                    }
+                }
+                for (HashMap<String, ArrayList<Integer>> proteinIndexes : indexes.values()) {
+                    for (ArrayList<Integer> proteinIndex : proteinIndexes.values()) {
+                        Collections.sort(proteinIndex);
+                    }
+                }
+                Assert.assertTrue(defaultIndexes.equals(indexes));
+            }
+        }
+    }
+}
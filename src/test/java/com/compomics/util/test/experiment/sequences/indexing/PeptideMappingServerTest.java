@@ -0,0 +1,170 @@
+package com.compomics.util.test.experiment.sequences.indexing;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.identification.identification_parameters.PtmSettings;
+import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.experiment.identification.protein_inference.PeptideProteinMapping;
+import com.compomics.util.experiment.identification.protein_inference.executable.PeptideMappingServer;
+import com.compomics.util.experiment.identification.protein_inference.fm_index.FMIndex;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import com.compomics.util.preferences.PeptideVariantsPreferences;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the requests and responses of the peptide mapping server.
+ *
+ * @author Dominik Kopczynski
+ */
+public class PeptideMappingServerTest extends TestCase {
+
+    /**
+     * Temporary folder where the FASTA file is copied, the index is written
+     * next to it.
+     */
+    private File tempFolder;
+    /**
+     * The index.
+     */
+    private FMIndex fmIndex;
+    /**
+     * The sequence matching preferences.
+     */
+    private SequenceMatchingPreferences sequenceMatchingPreferences;
+    /**
+     * The server socket.
+     */
+    private ServerSocket serverSocket;
+    /**
+     * The thread serving the clients.
+     */
+    private Thread serverThread;
+
+    @Override
+    protected void setUp() throws Exception {
+        tempFolder = File.createTempFile("peptide_mapping_server_test", "");
+        tempFolder.delete();
+        tempFolder.mkdir();
+        File sequences = new File(tempFolder, "proteinTreeTestSequences");
+        Util.copyFile(new File("src/test/resources/experiment/proteinTreeTestSequences"), sequences);
+        SequenceFactory.getInstance().loadFastaFile(sequences, new WaitingHandlerCLIImpl());
+
+        SearchParameters searchParameters = new SearchParameters();
+        searchParameters.setPtmSettings(new PtmSettings());
+        searchParameters.setFragmentIonAccuracy(0.02);
+        searchParameters.setFragmentAccuracyType(SearchParameters.MassAccuracyType.DA);
+        sequenceMatchingPreferences = new SequenceMatchingPreferences();
+        sequenceMatchingPreferences.setSequenceMatchingType(SequenceMatchingPreferences.MatchingType.indistiguishableAminoAcids);
+        sequenceMatchingPreferences.setLimitX(0.25);
+        fmIndex = new FMIndex(null, false, PeptideVariantsPreferences.getNoVariantPreferences(), searchParameters);
+
+        final PeptideMappingServer server = new PeptideMappingServer(fmIndex, sequenceMatchingPreferences, searchParameters);
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName(null));
+        serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                server.serve(serverSocket, 2);
+            }
+        }, "Peptide mapping server");
+        serverThread.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        serverSocket.close();
+        serverThread.join(10000);
+        SequenceFactory.getInstance().clearFactory();
+        Util.deleteDir(tempFolder);
+    }
+
+    /**
+     * Tests that the mappings returned for pipelined requests are the ones of
+     * the index, and that malformed requests are answered by an error without
+     * closing the connection.
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    public void testRequests() throws Exception {
+        Socket socket = new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+        try {
+            socket.setSoTimeout(60000);
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"), true);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+
+            String[] peptides = new String[]{"KTAF", "SSS", "ECTQDRGKTAFTEAVLLP"};
+            for (String peptide : peptides) {
+                writer.println("peptide " + peptide.toLowerCase());
+            }
+            for (String peptide : peptides) {
+                HashSet<String> expected = new HashSet<String>();
+                for (PeptideProteinMapping peptideProteinMapping : fmIndex.getProteinMapping(peptide, sequenceMatchingPreferences)) {
+                    expected.add(peptideProteinMapping.getPeptideSequence() + "," + peptideProteinMapping.getProteinAccession() + "," + peptideProteinMapping.getIndex());
+                }
+                ArrayList<String> response = readResponse(reader);
+                String last = response.remove(response.size() - 1);
+                Assert.assertEquals("done " + expected.size(), last);
+                Assert.assertEquals(expected, new HashSet<String>(response));
+            }
+
+            writer.println("peptide KT1AF");
+            ArrayList<String> response = readResponse(reader);
+            Assert.assertEquals(1, response.size());
+            Assert.assertEquals("error invalid peptide 'KT1AF'", response.get(0));
+
+            writer.println("tag KT,1.2.3,AF");
+            response = readResponse(reader);
+            Assert.assertEquals(1, response.size());
+            Assert.assertEquals("error no valid tag 'KT,1.2.3,AF'", response.get(0));
+
+            writer.println("unknown SSS");
+            response = readResponse(reader);
+            Assert.assertEquals(1, response.size());
+            Assert.assertEquals("error unknown request 'unknown'", response.get(0));
+
+            writer.println("stats");
+            response = readResponse(reader);
+            Assert.assertEquals(2, response.size());
+            Assert.assertTrue(response.get(0).contains(" peptides=3 "));
+            Assert.assertTrue(response.get(0).contains(" errors=3 "));
+            Assert.assertEquals("done 0", response.get(1));
+
+            writer.println("quit");
+            Assert.assertNull(reader.readLine());
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Reads the response to a request.
+     *
+     * @param reader the reader of the socket
+     *
+     * @return the lines of the response including the final line
+     *
+     * @throws Exception exception thrown whenever an error occurred
+     */
+    private static ArrayList<String> readResponse(BufferedReader reader) throws Exception {
+        ArrayList<String> lines = new ArrayList<String>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+            if (line.startsWith("done ") || line.startsWith("error ")) {
+                return lines;
+            }
+        }
+        throw new IllegalStateException("Connection closed before the end of the response.");
+    }
+}
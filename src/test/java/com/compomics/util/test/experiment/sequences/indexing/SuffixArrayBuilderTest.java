@@ -0,0 +1,166 @@
+package com.compomics.util.test.experiment.sequences.indexing;
+
+import com.compomics.util.experiment.biology.AminoAcid;
+import com.compomics.util.experiment.identification.protein_inference.fm_index.SuffixArrayBuilder;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the suffix arrays built by induced sorting against the suffix arrays
+ * obtained by sorting the suffixes.
+ *
+ * @author Dominik Kopczynski
+ */
+public class SuffixArrayBuilderTest extends TestCase {
+
+    /**
+     * Byte values covering both ends of the signed and unsigned ranges.
+     */
+    private static final byte[] BYTE_VALUES = new byte[]{0, 1, '$', '/', 'A', 'Z', 127, (byte) 128, (byte) 200, (byte) 255};
+
+    /**
+     * Tests the empty text and all texts of one and two characters.
+     */
+    public void testShortTexts() {
+        Assert.assertEquals(0, SuffixArrayBuilder.buildSuffixArray(new byte[0]).length);
+        for (byte a : BYTE_VALUES) {
+            checkSuffixArray(new byte[]{a});
+            for (byte b : BYTE_VALUES) {
+                checkSuffixArray(new byte[]{a, b});
+            }
+        }
+    }
+
+    /**
+     * Tests texts made of a single repeated character and periodic texts.
+     */
+    public void testRepetitiveTexts() {
+        for (int length = 1; length <= 300; ++length) {
+            checkSuffixArray(repeat(new byte[]{'A'}, length));
+            checkSuffixArray(repeat(new byte[]{(byte) 255}, length));
+        }
+        byte[][] periods = new byte[][]{
+            "AB".getBytes(), "BA".getBytes(), "AAB".getBytes(), "ABB".getBytes(),
+            "ABC".getBytes(), "CBA".getBytes(), "ABAAB".getBytes(), "MKWVTFISLL".getBytes()};
+        for (byte[] period : periods) {
+            for (int length : new int[]{period.length, 2 * period.length + 1, 100, 1001, 2048}) {
+                byte[] text = repeat(period, length);
+                checkSuffixArray(text);
+                text[length - 1] = '$';
+                checkSuffixArray(text);
+            }
+        }
+    }
+
+    /**
+     * Tests random texts over alphabets of different sizes, large enough to
+     * go through several levels of reduced problems.
+     */
+    public void testRandomTexts() {
+        Random random = new Random(1);
+        for (int alphabetSize : new int[]{2, 4, 20, 256}) {
+            for (int length : new int[]{3, 10, 100, 1000, 50000}) {
+                byte[] text = new byte[length];
+                for (int i = 0; i < length; ++i) {
+                    text[i] = (byte) random.nextInt(alphabetSize);
+                }
+                checkSuffixArray(text);
+            }
+        }
+    }
+
+    /**
+     * Tests texts laid out like the index parts: proteins separated by
+     * delimiters and terminated by a sentinel smaller than all other
+     * characters, the suffix of the sentinel being first.
+     */
+    public void testSentinel() {
+        Random random = new Random(2);
+        char[] aminoAcids = AminoAcid.getAminoAcids();
+        for (int length : new int[]{2, 3, 50, 5000}) {
+            byte[] text = new byte[length];
+            for (int i = 0; i < length - 1; ++i) {
+                text[i] = (byte) (random.nextInt(50) == 0 ? '/' : aminoAcids[random.nextInt(aminoAcids.length)]);
+            }
+            text[length - 1] = '$';
+            int[] suffixArray = checkSuffixArray(text);
+            Assert.assertEquals(length - 1, suffixArray[0]);
+
+            text[length - 1] = 0;
+            suffixArray = checkSuffixArray(text);
+            Assert.assertEquals(length - 1, suffixArray[0]);
+        }
+    }
+
+    /**
+     * Builds the suffix array of the given text and compares it to the
+     * suffix array obtained by sorting the suffixes.
+     *
+     * @param text the text
+     *
+     * @return the suffix array
+     */
+    private static int[] checkSuffixArray(byte[] text) {
+        int[] suffixArray = SuffixArrayBuilder.buildSuffixArray(text);
+        int[] expected = naiveSuffixArray(text);
+        if (!Arrays.equals(expected, suffixArray)) {
+            fail("Wrong suffix array for text of length " + text.length + ": " + Arrays.toString(Arrays.copyOf(text, Math.min(text.length, 20))));
+        }
+        return suffixArray;
+    }
+
+    /**
+     * Returns the suffix array of the given text by sorting its suffixes, the
+     * characters being compared unsigned.
+     *
+     * @param text the text
+     *
+     * @return the suffix array
+     */
+    private static int[] naiveSuffixArray(final byte[] text) {
+        Integer[] suffixes = new Integer[text.length];
+        for (int i = 0; i < text.length; ++i) {
+            suffixes[i] = i;
+        }
+        Arrays.sort(suffixes, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                int i = o1, j = o2;
+                while (i < text.length && j < text.length) {
+                    int difference = (text[i] & 0xFF) - (text[j] & 0xFF);
+                    if (difference != 0) {
+                        return difference;
+                    }
+                    ++i;
+                    ++j;
+                }
+                // a suffix which is a prefix of the other comes first
+                return (text.length - i) - (text.length - j);
+            }
+        });
+        int[] suffixArray = new int[text.length];
+        for (int i = 0; i < text.length; ++i) {
+            suffixArray[i] = suffixes[i];
+        }
+        return suffixArray;
+    }
+
+    /**
+     * Returns a text of the given length repeating the given period.
+     *
+     * @param period the period
+     * @param length the length of the text
+     *
+     * @return the text
+     */
+    private static byte[] repeat(byte[] period, int length) {
+        byte[] text = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            text[i] = period[i % period.length];
+        }
+        return text;
+    }
+}